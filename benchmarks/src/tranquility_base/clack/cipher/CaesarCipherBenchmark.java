@@ -0,0 +1,80 @@
+package tranquility_base.clack.cipher;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks CaesarCipher encryption and decryption, across
+ * alphabet sizes and input lengths.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CaesarCipherBenchmark {
+
+    /** Number of characters in the cipher's alphabet. */
+    @Param({"26", "52", "95"})
+    int alphabetSize;
+
+    /** Number of characters in the text to encrypt. */
+    @Param({"64", "4096", "1048576"})
+    int length;
+
+    CaesarCipher cipher;
+    String clearText;
+    String cipherText;
+
+    @Setup
+    public void setUp() {
+        String alphabet;
+        switch (alphabetSize) {
+            case 26:
+                alphabet = CaesarCipher.DEFAULT_ALPHABET;
+                break;
+            case 52:
+                alphabet = CaesarCipher.DEFAULT_ALPHABET
+                        + CaesarCipher.DEFAULT_ALPHABET.toLowerCase();
+                break;
+            case 95:
+                StringBuilder printable = new StringBuilder();
+                for (char ch = ' '; ch <= '~'; ++ch) {
+                    printable.append(ch);
+                }
+                alphabet = printable.toString();
+                break;
+            default:
+                throw new IllegalArgumentException("no alphabet of size " + alphabetSize);
+        }
+        cipher = new CaesarCipher(7, alphabet);
+
+        // Printable ASCII text, so some chars are outside the
+        // smaller alphabets.
+        Random random = new Random(42);
+        char[] chars = new char[length];
+        for (int i = 0; i < length; ++i) {
+            chars[i] = (char) (' ' + random.nextInt('~' - ' ' + 1));
+        }
+        clearText = new String(chars);
+        cipherText = cipher.encrypt(clearText);
+    }
+
+    @Benchmark
+    public String encrypt() {
+        return cipher.encrypt(clearText);
+    }
+
+    @Benchmark
+    public String decrypt() {
+        return cipher.decrypt(cipherText);
+    }
+
+    @Benchmark
+    public String encryptParallel() {
+        return cipher.encryptParallel(clearText);
+    }
+}
@@ -0,0 +1,35 @@
+package tranquility_base.clack.endpoint;
+
+import org.openjdk.jmh.annotations.*;
+import tranquility_base.clack.message.Message;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks Client.parseUserInput() on the kinds of line scripted
+ * clients send most: text, and commands that read no files.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CommandParserBenchmark {
+
+    /** The line to parse. */
+    @Param({"hello, everyone, how is it going today?", "LIST USERS", "list", "SEND FILE"})
+    String input;
+
+    Client client;
+
+    @Setup
+    public void setUp() {
+        client = new Client("user");
+    }
+
+    @Benchmark
+    public Message parse() {
+        return client.parseUserInput(input);
+    }
+}
@@ -0,0 +1,65 @@
+package tranquility_base.clack.message;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks FileMessage.readFile() and writeFile(), for small
+ * and large files.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FileMessageBenchmark {
+
+    /** Size of the file, in bytes. */
+    @Param({"1024", "1048576", "16777216"})
+    int fileSize;
+
+    Path source;
+    FileMessage readMessage;
+    FileMessage writeMessage;
+
+    @Setup
+    public void setUp() throws IOException {
+        StringBuilder contents = new StringBuilder(fileSize);
+        while (contents.length() < fileSize) {
+            contents.append("The quick brown fox jumps over the lazy dog.\n");
+        }
+        contents.setLength(fileSize);
+
+        source = Files.createTempFile("clack-bench-", ".txt");
+        Files.writeString(source, contents);
+
+        readMessage = new FileMessage("user", source.toString());
+        // writeFile() writes to the working directory.
+        writeMessage = new FileMessage("user", source.toString(),
+                "clack-bench-" + fileSize + ".txt");
+        writeMessage.readFile();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(source);
+        Files.deleteIfExists(Path.of(writeMessage.getFileSaveAsName()));
+    }
+
+    @Benchmark
+    public String readFile() throws IOException {
+        readMessage.readFile();
+        return readMessage.getFileContents();
+    }
+
+    @Benchmark
+    public FileMessage writeFile() throws IOException {
+        writeMessage.writeFile();
+        return writeMessage;
+    }
+}
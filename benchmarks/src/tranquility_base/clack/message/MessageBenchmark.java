@@ -0,0 +1,118 @@
+package tranquility_base.clack.message;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the methods every Message subclass overrides
+ * (toString, hashCode, equals), and MessageCodec encoding and
+ * decoding, for each subclass and two payload sizes. Payloads are
+ * all one character, so compressed encoding shows the cost of
+ * compression at its most effective.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MessageBenchmark {
+
+    /** Which Message subclass to benchmark. */
+    @Param({"TEXT", "FILE", "FILECHUNK", "HELP", "LISTUSERS", "LOGOUT"})
+    String msgType;
+
+    /**
+     * Characters of text, file contents, or bytes of chunk, in the
+     * message. Ignored by message types with no payload.
+     */
+    @Param({"64", "1048576"})
+    int payloadSize;
+
+    Message msg;
+    // Equal to msg, but a different object.
+    Message copy;
+
+    MessageCodec codec;
+    ByteBuffer buf;
+
+    @Setup
+    public void setUp() throws IOException {
+        String payload = "x".repeat(payloadSize);
+        switch (msgType) {
+            case "TEXT":
+                msg = new TextMessage("user", payload);
+                break;
+            case "FILE":
+                Path temp = Files.createTempFile("clack-bench-", ".txt");
+                Files.writeString(temp, payload);
+                FileMessage fileMessage = new FileMessage("user", temp.toString());
+                fileMessage.readFile();
+                Files.delete(temp);
+                msg = fileMessage;
+                break;
+            case "FILECHUNK":
+                msg = new FileChunkMessage("user", "file.bin", 0, 0,
+                        payloadSize, new byte[payloadSize]);
+                break;
+            case "HELP":
+                msg = new HelpMessage("user", "extra help");
+                break;
+            case "LISTUSERS":
+                msg = new ListUsersMessage("user");
+                break;
+            case "LOGOUT":
+                msg = new LogoutMessage("user");
+                break;
+            default:
+                throw new IllegalArgumentException("unknown msgType " + msgType);
+        }
+
+        codec = new MessageCodec();
+        buf = ByteBuffer.allocateDirect(2 * payloadSize + 4096);
+        codec.encode(msg, buf);
+        buf.flip();
+        copy = codec.decode(buf);
+        buf.clear();
+    }
+
+    @Benchmark
+    public String toStringBenchmark() {
+        return msg.toString();
+    }
+
+    @Benchmark
+    public int hashCodeBenchmark() {
+        return msg.hashCode();
+    }
+
+    @Benchmark
+    public boolean equalsBenchmark() {
+        return msg.equals(copy);
+    }
+
+    @Benchmark
+    public int encode() {
+        buf.clear();
+        return codec.encode(msg, buf);
+    }
+
+    @Benchmark
+    public int encodeCompressed() {
+        buf.clear();
+        return codec.encode(msg, buf, true);
+    }
+
+    @Benchmark
+    public Message encodeDecode() {
+        buf.clear();
+        codec.encode(msg, buf);
+        buf.flip();
+        return codec.decode(buf);
+    }
+}
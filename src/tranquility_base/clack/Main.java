@@ -1,10 +1,63 @@
 package tranquility_base.clack;
 
 import tranquility_base.clack.endpoint.Client;
+import tranquility_base.clack.endpoint.Server;
+import tranquility_base.clack.history.History;
+
+import java.io.IOException;
+import java.nio.file.Path;
 
 public class Main {
-    public static void main(String[] args) {
+    /**
+     * Starts a Clack client, or with "server" as the first
+     * argument, a Clack server:
+     * <pre>
+     *   Main                              client, as user "testuser"
+     *   Main history dir                  client, keeping the messages
+     *                                     it receives in a journal in dir
+     *   Main server [port [selector|virtual [block|drop|disconnect]]]
+     *                                     server, on the given or default
+     *                                     port, in the given mode
+     *                                     (default selector), with the
+     *                                     given slow-consumer policy
+     *                                     (default block)
+     * </pre>
+     *
+     * @param args command-line arguments.
+     * @throws IOException if the server cannot be started, or the
+     *                     history cannot be opened.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length > 0 && args[0].equalsIgnoreCase("server")) {
+            int port = args.length > 1
+                    ? Integer.parseInt(args[1])
+                    : Client.DEFAULT_SERVER_PORT;
+            Server.Mode mode = Server.Mode.SELECTOR;
+            if (args.length > 2 && args[2].equalsIgnoreCase("virtual")) {
+                mode = Server.Mode.VIRTUAL_THREADS;
+            }
+            Server.SlowConsumerPolicy policy = Server.SlowConsumerPolicy.BLOCK;
+            if (args.length > 3 && args[3].equalsIgnoreCase("drop")) {
+                policy = Server.SlowConsumerPolicy.DROP_OLDEST_TEXT;
+            } else if (args.length > 3 && args[3].equalsIgnoreCase("disconnect")) {
+                policy = Server.SlowConsumerPolicy.DISCONNECT;
+            }
+            Server server = Server.create(mode, port);
+            server.setSlowConsumerPolicy(policy);
+            server.start();
+            System.out.println("Clack server listening on port "
+                    + server.getLocalPort() + " (" + mode + ", " + policy + ")");
+            return;
+        }
+
         Client client = new Client("testuser");
+        if (args.length > 1 && args[0].equalsIgnoreCase("history")) {
+            try (History history = new History(Path.of(args[1]))) {
+                client.setHistory(history);
+                client.start();
+            }
+            return;
+        }
         client.start();
     }
 }
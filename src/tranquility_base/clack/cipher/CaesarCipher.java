@@ -1,15 +1,38 @@
 package tranquility_base.clack.cipher;
 
+import java.io.FilterReader;
+import java.io.FilterWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.CharBuffer;
 import java.util.Arrays;
 import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 public class CaesarCipher {
 
     public static final String DEFAULT_ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZ";
 
+    /**
+     * Strings shorter than this are not worth splitting up, so
+     * encryptParallel() and decryptParallel() handle them on the
+     * calling thread. It is also the size of the pieces that longer
+     * strings are split into.
+     */
+    public static final int PARALLEL_THRESHOLD = 256 * 1024;
+
     private final int key;
     private final String alphabet;
 
+    // Translation tables, indexed by char. Each entry is what that
+    // char becomes; chars not in the alphabet map to themselves.
+    // Chars beyond the end of a table (i.e., above the alphabet's
+    // highest char) are not in the alphabet, so are left as-is.
+    private final char[] encryptTable;
+    private final char[] decryptTable;
+
     /**
      * Constructs a CaesarCipher object with the given key
      * and alphabet.
@@ -37,6 +60,8 @@ public class CaesarCipher {
         // Ensure key is in range 0 .. alphabet.length() - 1.
         this.key = ((key % alphabet.length()) + alphabet.length()) % alphabet.length();
         this.alphabet = alphabet;
+        this.encryptTable = buildTable(alphabet, this.key);
+        this.decryptTable = buildTable(alphabet, alphabet.length() - this.key);
     }
 
     /**
@@ -63,7 +88,7 @@ public class CaesarCipher {
      * @return the encryption of the cleartext.
      */
     public String encrypt(String clearText) {
-        return shiftChars(clearText, key);
+        return translate(clearText, encryptTable);
     }
 
     /**
@@ -73,40 +98,318 @@ public class CaesarCipher {
      * @return the decryption of the ciphertext.
      */
     public String decrypt(String cipherText) {
-        return shiftChars(cipherText, -key);
+        return translate(cipherText, decryptTable);
+    }
+
+    /**
+     * Encrypts a string, like encrypt(String), but splits long strings
+     * into pieces that are encrypted in parallel on the common
+     * ForkJoinPool. The result is identical to encrypt(String).
+     * @param clearText the string to encrypt.
+     * @return the encryption of the cleartext.
+     */
+    public String encryptParallel(String clearText) {
+        return translateParallel(clearText, encryptTable);
+    }
+
+    /**
+     * Decrypts a string, like decrypt(String), but splits long strings
+     * into pieces that are decrypted in parallel on the common
+     * ForkJoinPool. The result is identical to decrypt(String).
+     * @param cipherText the string to decrypt.
+     * @return the decryption of the ciphertext.
+     */
+    public String decryptParallel(String cipherText) {
+        return translateParallel(cipherText, decryptTable);
+    }
+
+    /**
+     * Encrypts characters from one buffer into another. As many
+     * characters are encrypted as are remaining in clearText, or as
+     * will fit in cipherText, whichever is fewer; both buffers'
+     * positions are advanced past them. Call again (e.g., after
+     * draining cipherText) to carry on with the rest.
+     * @param clearText the characters to encrypt.
+     * @param cipherText where to put the encrypted characters.
+     */
+    public void encrypt(CharBuffer clearText, CharBuffer cipherText) {
+        translate(clearText, cipherText, encryptTable);
+    }
+
+    /**
+     * Decrypts characters from one buffer into another. As many
+     * characters are decrypted as are remaining in cipherText, or as
+     * will fit in clearText, whichever is fewer; both buffers'
+     * positions are advanced past them.
+     * @param cipherText the characters to decrypt.
+     * @param clearText where to put the decrypted characters.
+     */
+    public void decrypt(CharBuffer cipherText, CharBuffer clearText) {
+        translate(cipherText, clearText, decryptTable);
+    }
+
+    /**
+     * Returns a Writer that encrypts everything written to it and
+     * passes the result on to another Writer. Memory use is constant,
+     * however much is written. Closing the returned Writer closes out.
+     * @param out where to write the encrypted text.
+     * @return a Writer that accepts cleartext.
+     */
+    public Writer encryptingWriter(Writer out) {
+        return new TranslatingWriter(out, encryptTable);
+    }
+
+    /**
+     * Returns a Writer that decrypts everything written to it and
+     * passes the result on to another Writer. Memory use is constant,
+     * however much is written. Closing the returned Writer closes out.
+     * @param out where to write the decrypted text.
+     * @return a Writer that accepts ciphertext.
+     */
+    public Writer decryptingWriter(Writer out) {
+        return new TranslatingWriter(out, decryptTable);
+    }
+
+    /**
+     * Returns a Reader that reads from another Reader and encrypts
+     * what it reads. Closing the returned Reader closes in.
+     * @param in where to read the cleartext from.
+     * @return a Reader that supplies ciphertext.
+     */
+    public Reader encryptingReader(Reader in) {
+        return new TranslatingReader(in, encryptTable);
+    }
+
+    /**
+     * Returns a Reader that reads from another Reader and decrypts
+     * what it reads. Closing the returned Reader closes in.
+     * @param in where to read the ciphertext from.
+     * @return a Reader that supplies cleartext.
+     */
+    public Reader decryptingReader(Reader in) {
+        return new TranslatingReader(in, decryptTable);
+    }
+
+    /**
+     * Builds a translation table that shifts each alphabet character
+     * along the alphabet by the given amount, and leaves all other
+     * characters unchanged.
+     * @param alphabet the characters to shift.
+     * @param shift the amount of the shift, in range 0 .. alphabet.length() - 1.
+     * @return the translation table.
+     */
+    private static char[] buildTable(String alphabet, int shift) {
+        char maxChar = 0;
+        for (int i = 0; i < alphabet.length(); ++i) {
+            maxChar = (char) Math.max(maxChar, alphabet.charAt(i));
+        }
+
+        char[] table = new char[maxChar + 1];
+        for (int ch = 0; ch < table.length; ++ch) {
+            table[ch] = (char) ch;
+        }
+        for (int loc = 0; loc < alphabet.length(); ++loc) {
+            int shiftedLoc = (loc + shift) % alphabet.length();
+            table[alphabet.charAt(loc)] = alphabet.charAt(shiftedLoc);
+        }
+        return table;
     }
 
     /**
      * Returns the string str, but with each character
-     * shifted along the alphabet by the given amount.
-     * Characters in the string that are not in the alphabet
-     * are left as-is. If str is null, the null string is returned.
-     * @param str the string to shift.
-     * @param shift the amount of the shift.
+     * replaced by its entry in the translation table.
+     * Characters beyond the end of the table are left
+     * as-is. If str is null, the null string is returned.
+     * @param str the string to translate.
+     * @param table the translation table to use.
      * @return the string str, but with all alphabet
      * characters shifted.
      */
-    private String shiftChars(String str, int shift) {
+    private static String translate(String str, char[] table) {
         if (str == null) {
             return null;
         }
 
-        char[] shiftedChars = new char[str.length()];
+        char[] chars = str.toCharArray();
+        for (int i = 0; i < chars.length; ++i) {
+            char ch = chars[i];
+            if (ch < table.length) {
+                chars[i] = table[ch];
+            }
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Like translate(String, char[]), but splits strings of at least
+     * PARALLEL_THRESHOLD chars into pieces translated in parallel.
+     * @param str the string to translate.
+     * @param table the translation table to use.
+     * @return the translated string.
+     */
+    private static String translateParallel(String str, char[] table) {
+        if (str == null || str.length() < PARALLEL_THRESHOLD) {
+            return translate(str, table);
+        }
+        char[] chars = new char[str.length()];
+        ForkJoinPool.commonPool().invoke(
+                new TranslateTask(str, chars, 0, chars.length, table));
+        return new String(chars);
+    }
+
+    /**
+     * Translates the chars in one range of a string into the same
+     * range of an array, splitting the range in two until the pieces
+     * are no bigger than PARALLEL_THRESHOLD. Each piece writes only
+     * its own part of the array, so no locking is needed.
+     */
+    private static class TranslateTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final String src;
+        private final char[] dst;
+        private final int from;
+        private final int to;
+        private final char[] table;
 
-        // Ensure shift is in range 0 .. alphabet.length() - 1.
-        shift = ((shift % alphabet.length()) + alphabet.length()) % alphabet.length();
+        TranslateTask(String src, char[] dst, int from, int to, char[] table) {
+            this.src = src;
+            this.dst = dst;
+            this.from = from;
+            this.to = to;
+            this.table = table;
+        }
 
-        for (int i = 0; i < str.length(); ++i) {
-            char ch = str.charAt(i);
-            int loc = alphabet.indexOf(ch);
-            if (loc == -1) {
-                shiftedChars[i] = ch;
+        @Override
+        protected void compute() {
+            if (to - from <= PARALLEL_THRESHOLD) {
+                src.getChars(from, to, dst, from);
+                for (int i = from; i < to; ++i) {
+                    char ch = dst[i];
+                    if (ch < table.length) {
+                        dst[i] = table[ch];
+                    }
+                }
             } else {
-                int shiftedLoc = (loc + shift) % alphabet.length();
-                shiftedChars[i] = alphabet.charAt(shiftedLoc);
+                int mid = (from + to) >>> 1;
+                invokeAll(new TranslateTask(src, dst, from, mid, table),
+                        new TranslateTask(src, dst, mid, to, table));
+            }
+        }
+    }
+
+    /**
+     * Translates chars from src into dst, as many as are remaining
+     * in src or will fit in dst, whichever is fewer.
+     * @param src the characters to translate.
+     * @param dst where to put the translated characters.
+     * @param table the translation table to use.
+     */
+    private static void translate(CharBuffer src, CharBuffer dst, char[] table) {
+        int n = Math.min(src.remaining(), dst.remaining());
+        if (src.hasArray() && dst.hasArray()) {
+            char[] in = src.array();
+            char[] out = dst.array();
+            int inPos = src.arrayOffset() + src.position();
+            int outPos = dst.arrayOffset() + dst.position();
+            for (int i = 0; i < n; ++i) {
+                char ch = in[inPos + i];
+                out[outPos + i] = ch < table.length ? table[ch] : ch;
+            }
+            src.position(src.position() + n);
+            dst.position(dst.position() + n);
+        } else {
+            for (int i = 0; i < n; ++i) {
+                char ch = src.get();
+                dst.put(ch < table.length ? table[ch] : ch);
+            }
+        }
+    }
+
+    /**
+     * A Reader that translates every char it reads from another Reader.
+     * Chars are translated in place in the caller's array, so nothing
+     * extra is buffered.
+     */
+    private static class TranslatingReader extends FilterReader {
+        private final char[] table;
+
+        TranslatingReader(Reader in, char[] table) {
+            super(in);
+            this.table = table;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int ch = in.read();
+            return (ch >= 0 && ch < table.length) ? table[ch] : ch;
+        }
+
+        @Override
+        public int read(char[] cbuf, int off, int len) throws IOException {
+            int n = in.read(cbuf, off, len);
+            for (int i = off; i < off + n; ++i) {
+                char ch = cbuf[i];
+                if (ch < table.length) {
+                    cbuf[i] = table[ch];
+                }
+            }
+            return n;
+        }
+    }
+
+    /**
+     * A Writer that translates every char written to it before passing
+     * it on to another Writer. The caller's chars are never modified;
+     * they are translated through a small fixed-size buffer instead.
+     */
+    private static class TranslatingWriter extends FilterWriter {
+        private static final int BUFFER_SIZE = 1024;
+
+        private final char[] table;
+        private final char[] buffer = new char[BUFFER_SIZE];
+
+        TranslatingWriter(Writer out, char[] table) {
+            super(out);
+            this.table = table;
+        }
+
+        @Override
+        public void write(int c) throws IOException {
+            char ch = (char) c;
+            out.write(ch < table.length ? table[ch] : ch);
+        }
+
+        @Override
+        public void write(char[] cbuf, int off, int len) throws IOException {
+            while (len > 0) {
+                int n = Math.min(len, buffer.length);
+                for (int i = 0; i < n; ++i) {
+                    char ch = cbuf[off + i];
+                    buffer[i] = ch < table.length ? table[ch] : ch;
+                }
+                out.write(buffer, 0, n);
+                off += n;
+                len -= n;
+            }
+        }
+
+        @Override
+        public void write(String str, int off, int len) throws IOException {
+            while (len > 0) {
+                int n = Math.min(len, buffer.length);
+                str.getChars(off, off + n, buffer, 0);
+                for (int i = 0; i < n; ++i) {
+                    char ch = buffer[i];
+                    if (ch < table.length) {
+                        buffer[i] = table[ch];
+                    }
+                }
+                out.write(buffer, 0, n);
+                off += n;
+                len -= n;
             }
         }
-        return new String(shiftedChars);
     }
 
     @Override
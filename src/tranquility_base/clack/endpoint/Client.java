@@ -1,13 +1,32 @@
 package tranquility_base.clack.endpoint;
 
+import tranquility_base.clack.history.History;
 import tranquility_base.clack.message.*;
+import tranquility_base.clack.transfer.ContentChunker;
+import tranquility_base.clack.transfer.FileAssembler;
+import tranquility_base.clack.transfer.FileChunker;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.util.Arrays;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
-public class Client {
+public final class Client {
     /**
      * Default port for connecting to server. This should be
      * a port listed as "unassigned" in
@@ -20,6 +39,34 @@ public class Client {
      */
     public static final String DEFAULT_SERVER_NAME = "localhost";
 
+    /**
+     * Files larger than this many bytes are sent in chunks rather
+     * than read whole into a single FileMessage: 1 MiB.
+     */
+    public static final long DEFAULT_STREAMING_THRESHOLD = 1024 * 1024;
+
+    /**
+     * Maximum number of characters of a message's payload shown
+     * in diagnostic output.
+     */
+    public static final int DIAGNOSTIC_MAX_CHARS = 200;
+
+    /**
+     * How long, after sending LOGOUT, to wait for the server to
+     * acknowledge it before disconnecting anyway.
+     */
+    public static final long LOGOUT_TIMEOUT_MILLIS = 5000;
+
+    /**
+     * Number of messages from the history shown on starting, and by
+     * HISTORY without a count.
+     */
+    public static final int HISTORY_LINES = 20;
+
+    // How HISTORY shows each message's timestamp.
+    private static final DateTimeFormatter HISTORY_TIME_FORMAT =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
     private final String prompt;
     private final String serverName;
     private final int serverPort;
@@ -27,7 +74,41 @@ public class Client {
     private final Scanner inputScanner = new Scanner(System.in);
 
     private Message messageToSend;
-    private Message messageReceived;
+    // Set by the receiver thread, when there is a server.
+    private volatile Message messageReceived;
+    private volatile boolean loggedOut;
+    private volatile boolean disconnecting;
+    // Null when no server could be reached; messages are then
+    // "received" straight back from ourselves. Set once, by connect(),
+    // before the receiver thread starts, and never cleared, so the
+    // receiver thread can use it until the end.
+    private Connection connection;
+    // Sends on connection, from a thread of its own; null when
+    // connection is.
+    private OutboundWriter writer;
+
+    private long streamingThreshold = DEFAULT_STREAMING_THRESHOLD;
+    private int chunkSize = FileChunker.DEFAULT_CHUNK_SIZE;
+    private int flushBytes = OutboundWriter.DEFAULT_FLUSH_BYTES;
+    private long flushDelayMicros = OutboundWriter.DEFAULT_FLUSH_DELAY_MICROS;
+    private boolean compression = true;
+    private boolean dedup = true;
+    private boolean resume = true;
+    // Where received messages are kept; null to keep none.
+    private History history;
+    // Set by the receiver thread, once the server agrees.
+    private volatile boolean dedupAgreed;
+    private volatile boolean resumeAgreed;
+    // Files sent by manifest or resumably, and not yet finished, by
+    // save-as name; only one at a time per name (see isUploading()).
+    private final Map<String, Upload> uploads = new ConcurrentHashMap<>();
+    // Files being received in chunks, keyed by sender and save-as name.
+    private final Map<String, FileAssembler> assemblies = new HashMap<>();
+    // Reused for each line of diagnostic output.
+    private final StringBuilder diagnostic = new StringBuilder();
+    // Numbers this client's messages.
+    private final SenderSequence sequence = new SenderSequence();
+    private final CommandParser commandParser = new CommandParser(sequence);
 
     /**
      * Full constructor, allowing specification of username,
@@ -42,6 +123,7 @@ public class Client {
         this.serverName = serverName;
         this.serverPort = serverPort;
         this.prompt = serverName + "> ";
+        registerCommands();
     }
 
     /**
@@ -78,125 +160,708 @@ public class Client {
 
     /**
      * The client's REPL loop. Prompt for input, build
-     * message from it, send message and receive/process
-     * the reply, print info for user; repeat until
-     * user enters "LOGOUT".
+     * message from it, send message, print info for user;
+     * repeat until user enters "LOGOUT".
+     * <p>
+     * With a server, messages from it are received and processed
+     * on a receiver thread of their own, as soon as they arrive,
+     * however long the user takes to type the next line. When
+     * running locally, each message sent is processed as the
+     * message received, before the next line is read.
      */
     public void start() {
-        do {
-            messageToSend = readUserInput();
-
-            if (messageToSend.getMsgType() == Message.MSGTYPE_HELP) {
-                System.out.println(messageToSend.getData()[0]);
-                continue;
-            }
-            // At this point we have a valid (non-help) message.
-
-            // HERE IS WHERE WE SEND IT.
-            // Careful -- this creates two references to same object.
-            messageReceived = messageToSend;
-
-            // HERE IS WHERE WE PROCESS THE RESPONSE.
-            String[] data = messageReceived.getData();
-            switch (messageReceived.getMsgType()) {
-                case Message.MSGTYPE_FILE:
-                    FileMessage fileMessage = (FileMessage) messageReceived;
-                    System.out.println("Writing file " + data[1] + " ...");
-                    try {
-                        fileMessage.writeFile();
-                        System.out.println("File written.");
-                    } catch (FileNotFoundException e) {
-                        System.out.println("Could not write file " + data[1] + ". " + e);
-                    }
-                    break;
-                case Message.MSGTYPE_LOGOUT:
-                    System.out.println("Logged out.");
-                    break;
-                case Message.MSGTYPE_LISTUSERS:
-                    System.out.println("In production this will be a users list.");
-                    break;
-                case Message.MSGTYPE_TEXT:
-                    System.out.println(data[0]);
-                    break;
-                default:
-                    System.out.println("PROGRAM ERROR. NOTIFY DEVELOPERS.");
-            }
-
-            // TESTING OUTPUT. COMMENT OUT FOR PRODUCTION.
-            System.out.println("data received    : " + Arrays.toString(data));
-            System.out.println("message received : " + messageReceived);
-            System.out.println("received getClass: " + messageReceived.getClass());
-
-        } while (messageToSend.getMsgType() != Message.MSGTYPE_LOGOUT);
-    }
-
-    /**
-     * Parse a line of user input and create the appropriate
+        if (history != null && history.size() > 0) {
+            System.out.println("Recent history:");
+            printHistory(history.last(null, HISTORY_LINES));
+        }
+        connect();
+        Thread receiverThread = null;
+        if (connection != null) {
+            Connection receiving = connection;
+            receiverThread = Thread.ofVirtual()
+                    .name("clack-receiver")
+                    .start(() -> receiveLoop(receiving));
+        }
+        try {
+            do {
+                messageToSend = readUserInput();
+                if (receiverThread != null && !receiverThread.isAlive()) {
+                    break;      // receiveLoop() has said why
+                }
+                if (messageToSend == null) {
+                    continue;   // handled here; nothing to send
+                }
+
+                if (messageToSend.getMsgType() == Message.MSGTYPE_HELP) {
+                    System.out.println(((HelpMessage) messageToSend).getHelpText());
+                    continue;
+                }
+                // At this point we have a valid (non-help) message.
+
+                if (messageToSend.getMsgType() == Message.MSGTYPE_FILE
+                        && isSentByManifest((FileMessage) messageToSend)) {
+                    sendManifest((FileMessage) messageToSend);
+                    continue;
+                }
+
+                if (messageToSend.getMsgType() == Message.MSGTYPE_FILE
+                        && isStreamed((FileMessage) messageToSend)) {
+                    sendFile((FileMessage) messageToSend);
+                    continue;
+                }
+
+                if (messageToSend.getMsgType() == Message.MSGTYPE_LOGOUT) {
+                    awaitUploads();
+                }
+
+                // HERE IS WHERE WE SEND IT.
+                sendMessage(messageToSend);
+
+                if (connection == null) {
+                    // Running locally. Careful -- this creates two
+                    // references to same object.
+                    messageReceived = messageToSend;
+                    processMessageReceived();
+                }
+
+            } while (messageToSend == null
+                    || messageToSend.getMsgType() != Message.MSGTYPE_LOGOUT);
+
+            if (receiverThread != null) {
+                // Give the server a chance to acknowledge the logout.
+                receiverThread.join(LOGOUT_TIMEOUT_MILLIS);
+            }
+        } catch (IOException e) {
+            System.out.println("Lost connection to server. " + e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            disconnect();
+            if (receiverThread == null) {
+                // Running locally: no receiver thread to close them.
+                closeAssemblies();
+            }
+        }
+    }
+
+    /**
+     * The receiver thread's loop: process each message from the
+     * server as it arrives, until the server closes the connection,
+     * or disconnect() closes it.
+     *
+     * @param receiving the connection to the server.
+     */
+    private void receiveLoop(Connection receiving) {
+        try {
+            Message msg;
+            while ((msg = receiving.receive()) != null) {
+                messageReceived = msg;
+                processMessageReceived();
+            }
+            if (!loggedOut) {
+                System.out.println("Server closed the connection.");
+            }
+        } catch (IOException e) {
+            if (!disconnecting) {
+                System.out.println("Lost connection to server. " + e);
+            }
+        } finally {
+            closeAssemblies();
+        }
+    }
+
+    /**
+     * Close the files still being received, saving how far each
+     * resumable transfer got, so that a later client can carry on
+     * from there.
+     */
+    private void closeAssemblies() {
+        for (FileAssembler assembler : assemblies.values()) {
+            try {
+                assembler.close();
+            } catch (IOException e) {
+                System.out.println("Could not save partial file "
+                        + assembler.getPartPath() + ". " + e);
+            }
+        }
+        assemblies.clear();
+    }
+
+    /**
+     * Connect to the server, start the writer that sends to it, and
+     * ask for compression, deduplication and resumable transfers if
+     * they are wanted. If the server cannot be
+     * reached, carry on without one, with each message sent coming
+     * straight back as the message received.
+     */
+    private void connect() {
+        try {
+            connection = Connection.open(serverName, serverPort);
+            connection.setSenderSequence(sequence);
+            writer = new OutboundWriter(connection, flushBytes, flushDelayMicros);
+            int options = (compression ? OptionsMessage.OPTION_COMPRESSION : 0)
+                    | (dedup ? OptionsMessage.OPTION_DEDUP : 0)
+                    | (resume ? OptionsMessage.OPTION_RESUME : 0);
+            if (options != 0) {
+                writer.send(new OptionsMessage(username, options, sequence));
+            }
+        } catch (IOException e) {
+            System.out.println("Could not connect to " + serverName + ":"
+                    + serverPort + " (" + e.getMessage() + "). Running locally.");
+            connection = null;
+        }
+    }
+
+    /**
+     * Close the connection to the server, if there is one, once
+     * everything queued to send has been sent. The connection field
+     * is left as it is, as the receiver thread may still be using it;
+     * closing the connection ends that thread's receive().
+     */
+    private void disconnect() {
+        disconnecting = true;
+        if (writer != null) {
+            writer.close();
+            writer = null;
+        }
+        if (connection != null) {
+            try {
+                connection.close();
+            } catch (IOException e) {
+                // Nothing useful to do; we are finished with it anyway.
+            }
+        }
+    }
+
+    /**
+     * Send a message to the server. The message is queued for the
+     * writer thread, which may send it together with others. When
+     * running locally this does nothing; see receiveMessage().
+     *
+     * @param msg the message to send.
+     * @throws IOException if the connection has already failed.
+     */
+    private void sendMessage(Message msg) throws IOException {
+        if (writer != null) {
+            writer.send(msg);
+        }
+    }
+
+    /**
+     * Send a file that is too large for a single FileMessage. With
+     * a server, the file goes straight from disk to the socket in
+     * chunks, without passing through the Java heap. When running
+     * locally, the chunks are read and processed one at a time.
+     * <p>
+     * If the server has agreed to resumable transfers, it is first
+     * asked how much of the file it already has, perhaps from an
+     * earlier connection that dropped, and the rest is sent when it
+     * answers (see resumeFile()).
+     *
+     * @param fileMessage names the file to send and its save-as name.
+     * @throws IOException if the connection to the server fails.
+     */
+    private void sendFile(FileMessage fileMessage) throws IOException {
+        if (connection == null) {
+            sendFileChunks(fileMessage);
+            return;
+        }
+        if (resumeAgreed) {
+            askToResume(fileMessage);
+            return;
+        }
+        System.out.println("Sending file " + fileMessage.getFilePath() + " ...");
+        writer.sendFile(username, fileMessage.getFilePath(),
+                fileMessage.getFileSaveAsName(), chunkSize);
+        System.out.println("File sent.");
+    }
+
+    /**
+     * Send a file by manifest: describe its chunks to the server, and
+     * later, when the server asks, send the ones it does not have (see
+     * sendRequestedChunks()).
+     *
+     * @param fileMessage names the file to send and its save-as name.
+     * @throws IOException if the connection to the server has failed.
+     */
+    private void sendManifest(FileMessage fileMessage) throws IOException {
+        String filePath = fileMessage.getFilePath();
+        if (isUploading(fileMessage.getFileSaveAsName())) {
+            return;
+        }
+        FileManifestMessage manifest;
+        try {
+            manifest = ContentChunker.manifest(username, filePath,
+                    fileMessage.getFileSaveAsName(), sequence);
+        } catch (IOException e) {
+            System.out.println("Could not send file " + filePath + ". " + e);
+            return;
+        }
+        uploads.put(manifest.getFileSaveAsName(), new Upload(filePath, manifest));
+        System.out.println("Sending file " + filePath + " ("
+                + manifest.getChunkCount() + " chunks) ...");
+        sendMessage(manifest);
+    }
+
+    /**
+     * Ask the server how much of a file it already has, so as to send
+     * only the rest when it answers.
+     *
+     * @param fileMessage names the file to send and its save-as name.
+     * @throws IOException if the connection to the server has failed.
+     */
+    private void askToResume(FileMessage fileMessage) throws IOException {
+        String filePath = fileMessage.getFilePath();
+        if (isUploading(fileMessage.getFileSaveAsName())) {
+            return;
+        }
+        FileResumeMessage question;
+        try {
+            question = new FileResumeMessage(username, fileMessage.getFileSaveAsName(),
+                    FileChunker.transferId(username, filePath, fileMessage.getFileSaveAsName()),
+                    Files.size(Path.of(filePath)), new long[0], sequence);
+        } catch (IOException e) {
+            System.out.println("Could not send file " + filePath + ". " + e);
+            return;
+        }
+        uploads.put(question.getFileSaveAsName(), new Upload(filePath, null));
+        System.out.println("Sending file " + filePath + " ...");
+        sendMessage(question);
+    }
+
+    /**
+     * Tells whether a file is already being sent under a save-as name,
+     * and if so, says so. The server's answers name the file only by
+     * its save-as name, so a second file sent under the same name
+     * before the first has finished would be taken for the first.
+     *
+     * @param fileSaveAsName the save-as name to check.
+     * @return true iff a file is being sent under that name.
+     */
+    private boolean isUploading(String fileSaveAsName) {
+        if (!uploads.containsKey(fileSaveAsName)) {
+            return false;
+        }
+        System.out.println("Already sending a file as " + fileSaveAsName
+                + "; send this once that has finished.");
+        return true;
+    }
+
+    /**
+     * Send the parts of a file the server does not have, once it has
+     * answered askToResume(). As in sendRequestedChunks(), they are
+     * sent from a thread of their own.
+     *
+     * @param have the server's answer.
+     */
+    private void resumeFile(FileResumeMessage have) {
+        Upload upload = uploads.get(have.getFileSaveAsName());
+        OutboundWriter uploadWriter = writer;
+        if (upload == null || upload.manifest != null || uploadWriter == null) {
+            return;
+        }
+        Thread.ofVirtual().name("clack-upload").start(() -> {
+            try {
+                uploadWriter.resumeFile(username, upload.filePath, have, chunkSize);
+                if (have.getBytesReceived() > 0) {
+                    System.out.println("File sent (resumed after " + have.getBytesReceived()
+                            + " of " + have.getTotalLength() + " bytes).");
+                } else {
+                    System.out.println("File sent.");
+                }
+            } catch (IOException e) {
+                System.out.println("Could not send file " + upload.filePath + ". " + e);
+            } finally {
+                uploads.remove(have.getFileSaveAsName(), upload);
+                upload.done.complete(null);
+            }
+        });
+    }
+
+    /**
+     * Send the chunks the server has asked for, after a manifest. They
+     * are sent from a thread of their own, so the receiver thread can
+     * carry on receiving.
+     *
+     * @param request the server's answer to the manifest.
+     */
+    private void sendRequestedChunks(FileChunkRequestMessage request) {
+        Upload upload = uploads.get(request.getFileSaveAsName());
+        OutboundWriter uploadWriter = writer;
+        if (upload == null || upload.manifest == null || uploadWriter == null) {
+            return;
+        }
+        Thread.ofVirtual().name("clack-upload").start(() -> {
+            try {
+                uploadWriter.sendFileChunks(username, upload.filePath,
+                        upload.manifest, request);
+                System.out.println("File sent (" + request.getCount() + " of "
+                        + upload.manifest.getChunkCount() + " chunks needed).");
+            } catch (IOException e) {
+                System.out.println("Could not send file " + upload.filePath + ". " + e);
+            } finally {
+                uploads.remove(request.getFileSaveAsName(), upload);
+                upload.done.complete(null);
+            }
+        });
+    }
+
+    /**
+     * Wait, up to LOGOUT_TIMEOUT_MILLIS, for files sent by manifest
+     * or resumably to finish sending, so that logging out does not cut them short.
+     *
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    private void awaitUploads() throws InterruptedException {
+        if (uploads.isEmpty()) {
+            return;
+        }
+        System.out.println("Waiting for files to finish sending ...");
+        List<CompletableFuture<Void>> pending = new ArrayList<>();
+        for (Upload upload : uploads.values()) {
+            pending.add(upload.done);
+        }
+        try {
+            CompletableFuture.allOf(pending.toArray(new CompletableFuture<?>[0]))
+                    .get(LOGOUT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException | TimeoutException e) {
+            // Log out anyway.
+        }
+    }
+
+    /**
+     * Locally "send" a file that is too large for a single FileMessage
+     * as a sequence of FileChunkMessages, reading one chunk at a time.
+     *
+     * @param fileMessage names the file to send and its save-as name.
+     */
+    private void sendFileChunks(FileMessage fileMessage) {
+        try (FileChunker chunker = new FileChunker(username,
+                fileMessage.getFilePath(), fileMessage.getFileSaveAsName(),
+                chunkSize)) {
+            FileChunkMessage chunk;
+            while ((chunk = chunker.nextChunk()) != null) {
+                messageReceived = chunk;
+                processMessageReceived();
+            }
+        } catch (IOException e) {
+            System.out.println("Could not send file "
+                    + fileMessage.getFilePath() + ". " + e);
+        }
+    }
+
+    /**
+     * Act on the current messageReceived: write files, print
+     * text, and so on.
+     */
+    private void processMessageReceived() {
+        keepHistory(messageReceived);
+        switch (messageReceived.getMsgType()) {
+            case Message.MSGTYPE_FILE:
+                FileMessage fileMessage = (FileMessage) messageReceived;
+                String fileSaveAsName = fileMessage.getFileSaveAsName();
+                System.out.println("Writing file " + fileSaveAsName + " ...");
+                try {
+                    fileMessage.writeFile();
+                    System.out.println("File written.");
+                } catch (FileNotFoundException e) {
+                    System.out.println("Could not write file " + fileSaveAsName + ". " + e);
+                }
+                break;
+            case Message.MSGTYPE_FILECHUNK:
+                receiveFileChunk((FileChunkMessage) messageReceived);
+                // Chunks are too numerous for the testing output below.
+                return;
+            case Message.MSGTYPE_OPTIONS:
+                // The server's answer to connect(); nothing to show.
+                OptionsMessage options = (OptionsMessage) messageReceived;
+                connection.setCompressing(options.hasOption(OptionsMessage.OPTION_COMPRESSION));
+                dedupAgreed = options.hasOption(OptionsMessage.OPTION_DEDUP);
+                resumeAgreed = options.hasOption(OptionsMessage.OPTION_RESUME);
+                return;
+            case Message.MSGTYPE_FILERESUME:
+                resumeFile((FileResumeMessage) messageReceived);
+                return;
+            case Message.MSGTYPE_FILECHUNKREQUEST:
+                sendRequestedChunks((FileChunkRequestMessage) messageReceived);
+                return;
+            case Message.MSGTYPE_LOGOUT:
+                loggedOut = true;
+                System.out.println("Logged out.");
+                break;
+            case Message.MSGTYPE_LISTUSERS:
+                // Only seen when running locally; the server answers
+                // LIST USERS with a TextMessage.
+                System.out.println("Users: " + username);
+                break;
+            case Message.MSGTYPE_TEXT:
+                System.out.println(((TextMessage) messageReceived).getText());
+                break;
+            default:
+                System.out.println("PROGRAM ERROR. NOTIFY DEVELOPERS.");
+        }
+
+        // TESTING OUTPUT. COMMENT OUT FOR PRODUCTION.
+        diagnostic.setLength(0);
+        diagnostic.append("message received : ");
+        messageReceived.appendTo(diagnostic, DIAGNOSTIC_MAX_CHARS);
+        System.out.println(diagnostic);
+        System.out.println("received getClass: " + messageReceived.getClass());
+    }
+
+    /**
+     * Append a received TEXT or FILE message to the history journal,
+     * if there is one.
+     *
+     * @param msg the message received.
+     */
+    private void keepHistory(Message msg) {
+        if (history == null || (msg.getMsgType() != Message.MSGTYPE_TEXT
+                && msg.getMsgType() != Message.MSGTYPE_FILE)) {
+            return;
+        }
+        try {
+            history.append(msg);
+        } catch (IOException | IllegalArgumentException e) {
+            System.out.println("Could not keep message in history. " + e);
+        }
+    }
+
+    /**
+     * Write one received chunk into its file, starting the file
+     * if this is the first chunk seen for it. Chunks of a resumable
+     * transfer go on into the same file however long the sender is
+     * away in the middle of it, and, since FileAssembler keeps what
+     * it has in its part file, even if this client was restarted in
+     * the middle of it.
+     *
+     * @param chunk the chunk to write.
+     */
+    private void receiveFileChunk(FileChunkMessage chunk) {
+        String key = chunk.getUsername() + "/" + Long.toHexString(chunk.getTransferId())
+                + "/" + chunk.getFileSaveAsName();
+        FileAssembler assembler = assemblies.get(key);
+        try {
+            if (assembler == null) {
+                assembler = new FileAssembler(Path.of("."), chunk.getFileSaveAsName(),
+                        chunk.getTotalLength(), chunk.getTransferId());
+                assemblies.put(key, assembler);
+                if (assembler.getBytesReceived() > 0) {
+                    System.out.println("Writing file " + chunk.getFileSaveAsName()
+                            + " (resumed after " + assembler.getBytesReceived()
+                            + " of " + chunk.getTotalLength() + " bytes) ...");
+                } else {
+                    System.out.println("Writing file " + chunk.getFileSaveAsName()
+                            + " (" + chunk.getTotalLength() + " bytes) ...");
+                }
+            }
+            if (assembler.accept(chunk)) {
+                assemblies.remove(key);
+                System.out.println("File written.");
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            System.out.println("Could not write file "
+                    + chunk.getFileSaveAsName() + ". " + e);
+            assemblies.remove(key);
+            if (assembler != null) {
+                try {
+                    assembler.close();
+                } catch (IOException ignored) {
+                    // Already reporting a failure for this file.
+                }
+            }
+        }
+    }
+
+    /**
+     * Tells whether a file will be sent by manifest, deduplicated:
+     * the server has agreed to it, and the file is no larger than
+     * ContentChunker.MAX_FILE_SIZE. Such files are not read by
+     * parseUserInput().
+     *
+     * @param fileMessage names the file to check.
+     * @return true iff the file will be sent by manifest; false if the
+     * file's size cannot be read.
+     */
+    public boolean isSentByManifest(FileMessage fileMessage) {
+        if (!dedupAgreed) {
+            return false;
+        }
+        try {
+            return Files.size(Path.of(fileMessage.getFilePath())) <= ContentChunker.MAX_FILE_SIZE;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Tells whether a file is large enough that it should be sent
+     * in chunks rather than in a single FileMessage. Such files are
+     * not read by parseUserInput().
+     *
+     * @param fileMessage names the file to check.
+     * @return true iff the file is larger than the streaming threshold;
+     * false if the file's size cannot be read.
+     */
+    public boolean isStreamed(FileMessage fileMessage) {
+        try {
+            return Files.size(Path.of(fileMessage.getFilePath())) > streamingThreshold;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Read a line of user input and create the appropriate
      * message.
      *
-     * @return an object of the appropriate Message subclass.
+     * @return an object of the appropriate Message subclass, or null
+     * if the command has been carried out and there is nothing to send.
      */
     public Message readUserInput() {
         String input;           // what the user actually enters
-        String trimmedInput;    // trimmed user input
 
         // loop until user enters something substantial.
         do {
             System.out.print(prompt);
             input = inputScanner.nextLine();
-            trimmedInput = input.trim();
-        } while (trimmedInput.isEmpty());
+        } while (input.isBlank());
 
-        String[] tokens = trimmedInput.split("\\s+");
+        return parseUserInput(input);
+    }
 
-        switch (tokens[0].toUpperCase()) {
-            case "HELP" :
-                return new HelpMessage(username);
-            case "LIST" :
-                if (tokens[1].equalsIgnoreCase("USERS")) {
-                    return new ListUsersMessage(username);
-                } else {
-                    return new TextMessage(username, input);
-                }
-            case "LOGOUT" :
-                return new LogoutMessage(username);
-            case "SEND" :
-                if (tokens.length == 1 || !tokens[1].equalsIgnoreCase("FILE")) {
-                    return new TextMessage(username, input);
-                } else {
-                    // We have SEND FILE ...
-                    switch (tokens.length) {
-                        case 2: // only "SEND FILE" found
-                            return new HelpMessage(username, "Invalid SEND FILE syntax.");
-                        case 3: // "SEND FILE filepath"
-                            try {
-                                FileMessage msg = new FileMessage(username, tokens[2]);
-                                msg.readFile();
-                                return msg;
-                            } catch (IOException e) {
-                                return new HelpMessage(username, e.getMessage());
-                            }
-                        case 4: // SEND FILE token2 token3
-                            return new HelpMessage(username, "Invalid SEND FILE syntax.");
-                        case 5: // SEND FILE token2 token3 token4
-                            if (tokens[3].equalsIgnoreCase("AS")) {
-                                try {
-                                    FileMessage msg = new FileMessage(username, tokens[2], tokens[4]);
-                                    msg.readFile();
-                                    return msg;
-                                } catch (IOException e) {
-                                    return new HelpMessage(username, e.getMessage());
-                                }
-                            } else {
-                                return new HelpMessage(username, "Invalid SEND FILE syntax.");
-                            }
-                        default: // SEND FILE token2 token3 token4 token5 ...
-                            return new HelpMessage(username, "Invalid SEND FILE syntax.");
-                    }
-                }
-                // end case "SEND"
-            default:    // input does not start with keyword
-                return new TextMessage(username, input);
+    /**
+     * Parse a line of input and create the appropriate message,
+     * from this client's user. This is what readUserInput() does
+     * with each line the user enters; it is public so that scripted
+     * users (e.g., the load generator) are parsed the same way.
+     * Files named by SEND FILE are read, unless isStreamed().
+     *
+     * @param input the line of input; must not be blank.
+     * @return an object of the appropriate Message subclass, or null
+     * if the command has been carried out and there is nothing to send.
+     */
+    public Message parseUserInput(String input) {
+        return commandParser.parse(username, input);
+    }
+
+    /**
+     * Gets the SenderSequence that numbers this client's messages,
+     * for code that sends on the client's behalf (e.g., the load
+     * generator, over a Connection of its own).
+     *
+     * @return the client's sequence.
+     */
+    public SenderSequence getSenderSequence() {
+        return sequence;
+    }
+
+    /**
+     * Gets the parser that parseUserInput() uses, so that more
+     * commands can be registered with it.
+     *
+     * @return the command parser.
+     */
+    public CommandParser getCommandParser() {
+        return commandParser;
+    }
+
+    /**
+     * Registers the commands this client understands.
+     */
+    private void registerCommands() {
+        commandParser.register("HELP", (user, line) -> new HelpMessage(user));
+        commandParser.register("LIST USERS", (user, line) -> new ListUsersMessage(user, sequence));
+        commandParser.register("LOGOUT", (user, line) -> new LogoutMessage(user, sequence));
+        commandParser.register("SEND FILE", this::sendFileCommand);
+        commandParser.register("HISTORY", this::historyCommand);
+    }
+
+    /**
+     * Carries out "HISTORY [FROM username] [count | SINCE time]",
+     * printing the messages found. The time is either a number of
+     * minutes ago, or a local date and time such as 2024-01-31T09:00.
+     *
+     * @return null, or a HelpMessage if the command is not understood
+     * or there is no history.
+     */
+    private Message historyCommand(String user, CommandParser.Line line) {
+        if (history == null) {
+            return new HelpMessage(user, "No history is being kept.");
+        }
+        int arg = 0;
+        String from = null;
+        if (line.getArgCount() >= 2 && line.argEqualsIgnoreCase(0, "FROM")) {
+            from = line.getArg(1);
+            arg = 2;
+        }
+        try {
+            if (line.getArgCount() == arg) {
+                printHistory(history.last(from, HISTORY_LINES));
+            } else if (line.getArgCount() == arg + 1) {
+                printHistory(history.last(from, Integer.parseInt(line.getArg(arg))));
+            } else if (line.getArgCount() == arg + 2 && line.argEqualsIgnoreCase(arg, "SINCE")) {
+                printHistory(history.since(from, parseHistoryTime(line.getArg(arg + 1))));
+            } else {
+                return new HelpMessage(user, "Invalid HISTORY syntax.");
+            }
+        } catch (IllegalArgumentException | DateTimeParseException e) {
+            return new HelpMessage(user, "Invalid HISTORY syntax.");
+        }
+        return null;
+    }
+
+    /**
+     * Parses the time in "HISTORY ... SINCE time".
+     *
+     * @return the time, in nanoseconds since 1970-01-01T00:00Z.
+     */
+    private static long parseHistoryTime(String time) {
+        LocalDateTime since;
+        try {
+            since = LocalDateTime.now().minusMinutes(Long.parseLong(time));
+        } catch (NumberFormatException e) {
+            since = LocalDateTime.parse(time);
+        }
+        Instant instant = since.atZone(ZoneId.systemDefault()).toInstant();
+        return instant.getEpochSecond() * MessageClock.NANOS_PER_SECOND + instant.getNano();
+    }
+
+    /**
+     * Prints messages from the history, one line each.
+     */
+    private static void printHistory(List<Message> messages) {
+        for (Message msg : messages) {
+            String line = "[" + msg.getTimestamp().format(HISTORY_TIME_FORMAT) + "] "
+                    + msg.getUsername() + ": ";
+            if (msg.getMsgType() == Message.MSGTYPE_FILE) {
+                line += "sent file " + ((FileMessage) msg).getFileSaveAsName();
+            } else {
+                line += ((TextMessage) msg).getText();
+            }
+            System.out.println(line);
+        }
+    }
+
+    /**
+     * Makes the message for "SEND FILE filepath [AS saveAsName]".
+     */
+    private Message sendFileCommand(String user, CommandParser.Line line) {
+        FileMessage msg;
+        try {
+            if (line.getArgCount() == 1) {
+                msg = new FileMessage(user, line.getArg(0), line.getArg(0), sequence);
+            } else if (line.getArgCount() == 3 && line.argEqualsIgnoreCase(1, "AS")) {
+                msg = new FileMessage(user, line.getArg(0), line.getArg(2), sequence);
+            } else {
+                return new HelpMessage(user, "Invalid SEND FILE syntax.");
+            }
+            if (!isStreamed(msg) && !isSentByManifest(msg)) {
+                msg.readFile();
+            }
+            return msg;
+        } catch (IOException e) {
+            return new HelpMessage(user, e.getMessage());
         }
     }
 
@@ -209,6 +874,115 @@ public class Client {
         System.out.println(messageReceived);
     }
 
+    /**
+     * Set the size above which files are sent in chunks rather
+     * than in a single FileMessage.
+     *
+     * @param streamingThreshold the threshold, in bytes.
+     * @throws IllegalArgumentException if streamingThreshold is negative.
+     */
+    public void setStreamingThreshold(long streamingThreshold) {
+        if (streamingThreshold < 0) {
+            throw new IllegalArgumentException("negative streaming threshold");
+        }
+        this.streamingThreshold = streamingThreshold;
+    }
+
+    /**
+     * Set the maximum number of file bytes in each chunk, when
+     * files are sent in chunks.
+     *
+     * @param chunkSize the chunk size, in bytes.
+     * @throws IllegalArgumentException if chunkSize is not positive.
+     */
+    public void setChunkSize(int chunkSize) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("chunk size must be positive");
+        }
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Set how many bytes of queued messages cause the writer to send
+     * them, rather than waiting for more. Takes effect when the
+     * client next connects.
+     *
+     * @param flushBytes the flush size, in bytes.
+     * @throws IllegalArgumentException if flushBytes is not positive.
+     */
+    public void setFlushBytes(int flushBytes) {
+        if (flushBytes <= 0) {
+            throw new IllegalArgumentException("flush size must be positive");
+        }
+        this.flushBytes = flushBytes;
+    }
+
+    /**
+     * Set the longest time a queued message waits for others to be
+     * sent with it. Takes effect when the client next connects.
+     *
+     * @param flushDelayMicros the delay, in microseconds; 0 means send
+     *                         as soon as nothing more is queued.
+     * @throws IllegalArgumentException if flushDelayMicros is negative.
+     */
+    public void setFlushDelayMicros(long flushDelayMicros) {
+        if (flushDelayMicros < 0) {
+            throw new IllegalArgumentException("negative flush delay");
+        }
+        this.flushDelayMicros = flushDelayMicros;
+    }
+
+    /**
+     * Set whether to ask the server for compression when connecting.
+     * If the server agrees, large text and file messages are sent
+     * compressed, both ways. The default is to ask. Only takes effect
+     * if set before start().
+     *
+     * @param compression true to ask for compression.
+     */
+    public void setCompression(boolean compression) {
+        this.compression = compression;
+    }
+
+    /**
+     * Set whether to ask the server for deduplicated file transfers
+     * when connecting. If the server agrees, files (up to
+     * ContentChunker.MAX_FILE_SIZE) are sent by manifest, and only the
+     * chunks the server does not already have are sent. The default
+     * is to ask. Only takes effect if set before start().
+     *
+     * @param dedup true to ask for deduplication.
+     */
+    public void setDedup(boolean dedup) {
+        this.dedup = dedup;
+    }
+
+    /**
+     * Set whether to ask the server for resumable file transfers when
+     * connecting. If the server agrees, then before a file is sent in
+     * chunks, the server is asked how much of it it already has, and
+     * only the rest is sent. The default is to ask. Only takes effect
+     * if set before start().
+     *
+     * @param resume true to ask for resumable transfers.
+     */
+    public void setResume(boolean resume) {
+        this.resume = resume;
+    }
+
+    /**
+     * Set a history in which to keep every TEXT and FILE message
+     * received. The default is none. The last HISTORY_LINES messages
+     * in it are shown on starting, and the HISTORY command searches
+     * it. The caller keeps ownership of the history, and closes it
+     * once the client has finished.
+     *
+     * @param history the history, or null to keep none.
+     */
+    public void setHistory(History history) {
+        this.history = history;
+    }
+
     /**
      * Return the username given when client was started.
      *
@@ -242,4 +1016,20 @@ public class Client {
                 + "|messageReceived={" + this.messageReceived.toString() + "}"
                 + "}";
     }
+
+    /**
+     * A file sent by manifest or resumably, waiting for the server's
+     * answer, or being sent. The manifest is null for a resumable
+     * transfer.
+     */
+    private static class Upload {
+        final String filePath;
+        final FileManifestMessage manifest;
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        Upload(String filePath, FileManifestMessage manifest) {
+            this.filePath = filePath;
+            this.manifest = manifest;
+        }
+    }
 }
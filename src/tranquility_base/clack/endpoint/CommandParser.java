@@ -0,0 +1,249 @@
+package tranquility_base.clack.endpoint;
+
+import tranquility_base.clack.message.Message;
+import tranquility_base.clack.message.SenderSequence;
+import tranquility_base.clack.message.TextMessage;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Turns lines of user input into Messages, by way of a table of
+ * registered commands. A command is one or more keywords (e.g.,
+ * "LIST USERS"), matched case-insensitively against the first tokens
+ * of a line; the tokens after them are the command's arguments, which
+ * its Action makes into a Message. A line matching no command is text,
+ * and becomes a TextMessage of the line exactly as entered.
+ * <p>
+ * Tokens are separated by whitespace (space, tab, newline, vertical
+ * tab, form feed, carriage return). Lines are split in a single pass,
+ * recording where each token starts and ends; no token is copied
+ * out of the line unless an Action asks for it.
+ * <p>
+ * A CommandParser reuses its internal state from one line to the next,
+ * so it is not safe to use from more than one thread at once.
+ */
+public class CommandParser {
+
+    /**
+     * Makes the Message for a command.
+     */
+    @FunctionalInterface
+    public interface Action {
+        /**
+         * Makes the Message for a command.
+         *
+         * @param username user the message is from.
+         * @param line     the line entered; its arguments are the tokens
+         *                 after the command's keywords. Valid only until
+         *                 this method returns.
+         * @return the message, or null if the command has been
+         * carried out and there is nothing to send.
+         */
+        Message toMessage(String username, Line line);
+    }
+
+    /**
+     * A line of input, split into tokens.
+     */
+    public static final class Line {
+        private String input;
+        // Start and end (exclusive) of each token in input.
+        private int[] starts = new int[8];
+        private int[] ends = new int[8];
+        private int tokenCount;
+        // Index of the first token after the command's keywords.
+        private int firstArg;
+
+        private Line() {
+        }
+
+        /**
+         * Gets the line as entered, untrimmed.
+         *
+         * @return the line.
+         */
+        public String getInput() {
+            return input;
+        }
+
+        /**
+         * Gets the number of arguments: tokens after the keywords.
+         *
+         * @return the number of arguments.
+         */
+        public int getArgCount() {
+            return tokenCount - firstArg;
+        }
+
+        /**
+         * Gets an argument.
+         *
+         * @param i which argument; 0 is the first after the keywords.
+         * @return the argument.
+         * @throws IndexOutOfBoundsException if there is no such argument.
+         */
+        public String getArg(int i) {
+            int t = argToken(i);
+            return input.substring(starts[t], ends[t]);
+        }
+
+        /**
+         * Tells whether an argument is the given word, ignoring case.
+         *
+         * @param i    which argument; 0 is the first after the keywords.
+         * @param word the word to compare with.
+         * @return true iff argument i exists and equals word,
+         * ignoring case.
+         */
+        public boolean argEqualsIgnoreCase(int i, String word) {
+            return i >= 0 && i < getArgCount() && tokenEqualsIgnoreCase(firstArg + i, word);
+        }
+
+        private int argToken(int i) {
+            if (i < 0 || i >= getArgCount()) {
+                throw new IndexOutOfBoundsException("no argument " + i);
+            }
+            return firstArg + i;
+        }
+
+        private boolean tokenEqualsIgnoreCase(int t, String word) {
+            int length = ends[t] - starts[t];
+            return length == word.length()
+                    && input.regionMatches(true, starts[t], word, 0, length);
+        }
+
+        /**
+         * Splits input into tokens, replacing whatever this held.
+         */
+        private void tokenize(String input) {
+            this.input = input;
+            tokenCount = 0;
+            firstArg = 0;
+            int length = input.length();
+            int i = 0;
+            while (true) {
+                while (i < length && isSpace(input.charAt(i))) {
+                    ++i;
+                }
+                if (i == length) {
+                    return;
+                }
+                if (tokenCount == starts.length) {
+                    starts = Arrays.copyOf(starts, 2 * tokenCount);
+                    ends = Arrays.copyOf(ends, 2 * tokenCount);
+                }
+                starts[tokenCount] = i;
+                while (i < length && !isSpace(input.charAt(i))) {
+                    ++i;
+                }
+                ends[tokenCount++] = i;
+            }
+        }
+
+        /**
+         * Whitespace, as the regular expression \s defines it.
+         */
+        private static boolean isSpace(char c) {
+            return c == ' ' || c == '\t' || c == '\n'
+                    || c == '\u000B' || c == '\f' || c == '\r';
+        }
+    }
+
+    /**
+     * A registered command.
+     */
+    private static final class Entry {
+        final String[] keywords;
+        final Action action;
+
+        Entry(String[] keywords, Action action) {
+            this.keywords = keywords;
+            this.action = action;
+        }
+
+        boolean matches(Line line) {
+            if (line.tokenCount < keywords.length) {
+                return false;
+            }
+            for (int i = 0; i < keywords.length; ++i) {
+                if (!line.tokenEqualsIgnoreCase(i, keywords[i])) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    // Commands with more keywords come first, so "LIST USERS" is
+    // tried before any "LIST".
+    private final List<Entry> commands = new ArrayList<>();
+    private final Line line = new Line();
+    private final SenderSequence sequence;
+
+    /**
+     * Constructs a parser with no commands, whose TextMessages are
+     * numbered by the given sender's sequence.
+     *
+     * @param sequence the sender's sequence.
+     */
+    public CommandParser(SenderSequence sequence) {
+        this.sequence = sequence;
+    }
+
+    /**
+     * Constructs a parser with no commands, whose TextMessages are
+     * numbered from SenderSequence.SHARED.
+     */
+    public CommandParser() {
+        this(SenderSequence.SHARED);
+    }
+
+    /**
+     * Registers a command.
+     *
+     * @param command the command's keywords, separated by spaces,
+     *                e.g. "SEND FILE".
+     * @param action  makes the command's message.
+     * @throws IllegalArgumentException if command is blank, or
+     *                                  already registered.
+     */
+    public void register(String command, Action action) {
+        if (command.isBlank()) {
+            throw new IllegalArgumentException("blank command");
+        }
+        String[] keywords = command.trim().split("\\s+");
+        int at = 0;
+        for (Entry entry : commands) {
+            if (entry.keywords.length < keywords.length) {
+                break;
+            }
+            if (entry.keywords.length == keywords.length
+                    && String.join(" ", entry.keywords).equalsIgnoreCase(String.join(" ", keywords))) {
+                throw new IllegalArgumentException("command already registered: " + command);
+            }
+            ++at;
+        }
+        commands.add(at, new Entry(keywords, action));
+    }
+
+    /**
+     * Parses a line of input into a message.
+     *
+     * @param username user the message is from.
+     * @param input    the line of input.
+     * @return the message made by the matching command's Action, or
+     * a TextMessage of input if no command matches.
+     */
+    public Message parse(String username, String input) {
+        line.tokenize(input);
+        for (Entry entry : commands) {
+            if (entry.matches(line)) {
+                line.firstArg = entry.keywords.length;
+                return entry.action.toMessage(username, line);
+            }
+        }
+        return new TextMessage(username, input, sequence);
+    }
+}
@@ -0,0 +1,367 @@
+package tranquility_base.clack.endpoint;
+
+import tranquility_base.clack.message.FileChunkMessage;
+import tranquility_base.clack.message.FileChunkRequestMessage;
+import tranquility_base.clack.message.FileManifestMessage;
+import tranquility_base.clack.message.FileResumeMessage;
+import tranquility_base.clack.message.Message;
+import tranquility_base.clack.message.MessageCodec;
+import tranquility_base.clack.message.SenderSequence;
+import tranquility_base.clack.transfer.FileChunker;
+import tranquility_base.clack.transfer.RangeSet;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A blocking connection between two Clack endpoints, which sends
+ * and receives Messages as MessageCodec frames over a SocketChannel.
+ * <p>
+ * One thread may send while another receives, but two threads must
+ * not send (or receive) at the same time.
+ * <p>
+ * Frames are only sent compressed, and compressed frames only
+ * accepted, once setCompressing(true) has been called, which should
+ * wait until both ends have agreed to compression (see
+ * OptionsMessage).
+ */
+public class Connection implements Closeable {
+    /**
+     * Initial size of the send and receive buffers. They grow
+     * as needed to hold the largest frame seen.
+     */
+    public static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+
+    private final SocketChannel channel;
+    // Set from whichever thread learns the other end's options.
+    private volatile boolean compressing;
+    // True while a frame is partly written, so a failure then leaves
+    // the other end unable to find where the next frame starts.
+    // Only used by the sending thread.
+    private boolean midFrame;
+    // Numbers the chunk frames that sendFile() and the like write.
+    private volatile SenderSequence senderSequence = SenderSequence.SHARED;
+    // Separate codecs, so sending and receiving can be on different threads.
+    private final MessageCodec sendCodec = new MessageCodec();
+    private final MessageCodec receiveCodec = new MessageCodec();
+
+    private ByteBuffer sendBuffer = ByteBuffer.allocateDirect(INITIAL_BUFFER_SIZE);
+    // Kept ready for reading from the channel (i.e., not flipped)
+    // between calls to receive().
+    private ByteBuffer receiveBuffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+
+    /**
+     * Wraps an already-connected, blocking SocketChannel.
+     *
+     * @param channel the channel to send and receive on.
+     */
+    public Connection(SocketChannel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * Opens a connection to a Clack endpoint.
+     *
+     * @param host name of the host to connect to.
+     * @param port port on that host.
+     * @return the new connection.
+     * @throws IOException if the connection cannot be made.
+     */
+    public static Connection open(String host, int port) throws IOException {
+        SocketChannel channel = SocketChannel.open(new InetSocketAddress(host, port));
+        channel.socket().setTcpNoDelay(true);
+        return new Connection(channel);
+    }
+
+    /**
+     * Sends one message, blocking until it has been written.
+     *
+     * @param msg the message to send.
+     * @throws IOException if the message cannot be written.
+     */
+    public void send(Message msg) throws IOException {
+        sendBuffer.clear();
+        while (true) {
+            try {
+                sendCodec.encode(msg, sendBuffer, compressing);
+                break;
+            } catch (BufferOverflowException e) {
+                if (sendBuffer.capacity() > MessageCodec.MAX_FRAME_LENGTH) {
+                    throw new IOException("message too large to send", e);
+                }
+                sendBuffer = ByteBuffer.allocateDirect(2 * sendBuffer.capacity());
+            }
+        }
+        sendBuffer.flip();
+        write(sendBuffer);
+    }
+
+    /**
+     * Sets whether TEXT and FILE frames may be sent compressed, and
+     * whether compressed frames are accepted; until then, receive()
+     * treats one as a bad frame. Chunks of files sent with sendFile()
+     * are never compressed.
+     *
+     * @param compressing true iff both ends have agreed to compression.
+     */
+    public void setCompressing(boolean compressing) {
+        this.compressing = compressing;
+    }
+
+    /**
+     * Tells whether TEXT and FILE frames may be sent compressed.
+     *
+     * @return true iff setCompressing(true) has been called.
+     */
+    public boolean isCompressing() {
+        return compressing;
+    }
+
+    /**
+     * Sets the SenderSequence that numbers the chunks sent with
+     * sendFile(), resumeFile() and sendFileChunks(), which are written
+     * without building a Message. A client sets its own, so its chunks
+     * are numbered along with its other messages; until then, chunks
+     * are numbered from SenderSequence.SHARED.
+     *
+     * @param senderSequence the sender's sequence.
+     */
+    public void setSenderSequence(SenderSequence senderSequence) {
+        this.senderSequence = senderSequence;
+    }
+
+    /**
+     * Sends a file as a sequence of MSGTYPE_FILECHUNK frames without
+     * reading it into the Java heap. For each chunk, a header frame is
+     * written from the send buffer and then the chunk's bytes are
+     * handed straight from the file to the socket with
+     * FileChannel.transferTo(). The receiver sees ordinary
+     * FileChunkMessages, carrying the transfer ID
+     * FileChunker.transferId() gives the file.
+     *
+     * @param username       name of user sending the file.
+     * @param filePath       the file to send.
+     * @param fileSaveAsName name the receiver should save the file as.
+     * @param chunkSize      maximum number of file bytes per chunk.
+     * @throws IOException if the file cannot be read, has become shorter
+     *                     while being sent, or cannot be written.
+     */
+    public void sendFile(String username, String filePath, String fileSaveAsName,
+                         int chunkSize) throws IOException {
+        long transferId = FileChunker.transferId(username, filePath, fileSaveAsName);
+        try (FileChannel file = FileChannel.open(Path.of(filePath),
+                StandardOpenOption.READ)) {
+            long totalLength = file.size();
+            if (totalLength == 0) {
+                // An empty chunk, so the receiver still learns of it.
+                sendChunk(username, file, fileSaveAsName, transferId, 0, 0, 0, 0);
+            } else {
+                sendRange(username, file, fileSaveAsName, transferId, 0,
+                        totalLength, totalLength, chunkSize);
+            }
+        }
+    }
+
+    /**
+     * Sends the parts of a file that the receiver does not yet have,
+     * as told by its answer to a FileResumeMessage, the same way
+     * sendFile() sends chunks. Chunks are cut where sendFile() would
+     * cut them, and numbered the same way, but shortened where they
+     * overlap what the receiver already has.
+     *
+     * @param username  name of user sending the file.
+     * @param filePath  the file to send.
+     * @param have      the receiver's answer, with the byte ranges of
+     *                  the transfer it already has.
+     * @param chunkSize maximum number of file bytes per chunk.
+     * @throws IOException if the file cannot be read, is no longer the
+     *                     length the receiver expects, or cannot be written.
+     */
+    public void resumeFile(String username, String filePath, FileResumeMessage have,
+                           int chunkSize) throws IOException {
+        try (FileChannel file = FileChannel.open(Path.of(filePath),
+                StandardOpenOption.READ)) {
+            long totalLength = have.getTotalLength();
+            if (file.size() != totalLength) {
+                throw new IOException("file changed since transfer began: "
+                        + have.getFileSaveAsName());
+            }
+            if (totalLength == 0) {
+                sendChunk(username, file, have.getFileSaveAsName(),
+                        have.getTransferId(), 0, 0, 0, 0);
+                return;
+            }
+            RangeSet received = new RangeSet();
+            for (int i = 0; i < have.getRangeCount(); ++i) {
+                received.add(have.getRangeStart(i), have.getRangeEnd(i));
+            }
+            long[] gaps = received.gaps(totalLength);
+            for (int i = 0; i < gaps.length; i += 2) {
+                sendRange(username, file, have.getFileSaveAsName(),
+                        have.getTransferId(), gaps[i], gaps[i + 1],
+                        totalLength, chunkSize);
+            }
+        }
+    }
+
+    /**
+     * Sends the bytes of a file from start up to end, in chunks that
+     * end on multiples of chunkSize.
+     */
+    private void sendRange(String username, FileChannel file, String fileSaveAsName,
+                           long transferId, long start, long end, long totalLength,
+                           int chunkSize) throws IOException {
+        long offset = start;
+        while (offset < end) {
+            long sequence = offset / chunkSize;
+            long chunkEnd = Math.min((sequence + 1) * chunkSize, end);
+            sendChunk(username, file, fileSaveAsName, transferId, (int) sequence,
+                    offset, totalLength, (int) (chunkEnd - offset));
+            offset = chunkEnd;
+        }
+    }
+
+    /**
+     * Sends some of the chunks a manifest describes, the same way
+     * sendFile() sends chunks: straight from the file to the socket.
+     * This is how a file is sent after the server has answered its
+     * FileManifestMessage.
+     *
+     * @param username  name of user sending the file.
+     * @param filePath  the file the manifest describes.
+     * @param manifest  the file's manifest.
+     * @param request   the server's answer, naming the chunks to send.
+     * @throws IOException if the file cannot be read, has become shorter
+     *                     since the manifest was made, or cannot be written.
+     */
+    public void sendFileChunks(String username, String filePath,
+                               FileManifestMessage manifest,
+                               FileChunkRequestMessage request) throws IOException {
+        try (FileChannel file = FileChannel.open(Path.of(filePath),
+                StandardOpenOption.READ)) {
+            for (int i = 0; i < request.getCount(); ++i) {
+                int sequence = request.getSequence(i);
+                sendChunk(username, file, manifest.getFileSaveAsName(),
+                        FileChunkMessage.NO_TRANSFER_ID, sequence,
+                        manifest.getChunkOffset(sequence), manifest.getTotalLength(),
+                        manifest.getChunkLength(sequence));
+            }
+        }
+    }
+
+    /**
+     * Sends one chunk of a file: a header frame from the send buffer,
+     * then the chunk's bytes with FileChannel.transferTo().
+     */
+    private void sendChunk(String username, FileChannel file, String fileSaveAsName,
+                           long transferId, int sequence, long offset,
+                           long totalLength, int chunkLength) throws IOException {
+        sendBuffer.clear();
+        sendCodec.encodeFileChunkHeader(username,
+                Message.getClock().epochNanos(),
+                senderSequence.next(),
+                fileSaveAsName, transferId, sequence, offset, totalLength,
+                chunkLength, sendBuffer);
+        sendBuffer.flip();
+        write(sendBuffer);
+
+        // The frame is not whole until the chunk's bytes follow.
+        midFrame = true;
+        long sent = 0;
+        while (sent < chunkLength) {
+            long n = file.transferTo(offset + sent, chunkLength - sent, channel);
+            if (n <= 0 && offset + sent >= file.size()) {
+                throw new IOException("file changed while being sent: "
+                        + fileSaveAsName);
+            }
+            sent += n;
+        }
+        midFrame = false;
+    }
+
+    /**
+     * Receives one message, blocking until a complete frame
+     * has arrived.
+     *
+     * @return the message received, or null if the other end has
+     * closed the connection.
+     * @throws IOException if the channel cannot be read, the other end
+     *                     closes the connection partway through a frame,
+     *                     or the frame is malformed.
+     */
+    public Message receive() throws IOException {
+        while (true) {
+            receiveBuffer.flip();
+            Message msg;
+            try {
+                msg = receiveCodec.decode(receiveBuffer, compressing);
+            } catch (IllegalArgumentException e) {
+                throw new IOException("bad frame: " + e.getMessage(), e);
+            }
+            receiveBuffer.compact();
+            if (msg != null) {
+                return msg;
+            }
+
+            if (!receiveBuffer.hasRemaining()) {
+                // Frame is bigger than the buffer.
+                ByteBuffer bigger = ByteBuffer.allocate(2 * receiveBuffer.capacity());
+                receiveBuffer.flip();
+                bigger.put(receiveBuffer);
+                receiveBuffer = bigger;
+            }
+            if (channel.read(receiveBuffer) < 0) {
+                if (receiveBuffer.position() == 0) {
+                    return null;
+                }
+                throw new EOFException("connection closed partway through a frame");
+            }
+        }
+    }
+
+    /**
+     * Closes the connection.
+     *
+     * @throws IOException if the channel cannot be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Writes all of a buffer's remaining bytes, which must be whole
+     * frames, blocking until they have been written.
+     *
+     * @param buf the bytes to write.
+     * @throws IOException if the bytes cannot be written.
+     */
+    void write(ByteBuffer buf) throws IOException {
+        midFrame = true;
+        while (buf.hasRemaining()) {
+            channel.write(buf);
+        }
+        midFrame = false;
+    }
+
+    /**
+     * Tells whether the last send failed partway through a frame. If
+     * it did, nothing more can be sent: the other end would read the
+     * next frame as the rest of the broken one. A send that failed
+     * before writing anything (e.g., because the file to send could
+     * not be opened) leaves the connection usable.
+     *
+     * @return true iff a frame has been partly written.
+     */
+    boolean isMidFrame() {
+        return midFrame;
+    }
+}
@@ -0,0 +1,135 @@
+package tranquility_base.clack.endpoint;
+
+import tranquility_base.clack.message.Message;
+import tranquility_base.clack.message.MessageCodec;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A message together with its encoded frame, so that a message sent
+ * to many sessions, or many times, is encoded once rather than once
+ * per send. The frame is encoded when first needed: plain, or
+ * compressed for sessions that accept compressed frames. Each is
+ * encoded at most once, straight into a buffer sized from
+ * MessageCodec.encodedLength(), and if compressing does not shrink
+ * the frame, the plain one is used for both.
+ * <p>
+ * Thread-safe: sessions on any thread may ask for the frame.
+ */
+final class EncodedMessage {
+
+    // Most idle codecs kept for reuse.
+    private static final int MAX_POOLED_CODECS = 2 * Runtime.getRuntime().availableProcessors();
+    private static final Queue<MessageCodec> codecs = new ConcurrentLinkedQueue<>();
+    // Size of codecs; ConcurrentLinkedQueue.size() is O(n).
+    private static final AtomicInteger codecCount = new AtomicInteger();
+
+    private final Message message;
+    private volatile ByteBuffer plain;
+    private volatile ByteBuffer compressed;
+
+    /**
+     * Wraps a message for encoding once.
+     *
+     * @param message the message.
+     */
+    EncodedMessage(Message message) {
+        this.message = message;
+    }
+
+    /**
+     * Gets the message.
+     *
+     * @return the message encoded.
+     */
+    Message getMessage() {
+        return message;
+    }
+
+    /**
+     * Gets the encoded frame, encoding it if this is the first time
+     * it is needed.
+     *
+     * @param compressing true iff the receiver accepts compressed frames.
+     * @return a new read-only buffer positioned at the start of the
+     * frame, with its limit at the end; the caller may move its
+     * position freely.
+     */
+    ByteBuffer getFrame(boolean compressing) {
+        ByteBuffer frame = compressing ? compressed : plain;
+        if (frame == null) {
+            frame = encode(compressing);
+        }
+        return frame.duplicate();
+    }
+
+    private synchronized ByteBuffer encode(boolean compressing) {
+        if (!compressing) {
+            if (plain == null) {
+                plain = encode(message, false);
+            }
+            return plain;
+        }
+        if (compressed == null) {
+            ByteBuffer frame = encode(message, true);
+            if ((frame.getInt(MessageCodec.LENGTH_PREFIX_BYTES) & MessageCodec.COMPRESSED_FLAG) == 0) {
+                // Compressing did not shrink it, so it is the plain frame.
+                if (plain == null) {
+                    plain = frame;
+                } else {
+                    frame = plain;
+                }
+            }
+            compressed = frame;
+        }
+        return compressed;
+    }
+
+    /**
+     * Encodes a message straight into a read-only buffer made the
+     * size of its uncompressed frame, so it is encoded only once. The
+     * buffer is direct, so that writing it to each recipient's channel
+     * does not first copy it into a temporary direct buffer.
+     */
+    private static ByteBuffer encode(Message msg, boolean compress) {
+        MessageCodec codec = takeCodec();
+        try {
+            long length = codec.encodedLength(msg);
+            if (length > MessageCodec.LENGTH_PREFIX_BYTES + MessageCodec.MAX_FRAME_LENGTH) {
+                throw new IllegalArgumentException("message too large to encode");
+            }
+            ByteBuffer frame = ByteBuffer.allocateDirect((int) length);
+            codec.encode(msg, frame, compress);
+            return frame.flip().asReadOnlyBuffer();
+        } finally {
+            giveCodec(codec);
+        }
+    }
+
+    /**
+     * Borrows a codec, so that the scratch array it compresses into
+     * is reused from message to message.
+     */
+    private static MessageCodec takeCodec() {
+        MessageCodec codec = codecs.poll();
+        if (codec == null) {
+            return new MessageCodec();
+        }
+        codecCount.decrementAndGet();
+        return codec;
+    }
+
+    /**
+     * Gives back a borrowed codec. At most MAX_POOLED_CODECS are kept.
+     */
+    private static void giveCodec(MessageCodec codec) {
+        if (codecCount.incrementAndGet() <= MAX_POOLED_CODECS) {
+            codecs.add(codec);
+        } else {
+            codecCount.decrementAndGet();
+        }
+    }
+}
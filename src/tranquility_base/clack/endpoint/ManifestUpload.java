@@ -0,0 +1,130 @@
+package tranquility_base.clack.endpoint;
+
+import tranquility_base.clack.message.FileChunkMessage;
+import tranquility_base.clack.message.FileManifestMessage;
+import tranquility_base.clack.transfer.ChunkStore;
+import tranquility_base.clack.transfer.ContentChunker;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The server's side of a file sent as a FileManifestMessage: the
+ * chunks it already had, and the ones it has asked the sender for.
+ * Each chunk is asked for once, however many times it appears in the
+ * file. Chunks found in the ChunkStore are held here, not looked up
+ * again later, so they cannot be dropped from the store before the
+ * file is complete.
+ * <p>
+ * Not thread-safe; a session's messages are dispatched one at a time.
+ */
+class ManifestUpload {
+
+    private final FileManifestMessage manifest;
+    private final ChunkStore store;
+    private final byte[][] chunks;
+    // For a chunk with the same hash as an earlier missing one, that
+    // chunk's sequence number; otherwise -1.
+    private final int[] sameAs;
+    private final int[] requested;
+    private int missing;
+
+    /**
+     * Starts an upload, finding which of the manifest's chunks the
+     * store already has.
+     *
+     * @param manifest the file's manifest.
+     * @param store    where to look for chunks, and keep new ones.
+     */
+    ManifestUpload(FileManifestMessage manifest, ChunkStore store) {
+        this.manifest = manifest;
+        this.store = store;
+        int count = manifest.getChunkCount();
+        this.chunks = new byte[count][];
+        this.sameAs = new int[count];
+        Arrays.fill(sameAs, -1);
+
+        Map<ByteBuffer, Integer> firstMissing = new HashMap<>();
+        int[] needed = new int[count];
+        int neededCount = 0;
+        for (int i = 0; i < count; ++i) {
+            ByteBuffer hash = manifest.getChunkHash(i);
+            chunks[i] = store.get(hash);
+            if (chunks[i] == null) {
+                Integer first = firstMissing.putIfAbsent(hash, i);
+                if (first == null) {
+                    needed[neededCount++] = i;
+                } else {
+                    sameAs[i] = first;
+                }
+            }
+        }
+        this.requested = Arrays.copyOf(needed, neededCount);
+        this.missing = neededCount;
+    }
+
+    /**
+     * Gets the sequence numbers of the chunks to ask the sender for.
+     *
+     * @return the chunks needed, in increasing order.
+     */
+    int[] getRequested() {
+        return requested;
+    }
+
+    /**
+     * Tells whether every chunk has arrived.
+     *
+     * @return true iff the file is complete.
+     */
+    boolean isComplete() {
+        return missing == 0;
+    }
+
+    /**
+     * Takes a chunk from the sender, adding it to the store.
+     *
+     * @param chunk the chunk.
+     * @return true if it was a chunk asked for, and matches its
+     * length, position and hash in the manifest; false otherwise.
+     */
+    boolean accept(FileChunkMessage chunk) {
+        int sequence = chunk.getSequence();
+        if (sequence >= chunks.length
+                || chunks[sequence] != null
+                || sameAs[sequence] != -1
+                || chunk.getTotalLength() != manifest.getTotalLength()
+                || chunk.getOffset() != manifest.getChunkOffset(sequence)
+                || chunk.getChunkLength() != manifest.getChunkLength(sequence)) {
+            return false;
+        }
+        ByteBuffer hash = manifest.getChunkHash(sequence);
+        if (!hash.equals(ByteBuffer.wrap(ContentChunker.hash(chunk.getChunk())))) {
+            return false;
+        }
+        byte[] bytes = new byte[chunk.getChunkLength()];
+        chunk.getChunk().get(bytes);
+        chunks[sequence] = bytes;
+        store.put(hash, bytes);
+        missing--;
+        return true;
+    }
+
+    /**
+     * Makes the chunk messages that send the completed file on.
+     *
+     * @return the file's chunks, in order, as from the manifest's sender.
+     */
+    FileChunkMessage[] toChunkMessages() {
+        FileChunkMessage[] messages = new FileChunkMessage[chunks.length];
+        for (int i = 0; i < chunks.length; ++i) {
+            byte[] bytes = (sameAs[i] == -1) ? chunks[i] : chunks[sameAs[i]];
+            messages[i] = new FileChunkMessage(manifest.getUsername(),
+                    manifest.getFileSaveAsName(), i, manifest.getChunkOffset(i),
+                    manifest.getTotalLength(), bytes);
+        }
+        return messages;
+    }
+}
@@ -0,0 +1,356 @@
+package tranquility_base.clack.endpoint;
+
+import tranquility_base.clack.message.Message;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A session's frames waiting to be written to its client, bounded
+ * in bytes. A frame counts against the limit from when it is offered
+ * until written() says it has gone, so frames taken from the queue
+ * but not yet written still count.
+ * <p>
+ * What happens when the queue is over its limit depends on its
+ * Server.SlowConsumerPolicy:
+ * <ul>
+ *   <li>BLOCK: the frame is queued anyway, and mustWait() tells the
+ *       producer to send nothing more until the queue is back under
+ *       its limit. Each producer overshoots by at most one message.</li>
+ *   <li>DROP_OLDEST_TEXT: TEXT frames are dropped, oldest first, to
+ *       make room. A TEXT frame that still does not fit is dropped
+ *       itself. Other frames (files, file chunks, replies) are never
+ *       dropped, since a file with holes is worthless; if no room
+ *       can be made for one, offer() fails.</li>
+ *   <li>DISCONNECT: offer() fails.</li>
+ * </ul>
+ * A frame offered to an empty queue is always accepted, however big,
+ * so a message larger than the limit can still be sent.
+ * <p>
+ * A long series of frames, such as the chunks of a file, can instead
+ * be given to offerAll(). They wait outside the limit and are fed into
+ * the queue as it drains, each once the queue holds less than half
+ * the limit, so the series never brings the policy into play, and
+ * leaves room for other messages to be sent alongside it.
+ * <p>
+ * Thread-safe. A lock rather than synchronized, so a virtual thread
+ * waiting in it does not pin its carrier thread.
+ */
+final class OutboundQueue {
+
+    /**
+     * One queued frame.
+     */
+    private static final class Frame {
+        final ByteBuffer buffer;
+        final boolean text;
+
+        Frame(ByteBuffer buffer, boolean text) {
+            this.buffer = buffer;
+            this.text = text;
+        }
+    }
+
+    private final long limit;
+    private final Server.SlowConsumerPolicy policy;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition hasRoom = lock.newCondition();
+    private final ArrayDeque<Frame> frames = new ArrayDeque<>();
+    // Frames from offerAll() not yet fed into frames.
+    private final ArrayDeque<Frame> backlog = new ArrayDeque<>();
+    // Bytes queued, plus bytes taken but not yet written.
+    private long bytes;
+    private long droppedCount;
+    private boolean closed;
+
+    /**
+     * Constructs an empty queue.
+     *
+     * @param limit  most bytes to hold before the policy applies.
+     * @param policy what to do when the queue is over its limit.
+     * @throws IllegalArgumentException if limit is not positive.
+     */
+    OutboundQueue(long limit, Server.SlowConsumerPolicy policy) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("outbound limit must be positive");
+        }
+        this.limit = limit;
+        this.policy = policy;
+    }
+
+    /**
+     * Queues a message's frame, applying the policy if the queue is
+     * over its limit. Once the queue is closed, frames are silently
+     * dropped.
+     *
+     * @param msg         the message.
+     * @param compressing true iff the client accepts compressed frames.
+     * @return false if the message could not be queued, and the
+     * session should be disconnected.
+     */
+    boolean offer(EncodedMessage msg, boolean compressing) {
+        // Outside the lock: this may encode the message.
+        ByteBuffer buffer = msg.getFrame(compressing);
+        boolean text = msg.getMessage().getMsgType() == Message.MSGTYPE_TEXT;
+        int size = buffer.remaining();
+        lock.lock();
+        try {
+            if (closed) {
+                return true;
+            }
+            if (bytes > 0 && bytes + size > limit) {
+                switch (policy) {
+                    case BLOCK:
+                        break;
+                    case DROP_OLDEST_TEXT:
+                        dropTextFor(size);
+                        if (bytes > 0 && bytes + size > limit) {
+                            if (!text) {
+                                return false;
+                            }
+                            droppedCount++;
+                            return true;
+                        }
+                        break;
+                    default:
+                        return false;
+                }
+            }
+            frames.add(new Frame(buffer, text));
+            bytes += size;
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Queues a series of messages' frames, to be fed into the queue as
+     * it drains rather than all at once. The limit does not apply to
+     * them, so they are always accepted, and they are sent in order,
+     * after any others given to offerAll() before them. Messages
+     * offered singly meanwhile may be sent between them. Once the
+     * queue is closed, frames are silently dropped.
+     *
+     * @param msgs        the messages.
+     * @param compressing true iff the client accepts compressed frames.
+     */
+    void offerAll(EncodedMessage[] msgs, boolean compressing) {
+        // Outside the lock: this may encode the messages.
+        Frame[] series = new Frame[msgs.length];
+        for (int i = 0; i < msgs.length; i++) {
+            series[i] = new Frame(msgs[i].getFrame(compressing),
+                    msgs[i].getMessage().getMsgType() == Message.MSGTYPE_TEXT);
+        }
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            backlog.addAll(Arrays.asList(series));
+            feedBacklog();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Moves frames from the backlog into the queue while it holds less
+     * than half the limit, or nothing at all. Called with the lock held.
+     */
+    private void feedBacklog() {
+        Frame frame;
+        while ((frame = backlog.peek()) != null
+                && (bytes == 0 || bytes + frame.buffer.remaining() <= limit / 2)) {
+            backlog.remove();
+            frames.add(frame);
+            bytes += frame.buffer.remaining();
+            notEmpty.signal();
+        }
+    }
+
+    /**
+     * Drops queued TEXT frames, oldest first, until there is room for
+     * size more bytes or none are left.
+     */
+    private void dropTextFor(int size) {
+        Iterator<Frame> it = frames.iterator();
+        while (bytes + size > limit && it.hasNext()) {
+            Frame frame = it.next();
+            if (frame.text) {
+                it.remove();
+                bytes -= frame.buffer.remaining();
+                droppedCount++;
+            }
+        }
+    }
+
+    /**
+     * Tells whether a producer must wait before sending more: the
+     * policy is BLOCK, and the queue is over its limit.
+     *
+     * @return true iff the producer must wait.
+     */
+    boolean mustWait() {
+        lock.lock();
+        try {
+            return policy == Server.SlowConsumerPolicy.BLOCK && bytes > limit && !closed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits until mustWait() is false.
+     *
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    void awaitRoom() throws InterruptedException {
+        lock.lock();
+        try {
+            while (policy == Server.SlowConsumerPolicy.BLOCK && bytes > limit && !closed) {
+                hasRoom.await();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Takes the next frame, without waiting. Its bytes still count
+     * against the limit until written() is called.
+     *
+     * @return the frame, or null if the queue is empty.
+     */
+    ByteBuffer poll() {
+        lock.lock();
+        try {
+            Frame frame = frames.poll();
+            return (frame == null) ? null : frame.buffer;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Takes the next frame, waiting for one if need be. Its bytes
+     * still count against the limit until written() is called.
+     *
+     * @return the frame, or null once the queue is closed and empty.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    ByteBuffer take() throws InterruptedException {
+        lock.lock();
+        try {
+            while (frames.isEmpty() && !closed) {
+                notEmpty.await();
+            }
+            Frame frame = frames.poll();
+            return (frame == null) ? null : frame.buffer;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Records that bytes taken from the queue have been written.
+     *
+     * @param count the number of bytes written.
+     */
+    void written(long count) {
+        lock.lock();
+        try {
+            bytes -= count;
+            feedBacklog();
+            if (bytes <= limit) {
+                hasRoom.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Tells whether there are frames waiting to be taken, now or,
+     * from offerAll(), once the queue drains.
+     *
+     * @return true iff the queue holds no frames.
+     */
+    boolean isEmpty() {
+        lock.lock();
+        try {
+            return frames.isEmpty() && backlog.isEmpty();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Closes the queue: frames offered from now on are dropped, and
+     * once the frames already queued have been taken, take() returns
+     * null. Producers waiting for room are released.
+     */
+    void close() {
+        lock.lock();
+        try {
+            closed = true;
+            notEmpty.signalAll();
+            hasRoom.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Closes the queue, as close() does, and drops every frame in it.
+     */
+    void clear() {
+        lock.lock();
+        try {
+            close();
+            for (Frame frame : frames) {
+                bytes -= frame.buffer.remaining();
+            }
+            frames.clear();
+            backlog.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the number of bytes held: queued, or taken but not yet
+     * written.
+     *
+     * @return the bytes held.
+     */
+    long getBytes() {
+        lock.lock();
+        try {
+            return bytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the number of TEXT frames dropped under the
+     * DROP_OLDEST_TEXT policy.
+     *
+     * @return the number of frames dropped.
+     */
+    long getDroppedCount() {
+        lock.lock();
+        try {
+            return droppedCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,363 @@
+package tranquility_base.clack.endpoint;
+
+import tranquility_base.clack.message.FileChunkRequestMessage;
+import tranquility_base.clack.message.FileManifestMessage;
+import tranquility_base.clack.message.FileResumeMessage;
+import tranquility_base.clack.message.Message;
+import tranquility_base.clack.message.MessageCodec;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Sends messages over a Connection from a writer thread of its own,
+ * so that senders only have to queue them. The writer encodes as many
+ * queued messages as it can into one buffer before writing it, so a
+ * burst of small messages goes out in a few large socket writes rather
+ * than one write each.
+ * <p>
+ * The writer writes its buffer once it holds flushBytes bytes, or
+ * once flushDelayMicros have passed since the first message in it was
+ * taken from the queue, whichever comes first. A delay of 0 means
+ * write as soon as the queue is empty.
+ * <p>
+ * Once an OutboundWriter has been started, nothing else should send
+ * on its Connection; files, too, should be sent with sendFile() or
+ * sendFileChunks(), so they stay in order with the messages around
+ * them.
+ */
+public class OutboundWriter implements Closeable {
+    /**
+     * Default number of buffered bytes that causes a write: 64 KiB.
+     */
+    public static final int DEFAULT_FLUSH_BYTES = 64 * 1024;
+
+    /**
+     * Default longest time a message waits in the buffer for others
+     * to join it, in microseconds.
+     */
+    public static final long DEFAULT_FLUSH_DELAY_MICROS = 200;
+
+    // Queued to tell the writer thread to finish.
+    private static final Object STOP = new Object();
+
+    private final Connection connection;
+    private final int flushBytes;
+    private final long flushDelayNanos;
+    private final BlockingQueue<Object> queue = new LinkedBlockingQueue<>();
+    private final MessageCodec codec = new MessageCodec();
+    private final ByteBuffer buffer;
+    private final Thread writerThread;
+    // Why the writer thread stopped early, if it did.
+    private volatile IOException failure;
+    private volatile boolean closed;
+
+    /**
+     * Constructs a writer for the given connection, and starts
+     * its writer thread.
+     *
+     * @param connection       the connection to send on.
+     * @param flushBytes       number of buffered bytes that causes a write.
+     * @param flushDelayMicros longest time a message waits in the buffer,
+     *                         in microseconds.
+     * @throws IllegalArgumentException if flushBytes is not positive,
+     *                                  or flushDelayMicros is negative.
+     */
+    public OutboundWriter(Connection connection, int flushBytes, long flushDelayMicros) {
+        if (flushBytes <= 0) {
+            throw new IllegalArgumentException("flush size must be positive");
+        }
+        if (flushDelayMicros < 0) {
+            throw new IllegalArgumentException("negative flush delay");
+        }
+        this.connection = connection;
+        this.flushBytes = flushBytes;
+        this.flushDelayNanos = TimeUnit.MICROSECONDS.toNanos(flushDelayMicros);
+        // Room for one more frame of typical size past flushBytes.
+        this.buffer = ByteBuffer.allocateDirect(flushBytes + Connection.INITIAL_BUFFER_SIZE);
+        this.writerThread = new Thread(this::writeLoop, "clack-outbound-writer");
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+    }
+
+    /**
+     * Constructs a writer with the default flush size and delay.
+     *
+     * @param connection the connection to send on.
+     */
+    public OutboundWriter(Connection connection) {
+        this(connection, DEFAULT_FLUSH_BYTES, DEFAULT_FLUSH_DELAY_MICROS);
+    }
+
+    /**
+     * Queues a message to be sent. Returns without waiting for it
+     * to be written.
+     *
+     * @param msg the message to send.
+     * @throws IOException if the writer has failed, or been closed.
+     */
+    public void send(Message msg) throws IOException {
+        checkOpen();
+        queue.add(msg);
+    }
+
+    /**
+     * Sends a file, in chunks, as Connection.sendFile() does, after
+     * every message already queued. Blocks until the file has been
+     * sent.
+     *
+     * @param username       name of user sending the file.
+     * @param filePath       the file to send.
+     * @param fileSaveAsName name the receiver should save the file as.
+     * @param chunkSize      maximum number of file bytes per chunk.
+     * @throws IOException if the file cannot be read or sent, or the
+     *                     writer has failed or been closed.
+     */
+    public void sendFile(String username, String filePath, String fileSaveAsName,
+                         int chunkSize) throws IOException {
+        checkOpen();
+        await(new FileSend(c -> c.sendFile(username, filePath, fileSaveAsName, chunkSize)));
+    }
+
+    /**
+     * Sends chunks of a file that a manifest describes, as
+     * Connection.sendFileChunks() does, after every message already
+     * queued. Blocks until the chunks have been sent.
+     *
+     * @param username name of user sending the file.
+     * @param filePath the file the manifest describes.
+     * @param manifest the file's manifest.
+     * @param request  the server's answer, naming the chunks to send.
+     * @throws IOException if the file cannot be read or sent, or the
+     *                     writer has failed or been closed.
+     */
+    public void sendFileChunks(String username, String filePath,
+                               FileManifestMessage manifest,
+                               FileChunkRequestMessage request) throws IOException {
+        checkOpen();
+        await(new FileSend(c -> c.sendFileChunks(username, filePath, manifest, request)));
+    }
+
+    /**
+     * Sends the parts of a file the receiver does not yet have, as
+     * Connection.resumeFile() does, after every message already
+     * queued. Blocks until they have been sent.
+     *
+     * @param username  name of user sending the file.
+     * @param filePath  the file to send.
+     * @param have      the receiver's answer to a FileResumeMessage.
+     * @param chunkSize maximum number of file bytes per chunk.
+     * @throws IOException if the file cannot be read or sent, or the
+     *                     writer has failed or been closed.
+     */
+    public void resumeFile(String username, String filePath, FileResumeMessage have,
+                           int chunkSize) throws IOException {
+        checkOpen();
+        await(new FileSend(c -> c.resumeFile(username, filePath, have, chunkSize)));
+    }
+
+    /**
+     * Queues a file to be sent, and waits until it has been.
+     */
+    private void await(FileSend fileSend) throws IOException {
+        queue.add(fileSend);
+        try {
+            while (true) {
+                try {
+                    fileSend.done.get(100, TimeUnit.MILLISECONDS);
+                    return;
+                } catch (TimeoutException e) {
+                    // The writer may have stopped after we checked,
+                    // without seeing our request.
+                    if (!writerThread.isAlive()) {
+                        throw new IOException("outbound writer stopped", failure);
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while sending file");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("could not send file", e.getCause());
+        }
+    }
+
+    /**
+     * Sends everything already queued, then stops the writer thread.
+     * The connection itself is not closed.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        queue.add(STOP);
+        try {
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void checkOpen() throws IOException {
+        if (failure != null) {
+            throw new IOException("outbound writer failed", failure);
+        }
+        if (closed) {
+            throw new IOException("outbound writer closed");
+        }
+    }
+
+    /**
+     * The writer thread's loop: take a message, gather more until
+     * the buffer is full enough or the delay is up, write them all,
+     * repeat.
+     */
+    private void writeLoop() {
+        try {
+            while (true) {
+                Object item = queue.take();
+                long deadline = System.nanoTime() + flushDelayNanos;
+                while (item instanceof Message) {
+                    encode((Message) item);
+                    if (buffer.position() >= flushBytes) {
+                        break;
+                    }
+                    long wait = deadline - System.nanoTime();
+                    item = (wait > 0)
+                            ? queue.poll(wait, TimeUnit.NANOSECONDS)
+                            : queue.poll();
+                }
+                flush();
+                if (item == STOP) {
+                    break;
+                }
+                if (item instanceof FileSend) {
+                    ((FileSend) item).send();
+                }
+            }
+        } catch (IOException e) {
+            failure = e;
+        } catch (InterruptedException e) {
+            failure = new InterruptedIOException("outbound writer interrupted");
+        } catch (RuntimeException e) {
+            // Not one message's fault; fail, rather than stop unseen.
+            failure = new IOException("outbound writer failed", e);
+        }
+        // Anyone waiting on a file must not wait forever.
+        Object item;
+        while ((item = queue.poll()) != null) {
+            if (item instanceof FileSend) {
+                ((FileSend) item).done.completeExceptionally(
+                        new IOException("outbound writer stopped", failure));
+            }
+        }
+    }
+
+    /**
+     * Encodes a message into the buffer, first writing out what
+     * is already there if there is not room for it. A message that
+     * cannot be encoded (one with a field its getter will not give,
+     * say) is skipped, and the messages after it are sent as usual;
+     * only a message cut off partway through its frame stops the
+     * writer, since the receiver could no longer find the next one.
+     */
+    private void encode(Message msg) throws IOException {
+        boolean compress = connection.isCompressing();
+        int start = buffer.position();
+        try {
+            try {
+                codec.encode(msg, buffer, compress);
+                return;
+            } catch (BufferOverflowException e) {
+                flush();
+                start = buffer.position();
+            }
+            try {
+                codec.encode(msg, buffer, compress);
+            } catch (BufferOverflowException e) {
+                // Bigger than the whole buffer; let the connection
+                // deal with it on its own.
+                connection.send(msg);
+            }
+        } catch (RuntimeException e) {
+            if (connection.isMidFrame()) {
+                throw new IOException("could not send message", e);
+            }
+            // Drop whatever part of its frame was encoded.
+            buffer.position(start);
+        }
+    }
+
+    /**
+     * Writes whatever is in the buffer, in one write if the socket
+     * will take it.
+     */
+    private void flush() throws IOException {
+        if (buffer.position() > 0) {
+            buffer.flip();
+            connection.write(buffer);
+            buffer.clear();
+        }
+    }
+
+    /**
+     * A file queued to be sent, and how: whole, as requested after
+     * a manifest, or resumed.
+     */
+    private class FileSend {
+        final FileWrite write;
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        FileSend(FileWrite write) {
+            this.write = write;
+        }
+
+        /**
+         * Sends the file. A failure before any of a frame was written
+         * (the file is missing, say, or has changed length since a
+         * resumed transfer began) is reported to the sender only. A
+         * failure partway through a frame stops the writer as well,
+         * since the receiver can no longer find the start of the next
+         * frame.
+         */
+        void send() throws IOException {
+            try {
+                write.writeTo(connection);
+                done.complete(null);
+            } catch (IOException e) {
+                done.completeExceptionally(e);
+                if (connection.isMidFrame()) {
+                    throw e;
+                }
+            } catch (RuntimeException e) {
+                IOException failed = new IOException("could not send file", e);
+                done.completeExceptionally(failed);
+                if (connection.isMidFrame()) {
+                    throw failed;
+                }
+            }
+        }
+    }
+
+    /**
+     * One of Connection's ways of writing a file.
+     */
+    @FunctionalInterface
+    private interface FileWrite {
+        void writeTo(Connection connection) throws IOException;
+    }
+}
@@ -0,0 +1,118 @@
+package tranquility_base.clack.endpoint;
+
+import tranquility_base.clack.message.FileChunkMessage;
+import tranquility_base.clack.transfer.RangeSet;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The server's record of which bytes of each unfinished chunked file
+ * transfer it has received and sent on, so a sender whose connection
+ * dropped can resume where it left off (see FileResumeMessage). A
+ * transfer is known by its sender's username and its transfer ID; it
+ * is remembered after the sender disconnects, and forgotten once
+ * complete, or when MAX_TRANSFERS newer transfers have started.
+ * <p>
+ * Thread-safe: chunks arrive from all sessions at once.
+ */
+class ResumableTransfers {
+    /**
+     * Most unfinished transfers remembered at once.
+     */
+    static final int MAX_TRANSFERS = 1024;
+
+    /**
+     * One transfer: the file's length, and the bytes received.
+     */
+    private static class Transfer {
+        final long totalLength;
+        final RangeSet received = new RangeSet();
+
+        Transfer(long totalLength) {
+            this.totalLength = totalLength;
+        }
+    }
+
+    private final int maxTransfers;
+    // In access order, least recently used first.
+    private final LinkedHashMap<String, Transfer> transfers =
+            new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Transfer> eldest) {
+                    return size() > maxTransfers;
+                }
+            };
+
+    /**
+     * Constructs an empty record, of at most maxTransfers transfers.
+     *
+     * @param maxTransfers most unfinished transfers to remember.
+     */
+    ResumableTransfers(int maxTransfers) {
+        this.maxTransfers = maxTransfers;
+    }
+
+    /**
+     * Constructs an empty record, of at most MAX_TRANSFERS transfers.
+     */
+    ResumableTransfers() {
+        this(MAX_TRANSFERS);
+    }
+
+    /**
+     * Records a chunk's arrival.
+     *
+     * @param username the sender's username.
+     * @param chunk    the chunk.
+     * @return true if the chunk should be sent on: it belongs to no
+     * transfer, or holds bytes of its transfer not received before.
+     */
+    synchronized boolean accept(String username, FileChunkMessage chunk) {
+        if (chunk.getTransferId() == FileChunkMessage.NO_TRANSFER_ID) {
+            return true;
+        }
+        String key = key(username, chunk.getTransferId());
+        Transfer transfer = transfers.get(key);
+        if (transfer == null || transfer.totalLength != chunk.getTotalLength()) {
+            transfer = new Transfer(chunk.getTotalLength());
+            transfers.put(key, transfer);
+        }
+        long added = transfer.received.add(chunk.getOffset(),
+                chunk.getOffset() + chunk.getChunkLength());
+        if (transfer.received.covers(transfer.totalLength)) {
+            transfers.remove(key);
+        }
+        return added > 0 || chunk.getChunkLength() == 0;
+    }
+
+    /**
+     * Gets the byte ranges of a transfer received so far.
+     *
+     * @param username    the sender's username.
+     * @param transferId  the transfer.
+     * @param totalLength the length the sender says the file has.
+     * @return start and end of each range, in turn; empty if the
+     * transfer is unknown, finished, or was of a file of another length.
+     */
+    synchronized long[] getReceived(String username, long transferId, long totalLength) {
+        Transfer transfer = transfers.get(key(username, transferId));
+        if (transfer == null || transfer.totalLength != totalLength) {
+            return new long[0];
+        }
+        return transfer.received.toArray();
+    }
+
+    /**
+     * Gets the number of unfinished transfers remembered.
+     *
+     * @return the number of transfers.
+     */
+    synchronized int size() {
+        return transfers.size();
+    }
+
+    private static String key(String username, long transferId) {
+        return username + '/' + Long.toHexString(transferId);
+    }
+}
@@ -0,0 +1,513 @@
+package tranquility_base.clack.endpoint;
+
+import tranquility_base.clack.message.Message;
+import tranquility_base.clack.message.MessageCodec;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A Server built on non-blocking NIO. One acceptor thread accepts
+ * connections and hands them out, round-robin, to a small, fixed
+ * number of event-loop threads. Each event loop owns a Selector and
+ * does all reading, frame decoding, dispatching and writing for its
+ * clients, so the number of threads does not grow with the number
+ * of clients.
+ */
+public class SelectorServer extends Server {
+    /**
+     * Initial size of each session's read buffer. It grows as needed
+     * to hold the largest frame seen, and shrinks back afterwards.
+     */
+    public static final int INITIAL_READ_BUFFER_SIZE = 4 * 1024;
+
+    /**
+     * Most frames handed to one gathering write.
+     */
+    static final int MAX_GATHER = 64;
+
+    // The event loop each event-loop thread runs.
+    private static final ThreadLocal<EventLoop> CURRENT_LOOP = new ThreadLocal<>();
+
+    private final int eventLoopCount;
+    private volatile boolean running;
+    private ServerSocketChannel serverChannel;
+    private EventLoop[] eventLoops;
+    private Thread acceptorThread;
+
+    /**
+     * Constructs a server with the given number of event loops.
+     *
+     * @param port           port to listen on; 0 means any free port.
+     * @param eventLoopCount number of event-loop threads.
+     * @throws IllegalArgumentException if eventLoopCount is not positive.
+     */
+    public SelectorServer(int port, int eventLoopCount) {
+        super(port);
+        if (eventLoopCount <= 0) {
+            throw new IllegalArgumentException("need at least one event loop");
+        }
+        this.eventLoopCount = eventLoopCount;
+    }
+
+    /**
+     * Constructs a server with one event loop per available processor.
+     *
+     * @param port port to listen on; 0 means any free port.
+     */
+    public SelectorServer(int port) {
+        this(port, Runtime.getRuntime().availableProcessors());
+    }
+
+    @Override
+    public void start() throws IOException {
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(getPort()), ACCEPT_BACKLOG);
+        running = true;
+
+        eventLoops = new EventLoop[eventLoopCount];
+        for (int i = 0; i < eventLoopCount; ++i) {
+            eventLoops[i] = new EventLoop();
+            eventLoops[i].thread = new Thread(eventLoops[i], "clack-event-loop-" + i);
+            eventLoops[i].thread.start();
+        }
+        acceptorThread = new Thread(this::acceptConnections, "clack-acceptor");
+        acceptorThread.start();
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        try {
+            serverChannel.close();
+        } catch (IOException e) {
+            // Stopping anyway.
+        }
+        for (EventLoop loop : eventLoops) {
+            loop.selector.wakeup();
+        }
+        try {
+            acceptorThread.join();
+            for (EventLoop loop : eventLoops) {
+                loop.thread.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public int getLocalPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    /**
+     * The acceptor thread's loop: accept each new connection and
+     * pass it on to the next event loop in turn.
+     */
+    private void acceptConnections() {
+        int next = 0;
+        while (running) {
+            try {
+                SocketChannel channel = serverChannel.accept();
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+                EventLoop loop = eventLoops[next];
+                next = (next + 1) % eventLoops.length;
+                loop.execute(() -> loop.register(channel));
+            } catch (ClosedChannelException e) {
+                break;      // stop() was called
+            } catch (IOException e) {
+                // Problem with this one connection; keep accepting others.
+            }
+        }
+    }
+
+    /**
+     * One event-loop thread and the Selector it waits on. Other
+     * threads hand it work with execute().
+     */
+    private class EventLoop implements Runnable {
+        final Selector selector;
+        final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        final MessageCodec codec = new MessageCodec();
+        // The session whose frames are being dispatched, if any.
+        NioSession dispatching;
+        Thread thread;
+
+        EventLoop() throws IOException {
+            selector = Selector.open();
+        }
+
+        /**
+         * Runs a task on this event loop's thread.
+         */
+        void execute(Runnable task) {
+            tasks.add(task);
+            if (Thread.currentThread() != thread) {
+                selector.wakeup();
+            }
+        }
+
+        void register(SocketChannel channel) {
+            try {
+                NioSession session = new NioSession(this, channel);
+                session.key = channel.register(selector, SelectionKey.OP_READ, session);
+                sessionOpened(session);
+            } catch (IOException e) {
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                    // Never got started.
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            CURRENT_LOOP.set(this);
+            while (running) {
+                try {
+                    if (tasks.isEmpty()) {
+                        selector.select();
+                    } else {
+                        selector.selectNow();
+                    }
+                } catch (IOException e) {
+                    break;
+                }
+
+                Runnable task;
+                while ((task = tasks.poll()) != null) {
+                    task.run();
+                }
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    NioSession session = (NioSession) key.attachment();
+                    try {
+                        if (key.isValid() && key.isReadable()) {
+                            session.handleRead();
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            session.flush();
+                        }
+                    } catch (RuntimeException e) {
+                        // Don't let one bad session take down the loop.
+                        session.closeNow();
+                    }
+                }
+            }
+
+            for (SelectionKey key : selector.keys()) {
+                ((NioSession) key.attachment()).closeNow();
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+                // Stopping anyway.
+            }
+        }
+    }
+
+    /**
+     * A Session whose I/O is all done by one EventLoop. Other threads
+     * only add to its outbound queue and ask the loop to flush it.
+     * <p>
+     * When the queue is full under the BLOCK policy, the session that
+     * sent the message (whose frame the sending event loop is
+     * dispatching) stops reading until the queue has drained: its
+     * frames stay in its read buffer, and TCP pushes back on its
+     * client.
+     */
+    private class NioSession extends Session {
+        final EventLoop loop;
+        final SocketChannel channel;
+        SelectionKey key;
+
+        final OutboundQueue outbound = newOutboundQueue();
+        final AtomicBoolean flushScheduled = new AtomicBoolean();
+        volatile boolean closing;
+        boolean closed;
+
+        ByteBuffer readBuffer = ByteBuffer.allocate(INITIAL_READ_BUFFER_SIZE);
+        // Frames that a previous write could not send yet.
+        ByteBuffer[] pending;
+        // Number of full sessions this one is waiting for before it
+        // reads again. Only used on this session's event loop.
+        int waitingFor;
+        // Sessions waiting for this one's queue to drain.
+        final Queue<NioSession> waiters = new ConcurrentLinkedQueue<>();
+
+        NioSession(EventLoop loop, SocketChannel channel) {
+            this.loop = loop;
+            this.channel = channel;
+        }
+
+        @Override
+        public void send(Message msg) {
+            send(new EncodedMessage(msg));
+        }
+
+        @Override
+        void send(EncodedMessage msg) {
+            if (closing) {
+                return;
+            }
+            if (!outbound.offer(msg, isCompressing())) {
+                // Too slow; drop everything and disconnect.
+                closing = true;
+                outbound.clear();
+                loop.execute(this::closeNow);
+                return;
+            }
+            if (outbound.mustWait()) {
+                EventLoop current = CURRENT_LOOP.get();
+                if (current != null && current.dispatching != null) {
+                    current.dispatching.waitFor(this);
+                }
+            }
+            scheduleFlush();
+        }
+
+        @Override
+        void sendAll(EncodedMessage[] msgs) {
+            if (closing) {
+                return;
+            }
+            outbound.offerAll(msgs, isCompressing());
+            scheduleFlush();
+        }
+
+        @Override
+        public void close() {
+            closing = true;
+            scheduleFlush();
+        }
+
+        private void scheduleFlush() {
+            if (flushScheduled.compareAndSet(false, true)) {
+                loop.execute(this::flush);
+            }
+        }
+
+        /**
+         * Stops reading until a full session has drained. Runs on
+         * this session's event loop.
+         *
+         * @param full the session whose queue is full.
+         */
+        void waitFor(NioSession full) {
+            waitingFor++;
+            setInterest();
+            full.waiters.add(this);
+            // In case it drained before we were added.
+            if (!full.outbound.mustWait()) {
+                full.wakeWaiters();
+            }
+        }
+
+        /**
+         * Resumes reading, once no full session is being waited for.
+         * Runs on this session's event loop.
+         */
+        void resume() {
+            if (--waitingFor > 0 || closed) {
+                return;
+            }
+            dispatchBuffered();
+            setInterest();
+        }
+
+        /**
+         * Tells every session waiting for this one that it has
+         * drained, or closed.
+         */
+        private void wakeWaiters() {
+            NioSession waiter;
+            while ((waiter = waiters.poll()) != null) {
+                waiter.loop.execute(waiter::resume);
+            }
+        }
+
+        /**
+         * Sets what the selector should watch for: reading unless
+         * waiting for a full session, writing if a write was cut short.
+         */
+        private void setInterest() {
+            if (closed) {
+                return;
+            }
+            int ops = 0;
+            if (waitingFor == 0) {
+                ops |= SelectionKey.OP_READ;
+            }
+            if (pending != null) {
+                ops |= SelectionKey.OP_WRITE;
+            }
+            key.interestOps(ops);
+        }
+
+        /**
+         * Reads whatever has arrived, and dispatches every complete
+         * frame. Runs on the event loop.
+         */
+        void handleRead() {
+            try {
+                if (channel.read(readBuffer) < 0) {
+                    closeNow();
+                    return;
+                }
+            } catch (IOException e) {
+                closeNow();
+                return;
+            }
+            dispatchBuffered();
+        }
+
+        /**
+         * Dispatches every complete frame in the read buffer, unless
+         * a message dispatched makes this session wait. Runs on the
+         * event loop.
+         */
+        private void dispatchBuffered() {
+            readBuffer.flip();
+            loop.dispatching = this;
+            try {
+                Message msg;
+                while (!closing && waitingFor == 0
+                        && (msg = loop.codec.decode(readBuffer, isCompressing())) != null) {
+                    dispatch(this, msg);
+                }
+            } catch (IllegalArgumentException e) {
+                closeNow();     // corrupt frame; cannot resynchronize
+                return;
+            } finally {
+                loop.dispatching = null;
+            }
+            readBuffer.compact();
+            if (waitingFor > 0) {
+                return;         // the rest waits for resume()
+            }
+
+            if (!readBuffer.hasRemaining()) {
+                // Frame is bigger than the buffer.
+                ByteBuffer bigger = ByteBuffer.allocate(2 * readBuffer.capacity());
+                readBuffer.flip();
+                bigger.put(readBuffer);
+                readBuffer = bigger;
+            } else if (readBuffer.position() == 0
+                    && readBuffer.capacity() > INITIAL_READ_BUFFER_SIZE) {
+                // Done with a big frame; don't hang on to its buffer.
+                readBuffer = ByteBuffer.allocate(INITIAL_READ_BUFFER_SIZE);
+            }
+        }
+
+        /**
+         * Writes as much of the outbound queue as the socket will take.
+         * Queued frames, many of them shared by every recipient of a
+         * broadcast, go out several at a time in one gathering write,
+         * straight from their own buffers. Runs on the event loop.
+         */
+        void flush() {
+            flushScheduled.set(false);
+            if (closed) {
+                return;
+            }
+            try {
+                if (pending != null) {
+                    outbound.written(channel.write(pending));
+                    if (pending[pending.length - 1].hasRemaining()) {
+                        setInterest();
+                        return;
+                    }
+                    pending = null;
+                }
+
+                ByteBuffer[] frames;
+                while ((frames = gatherOutbound()).length > 0) {
+                    outbound.written(channel.write(frames));
+                    if (frames[frames.length - 1].hasRemaining()) {
+                        pending = unsent(frames);
+                        break;
+                    }
+                }
+                setInterest();
+            } catch (IOException e) {
+                closeNow();
+                return;
+            } finally {
+                if (!outbound.mustWait()) {
+                    wakeWaiters();
+                }
+            }
+
+            if (closing && pending == null && outbound.isEmpty()) {
+                closeNow();
+            }
+        }
+
+        /**
+         * Takes up to MAX_GATHER frames off the queue for one
+         * gathering write.
+         *
+         * @return the frames; empty if the queue is.
+         */
+        private ByteBuffer[] gatherOutbound() {
+            List<ByteBuffer> frames = new ArrayList<>();
+            ByteBuffer frame;
+            while (frames.size() < MAX_GATHER && (frame = outbound.poll()) != null) {
+                frames.add(frame);
+            }
+            return frames.toArray(new ByteBuffer[0]);
+        }
+
+        /**
+         * Gets the frames a write did not finish, to be written later.
+         */
+        private ByteBuffer[] unsent(ByteBuffer[] frames) {
+            int first = 0;
+            while (!frames[first].hasRemaining()) {
+                first++;
+            }
+            return Arrays.copyOfRange(frames, first, frames.length);
+        }
+
+        /**
+         * Closes the connection immediately, dropping anything not
+         * yet written. Runs on the event loop.
+         */
+        void closeNow() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            closing = true;
+            key.cancel();
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // Closed as far as we are concerned.
+            }
+            outbound.clear();
+            pending = null;
+            wakeWaiters();
+            sessionClosed(this);
+        }
+    }
+}
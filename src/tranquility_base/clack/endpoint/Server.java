@@ -0,0 +1,452 @@
+package tranquility_base.clack.endpoint;
+
+import tranquility_base.clack.message.FileChunkMessage;
+import tranquility_base.clack.message.FileChunkRequestMessage;
+import tranquility_base.clack.message.FileManifestMessage;
+import tranquility_base.clack.message.FileResumeMessage;
+import tranquility_base.clack.message.Message;
+import tranquility_base.clack.message.OptionsMessage;
+import tranquility_base.clack.message.TextMessage;
+import tranquility_base.clack.transfer.ChunkStore;
+import tranquility_base.clack.transfer.ContentChunker;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Base class for Clack servers. It keeps track of the connected
+ * Sessions and decides what to do with each message a client sends;
+ * subclasses supply the networking that accepts connections and
+ * moves frames to and from clients.
+ * <p>
+ * Messages are handled as follows:
+ * <ul>
+ *   <li>MSGTYPE_TEXT, MSGTYPE_FILE: sent to every connected client,
+ *       including the sender.</li>
+ *   <li>MSGTYPE_FILECHUNK: sent to every connected client except
+ *       the sender, who already has the file; unless it is a chunk the
+ *       server asked for, which is kept until its file is complete
+ *       (see below), or it only repeats bytes of a resumable transfer
+ *       already sent on.</li>
+ *   <li>MSGTYPE_FILERESUME: answered with a FileResumeMessage, from
+ *       SERVER_USERNAME, holding the byte ranges of the sender's
+ *       transfer already received, even over an earlier connection.</li>
+ *   <li>MSGTYPE_FILEMANIFEST: answered with a FileChunkRequestMessage,
+ *       from SERVER_USERNAME, asking for the chunks not in the
+ *       server's ChunkStore. Once they have all arrived, the whole
+ *       file is sent on, as FILECHUNKs, to every connected client
+ *       except the sender.</li>
+ *   <li>MSGTYPE_LISTUSERS: answered with a TextMessage, from
+ *       SERVER_USERNAME, listing the connected users. The reply is
+ *       kept, already encoded, until a user joins or leaves (see
+ *       SessionRegistry).</li>
+ *   <li>MSGTYPE_LOGOUT: echoed back to the sender, whose session is
+ *       then closed.</li>
+ *   <li>MSGTYPE_OPTIONS: answered with an OptionsMessage, from
+ *       SERVER_USERNAME, holding those of the options asked for that
+ *       the server agrees to, which then apply to the sender's
+ *       session.</li>
+ *   <li>Anything else (e.g., MSGTYPE_HELP, which clients handle
+ *       themselves) is ignored.</li>
+ * </ul>
+ */
+public abstract class Server {
+    /**
+     * Username given to messages that the server itself creates.
+     */
+    public static final String SERVER_USERNAME = "server";
+
+    /**
+     * The ways a server can handle its clients' connections.
+     */
+    public enum Mode {
+        /**
+         * A few event-loop threads, each multiplexing many clients
+         * with a Selector. See SelectorServer.
+         */
+        SELECTOR,
+        /**
+         * One virtual thread per client, with blocking I/O.
+         * See VirtualThreadServer.
+         */
+        VIRTUAL_THREADS
+    }
+
+    /**
+     * What a session does when its client reads more slowly than
+     * messages for it arrive, so that its outbound queue reaches
+     * the server's outbound limit. See OutboundQueue.
+     */
+    public enum SlowConsumerPolicy {
+        /**
+         * Stop taking messages from whichever client is sending to
+         * the slow one, until it catches up. Nothing is lost, but one
+         * slow client slows down everyone who sends to it.
+         */
+        BLOCK,
+        /**
+         * Drop the oldest queued TEXT messages to make room. Files
+         * are never dropped; a client that cannot keep up with them
+         * is disconnected.
+         */
+        DROP_OLDEST_TEXT,
+        /**
+         * Disconnect the slow client.
+         */
+        DISCONNECT
+    }
+
+    /**
+     * Default number of bytes each session may hold for its client
+     * before the slow-consumer policy applies: 4 MiB.
+     */
+    public static final long DEFAULT_OUTBOUND_LIMIT = 4 * 1024 * 1024;
+
+    /**
+     * Maximum number of connections waiting to be accepted.
+     */
+    protected static final int ACCEPT_BACKLOG = 1024;
+
+    private final int port;
+    private final SessionRegistry registry = new SessionRegistry();
+    private volatile boolean compressionAllowed = true;
+    private volatile long outboundLimit = DEFAULT_OUTBOUND_LIMIT;
+    private volatile SlowConsumerPolicy slowConsumerPolicy = SlowConsumerPolicy.BLOCK;
+    private final ChunkStore chunkStore = new ChunkStore();
+    private final ResumableTransfers transfers = new ResumableTransfers();
+    // Files each session is sending by manifest, by save-as name.
+    // The inner maps are only used by the session's dispatch thread.
+    private final Map<Session, Map<String, ManifestUpload>> uploads =
+            new ConcurrentHashMap<>();
+
+    /**
+     * Constructs a server that will listen on the given port.
+     *
+     * @param port port to listen on; 0 means any free port.
+     */
+    protected Server(int port) {
+        this.port = port;
+    }
+
+    /**
+     * Creates a server of the given mode.
+     *
+     * @param mode how the server handles connections.
+     * @param port port to listen on; 0 means any free port.
+     * @return a new, not yet started, server.
+     */
+    public static Server create(Mode mode, int port) {
+        switch (mode) {
+            case SELECTOR:
+                return new SelectorServer(port);
+            case VIRTUAL_THREADS:
+                return new VirtualThreadServer(port);
+            default:
+                throw new IllegalArgumentException("unknown server mode " + mode);
+        }
+    }
+
+    /**
+     * Starts accepting and serving clients, on threads of the
+     * server's own. Returns once the server is listening.
+     *
+     * @throws IOException if the server cannot listen on its port.
+     */
+    public abstract void start() throws IOException;
+
+    /**
+     * Stops the server, closing all client connections.
+     */
+    public abstract void stop();
+
+    /**
+     * Gets the port the server is actually listening on. This is
+     * only meaningful once start() has returned.
+     *
+     * @return the listening port.
+     */
+    public abstract int getLocalPort();
+
+    /**
+     * Gets the port the server was asked to listen on.
+     *
+     * @return the port given to the constructor.
+     */
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * Sets whether the server agrees to clients' requests for
+     * compression. It does unless told otherwise. Sessions that
+     * already have compression keep it.
+     *
+     * @param compressionAllowed true to agree to compression.
+     */
+    public void setCompressionAllowed(boolean compressionAllowed) {
+        this.compressionAllowed = compressionAllowed;
+    }
+
+    /**
+     * Sets how many bytes each session may hold for its client, sent
+     * but not yet written, before the slow-consumer policy applies.
+     * Sessions that are already open keep the limit they had.
+     *
+     * @param outboundLimit the limit, in bytes.
+     * @throws IllegalArgumentException if outboundLimit is not positive.
+     */
+    public void setOutboundLimit(long outboundLimit) {
+        if (outboundLimit <= 0) {
+            throw new IllegalArgumentException("outbound limit must be positive");
+        }
+        this.outboundLimit = outboundLimit;
+    }
+
+    /**
+     * Gets how many bytes each new session may hold for its client.
+     *
+     * @return the limit, in bytes; DEFAULT_OUTBOUND_LIMIT unless set.
+     */
+    public long getOutboundLimit() {
+        return outboundLimit;
+    }
+
+    /**
+     * Sets what sessions do when their clients fall behind. Sessions
+     * that are already open keep the policy they had.
+     *
+     * @param slowConsumerPolicy the policy.
+     */
+    public void setSlowConsumerPolicy(SlowConsumerPolicy slowConsumerPolicy) {
+        this.slowConsumerPolicy = slowConsumerPolicy;
+    }
+
+    /**
+     * Gets what new sessions do when their clients fall behind.
+     *
+     * @return the policy; BLOCK unless set.
+     */
+    public SlowConsumerPolicy getSlowConsumerPolicy() {
+        return slowConsumerPolicy;
+    }
+
+    /**
+     * Creates the outbound queue for a new session, with the current
+     * limit and policy.
+     *
+     * @return an empty queue.
+     */
+    OutboundQueue newOutboundQueue() {
+        return new OutboundQueue(outboundLimit, slowConsumerPolicy);
+    }
+
+    /**
+     * Gets the number of clients currently connected.
+     *
+     * @return the number of open sessions.
+     */
+    public int getSessionCount() {
+        return registry.size();
+    }
+
+    /**
+     * Called by subclasses when a client connects.
+     *
+     * @param session the new client's session.
+     */
+    protected void sessionOpened(Session session) {
+        registry.add(session);
+    }
+
+    /**
+     * Called by subclasses when a client's connection has closed,
+     * for whatever reason.
+     *
+     * @param session the closed session.
+     */
+    protected void sessionClosed(Session session) {
+        registry.remove(session);
+        uploads.remove(session);
+    }
+
+    /**
+     * Called by subclasses for each message a client sends. Decides
+     * what to do with it, by message type; see the class comment.
+     *
+     * @param from the session the message arrived on.
+     * @param msg  the message.
+     */
+    protected void dispatch(Session from, Message msg) {
+        if (from.getUsername() == null) {
+            from.setUsername(msg.getUsername());
+            registry.join(from);
+        }
+        switch (msg.getMsgType()) {
+            case Message.MSGTYPE_TEXT:
+            case Message.MSGTYPE_FILE:
+                broadcast(msg, null);
+                break;
+            case Message.MSGTYPE_FILECHUNK:
+                if (!continueUpload(from, (FileChunkMessage) msg)
+                        && transfers.accept(from.getUsername(), (FileChunkMessage) msg)) {
+                    broadcast(msg, from);
+                }
+                break;
+            case Message.MSGTYPE_FILERESUME:
+                FileResumeMessage resume = (FileResumeMessage) msg;
+                from.send(new FileResumeMessage(SERVER_USERNAME,
+                        resume.getFileSaveAsName(), resume.getTransferId(),
+                        resume.getTotalLength(),
+                        transfers.getReceived(from.getUsername(),
+                                resume.getTransferId(), resume.getTotalLength())));
+                break;
+            case Message.MSGTYPE_FILEMANIFEST:
+                startUpload(from, (FileManifestMessage) msg);
+                break;
+            case Message.MSGTYPE_LISTUSERS:
+                from.send(registry.getUserList());
+                break;
+            case Message.MSGTYPE_LOGOUT:
+                from.send(msg);
+                from.close();
+                break;
+            case Message.MSGTYPE_OPTIONS:
+                int agreed = ((OptionsMessage) msg).getOptions() & supportedOptions();
+                from.send(new OptionsMessage(SERVER_USERNAME, agreed));
+                from.setCompressing((agreed & OptionsMessage.OPTION_COMPRESSION) != 0);
+                break;
+            default:
+                // Nothing for the server to do.
+        }
+    }
+
+    /**
+     * Gets the options the server agrees to.
+     *
+     * @return OptionsMessage.OPTION_ bits, or-ed together.
+     */
+    private int supportedOptions() {
+        int options = OptionsMessage.OPTION_DEDUP | OptionsMessage.OPTION_RESUME;
+        if (compressionAllowed) {
+            options |= OptionsMessage.OPTION_COMPRESSION;
+        }
+        return options;
+    }
+
+    /**
+     * Starts receiving a file by manifest: asks the sender for the
+     * chunks the store does not have, or if it has them all, sends
+     * the file on at once. A manifest for a file too large to hold,
+     * or with chunks longer than ContentChunker makes, closes the
+     * session, as a corrupt frame would.
+     *
+     * @param from     the sender's session.
+     * @param manifest the file's manifest.
+     */
+    private void startUpload(Session from, FileManifestMessage manifest) {
+        if (manifest.getTotalLength() > ContentChunker.MAX_FILE_SIZE) {
+            from.close();
+            return;
+        }
+        for (int i = 0; i < manifest.getChunkCount(); ++i) {
+            if (manifest.getChunkLength(i) > ContentChunker.MAX_CHUNK_SIZE) {
+                from.close();
+                return;
+            }
+        }
+        ManifestUpload upload = new ManifestUpload(manifest, chunkStore);
+        String name = manifest.getFileSaveAsName();
+        from.send(new FileChunkRequestMessage(SERVER_USERNAME, name,
+                upload.getRequested()));
+        Map<String, ManifestUpload> fromUploads =
+                uploads.computeIfAbsent(from, s -> new HashMap<>());
+        if (upload.isComplete()) {
+            fromUploads.remove(name);
+            finishUpload(from, upload);
+        } else {
+            fromUploads.put(name, upload);
+        }
+    }
+
+    /**
+     * Passes a chunk to the upload it belongs to, if any. A chunk
+     * that does not match what the manifest said abandons the upload.
+     *
+     * @param from  the sender's session.
+     * @param chunk the chunk.
+     * @return true if the chunk belonged to an upload; false if it
+     * is an ordinary chunk, to be broadcast.
+     */
+    private boolean continueUpload(Session from, FileChunkMessage chunk) {
+        Map<String, ManifestUpload> fromUploads = uploads.get(from);
+        ManifestUpload upload = (fromUploads == null)
+                ? null
+                : fromUploads.get(chunk.getFileSaveAsName());
+        if (upload == null) {
+            return false;
+        }
+        if (!upload.accept(chunk)) {
+            fromUploads.remove(chunk.getFileSaveAsName());
+        } else if (upload.isComplete()) {
+            fromUploads.remove(chunk.getFileSaveAsName());
+            finishUpload(from, upload);
+        }
+        return true;
+    }
+
+    /**
+     * Sends a completed upload to everyone but its sender. The chunks
+     * are fed to each session as its client reads them, since the
+     * whole file may be far more than the outbound limit.
+     */
+    private void finishUpload(Session from, ManifestUpload upload) {
+        FileChunkMessage[] chunks = upload.toChunkMessages();
+        EncodedMessage[] encoded = new EncodedMessage[chunks.length];
+        for (int i = 0; i < chunks.length; ++i) {
+            encoded[i] = new EncodedMessage(chunks[i]);
+        }
+        for (Session session : registry.getSessions()) {
+            if (session != from) {
+                session.sendAll(encoded);
+            }
+        }
+    }
+
+    /**
+     * Gets the store of chunks of files sent by manifest.
+     *
+     * @return the server's chunk store.
+     */
+    ChunkStore getChunkStore() {
+        return chunkStore;
+    }
+
+    /**
+     * Gets the record of unfinished resumable transfers.
+     *
+     * @return the server's record of transfers.
+     */
+    ResumableTransfers getTransfers() {
+        return transfers;
+    }
+
+    /**
+     * Sends a message to every connected client but one. The message
+     * is encoded once, at most twice if some clients take compressed
+     * frames and some do not, however many clients there are.
+     *
+     * @param msg    the message to send.
+     * @param except the session not to send it to, or null to
+     *               send it to everyone.
+     */
+    private void broadcast(Message msg, Session except) {
+        EncodedMessage encoded = new EncodedMessage(msg);
+        for (Session session : registry.getSessions()) {
+            if (session != except) {
+                session.send(encoded);
+            }
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package tranquility_base.clack.endpoint;
+
+import tranquility_base.clack.message.Message;
+
+/**
+ * The server's end of one client connection. A Server creates a
+ * Session for each client that connects, hands it every message
+ * that client sends, and uses it to send messages back.
+ * <p>
+ * How messages actually reach the client depends on the kind of
+ * Server, so each kind has its own concrete Session subclass.
+ * All methods may be called from any thread.
+ */
+public abstract class Session {
+
+    private volatile String username;
+    private volatile boolean compressing;
+
+    /**
+     * Gets the username of the client on this session. This is
+     * taken from the first message the client sends.
+     *
+     * @return the username, or null if the client has not sent
+     * anything yet.
+     */
+    public String getUsername() {
+        return username;
+    }
+
+    /**
+     * Sets the username of the client on this session.
+     *
+     * @param username the client's username.
+     */
+    void setUsername(String username) {
+        this.username = username;
+    }
+
+    /**
+     * Tells whether messages to the client may be sent compressed.
+     *
+     * @return true iff the client has asked for compression, and
+     * the server has agreed.
+     */
+    boolean isCompressing() {
+        return compressing;
+    }
+
+    /**
+     * Sets whether messages to the client may be sent compressed, and
+     * whether compressed frames from it are accepted.
+     *
+     * @param compressing true iff compression has been agreed.
+     */
+    void setCompressing(boolean compressing) {
+        this.compressing = compressing;
+    }
+
+    /**
+     * Sends a message to the client. Messages are delivered in the
+     * order they are sent. If the session has been closed, the
+     * message is silently dropped.
+     *
+     * @param msg the message to send.
+     */
+    public abstract void send(Message msg);
+
+    /**
+     * Sends an already-encoded message to the client, as its plain or
+     * compressed frame as isCompressing() says, without encoding it
+     * again. Otherwise as send(Message).
+     *
+     * @param msg the message to send.
+     */
+    abstract void send(EncodedMessage msg);
+
+    /**
+     * Sends a series of already-encoded messages to the client, such
+     * as the chunks of a file, feeding them to it as it reads them
+     * rather than queuing them all at once. However many there are,
+     * the server's SlowConsumerPolicy does not apply to them. Messages
+     * sent meanwhile with send() may reach the client between them.
+     *
+     * @param msgs the messages to send, in order.
+     */
+    abstract void sendAll(EncodedMessage[] msgs);
+
+    /**
+     * Closes the session, once any messages already sent with
+     * send() have been delivered.
+     */
+    public abstract void close();
+}
@@ -0,0 +1,172 @@
+package tranquility_base.clack.endpoint;
+
+import tranquility_base.clack.message.TextMessage;
+
+import java.util.Arrays;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The server's record of its sessions: every open session, and the
+ * sessions of each username (a user may be connected more than once).
+ * Sessions are added and removed in constant time, without a global
+ * lock: the sets are concurrent hash maps, and a username's sessions
+ * are replaced atomically, per username, as a small array.
+ * <p>
+ * The reply to LIST USERS is built, and encoded, only when the set of
+ * usernames has changed since it was last built; in between, every
+ * request is answered with the same EncodedMessage. Changes are
+ * counted in a version number, so a reply built while a user joins
+ * or leaves is rebuilt on the next request.
+ * <p>
+ * Thread-safe.
+ */
+final class SessionRegistry {
+
+    /**
+     * The user list, and the version of the usernames it lists.
+     */
+    private static final class UserList {
+        final long version;
+        final EncodedMessage reply;
+
+        UserList(long version, EncodedMessage reply) {
+            this.version = version;
+            this.reply = reply;
+        }
+    }
+
+    private final Set<Session> sessions = ConcurrentHashMap.newKeySet();
+    private final ConcurrentHashMap<String, Session[]> byUsername = new ConcurrentHashMap<>();
+    // Incremented whenever a username is added or removed.
+    private final AtomicLong version = new AtomicLong();
+    private volatile UserList userList;
+
+    /**
+     * Adds a newly opened session, which has no username yet.
+     *
+     * @param session the session.
+     */
+    void add(Session session) {
+        sessions.add(session);
+    }
+
+    /**
+     * Records a session's username, once it is known. The session
+     * must have been added, and its username set.
+     *
+     * @param session the session.
+     */
+    void join(Session session) {
+        String username = session.getUsername();
+        if (username == null || !sessions.contains(session)) {
+            return;
+        }
+        boolean[] newUsername = new boolean[1];
+        byUsername.compute(username, (k, s) -> {
+            newUsername[0] = (s == null);
+            return (s == null) ? new Session[]{session} : with(s, session);
+        });
+        if (newUsername[0]) {
+            version.incrementAndGet();
+        }
+    }
+
+    /**
+     * Removes a closed session.
+     *
+     * @param session the session.
+     */
+    void remove(Session session) {
+        if (!sessions.remove(session)) {
+            return;
+        }
+        String username = session.getUsername();
+        if (username != null
+                && byUsername.computeIfPresent(username, (k, s) -> without(s, session)) == null) {
+            version.incrementAndGet();
+        }
+    }
+
+    /**
+     * Gets every open session, whether or not its username is known.
+     *
+     * @return the sessions; a live view, safe to iterate while
+     * sessions come and go.
+     */
+    Iterable<Session> getSessions() {
+        return sessions;
+    }
+
+    /**
+     * Gets the number of open sessions.
+     *
+     * @return the number of sessions.
+     */
+    int size() {
+        return sessions.size();
+    }
+
+    /**
+     * Gets the open sessions of one user.
+     *
+     * @param username the user.
+     * @return the user's sessions; empty if the user is not connected.
+     */
+    Session[] getSessions(String username) {
+        Session[] found = byUsername.get(username);
+        return (found == null) ? new Session[0] : found.clone();
+    }
+
+    /**
+     * Gets the reply to LIST USERS: a TextMessage, from
+     * Server.SERVER_USERNAME, listing the connected users in order.
+     * Its timestamp is when the list was built.
+     *
+     * @return the reply, already encoded.
+     */
+    EncodedMessage getUserList() {
+        long current = version.get();
+        UserList list = userList;
+        if (list == null || list.version != current) {
+            Set<String> usernames = new TreeSet<>(byUsername.keySet());
+            list = new UserList(current, new EncodedMessage(new TextMessage(
+                    Server.SERVER_USERNAME, "Users: " + String.join(", ", usernames))));
+            userList = list;
+        }
+        return list.reply;
+    }
+
+    /**
+     * Adds a session to an array of them.
+     *
+     * @return a new array, with the session at the end.
+     */
+    private static Session[] with(Session[] sessions, Session session) {
+        Session[] more = Arrays.copyOf(sessions, sessions.length + 1);
+        more[sessions.length] = session;
+        return more;
+    }
+
+    /**
+     * Removes a session from an array of them.
+     *
+     * @return the array without the session, or null if that
+     * leaves it empty.
+     */
+    private static Session[] without(Session[] sessions, Session session) {
+        int at = Arrays.asList(sessions).indexOf(session);
+        if (at < 0) {
+            return sessions;
+        }
+        if (sessions.length == 1) {
+            return null;
+        }
+        Session[] rest = new Session[sessions.length - 1];
+        System.arraycopy(sessions, 0, rest, 0, at);
+        System.arraycopy(sessions, at + 1, rest, at, rest.length - at);
+        return rest;
+    }
+}
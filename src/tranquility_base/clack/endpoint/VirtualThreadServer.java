@@ -0,0 +1,250 @@
+package tranquility_base.clack.endpoint;
+
+import tranquility_base.clack.message.Message;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A Server that runs each client session on its own virtual thread,
+ * using plain blocking I/O. Each session is a simple read-dispatch
+ * loop, much like Client.start(), yet since virtual threads are
+ * cheap, tens of thousands of clients can be connected at once.
+ * <p>
+ * Virtual threads are always daemon threads, so connections are
+ * accepted on a platform thread that is not: a running server keeps
+ * the JVM alive, as a SelectorServer does.
+ */
+public class VirtualThreadServer extends Server {
+
+    // The session whose message this thread is dispatching, if any.
+    private static final ThreadLocal<BlockingSession> DISPATCHING = new ThreadLocal<>();
+
+    private ServerSocketChannel serverChannel;
+    private ExecutorService sessionThreads;
+    private Thread acceptorThread;
+
+    /**
+     * Constructs a server that will listen on the given port.
+     *
+     * @param port port to listen on; 0 means any free port.
+     */
+    public VirtualThreadServer(int port) {
+        super(port);
+    }
+
+    @Override
+    public void start() throws IOException {
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(getPort()), ACCEPT_BACKLOG);
+        sessionThreads = Executors.newVirtualThreadPerTaskExecutor();
+        acceptorThread = Thread.ofPlatform()
+                .name("clack-acceptor")
+                .daemon(false)
+                .start(this::acceptConnections);
+    }
+
+    @Override
+    public void stop() {
+        try {
+            serverChannel.close();
+        } catch (IOException e) {
+            // Stopping anyway.
+        }
+        // Interrupting a thread blocked on a channel closes the channel.
+        sessionThreads.shutdownNow();
+        try {
+            acceptorThread.join();
+            sessionThreads.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public int getLocalPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    /**
+     * The acceptor thread's loop: start a new session thread for
+     * each connection.
+     */
+    private void acceptConnections() {
+        while (true) {
+            try {
+                SocketChannel channel = serverChannel.accept();
+                channel.socket().setTcpNoDelay(true);
+                sessionThreads.execute(() -> serve(channel));
+            } catch (ClosedChannelException e) {
+                break;      // stop() was called
+            } catch (IOException e) {
+                // Problem with this one connection; keep accepting others.
+            }
+        }
+    }
+
+    /**
+     * A session thread's loop: receive and dispatch messages until
+     * the client disconnects or the session is closed. The session's
+     * writer runs on a virtual thread of its own.
+     * <p>
+     * Under the BLOCK policy, a message is first sent to everyone it
+     * is for, full queues or not; then, before reading another, the
+     * thread waits for each queue it filled to drain. So a slow client
+     * holds up only the clients sending to it, not the others they
+     * send to, just as a SelectorServer stops reading from them.
+     *
+     * @param channel the client's connection.
+     */
+    private void serve(SocketChannel channel) {
+        BlockingSession session = new BlockingSession(new Connection(channel),
+                newOutboundQueue());
+        sessionThreads.execute(session::writeLoop);
+        sessionOpened(session);
+        DISPATCHING.set(session);
+        try {
+            Message msg;
+            while (!session.closed && (msg = session.connection.receive()) != null) {
+                dispatch(session, msg);
+                session.awaitFull();
+            }
+        } catch (IOException e) {
+            // Client went away, or sent garbage; either way, we're done.
+        } catch (InterruptedException e) {
+            // The server is stopping.
+        } finally {
+            DISPATCHING.remove();
+            session.close();
+            sessionClosed(session);
+        }
+    }
+
+    /**
+     * A Session whose messages are queued, and written to the client
+     * by a writer thread of its own, so a slow client holds up no one
+     * else until its queue is full; then the server's
+     * SlowConsumerPolicy applies. Under BLOCK, the message is queued
+     * anyway, and the session whose message it was waits for the
+     * queue to drain once it has been sent to everyone (see serve()).
+     */
+    private static class BlockingSession extends Session {
+        final Connection connection;
+        final OutboundQueue outbound;
+        volatile boolean closed;
+        // Sessions this one's last message filled, to wait for before
+        // reading another. Only used on this session's thread.
+        final Set<BlockingSession> full = new LinkedHashSet<>();
+
+        BlockingSession(Connection connection, OutboundQueue outbound) {
+            this.connection = connection;
+            this.outbound = outbound;
+        }
+
+        @Override
+        void setCompressing(boolean compressing) {
+            super.setCompressing(compressing);
+            // So the session thread accepts compressed frames.
+            connection.setCompressing(compressing);
+        }
+
+        @Override
+        public void send(Message msg) {
+            send(new EncodedMessage(msg));
+        }
+
+        @Override
+        void send(EncodedMessage msg) {
+            if (closed) {
+                return;
+            }
+            if (!outbound.offer(msg, isCompressing())) {
+                disconnect();
+                return;
+            }
+            if (outbound.mustWait()) {
+                BlockingSession producer = DISPATCHING.get();
+                if (producer != null) {
+                    producer.full.add(this);
+                }
+            }
+        }
+
+        /**
+         * Waits for every queue this session's last message filled to
+         * drain. Runs on this session's thread, after dispatch.
+         *
+         * @throws InterruptedException if interrupted while waiting.
+         */
+        void awaitFull() throws InterruptedException {
+            try {
+                for (BlockingSession session : full) {
+                    session.outbound.awaitRoom();
+                }
+            } finally {
+                full.clear();
+            }
+        }
+
+        @Override
+        void sendAll(EncodedMessage[] msgs) {
+            if (!closed) {
+                outbound.offerAll(msgs, isCompressing());
+            }
+        }
+
+        /**
+         * The writer thread's loop: write queued frames until the
+         * session is closed and the queue empty, then close the
+         * connection.
+         */
+        void writeLoop() {
+            try {
+                ByteBuffer frame;
+                while ((frame = outbound.take()) != null) {
+                    int length = frame.remaining();
+                    connection.write(frame);
+                    outbound.written(length);
+                }
+            } catch (IOException | InterruptedException e) {
+                // Client went away, or the server is stopping.
+                outbound.clear();
+            } finally {
+                closeConnection();
+            }
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+            outbound.close();
+        }
+
+        /**
+         * Closes the connection at once, dropping anything queued.
+         * The session thread, blocked reading, then finishes.
+         */
+        private void disconnect() {
+            closed = true;
+            outbound.clear();
+            closeConnection();
+        }
+
+        private void closeConnection() {
+            try {
+                connection.close();
+            } catch (IOException e) {
+                // Closed as far as we are concerned.
+            }
+        }
+    }
+}
@@ -0,0 +1,430 @@
+package tranquility_base.clack.history;
+
+import tranquility_base.clack.message.Message;
+import tranquility_base.clack.message.MessageCodec;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * A Journal of messages, with sparse indexes so that recent history
+ * can be found without reading the whole journal. The journal is
+ * divided into blocks of blockSize messages, and for each block the
+ * index keeps where it starts, how many messages it has, and the
+ * latest timestamp in it or any block before it. For each username,
+ * the index keeps the blocks holding that user's messages.
+ * <p>
+ * A query binary-searches the blocks by timestamp, or walks back
+ * from the last block, and reads only the blocks that can hold what
+ * it asks for. Timestamps come from each sender's clock, so they need
+ * not increase along the journal; a block that can hold a match is
+ * read, and its messages checked one by one.
+ * <p>
+ * The indexes are kept in memory, and kept up to date by append().
+ * When the History is closed they are saved in INDEX_FILE, next to the
+ * journal's segments, along with the position they run to. When it
+ * is opened again, they are loaded from there, and only the messages
+ * appended since (after a crash, say) are read to bring them up to
+ * date. If there is no index file, or it does not match the journal,
+ * the whole journal is read instead. Either way, only each message's
+ * header is read: its timestamp and username are all the index needs.
+ * <p>
+ * All methods are thread-safe.
+ */
+public class History implements Closeable {
+    /**
+     * Number of messages per index block, if not given.
+     */
+    public static final int DEFAULT_BLOCK_SIZE = 64;
+
+    /**
+     * Name of the file, in the journal's directory, the indexes are
+     * saved in.
+     */
+    public static final String INDEX_FILE = "history.index";
+
+    // First int of an index file; changed whenever its layout is.
+    private static final int INDEX_VERSION = 0x636c6b01;
+
+    /**
+     * One block of messages.
+     */
+    private static class Block {
+        final long start;
+        int count;
+        // Latest timestamp in this block or any before it.
+        long maxEpochNanos;
+
+        Block(long start, long maxEpochNanos) {
+            this.start = start;
+            this.maxEpochNanos = maxEpochNanos;
+        }
+    }
+
+    /**
+     * A growing list of block numbers, in increasing order.
+     */
+    private static class BlockList {
+        int[] blocks = new int[4];
+        int size;
+
+        void add(int block) {
+            if (size > 0 && blocks[size - 1] == block) {
+                return;
+            }
+            if (size == blocks.length) {
+                blocks = Arrays.copyOf(blocks, 2 * size);
+            }
+            blocks[size++] = block;
+        }
+    }
+
+    private final Journal journal;
+    private final int blockSize;
+    private final List<Block> blocks = new ArrayList<>();
+    private final Map<String, BlockList> blocksByUsername = new HashMap<>();
+
+    /**
+     * Indexes a journal: loads the index saved when it was last
+     * closed, if there is one, and reads the headers of the messages
+     * appended since. The History then owns the journal: messages
+     * must only be appended through it, and closing it closes the
+     * journal.
+     *
+     * @param journal   the journal.
+     * @param blockSize number of messages per index block.
+     * @throws IllegalArgumentException if blockSize is not positive,
+     *                                  or the journal is corrupt.
+     */
+    public History(Journal journal, int blockSize) {
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException("block size must be positive");
+        }
+        this.journal = journal;
+        this.blockSize = blockSize;
+        Journal.Cursor cursor = journal.cursor(loadIndex());
+        while (cursor.hasNext()) {
+            long position = cursor.getPosition();
+            MessageCodec.Header header = cursor.nextHeader();
+            index(position, header.getEpochNanos(), header.getUsername());
+        }
+    }
+
+    /**
+     * Opens, and indexes, the journal in a directory, with blocks of
+     * DEFAULT_BLOCK_SIZE.
+     *
+     * @param directory where the journal's segment files are.
+     * @throws IOException if the journal cannot be opened.
+     */
+    public History(Path directory) throws IOException {
+        this(new Journal(directory), DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * Appends a message to the journal, and indexes it.
+     *
+     * @param msg the message.
+     * @throws IOException              if the journal cannot be written.
+     * @throws IllegalArgumentException if the message is too big for
+     *                                  the journal.
+     */
+    public synchronized void append(Message msg) throws IOException {
+        index(journal.append(msg), msg.getEpochNanos(), msg.getUsername());
+    }
+
+    private void index(long position, long epochNanos, String username) {
+        Block last = blocks.isEmpty() ? null : blocks.get(blocks.size() - 1);
+        if (last == null || last.count == blockSize) {
+            last = new Block(position, (last == null) ? Long.MIN_VALUE : last.maxEpochNanos);
+            blocks.add(last);
+        }
+        last.count++;
+        last.maxEpochNanos = Math.max(last.maxEpochNanos, epochNanos);
+        blocksByUsername.computeIfAbsent(username, k -> new BlockList())
+                .add(blocks.size() - 1);
+    }
+
+    /**
+     * Loads the index saved by close(), if there is one and it
+     * matches the journal and blockSize.
+     *
+     * @return the position the loaded index runs to, from which the
+     * journal must still be read; the journal's start position if
+     * nothing was loaded.
+     */
+    private long loadIndex() {
+        Path path = journal.getDirectory().resolve(INDEX_FILE);
+        try {
+            if (Files.exists(path)) {
+                ByteBuffer buf = ByteBuffer.wrap(Files.readAllBytes(path));
+                CRC32 crc = new CRC32();
+                crc.update(buf.array(), 0, buf.limit() - Long.BYTES);
+                if (buf.getLong(buf.limit() - Long.BYTES) == crc.getValue()) {
+                    buf.limit(buf.limit() - Long.BYTES);
+                    long end = readIndex(new DataInputStream(
+                            new ByteArrayInputStream(buf.array(), 0, buf.limit())));
+                    if (end >= 0) {
+                        return end;
+                    }
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            // Unreadable, so read the journal instead.
+        }
+        blocks.clear();
+        blocksByUsername.clear();
+        return journal.getStartPosition();
+    }
+
+    /**
+     * Reads an index, as written by writeIndex().
+     *
+     * @return the position the index runs to, or -1 if it is not an
+     * index of this journal with this blockSize.
+     */
+    private long readIndex(DataInputStream in) throws IOException {
+        if (in.readInt() != INDEX_VERSION || in.readInt() != blockSize) {
+            return -1;
+        }
+        long end = in.readLong();
+        // The journal must hold everything the index does, and start
+        // where its first block does.
+        if (end < journal.getStartPosition() || end > journal.getEndPosition()) {
+            return -1;
+        }
+        int blockCount = in.readInt();
+        for (int i = 0; i < blockCount; i++) {
+            Block block = new Block(in.readLong(), in.readLong());
+            block.count = in.readInt();
+            // Every block is full but the last.
+            if (block.count <= 0 || block.count > blockSize
+                    || (block.count < blockSize && i < blockCount - 1)) {
+                return -1;
+            }
+            blocks.add(block);
+        }
+        long start = blocks.isEmpty() ? end : blocks.get(0).start;
+        if (start != journal.getStartPosition()) {
+            return -1;
+        }
+        int userCount = in.readInt();
+        for (int i = 0; i < userCount; i++) {
+            String username = in.readBoolean() ? in.readUTF() : null;
+            BlockList list = new BlockList();
+            list.size = in.readInt();
+            list.blocks = new int[Math.max(list.size, 4)];
+            for (int j = 0; j < list.size; j++) {
+                list.blocks[j] = in.readInt();
+                if (list.blocks[j] < 0 || list.blocks[j] >= blockCount) {
+                    return -1;
+                }
+            }
+            blocksByUsername.put(username, list);
+        }
+        return end;
+    }
+
+    /**
+     * Saves the index, for the next History on this journal to load.
+     * It is written to a temporary file first, then renamed, so a
+     * crash leaves the old index or the new one, never half of one.
+     */
+    private void writeIndex() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(INDEX_VERSION);
+        out.writeInt(blockSize);
+        out.writeLong(journal.getEndPosition());
+        out.writeInt(blocks.size());
+        for (Block block : blocks) {
+            out.writeLong(block.start);
+            out.writeLong(block.maxEpochNanos);
+            out.writeInt(block.count);
+        }
+        out.writeInt(blocksByUsername.size());
+        for (Map.Entry<String, BlockList> entry : blocksByUsername.entrySet()) {
+            out.writeBoolean(entry.getKey() != null);
+            if (entry.getKey() != null) {
+                out.writeUTF(entry.getKey());
+            }
+            BlockList list = entry.getValue();
+            out.writeInt(list.size);
+            for (int j = 0; j < list.size; j++) {
+                out.writeInt(list.blocks[j]);
+            }
+        }
+        CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray());
+        out.writeLong(crc.getValue());
+
+        Path path = journal.getDirectory().resolve(INDEX_FILE);
+        Path temp = journal.getDirectory().resolve(INDEX_FILE + ".tmp");
+        Files.write(temp, bytes.toByteArray());
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Gets the number of messages in the history.
+     *
+     * @return the number of messages.
+     */
+    public synchronized long size() {
+        if (blocks.isEmpty()) {
+            return 0;
+        }
+        return (long) (blocks.size() - 1) * blockSize + blocks.get(blocks.size() - 1).count;
+    }
+
+    /**
+     * Finds the messages timestamped at or after a given time.
+     *
+     * @param username   the user whose messages to find, or null for
+     *                   everyone's.
+     * @param epochNanos the time, in nanoseconds since 1970-01-01T00:00Z.
+     * @return the messages, in the order they were appended.
+     */
+    public synchronized List<Message> since(String username, long epochNanos) {
+        List<Message> found = new ArrayList<>();
+        if (username == null) {
+            for (int b = firstBlockSince(epochNanos); b < blocks.size(); b++) {
+                readBlock(b, null, epochNanos, found);
+            }
+        } else {
+            BlockList list = blocksByUsername.get(username);
+            if (list == null) {
+                return found;
+            }
+            // The user's blocks are in order, so skip those before
+            // the first block that may hold a match.
+            int first = firstBlockSince(epochNanos);
+            int i = Arrays.binarySearch(list.blocks, 0, list.size, first);
+            for (i = (i < 0) ? -i - 1 : i; i < list.size; i++) {
+                readBlock(list.blocks[i], username, epochNanos, found);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Finds the first block that may hold a message timestamped at
+     * or after epochNanos. Blocks' running maximum timestamps never
+     * decrease, so this is a binary search.
+     */
+    private int firstBlockSince(long epochNanos) {
+        int lo = 0;
+        int hi = blocks.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (blocks.get(mid).maxEpochNanos < epochNanos) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Finds the last messages.
+     *
+     * @param username the user whose messages to find, or null for
+     *                 everyone's.
+     * @param count    most messages to find.
+     * @return up to count messages, the most recent last.
+     * @throws IllegalArgumentException if count is negative.
+     */
+    public synchronized List<Message> last(String username, int count) {
+        if (count < 0) {
+            throw new IllegalArgumentException("negative count");
+        }
+        if (count == 0) {
+            return new ArrayList<>();
+        }
+        if (username == null) {
+            // Counts are known, so read only from where the last
+            // count messages start.
+            int b = blocks.size();
+            long total = 0;
+            while (b > 0 && total < count) {
+                total += blocks.get(--b).count;
+            }
+            List<Message> found = new ArrayList<>();
+            for (; b < blocks.size(); b++) {
+                readBlock(b, null, Long.MIN_VALUE, found);
+            }
+            return found.subList(Math.max(0, found.size() - count), found.size());
+        }
+        // How many of the user's messages a block holds is not known
+        // until it is read, so read back a block at a time.
+        BlockList list = blocksByUsername.get(username);
+        ArrayDeque<List<Message>> read = new ArrayDeque<>();   // oldest first
+        int total = 0;
+        for (int i = (list == null) ? -1 : list.size - 1; i >= 0 && total < count; i--) {
+            List<Message> inBlock = new ArrayList<>();
+            readBlock(list.blocks[i], username, Long.MIN_VALUE, inBlock);
+            read.push(inBlock);
+            total += inBlock.size();
+        }
+        List<Message> found = new ArrayList<>(total);
+        for (List<Message> inBlock : read) {
+            found.addAll(inBlock);
+        }
+        return found.subList(Math.max(0, found.size() - count), found.size());
+    }
+
+    /**
+     * Reads one block, adding to found those of its messages from
+     * username (or anyone, if null) timestamped at or after epochNanos.
+     */
+    private void readBlock(int b, String username, long epochNanos, List<Message> found) {
+        Block block = blocks.get(b);
+        Journal.Cursor cursor = journal.cursor(block.start);
+        for (int i = 0; i < block.count; i++) {
+            Message msg = cursor.next();
+            if ((username == null || username.equals(msg.getUsername()))
+                    && msg.getEpochNanos() >= epochNanos) {
+                found.add(msg);
+            }
+        }
+    }
+
+    /**
+     * Forces everything appended so far out to the journal's files.
+     *
+     * @throws IOException if the journal is closed.
+     */
+    public synchronized void sync() throws IOException {
+        journal.sync();
+    }
+
+    /**
+     * Saves the index in INDEX_FILE, and closes the journal.
+     *
+     * @throws IOException if the index cannot be saved, or the
+     *                     journal cannot be closed.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            writeIndex();
+        } finally {
+            journal.close();
+        }
+    }
+}
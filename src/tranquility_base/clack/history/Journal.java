@@ -0,0 +1,414 @@
+package tranquility_base.clack.history;
+
+import tranquility_base.clack.message.Message;
+import tranquility_base.clack.message.MessageCodec;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.stream.Stream;
+
+/**
+ * An append-only journal of messages, kept in a directory of segment
+ * files. Each message is appended as a MessageCodec frame, encoded
+ * straight into a memory-mapped segment, so appending costs no system
+ * call: the operating system writes the pages out in the background,
+ * many messages at a time. Call sync() to force them out; that forces
+ * every segment written to since the last sync(), not just the one
+ * being appended to.
+ * <p>
+ * Every message has a position: a byte offset into the journal as a
+ * whole, which append() returns. A Cursor replays messages in order
+ * from any such position. When a message does not fit in what is left
+ * of the current segment, a new segment is started; a segment file is
+ * named after the position of its first message, so positions run on
+ * across segments without gaps.
+ * <p>
+ * After each frame the journal writes a zero frame length, so when a
+ * journal is reopened, its data ends at the first zero length in its
+ * last segment. A frame's length is written after the rest of the
+ * frame, so a message being appended when the process died is simply
+ * not there.
+ * <p>
+ * Appending is thread-safe; each Cursor is for one thread, but any
+ * number may read while messages are appended.
+ */
+public class Journal implements Closeable {
+    /**
+     * Segment size used if none is given: 128 MiB, so that a frame
+     * of MessageCodec.MAX_FRAME_LENGTH fits in one.
+     */
+    public static final long DEFAULT_SEGMENT_SIZE = 128L * 1024 * 1024;
+
+    /**
+     * Suffix of segment file names.
+     */
+    public static final String SEGMENT_SUFFIX = ".journal";
+
+    /**
+     * One segment file, mapped into memory.
+     */
+    private static class Segment {
+        final long base;
+        final FileChannel channel;
+        final MappedByteBuffer buffer;
+
+        Segment(Path path, long base, long size) throws IOException {
+            this.base = base;
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+
+    private final Path directory;
+    private final long segmentSize;
+    private final MessageCodec codec = new MessageCodec();
+    // By base position. Read by Cursors on other threads.
+    private final ConcurrentSkipListMap<Long, Segment> segments = new ConcurrentSkipListMap<>();
+    private Segment tail;
+    // Segments filled since the last sync(), other than the tail.
+    private final List<Segment> unsynced = new ArrayList<>();
+    // The tail segment, positioned at its end of data.
+    private ByteBuffer writer;
+    // Written after each frame, so Cursors see only whole frames.
+    private volatile long endPosition;
+    private boolean closed;
+
+    /**
+     * Opens the journal in a directory, creating the directory and
+     * the journal if need be.
+     *
+     * @param directory   where the segment files are.
+     * @param segmentSize size of each segment file, in bytes.
+     * @throws IOException              if the journal cannot be opened.
+     * @throws IllegalArgumentException if segmentSize is smaller than
+     *                                  a frame length, or 2 GiB or more.
+     */
+    public Journal(Path directory, long segmentSize) throws IOException {
+        if (segmentSize < 2 * Integer.BYTES || segmentSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("bad segment size " + segmentSize);
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        Files.createDirectories(directory);
+
+        TreeMap<Long, Path> found = new TreeMap<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            files.forEach(path -> {
+                String name = path.getFileName().toString();
+                if (name.endsWith(SEGMENT_SUFFIX)) {
+                    try {
+                        found.put(Long.parseLong(name.substring(0,
+                                name.length() - SEGMENT_SUFFIX.length())), path);
+                    } catch (NumberFormatException e) {
+                        // Not one of ours.
+                    }
+                }
+            });
+        }
+        for (Map.Entry<Long, Path> entry : found.entrySet()) {
+            // A segment keeps the size it was made with.
+            long size = Math.min(Files.size(entry.getValue()), Integer.MAX_VALUE);
+            segments.put(entry.getKey(), new Segment(entry.getValue(), entry.getKey(), size));
+        }
+        if (segments.isEmpty()) {
+            startSegment(0);
+        } else {
+            tail = segments.lastEntry().getValue();
+            writer = tail.buffer.duplicate();
+            writer.position(dataLength(tail.buffer));
+            endPosition = tail.base + writer.position();
+        }
+    }
+
+    /**
+     * Opens the journal in a directory, with segments of
+     * DEFAULT_SEGMENT_SIZE.
+     *
+     * @param directory where the segment files are.
+     * @throws IOException if the journal cannot be opened.
+     */
+    public Journal(Path directory) throws IOException {
+        this(directory, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Finds where a segment's data ends: at the first frame length
+     * that is zero, or that cannot be right.
+     */
+    private static int dataLength(ByteBuffer buffer) {
+        int offset = 0;
+        while (offset + Integer.BYTES <= buffer.capacity()) {
+            int frameLength = buffer.getInt(offset);
+            if (frameLength <= 0 || frameLength > buffer.capacity() - offset - Integer.BYTES) {
+                break;
+            }
+            offset += Integer.BYTES + frameLength;
+        }
+        return offset;
+    }
+
+    /**
+     * Starts a new segment, whose first message will be at position.
+     */
+    private void startSegment(long position) throws IOException {
+        if (tail != null) {
+            unsynced.add(tail);
+        }
+        Path path = directory.resolve(String.format("%019d", position) + SEGMENT_SUFFIX);
+        tail = new Segment(path, position, segmentSize);
+        writer = tail.buffer.duplicate();
+        segments.put(position, tail);
+    }
+
+    /**
+     * Appends a message.
+     *
+     * @param msg the message.
+     * @return the message's position.
+     * @throws IOException              if the journal is closed, or a new
+     *                                  segment cannot be made.
+     * @throws IllegalArgumentException if the message is too big for
+     *                                  a segment.
+     */
+    public synchronized long append(Message msg) throws IOException {
+        if (closed) {
+            throw new IOException("journal closed");
+        }
+        long position = endPosition;
+        try {
+            codec.encode(msg, writer);
+        } catch (BufferOverflowException e) {
+            if (writer.position() == 0) {
+                throw new IllegalArgumentException("message too large for journal segment");
+            }
+            startSegment(position);
+            try {
+                codec.encode(msg, writer);
+            } catch (BufferOverflowException e2) {
+                throw new IllegalArgumentException("message too large for journal segment");
+            }
+        }
+        if (writer.remaining() >= Integer.BYTES) {
+            writer.putInt(writer.position(), 0);
+        }
+        endPosition = tail.base + writer.position();
+        return position;
+    }
+
+    /**
+     * Forces everything appended so far out to the segment files.
+     *
+     * @throws IOException if the journal is closed.
+     */
+    public synchronized void sync() throws IOException {
+        if (closed) {
+            throw new IOException("journal closed");
+        }
+        force();
+    }
+
+    /**
+     * Forces the segments filled since the last sync(), then the tail.
+     */
+    private void force() {
+        for (Segment segment : unsynced) {
+            segment.buffer.force();
+        }
+        unsynced.clear();
+        tail.buffer.force();
+    }
+
+    /**
+     * Gets the number of segments, besides the one being appended
+     * to, that hold messages not yet forced out by sync().
+     *
+     * @return the number of segments waiting for sync().
+     */
+    synchronized int getUnsyncedSegmentCount() {
+        return unsynced.size();
+    }
+
+    /**
+     * Gets the directory the segment files are in.
+     *
+     * @return the journal's directory.
+     */
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Gets the position of the first message in the journal.
+     *
+     * @return the first message's position.
+     */
+    public long getStartPosition() {
+        return segments.firstKey();
+    }
+
+    /**
+     * Gets the position just past the last message in the journal,
+     * where the next message appended will go.
+     *
+     * @return the end position.
+     */
+    public long getEndPosition() {
+        return endPosition;
+    }
+
+    /**
+     * Gets the number of segment files.
+     *
+     * @return the number of segments.
+     */
+    public int getSegmentCount() {
+        return segments.size();
+    }
+
+    /**
+     * Makes a Cursor that replays messages from a position on.
+     *
+     * @param position where to start: the position of a message, or
+     *                 the end position.
+     * @return the cursor.
+     * @throws IllegalArgumentException if position is outside the journal.
+     */
+    public Cursor cursor(long position) {
+        if (position < getStartPosition() || position > endPosition) {
+            throw new IllegalArgumentException("position " + position + " outside journal");
+        }
+        return new Cursor(position);
+    }
+
+    /**
+     * Makes a Cursor that replays messages from the first on.
+     *
+     * @return the cursor.
+     */
+    public Cursor cursor() {
+        return cursor(getStartPosition());
+    }
+
+    /**
+     * Forces the journal out to its files, and closes them. Cursors
+     * must not be used afterwards.
+     *
+     * @throws IOException if a file cannot be closed.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        force();
+        for (Segment segment : segments.values()) {
+            segment.channel.close();
+        }
+    }
+
+    /**
+     * Reads messages from a Journal in order, from a given position
+     * on, including messages appended while it reads. A Cursor is not
+     * thread-safe.
+     */
+    public class Cursor {
+        private final MessageCodec cursorCodec = new MessageCodec();
+        private long position;
+        private Segment segment;
+        private ByteBuffer view;
+
+        private Cursor(long position) {
+            this.position = position;
+        }
+
+        /**
+         * Gets the position of the next message next() will return.
+         *
+         * @return the position.
+         */
+        public long getPosition() {
+            return position;
+        }
+
+        /**
+         * Tells whether there is a message to read.
+         *
+         * @return true iff next() will return a message.
+         */
+        public boolean hasNext() {
+            return position < endPosition;
+        }
+
+        /**
+         * Reads the next message.
+         *
+         * @return the message, or null if the cursor is at the end
+         * of the journal.
+         * @throws IllegalArgumentException if the journal is corrupt.
+         */
+        public Message next() {
+            if (position >= endPosition) {
+                return null;
+            }
+            int offset = seek();
+            Message msg = cursorCodec.decode(view);
+            if (msg == null) {
+                throw new IllegalArgumentException("journal corrupt at " + position);
+            }
+            position += view.position() - offset;
+            return msg;
+        }
+
+        /**
+         * Reads only the header of the next message, and moves past
+         * the whole message. Much cheaper than next() when only the
+         * timestamp or username is wanted.
+         *
+         * @return the message's header, or null if the cursor is at
+         * the end of the journal.
+         * @throws IllegalArgumentException if the journal is corrupt.
+         */
+        public MessageCodec.Header nextHeader() {
+            if (position >= endPosition) {
+                return null;
+            }
+            int offset = seek();
+            MessageCodec.Header header = cursorCodec.decodeHeader(view);
+            if (header == null) {
+                throw new IllegalArgumentException("journal corrupt at " + position);
+            }
+            position += view.position() - offset;
+            return header;
+        }
+
+        /**
+         * Positions view at the next message, in its segment.
+         *
+         * @return the message's offset in its segment.
+         */
+        private int seek() {
+            Map.Entry<Long, Segment> floor = segments.floorEntry(position);
+            if (segment != floor.getValue()) {
+                segment = floor.getValue();
+                view = segment.buffer.duplicate();
+            }
+            int offset = (int) (position - segment.base);
+            view.limit(view.capacity()).position(offset);
+            return offset;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package tranquility_base.clack.loadgen;
+
+import java.util.Arrays;
+
+/**
+ * Collects latency samples, in nanoseconds, and reports percentiles
+ * of them. Every sample is kept, so percentiles are exact; at eight
+ * bytes a sample, a million samples take 8 MB.
+ * <p>
+ * A LatencyRecorder is <b>not</b> thread-safe. Give each thread its
+ * own, and merge them with addAll() when done.
+ */
+public class LatencyRecorder {
+
+    private long[] samples = new long[1024];
+    private int count;
+    private boolean sorted = true;
+
+    /**
+     * Records one sample.
+     *
+     * @param nanos the latency, in nanoseconds.
+     * @throws IllegalArgumentException if nanos is negative.
+     */
+    public void record(long nanos) {
+        if (nanos < 0) {
+            throw new IllegalArgumentException("negative latency");
+        }
+        if (count == samples.length) {
+            samples = Arrays.copyOf(samples, 2 * samples.length);
+        }
+        samples[count++] = nanos;
+        sorted = false;
+    }
+
+    /**
+     * Records all of another recorder's samples in this one.
+     *
+     * @param other the recorder to copy samples from.
+     */
+    public void addAll(LatencyRecorder other) {
+        if (count + other.count > samples.length) {
+            samples = Arrays.copyOf(samples,
+                    Math.max(count + other.count, 2 * samples.length));
+        }
+        System.arraycopy(other.samples, 0, samples, count, other.count);
+        count += other.count;
+        sorted = false;
+    }
+
+    /**
+     * Gets the number of samples recorded.
+     *
+     * @return the sample count.
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Gets the latency that the given fraction of samples are
+     * at or below (using the nearest-rank method).
+     *
+     * @param fraction the fraction, from 0 to 1; e.g., 0.99 for p99.
+     * @return the latency, in nanoseconds; 0 if there are no samples.
+     * @throws IllegalArgumentException if fraction is not from 0 to 1.
+     */
+    public long getPercentile(double fraction) {
+        if (fraction < 0 || fraction > 1) {
+            throw new IllegalArgumentException("fraction must be from 0 to 1");
+        }
+        if (count == 0) {
+            return 0;
+        }
+        sort();
+        int rank = (int) Math.ceil(fraction * count);
+        return samples[Math.max(rank, 1) - 1];
+    }
+
+    /**
+     * Gets the largest latency recorded.
+     *
+     * @return the largest latency, in nanoseconds; 0 if there are
+     * no samples.
+     */
+    public long getMax() {
+        if (count == 0) {
+            return 0;
+        }
+        sort();
+        return samples[count - 1];
+    }
+
+    private void sort() {
+        if (!sorted) {
+            Arrays.sort(samples, 0, count);
+            sorted = true;
+        }
+    }
+}
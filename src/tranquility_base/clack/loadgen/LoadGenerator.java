@@ -0,0 +1,376 @@
+package tranquility_base.clack.loadgen;
+
+import tranquility_base.clack.endpoint.Client;
+import tranquility_base.clack.endpoint.Connection;
+import tranquility_base.clack.endpoint.OutboundWriter;
+import tranquility_base.clack.endpoint.Server;
+import tranquility_base.clack.message.FileMessage;
+import tranquility_base.clack.message.Message;
+import tranquility_base.clack.transfer.FileChunker;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Drives a Clack server with many simulated users at once, and
+ * measures how quickly it responds. Each user, on a virtual thread of
+ * its own, connects, then works through a script of command lines,
+ * over and over, parsing each line exactly as Client does (with
+ * Client.parseUserInput()). After sending each command, the user waits
+ * for the server's response before going on to the next:
+ * <ul>
+ *   <li>TEXT, FILE, LOGOUT: the user's own message, broadcast back
+ *       (matched by sender sequence number).</li>
+ *   <li>LISTUSERS: the server's list of users.</li>
+ *   <li>Streamed files: none; the command is done once the file
+ *       has been sent.</li>
+ *   <li>HELP: none; HELP is handled by the client alone.</li>
+ * </ul>
+ * A command's latency runs from parsing its line until its response
+ * arrives. Messages that other users broadcast are received, as by
+ * any client, and otherwise ignored. Each user logs out at the end.
+ * <p>
+ * Scripts should not contain LOGOUT; a user reaching one stops there.
+ */
+public class LoadGenerator {
+    /**
+     * Default number of simulated users.
+     */
+    public static final int DEFAULT_USERS = 10;
+
+    /**
+     * Default number of commands each user sends, not counting
+     * the final LOGOUT.
+     */
+    public static final int DEFAULT_COMMANDS_PER_USER = 1000;
+
+    /**
+     * How long a user waits for the response to a command before
+     * counting the command as failed.
+     */
+    public static final long RESPONSE_TIMEOUT_MILLIS = 30_000;
+
+    /**
+     * Label for the latencies of files sent in chunks.
+     */
+    public static final String STREAMED_FILE_LABEL = "FILE (streamed)";
+
+    private final String host;
+    private final int port;
+    private final int users;
+    private final int commandsPerUser;
+    private final List<String> script;
+
+    /**
+     * Constructs a load generator.
+     *
+     * @param host            server's host name.
+     * @param port            server's port.
+     * @param users           number of simulated users.
+     * @param commandsPerUser number of commands each user sends, not
+     *                        counting the final LOGOUT.
+     * @param script          command lines for users to send, in order,
+     *                        starting over when they reach the end.
+     * @throws IllegalArgumentException if users or commandsPerUser is
+     *                                  not positive, or the script is
+     *                                  empty or has a blank line.
+     */
+    public LoadGenerator(String host, int port, int users, int commandsPerUser,
+                         List<String> script) {
+        if (users <= 0 || commandsPerUser <= 0) {
+            throw new IllegalArgumentException("need at least one user and one command");
+        }
+        if (script.isEmpty()) {
+            throw new IllegalArgumentException("empty script");
+        }
+        for (String line : script) {
+            if (line.isBlank()) {
+                throw new IllegalArgumentException("blank line in script");
+            }
+        }
+        this.host = host;
+        this.port = port;
+        this.users = users;
+        this.commandsPerUser = commandsPerUser;
+        this.script = List.copyOf(script);
+    }
+
+    /**
+     * Builds the default script: mostly text, with some LIST USERS,
+     * HELP and small files.
+     *
+     * @param file a small file for SEND FILE commands to send.
+     * @return the script's command lines.
+     */
+    public static List<String> defaultScript(Path file) {
+        List<String> script = new ArrayList<>();
+        for (int i = 0; i < 7; ++i) {
+            script.add("load test message " + i);
+        }
+        script.add("LIST USERS");
+        script.add("HELP");
+        script.add("SEND FILE " + file + " AS loadgen.txt");
+        return script;
+    }
+
+    /**
+     * Runs the load: connects all the users, starts them together,
+     * and waits until they have all finished.
+     *
+     * @return the results.
+     * @throws IOException if a user cannot connect.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public LoadReport run() throws IOException, InterruptedException {
+        List<SimulatedUser> simulatedUsers = new ArrayList<>();
+        try {
+            for (int i = 0; i < users; ++i) {
+                simulatedUsers.add(new SimulatedUser(String.format("loaduser-%04d", i)));
+            }
+
+            CountDownLatch go = new CountDownLatch(1);
+            long start;
+            try (ExecutorService threads = Executors.newVirtualThreadPerTaskExecutor()) {
+                for (SimulatedUser user : simulatedUsers) {
+                    threads.execute(() -> user.run(go));
+                }
+                start = System.nanoTime();
+                go.countDown();
+            }   // close() waits for all the users to finish
+            long elapsed = System.nanoTime() - start;
+
+            Map<String, LatencyRecorder> latencies = new HashMap<>();
+            int failures = 0;
+            for (SimulatedUser user : simulatedUsers) {
+                failures += user.failures;
+                for (Map.Entry<String, LatencyRecorder> entry : user.latencies.entrySet()) {
+                    latencies.computeIfAbsent(entry.getKey(), k -> new LatencyRecorder())
+                            .addAll(entry.getValue());
+                }
+            }
+            return new LoadReport(users, elapsed, failures, latencies);
+        } finally {
+            for (SimulatedUser user : simulatedUsers) {
+                user.close();
+            }
+        }
+    }
+
+    /**
+     * Runs the load generator from the command line, and prints
+     * its report:
+     * <pre>
+     *   LoadGenerator [users [commandsPerUser [host [port [scriptFile]]]]]
+     * </pre>
+     * Without a script file, the default script is used.
+     *
+     * @param args command-line arguments.
+     * @throws IOException if the script cannot be read, or a user
+     *                     cannot connect.
+     * @throws InterruptedException if interrupted while running.
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int users = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_USERS;
+        int commandsPerUser = args.length > 1
+                ? Integer.parseInt(args[1])
+                : DEFAULT_COMMANDS_PER_USER;
+        String host = args.length > 2 ? args[2] : Client.DEFAULT_SERVER_NAME;
+        int port = args.length > 3 ? Integer.parseInt(args[3]) : Client.DEFAULT_SERVER_PORT;
+
+        Path smallFile = null;
+        List<String> script;
+        if (args.length > 4) {
+            script = new ArrayList<>();
+            for (String line : Files.readAllLines(Path.of(args[4]))) {
+                if (!line.isBlank()) {
+                    script.add(line);
+                }
+            }
+        } else {
+            smallFile = Files.createTempFile("clack-loadgen-", ".txt");
+            Files.writeString(smallFile, "x".repeat(4096));
+            script = defaultScript(smallFile);
+        }
+
+        try {
+            LoadGenerator generator = new LoadGenerator(host, port, users,
+                    commandsPerUser, script);
+            generator.run().print(System.out);
+        } finally {
+            if (smallFile != null) {
+                Files.delete(smallFile);
+            }
+        }
+    }
+
+    /**
+     * Gets the label under which a command's latency is recorded.
+     */
+    private static String labelFor(Message msg, boolean streamed) {
+        switch (msg.getMsgType()) {
+            case Message.MSGTYPE_FILE:
+                return streamed ? STREAMED_FILE_LABEL : "FILE";
+            case Message.MSGTYPE_HELP:
+                return "HELP";
+            case Message.MSGTYPE_LISTUSERS:
+                return "LISTUSERS";
+            case Message.MSGTYPE_LOGOUT:
+                return "LOGOUT";
+            case Message.MSGTYPE_TEXT:
+                return "TEXT";
+            default:
+                return "type " + msg.getMsgType();
+        }
+    }
+
+    /**
+     * One simulated user: a connection, a writer and a receiver
+     * thread, and the latencies of the user's commands. The latencies
+     * and failure count are only touched by the thread in run().
+     */
+    private class SimulatedUser {
+        final String username;
+        final Client parser;
+        final Connection connection;
+        final OutboundWriter writer;
+        final Thread receiverThread;
+        // Messages that may be responses to this user's commands.
+        final BlockingQueue<Message> responses = new LinkedBlockingQueue<>();
+        final Map<String, LatencyRecorder> latencies = new HashMap<>();
+        int failures;
+
+        SimulatedUser(String username) throws IOException {
+            this.username = username;
+            this.parser = new Client(username, host, port);
+            this.connection = Connection.open(host, port);
+            connection.setSenderSequence(parser.getSenderSequence());
+            this.writer = new OutboundWriter(connection);
+            this.receiverThread = Thread.ofVirtual()
+                    .name("loadgen-receiver-" + username)
+                    .start(this::receiveLoop);
+        }
+
+        /**
+         * Waits for the go signal, then sends the user's commands
+         * and logs out.
+         */
+        void run(CountDownLatch go) {
+            try {
+                go.await();
+                for (int i = 0; i < commandsPerUser; ++i) {
+                    String line = script.get(i % script.size());
+                    if (!runCommand(line)) {
+                        return;
+                    }
+                }
+                runCommand("LOGOUT");
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (IOException e) {
+                failures++;     // connection failed; this user is done
+            }
+        }
+
+        /**
+         * Runs one command, and records its latency.
+         *
+         * @return false if the user should stop: it has logged out,
+         * or a command timed out.
+         */
+        boolean runCommand(String line) throws IOException, InterruptedException {
+            long start = System.nanoTime();
+            Message msg = parser.parseUserInput(line);
+            if (msg == null) {
+                return true;    // carried out locally
+            }
+            boolean streamed = msg.getMsgType() == Message.MSGTYPE_FILE
+                    && parser.isStreamed((FileMessage) msg);
+
+            if (streamed) {
+                FileMessage fileMessage = (FileMessage) msg;
+                writer.sendFile(username, fileMessage.getFilePath(),
+                        fileMessage.getFileSaveAsName(), FileChunker.DEFAULT_CHUNK_SIZE);
+            } else if (msg.getMsgType() != Message.MSGTYPE_HELP) {
+                writer.send(msg);
+                if (!awaitResponse(msg)) {
+                    failures++;
+                    return false;
+                }
+            }
+            latencies.computeIfAbsent(labelFor(msg, streamed), k -> new LatencyRecorder())
+                    .record(System.nanoTime() - start);
+            return msg.getMsgType() != Message.MSGTYPE_LOGOUT;
+        }
+
+        /**
+         * Waits for the response to a command.
+         *
+         * @return true if it arrived, false if it did not arrive in time.
+         */
+        boolean awaitResponse(Message sent) throws InterruptedException {
+            long deadline = System.nanoTime()
+                    + TimeUnit.MILLISECONDS.toNanos(RESPONSE_TIMEOUT_MILLIS);
+            while (true) {
+                long wait = deadline - System.nanoTime();
+                Message msg = responses.poll(wait, TimeUnit.NANOSECONDS);
+                if (msg == null) {
+                    return false;
+                }
+                if (sent.getMsgType() == Message.MSGTYPE_LISTUSERS) {
+                    if (Server.SERVER_USERNAME.equals(msg.getUsername())) {
+                        return true;
+                    }
+                } else if (msg.getMsgType() == sent.getMsgType()
+                        && msg.getSenderSequence() == sent.getSenderSequence()) {
+                    return true;
+                }
+                // Otherwise it is the response to an earlier command
+                // that timed out; skip it.
+            }
+        }
+
+        /**
+         * The receiver thread's loop: pass on anything that may be a
+         * response to this user's commands, until the server closes
+         * the connection.
+         */
+        void receiveLoop() {
+            try {
+                Message msg;
+                while ((msg = connection.receive()) != null) {
+                    if (username.equals(msg.getUsername())
+                            || Server.SERVER_USERNAME.equals(msg.getUsername())) {
+                        responses.add(msg);
+                    }
+                }
+            } catch (IOException e) {
+                // Closed, by us or the server; run() will notice.
+            }
+        }
+
+        void close() {
+            writer.close();
+            try {
+                connection.close();
+            } catch (IOException e) {
+                // Done with it anyway.
+            }
+            try {
+                receiverThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
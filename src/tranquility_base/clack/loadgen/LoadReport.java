@@ -0,0 +1,118 @@
+package tranquility_base.clack.loadgen;
+
+import java.io.PrintStream;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The results of one LoadGenerator run: how many commands were
+ * completed in how long, and the latency of each kind of command.
+ */
+public class LoadReport {
+
+    private final int users;
+    private final long elapsedNanos;
+    private final int failures;
+    // Keyed by command label, e.g. "TEXT"; sorted for printing.
+    private final Map<String, LatencyRecorder> latencies;
+
+    /**
+     * Constructs a report.
+     *
+     * @param users        number of simulated users.
+     * @param elapsedNanos time from starting the users until the
+     *                     last one finished, in nanoseconds.
+     * @param failures     number of commands that failed or timed out.
+     * @param latencies    latencies of completed commands, by label.
+     */
+    public LoadReport(int users, long elapsedNanos, int failures,
+                      Map<String, LatencyRecorder> latencies) {
+        this.users = users;
+        this.elapsedNanos = elapsedNanos;
+        this.failures = failures;
+        this.latencies = new TreeMap<>(latencies);
+    }
+
+    /**
+     * Gets the number of simulated users.
+     *
+     * @return the number of users.
+     */
+    public int getUsers() {
+        return users;
+    }
+
+    /**
+     * Gets the length of the run.
+     *
+     * @return the elapsed time, in nanoseconds.
+     */
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    /**
+     * Gets the number of commands that failed or timed out.
+     *
+     * @return the number of failures.
+     */
+    public int getFailures() {
+        return failures;
+    }
+
+    /**
+     * Gets the number of commands completed, of all kinds.
+     *
+     * @return the number of completed commands.
+     */
+    public int getCompleted() {
+        int completed = 0;
+        for (LatencyRecorder recorder : latencies.values()) {
+            completed += recorder.getCount();
+        }
+        return completed;
+    }
+
+    /**
+     * Gets the number of commands completed per second.
+     *
+     * @return the throughput.
+     */
+    public double getThroughput() {
+        return elapsedNanos == 0 ? 0 : getCompleted() * 1e9 / elapsedNanos;
+    }
+
+    /**
+     * Gets the latencies of completed commands, keyed by label:
+     * the message type (e.g. "TEXT", "LISTUSERS"), or "FILE (streamed)"
+     * for files sent in chunks.
+     *
+     * @return the latencies, by label.
+     */
+    public Map<String, LatencyRecorder> getLatencies() {
+        return Collections.unmodifiableMap(latencies);
+    }
+
+    /**
+     * Prints the report as a table, with latencies in microseconds.
+     *
+     * @param out where to print the report.
+     */
+    public void print(PrintStream out) {
+        out.printf("users: %d, completed: %d, failures: %d, elapsed: %.3f s, "
+                        + "throughput: %.1f commands/s%n",
+                users, getCompleted(), failures, elapsedNanos / 1e9, getThroughput());
+        out.printf("%-16s %10s %10s %10s %10s %10s%n",
+                "command", "count", "p50 us", "p99 us", "p999 us", "max us");
+        for (Map.Entry<String, LatencyRecorder> entry : latencies.entrySet()) {
+            LatencyRecorder recorder = entry.getValue();
+            out.printf("%-16s %10d %10.1f %10.1f %10.1f %10.1f%n",
+                    entry.getKey(), recorder.getCount(),
+                    recorder.getPercentile(0.50) / 1e3,
+                    recorder.getPercentile(0.99) / 1e3,
+                    recorder.getPercentile(0.999) / 1e3,
+                    recorder.getMax() / 1e3);
+        }
+    }
+}
@@ -0,0 +1,5 @@
+/**
+ * A load generator, which drives many simulated users against a
+ * Clack server and reports throughput and latency.
+ */
+package tranquility_base.clack.loadgen;
\ No newline at end of file
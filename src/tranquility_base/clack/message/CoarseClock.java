@@ -0,0 +1,105 @@
+package tranquility_base.clack.message;
+
+/**
+ * A MessageClock that reads the system clock only every so often,
+ * on a background thread, and otherwise returns the time it last
+ * read. Getting the time is then just a read of a volatile field,
+ * which suits anything creating messages at a high rate, at the cost
+ * of timestamps being up to one resolution period old.
+ * <p>
+ * Time as given by a CoarseClock never goes backwards, even if the
+ * system clock is set back.
+ */
+public class CoarseClock implements MessageClock, AutoCloseable {
+    /**
+     * Default time between readings of the system clock, in
+     * milliseconds.
+     */
+    public static final long DEFAULT_RESOLUTION_MILLIS = 1;
+
+    private final MessageClock source;
+    private final long resolutionMillis;
+    private final Thread updater;
+    private volatile long now;
+    private volatile boolean running = true;
+
+    /**
+     * Constructs a clock that reads the given source every
+     * resolutionMillis milliseconds, and starts its updater thread.
+     *
+     * @param source           the clock to read.
+     * @param resolutionMillis time between readings, in milliseconds.
+     * @throws IllegalArgumentException if resolutionMillis is not positive.
+     */
+    public CoarseClock(MessageClock source, long resolutionMillis) {
+        if (resolutionMillis <= 0) {
+            throw new IllegalArgumentException("resolution must be positive");
+        }
+        this.source = source;
+        this.resolutionMillis = resolutionMillis;
+        this.now = source.epochNanos();
+        this.updater = new Thread(this::update, "clack-coarse-clock");
+        this.updater.setDaemon(true);
+        this.updater.start();
+    }
+
+    /**
+     * Constructs a clock that reads the system clock every
+     * resolutionMillis milliseconds.
+     *
+     * @param resolutionMillis time between readings, in milliseconds.
+     * @throws IllegalArgumentException if resolutionMillis is not positive.
+     */
+    public CoarseClock(long resolutionMillis) {
+        this(MessageClock.SYSTEM, resolutionMillis);
+    }
+
+    /**
+     * Constructs a clock that reads the system clock every
+     * DEFAULT_RESOLUTION_MILLIS milliseconds.
+     */
+    public CoarseClock() {
+        this(DEFAULT_RESOLUTION_MILLIS);
+    }
+
+    @Override
+    public long epochNanos() {
+        return now;
+    }
+
+    /**
+     * Gets the time between readings of the source clock.
+     *
+     * @return the resolution, in milliseconds.
+     */
+    public long getResolutionMillis() {
+        return resolutionMillis;
+    }
+
+    /**
+     * Stops the updater thread. After this, the clock keeps
+     * returning the last time it read.
+     */
+    @Override
+    public void close() {
+        running = false;
+        updater.interrupt();
+    }
+
+    /**
+     * The updater thread's loop.
+     */
+    private void update() {
+        while (running) {
+            try {
+                Thread.sleep(resolutionMillis);
+            } catch (InterruptedException e) {
+                break;      // close() was called
+            }
+            long reading = source.epochNanos();
+            if (reading > now) {
+                now = reading;
+            }
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package tranquility_base.clack.message;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A shared pool of Deflaters and Inflaters. Each one holds a native
+ * zlib stream (for a Deflater, a few hundred KiB), which is slow to
+ * create and is only freed by end() or garbage collection. Borrowing
+ * them from here means compressing a frame creates none, and a
+ * server with thousands of connections holds only about as many as
+ * there are threads compressing at once.
+ * <p>
+ * Everything borrowed must be given back, reset or not; give() resets
+ * it. At most MAX_POOLED of each kind are kept; any more given back
+ * are ended.
+ */
+final class CompressorPool {
+    /**
+     * Most Deflaters (and, separately, Inflaters) kept in the pool.
+     */
+    static final int MAX_POOLED = 2 * Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Compression level used by pooled Deflaters: fast, since frames
+     * are compressed as they are sent.
+     */
+    static final int LEVEL = Deflater.BEST_SPEED;
+
+    private static final Queue<Deflater> deflaters = new ConcurrentLinkedQueue<>();
+    private static final Queue<Inflater> inflaters = new ConcurrentLinkedQueue<>();
+    // Sizes of the queues; ConcurrentLinkedQueue.size() is O(n).
+    private static final AtomicInteger deflaterCount = new AtomicInteger();
+    private static final AtomicInteger inflaterCount = new AtomicInteger();
+
+    private CompressorPool() {
+    }
+
+    /**
+     * Borrows a Deflater, ready for new input.
+     *
+     * @return a Deflater, from the pool if there is one.
+     */
+    static Deflater takeDeflater() {
+        Deflater deflater = deflaters.poll();
+        if (deflater == null) {
+            return new Deflater(LEVEL);
+        }
+        deflaterCount.decrementAndGet();
+        return deflater;
+    }
+
+    /**
+     * Gives back a borrowed Deflater.
+     *
+     * @param deflater the Deflater; must not be used again by the caller.
+     */
+    static void give(Deflater deflater) {
+        if (deflaterCount.incrementAndGet() <= MAX_POOLED) {
+            deflater.reset();
+            deflaters.add(deflater);
+        } else {
+            deflaterCount.decrementAndGet();
+            deflater.end();
+        }
+    }
+
+    /**
+     * Borrows an Inflater, ready for new input.
+     *
+     * @return an Inflater, from the pool if there is one.
+     */
+    static Inflater takeInflater() {
+        Inflater inflater = inflaters.poll();
+        if (inflater == null) {
+            return new Inflater();
+        }
+        inflaterCount.decrementAndGet();
+        return inflater;
+    }
+
+    /**
+     * Gives back a borrowed Inflater.
+     *
+     * @param inflater the Inflater; must not be used again by the caller.
+     */
+    static void give(Inflater inflater) {
+        if (inflaterCount.incrementAndGet() <= MAX_POOLED) {
+            inflater.reset();
+            inflaters.add(inflater);
+        } else {
+            inflaterCount.decrementAndGet();
+            inflater.end();
+        }
+    }
+
+    /**
+     * Gets the number of idle Deflaters in the pool.
+     *
+     * @return the number of pooled Deflaters.
+     */
+    static int pooledDeflaters() {
+        return deflaterCount.get();
+    }
+}
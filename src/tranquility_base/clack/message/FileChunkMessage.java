@@ -0,0 +1,316 @@
+package tranquility_base.clack.message;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * This class represents one piece of a file that is too large
+ * to send in a single FileMessage. The sender splits the file
+ * into fixed-size chunks (see tranquility_base.clack.transfer.FileChunker),
+ * and the receiver writes each chunk at its offset as it arrives
+ * (see tranquility_base.clack.transfer.FileAssembler), so neither
+ * side ever holds more than one chunk in memory.
+ * <p>
+ * Chunk data are raw file bytes, not text, so unlike FileMessage
+ * any kind of file can be sent this way.
+ * <p>
+ * A chunk may carry a transfer ID, which is the same for every chunk
+ * of one sending of a file, across reconnections. It lets an
+ * interrupted transfer be resumed (see FileResumeMessage). A transfer
+ * ID of NO_TRANSFER_ID means the chunk belongs to no resumable
+ * transfer.
+ */
+public class FileChunkMessage extends Message {
+    /**
+     * The transfer ID of chunks that belong to no resumable transfer.
+     */
+    public static final long NO_TRANSFER_ID = 0;
+
+    private final String fileSaveAsName;
+    private final long transferId;
+    private final int sequence;
+    private final long offset;
+    private final long totalLength;
+    private final byte[] chunk;
+    // Hash of the chunk's bytes, computed when first needed; 0 means
+    // not yet computed, unless chunkHashIsZero is set.
+    private int chunkHash;
+    private boolean chunkHashIsZero;
+
+    /**
+     * Constructs a FileChunkMessage. The chunk array is kept, not
+     * copied, so the caller must not modify it afterwards.
+     *
+     * @param username       name of user sending the file.
+     * @param fileSaveAsName name to use when saving the file; only the
+     *                       filename portion is kept.
+     * @param sequence       position of this chunk in the file, starting at 0.
+     * @param offset         byte offset in the file where this chunk starts.
+     * @param totalLength    length of the whole file, in bytes.
+     * @param chunk          this chunk's bytes.
+     * @throws IllegalArgumentException if sequence, offset or totalLength
+     *                                  is negative, or the chunk would
+     *                                  extend past totalLength.
+     */
+    public FileChunkMessage(String username, String fileSaveAsName,
+                            int sequence, long offset, long totalLength,
+                            byte[] chunk) {
+        this(username, fileSaveAsName, NO_TRANSFER_ID, sequence, offset,
+                totalLength, chunk);
+    }
+
+    /**
+     * Constructs a FileChunkMessage belonging to a resumable transfer.
+     * The chunk array is kept, not copied, so the caller must not
+     * modify it afterwards.
+     *
+     * @param username       name of user sending the file.
+     * @param fileSaveAsName name to use when saving the file; only the
+     *                       filename portion is kept.
+     * @param transferId     the transfer the chunk belongs to, or
+     *                       NO_TRANSFER_ID.
+     * @param sequence       position of this chunk in the file, starting at 0.
+     * @param offset         byte offset in the file where this chunk starts.
+     * @param totalLength    length of the whole file, in bytes.
+     * @param chunk          this chunk's bytes.
+     * @throws IllegalArgumentException if sequence, offset or totalLength
+     *                                  is negative, or the chunk would
+     *                                  extend past totalLength.
+     */
+    public FileChunkMessage(String username, String fileSaveAsName,
+                            long transferId, int sequence, long offset,
+                            long totalLength, byte[] chunk) {
+        this(username, fileSaveAsName, transferId, sequence, offset,
+                totalLength, chunk, getClock().epochNanos(),
+                SenderSequence.SHARED.next());
+    }
+
+    /**
+     * Constructs a FileChunkMessage with an already-known
+     * timestamp and sequence number. Used by MessageCodec when
+     * decoding.
+     */
+    FileChunkMessage(String username, String fileSaveAsName,
+                     long transferId, int sequence, long offset,
+                     long totalLength, byte[] chunk, long epochNanos,
+                     long senderSequence) {
+        super(username, MSGTYPE_FILECHUNK, epochNanos, senderSequence);
+        if (sequence < 0 || offset < 0 || totalLength < 0) {
+            throw new IllegalArgumentException("negative chunk position");
+        }
+        if (offset + chunk.length > totalLength) {
+            throw new IllegalArgumentException("chunk extends past end of file");
+        }
+        this.fileSaveAsName = new File(fileSaveAsName).getName();
+        this.transferId = transferId;
+        this.sequence = sequence;
+        this.offset = offset;
+        this.totalLength = totalLength;
+        this.chunk = chunk;
+    }
+
+    /**
+     * Get the name the file is to be saved as.
+     *
+     * @return the filename, with no path components.
+     */
+    public String getFileSaveAsName() {
+        return fileSaveAsName;
+    }
+
+    /**
+     * Get the ID of the transfer this chunk belongs to.
+     *
+     * @return the transfer ID, or NO_TRANSFER_ID.
+     */
+    public long getTransferId() {
+        return transferId;
+    }
+
+    /**
+     * Get this chunk's position in the sequence of chunks.
+     *
+     * @return the sequence number, starting at 0.
+     */
+    public int getSequence() {
+        return sequence;
+    }
+
+    /**
+     * Get the byte offset in the file where this chunk starts.
+     *
+     * @return the chunk's offset.
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * Get the length of the whole file.
+     *
+     * @return the file length, in bytes.
+     */
+    public long getTotalLength() {
+        return totalLength;
+    }
+
+    /**
+     * Get the number of file bytes in this chunk.
+     *
+     * @return the chunk length, in bytes.
+     */
+    public int getChunkLength() {
+        return chunk.length;
+    }
+
+    /**
+     * Get this chunk's bytes, as a read-only buffer positioned at
+     * the start of the chunk. No copy is made.
+     *
+     * @return the chunk's bytes.
+     */
+    public ByteBuffer getChunk() {
+        return ByteBuffer.wrap(chunk).asReadOnlyBuffer();
+    }
+
+    /**
+     * Returns a four-element array of String: the fileSaveAsName,
+     * and the decimal sequence, offset and totalLength. The chunk's
+     * bytes are not text, so are not included; use getChunk().
+     *
+     * @return fileSaveAsName, sequence, offset and totalLength.
+     */
+    @Override
+    public String[] getData() {
+        return new String[]{this.fileSaveAsName,
+                Integer.toString(this.sequence),
+                Long.toString(this.offset),
+                Long.toString(this.totalLength)};
+    }
+
+    /**
+     * Equality comparison. Returns true iff the other object is of
+     * the same class and all fields (including those inherited from
+     * superclasses, and the chunk's bytes) are equal.
+     *
+     * @param o the object to test for equality.
+     * @return whether o is of the same class as this, and all fields
+     * are equal.
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (o == this) {
+            return true;
+        }
+        if (o == null || o.getClass() != this.getClass()) {
+            return false;
+        }
+        FileChunkMessage that = (FileChunkMessage) o;
+        if (!equalsHeader(that)
+                || this.transferId != that.transferId
+                || this.sequence != that.sequence
+                || this.offset != that.offset
+                || this.totalLength != that.totalLength
+                || !Objects.equals(this.fileSaveAsName, that.fileSaveAsName)) {
+            return false;
+        }
+        // If both chunks' hashes are already known, use them to
+        // avoid comparing bytes that cannot be equal.
+        if (this.chunkHash != 0 && that.chunkHash != 0
+                && this.chunkHash != that.chunkHash) {
+            return false;
+        }
+        return Arrays.equals(this.chunk, that.chunk);
+    }
+
+    /**
+     * Return this object's hash, computed from its fields. The hash
+     * of the chunk's bytes is computed the first time it is needed,
+     * then kept.
+     *
+     * @return hash of this object.
+     */
+    @Override
+    public int hashCode() {
+        int result = super.hashCode();
+        result = 31 * result + Objects.hashCode(this.fileSaveAsName);
+        result = 31 * result + Long.hashCode(this.transferId);
+        result = 31 * result + this.sequence;
+        result = 31 * result + Long.hashCode(this.offset);
+        result = 31 * result + Long.hashCode(this.totalLength);
+        result = 31 * result + chunkHash();
+        return result;
+    }
+
+    /**
+     * Gets the hash of the chunk's bytes, computing it only once.
+     * As in String.hashCode(), a race between threads at worst
+     * computes the same value twice.
+     */
+    private int chunkHash() {
+        int h = chunkHash;
+        if (h == 0 && !chunkHashIsZero) {
+            h = Arrays.hashCode(chunk);
+            if (h == 0) {
+                chunkHashIsZero = true;
+            } else {
+                chunkHash = h;
+            }
+        }
+        return h;
+    }
+
+    /**
+     * Constructs a string representation of this object:
+     * <pre>
+     *   "{class=FileChunkMessage"
+     *   + "|timestamp=<i>timestamp</i>"
+     *   + "|username=<i>username</i>"
+     *   + "|fileSaveAsName=<i>file Save As name</i>"
+     *   + "|transferId=<i>transfer ID</i>"
+     *   + "|sequence=<i>sequence</i>"
+     *   + "|offset=<i>offset</i>"
+     *   + "|totalLength=<i>total length</i>"
+     *   + "|chunkLength=<i>chunk length</i>}"
+     * </pre>
+     * The chunk's bytes are not included.
+     *
+     * @return this object's string representation.
+     */
+    @Override
+    public String toString() {
+        return "{class=FileChunkMessage|"
+                + super.toString()
+                + "|fileSaveAsName=" + this.fileSaveAsName
+                + "|transferId=" + this.transferId
+                + "|sequence=" + this.sequence
+                + "|offset=" + this.offset
+                + "|totalLength=" + this.totalLength
+                + "|chunkLength=" + this.chunk.length
+                + "}";
+    }
+
+    /**
+     * Appends a representation of this object to a StringBuilder, in
+     * the same form as toString(). The chunk's bytes are not included,
+     * so maxChars has no effect.
+     *
+     * @param sb       where to append this object's representation.
+     * @param maxChars ignored.
+     * @return sb, for chaining.
+     */
+    @Override
+    public StringBuilder appendTo(StringBuilder sb, int maxChars) {
+        sb.append("{class=FileChunkMessage|");
+        return super.appendTo(sb, maxChars)
+                .append("|fileSaveAsName=").append(this.fileSaveAsName)
+                .append("|transferId=").append(this.transferId)
+                .append("|sequence=").append(this.sequence)
+                .append("|offset=").append(this.offset)
+                .append("|totalLength=").append(this.totalLength)
+                .append("|chunkLength=").append(this.chunk.length)
+                .append('}');
+    }
+}
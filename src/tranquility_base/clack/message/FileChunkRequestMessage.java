@@ -0,0 +1,166 @@
+package tranquility_base.clack.message;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * This class represents the server's answer to a FileManifestMessage:
+ * the sequence numbers of the chunks it needs the sender to send, in
+ * increasing order. The other chunks the server already has. If no
+ * chunks are needed, the file has already been sent on.
+ */
+public class FileChunkRequestMessage extends Message {
+
+    private final String fileSaveAsName;
+    private final int[] sequences;
+
+    /**
+     * Constructs a FileChunkRequestMessage. The array is kept, not
+     * copied, so the caller must not modify it afterwards.
+     *
+     * @param username       the user sending this message.
+     * @param fileSaveAsName the save-as name from the manifest.
+     * @param sequences      sequence numbers of the chunks needed.
+     */
+    public FileChunkRequestMessage(String username, String fileSaveAsName,
+                                   int[] sequences) {
+        this(username, fileSaveAsName, sequences,
+                getClock().epochNanos(), SenderSequence.SHARED.next());
+    }
+
+    /**
+     * Constructs a FileChunkRequestMessage with an already-known
+     * timestamp and sequence number. Used by MessageCodec when
+     * decoding.
+     */
+    FileChunkRequestMessage(String username, String fileSaveAsName,
+                            int[] sequences, long epochNanos,
+                            long senderSequence) {
+        super(username, MSGTYPE_FILECHUNKREQUEST, epochNanos, senderSequence);
+        this.fileSaveAsName = new File(fileSaveAsName).getName();
+        this.sequences = sequences;
+    }
+
+    /**
+     * Get the save-as name of the file whose chunks are needed.
+     *
+     * @return the filename, with no path components.
+     */
+    public String getFileSaveAsName() {
+        return fileSaveAsName;
+    }
+
+    /**
+     * Get the number of chunks needed.
+     *
+     * @return the number of chunks.
+     */
+    public int getCount() {
+        return sequences.length;
+    }
+
+    /**
+     * Get the sequence number of one needed chunk.
+     *
+     * @param i which of the needed chunks, starting at 0.
+     * @return the chunk's sequence number.
+     */
+    public int getSequence(int i) {
+        return sequences[i];
+    }
+
+    /**
+     * Returns a one-element array of String: the fileSaveAsName.
+     * Use getSequence() for the chunks needed.
+     *
+     * @return fileSaveAsName.
+     */
+    @Override
+    public String[] getData() {
+        return new String[]{this.fileSaveAsName};
+    }
+
+    /**
+     * Equality comparison. Returns true iff the other object is of
+     * the same class and all fields (including those inherited from
+     * superclasses) are equal.
+     *
+     * @param o the object to test for equality.
+     * @return whether o is of the same class as this, and all fields
+     * are equal.
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (o == this) {
+            return true;
+        }
+        if (o == null || o.getClass() != this.getClass()) {
+            return false;
+        }
+        FileChunkRequestMessage that = (FileChunkRequestMessage) o;
+        return equalsHeader(that)
+                && Objects.equals(this.fileSaveAsName, that.fileSaveAsName)
+                && Arrays.equals(this.sequences, that.sequences);
+    }
+
+    /**
+     * Return this object's hash, computed from its fields.
+     *
+     * @return hash of this object.
+     */
+    @Override
+    public int hashCode() {
+        int result = super.hashCode();
+        result = 31 * result + Objects.hashCode(this.fileSaveAsName);
+        result = 31 * result + Arrays.hashCode(this.sequences);
+        return result;
+    }
+
+    /**
+     * Constructs a string representation of this object:
+     * <pre>
+     *   "{class=FileChunkRequestMessage"
+     *   + "|timestamp=<i>timestamp</i>"
+     *   + "|username=<i>username</i>"
+     *   + "|fileSaveAsName=<i>file Save As name</i>"
+     *   + "|count=<i>number of chunks needed</i>}"
+     * </pre>
+     * The sequence numbers are not included.
+     *
+     * @return this object's string representation.
+     */
+    @Override
+    public String toString() {
+        return "{class=FileChunkRequestMessage|"
+                + super.toString()
+                + "|fileSaveAsName=" + this.fileSaveAsName
+                + "|count=" + this.sequences.length
+                + "}";
+    }
+
+    /**
+     * Appends a representation of this object to a StringBuilder, in
+     * the same form as toString(). The sequence numbers are not
+     * included, so maxChars has no effect.
+     *
+     * @param sb       where to append this object's representation.
+     * @param maxChars ignored.
+     * @return sb, for chaining.
+     */
+    @Override
+    public StringBuilder appendTo(StringBuilder sb, int maxChars) {
+        sb.append("{class=FileChunkRequestMessage|");
+        return super.appendTo(sb, maxChars)
+                .append("|fileSaveAsName=").append(this.fileSaveAsName)
+                .append("|count=").append(this.sequences.length)
+                .append('}');
+    }
+
+    /**
+     * Gives MessageCodec the sequence numbers, for encoding.
+     */
+    int[] sequences() {
+        return sequences;
+    }
+}
@@ -0,0 +1,282 @@
+package tranquility_base.clack.message;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * This class describes a file by its chunks, without their bytes:
+ * the length and SHA-256 hash of each chunk, in order. A client sends
+ * one to the server instead of the file itself; the server answers
+ * with a FileChunkRequestMessage naming the chunks it does not already
+ * have, and only those are sent, as FileChunkMessages. Chunks are cut
+ * where the file's content says (see
+ * tranquility_base.clack.transfer.ContentChunker), so a file sent
+ * again, or sent again with small changes, needs few chunks, or none.
+ */
+public class FileManifestMessage extends Message {
+    /**
+     * Number of bytes in a chunk's hash.
+     */
+    public static final int HASH_BYTES = 32;
+
+    private final String fileSaveAsName;
+    private final long totalLength;
+    private final int[] chunkLengths;
+    // HASH_BYTES per chunk, in chunk order.
+    private final byte[] chunkHashes;
+    // Where each chunk starts; derived from chunkLengths.
+    private final long[] chunkOffsets;
+
+    /**
+     * Constructs a FileManifestMessage. The arrays are kept, not
+     * copied, so the caller must not modify them afterwards.
+     *
+     * @param username       name of user sending the file.
+     * @param fileSaveAsName name to use when saving the file; only the
+     *                       filename portion is kept.
+     * @param totalLength    length of the whole file, in bytes.
+     * @param chunkLengths   length of each chunk, in order.
+     * @param chunkHashes    the chunks' hashes, HASH_BYTES each, in order.
+     * @throws IllegalArgumentException if a length is negative, the
+     *                                  lengths do not add up to
+     *                                  totalLength, or there is not
+     *                                  one hash per chunk.
+     */
+    public FileManifestMessage(String username, String fileSaveAsName,
+                               long totalLength, int[] chunkLengths,
+                               byte[] chunkHashes) {
+        this(username, fileSaveAsName, totalLength, chunkLengths, chunkHashes,
+                SenderSequence.SHARED);
+    }
+
+    /**
+     * Constructs a FileManifestMessage as above, numbered by the
+     * sender's own SenderSequence.
+     *
+     * @param username       name of user sending the file.
+     * @param fileSaveAsName name to use when saving the file; only the
+     *                       filename portion is kept.
+     * @param totalLength    length of the whole file, in bytes.
+     * @param chunkLengths   length of each chunk, in order.
+     * @param chunkHashes    the chunks' hashes, HASH_BYTES each, in order.
+     * @param sequence       the sender's sequence.
+     * @throws IllegalArgumentException as above.
+     */
+    public FileManifestMessage(String username, String fileSaveAsName,
+                               long totalLength, int[] chunkLengths,
+                               byte[] chunkHashes, SenderSequence sequence) {
+        this(username, fileSaveAsName, totalLength, chunkLengths, chunkHashes,
+                getClock().epochNanos(), sequence.next());
+    }
+
+    /**
+     * Constructs a FileManifestMessage with an already-known
+     * timestamp and sequence number. Used by MessageCodec when
+     * decoding.
+     */
+    FileManifestMessage(String username, String fileSaveAsName,
+                        long totalLength, int[] chunkLengths,
+                        byte[] chunkHashes, long epochNanos,
+                        long senderSequence) {
+        super(username, MSGTYPE_FILEMANIFEST, epochNanos, senderSequence);
+        if (chunkHashes.length != (long) chunkLengths.length * HASH_BYTES) {
+            throw new IllegalArgumentException("need one hash per chunk");
+        }
+        long[] offsets = new long[chunkLengths.length];
+        long offset = 0;
+        for (int i = 0; i < chunkLengths.length; ++i) {
+            if (chunkLengths[i] < 0) {
+                throw new IllegalArgumentException("negative chunk length");
+            }
+            offsets[i] = offset;
+            offset += chunkLengths[i];
+        }
+        if (offset != totalLength) {
+            throw new IllegalArgumentException("chunk lengths do not add up to file length");
+        }
+        this.fileSaveAsName = new File(fileSaveAsName).getName();
+        this.totalLength = totalLength;
+        this.chunkLengths = chunkLengths;
+        this.chunkHashes = chunkHashes;
+        this.chunkOffsets = offsets;
+    }
+
+    /**
+     * Get the name the file is to be saved as.
+     *
+     * @return the filename, with no path components.
+     */
+    public String getFileSaveAsName() {
+        return fileSaveAsName;
+    }
+
+    /**
+     * Get the length of the whole file.
+     *
+     * @return the file length, in bytes.
+     */
+    public long getTotalLength() {
+        return totalLength;
+    }
+
+    /**
+     * Get the number of chunks.
+     *
+     * @return the number of chunks.
+     */
+    public int getChunkCount() {
+        return chunkLengths.length;
+    }
+
+    /**
+     * Get the length of one chunk.
+     *
+     * @param sequence the chunk's position, starting at 0.
+     * @return the chunk's length, in bytes.
+     */
+    public int getChunkLength(int sequence) {
+        return chunkLengths[sequence];
+    }
+
+    /**
+     * Get the byte offset in the file where a chunk starts.
+     *
+     * @param sequence the chunk's position, starting at 0.
+     * @return the chunk's offset.
+     */
+    public long getChunkOffset(int sequence) {
+        return chunkOffsets[sequence];
+    }
+
+    /**
+     * Get a chunk's hash, as a read-only buffer of HASH_BYTES bytes.
+     * No copy is made. ByteBuffers are equal iff their remaining bytes
+     * are, so hashes can be compared with equals().
+     *
+     * @param sequence the chunk's position, starting at 0.
+     * @return the chunk's hash.
+     * @throws IndexOutOfBoundsException if there is no such chunk.
+     */
+    public ByteBuffer getChunkHash(int sequence) {
+        Objects.checkIndex(sequence, chunkLengths.length);
+        return ByteBuffer.wrap(chunkHashes, sequence * HASH_BYTES, HASH_BYTES)
+                .slice().asReadOnlyBuffer();
+    }
+
+    /**
+     * Returns a three-element array of String: the fileSaveAsName,
+     * and the decimal totalLength and number of chunks. The hashes
+     * are not included; use getChunkHash().
+     *
+     * @return fileSaveAsName, totalLength and chunk count.
+     */
+    @Override
+    public String[] getData() {
+        return new String[]{this.fileSaveAsName,
+                Long.toString(this.totalLength),
+                Integer.toString(this.chunkLengths.length)};
+    }
+
+    /**
+     * Equality comparison. Returns true iff the other object is of
+     * the same class and all fields (including those inherited from
+     * superclasses, and every chunk length and hash) are equal.
+     *
+     * @param o the object to test for equality.
+     * @return whether o is of the same class as this, and all fields
+     * are equal.
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (o == this) {
+            return true;
+        }
+        if (o == null || o.getClass() != this.getClass()) {
+            return false;
+        }
+        FileManifestMessage that = (FileManifestMessage) o;
+        return equalsHeader(that)
+                && this.totalLength == that.totalLength
+                && Objects.equals(this.fileSaveAsName, that.fileSaveAsName)
+                && Arrays.equals(this.chunkLengths, that.chunkLengths)
+                && Arrays.equals(this.chunkHashes, that.chunkHashes);
+    }
+
+    /**
+     * Return this object's hash, computed from its fields. Chunk
+     * hashes are already well mixed, so only the first chunk's
+     * hash is used.
+     *
+     * @return hash of this object.
+     */
+    @Override
+    public int hashCode() {
+        int result = super.hashCode();
+        result = 31 * result + Objects.hashCode(this.fileSaveAsName);
+        result = 31 * result + Long.hashCode(this.totalLength);
+        result = 31 * result + this.chunkLengths.length;
+        if (this.chunkLengths.length > 0) {
+            result = 31 * result + ByteBuffer.wrap(this.chunkHashes).getInt(0);
+        }
+        return result;
+    }
+
+    /**
+     * Constructs a string representation of this object:
+     * <pre>
+     *   "{class=FileManifestMessage"
+     *   + "|timestamp=<i>timestamp</i>"
+     *   + "|username=<i>username</i>"
+     *   + "|fileSaveAsName=<i>file Save As name</i>"
+     *   + "|totalLength=<i>total length</i>"
+     *   + "|chunkCount=<i>number of chunks</i>}"
+     * </pre>
+     * The chunks' lengths and hashes are not included.
+     *
+     * @return this object's string representation.
+     */
+    @Override
+    public String toString() {
+        return "{class=FileManifestMessage|"
+                + super.toString()
+                + "|fileSaveAsName=" + this.fileSaveAsName
+                + "|totalLength=" + this.totalLength
+                + "|chunkCount=" + this.chunkLengths.length
+                + "}";
+    }
+
+    /**
+     * Appends a representation of this object to a StringBuilder, in
+     * the same form as toString(). The chunks' lengths and hashes are
+     * not included, so maxChars has no effect.
+     *
+     * @param sb       where to append this object's representation.
+     * @param maxChars ignored.
+     * @return sb, for chaining.
+     */
+    @Override
+    public StringBuilder appendTo(StringBuilder sb, int maxChars) {
+        sb.append("{class=FileManifestMessage|");
+        return super.appendTo(sb, maxChars)
+                .append("|fileSaveAsName=").append(this.fileSaveAsName)
+                .append("|totalLength=").append(this.totalLength)
+                .append("|chunkCount=").append(this.chunkLengths.length)
+                .append('}');
+    }
+
+    /**
+     * Gives MessageCodec the chunk lengths, for encoding.
+     */
+    int[] chunkLengths() {
+        return chunkLengths;
+    }
+
+    /**
+     * Gives MessageCodec the chunk hashes, for encoding.
+     */
+    byte[] chunkHashes() {
+        return chunkHashes;
+    }
+}
@@ -6,7 +6,6 @@ import java.io.IOException;
 import java.io.PrintStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.Arrays;
 import java.util.Objects;
 
 /**
@@ -33,7 +32,21 @@ public class FileMessage extends Message {
      * @param fileSaveAsPath the filename portion of this is used when saving the file.
      */
     public FileMessage(String username, String filePath, String fileSaveAsPath) {
-        super(username, MSGTYPE_FILE);
+        this(username, filePath, fileSaveAsPath, SenderSequence.SHARED);
+    }
+
+    /**
+     * Constructs a FileMessage object as above, numbered by the
+     * sender's own SenderSequence.
+     *
+     * @param username       name of user for this message.
+     * @param filePath       where to find the file to read.
+     * @param fileSaveAsPath the filename portion of this is used when saving the file.
+     * @param sequence       the sender's sequence.
+     */
+    public FileMessage(String username, String filePath, String fileSaveAsPath,
+                       SenderSequence sequence) {
+        super(username, MSGTYPE_FILE, sequence);
         this.filePath = filePath;
         this.fileSaveAsName = new File(fileSaveAsPath).getName();
         this.fileContents = "";
@@ -52,6 +65,27 @@ public class FileMessage extends Message {
         this(username, filePath, filePath);
     }
 
+    /**
+     * Constructs a FileMessage object with already-known contents,
+     * timestamp and sequence number. Used by MessageCodec when
+     * decoding.
+     *
+     * @param username       name of user for this message.
+     * @param filePath       where the sender read the file from.
+     * @param fileSaveAsName name to use when saving the file.
+     * @param fileContents   the contents of the file.
+     * @param epochNanos     when the message was originally created.
+     * @param senderSequence the message's sequence number.
+     */
+    FileMessage(String username, String filePath, String fileSaveAsName,
+                String fileContents, long epochNanos,
+                long senderSequence) {
+        super(username, MSGTYPE_FILE, epochNanos, senderSequence);
+        this.filePath = filePath;
+        this.fileSaveAsName = new File(fileSaveAsName).getName();
+        this.fileContents = fileContents;
+    }
+
     /**
      * Get the path, on the local file system, of the file to read.
      *
@@ -177,7 +211,6 @@ public class FileMessage extends Message {
 
     @Override
     public boolean equals(Object o) {
-        //TODO: Implement this.
         if (o == this) {
             return true;
         }
@@ -185,14 +218,46 @@ public class FileMessage extends Message {
             return false;
         }
         FileMessage that = (FileMessage) o;
-        return Objects.equals(this.getTimestamp(), that.getTimestamp())
-                && Objects.equals(this.getUsername(), that.getUsername())
-                && Arrays.equals(this.getData(), that.getData());
+        return equalsHeader(that)
+                && Objects.equals(this.filePath, that.filePath)
+                && Objects.equals(this.fileSaveAsName, that.fileSaveAsName)
+                && Objects.equals(this.fileContents, that.fileContents);
     }
 
+    /**
+     * Return this object's hash, computed from its fields. The hash
+     * of the file contents is computed only once per contents (String
+     * caches its own hash), so hashing a message again after its
+     * first use is cheap however large the file.
+     *
+     * @return hash of this object.
+     */
     @Override
     public int hashCode() {
-        return this.toString().hashCode();
+        int result = super.hashCode();
+        result = 31 * result + Objects.hashCode(this.filePath);
+        result = 31 * result + Objects.hashCode(this.fileSaveAsName);
+        result = 31 * result + Objects.hashCode(this.fileContents);
+        return result;
     }
 
+    /**
+     * Appends a representation of this object to a StringBuilder, in
+     * the same form as toString(), but with the file contents cut short after
+     * maxChars characters.
+     *
+     * @param sb       where to append this object's representation.
+     * @param maxChars maximum number of characters of the file contents to include.
+     * @return sb, for chaining.
+     */
+    @Override
+    public StringBuilder appendTo(StringBuilder sb, int maxChars) {
+        sb.append("{class=FileMessage|");
+        super.appendTo(sb, maxChars)
+                .append("|filePath=").append(this.filePath)
+                .append("|fileSaveAsName=").append(this.fileSaveAsName)
+                .append("|fileContents=");
+        appendTruncated(sb, this.fileContents, maxChars);
+        return sb.append('}');
+    }
 }
\ No newline at end of file
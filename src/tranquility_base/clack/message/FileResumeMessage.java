@@ -0,0 +1,269 @@
+package tranquility_base.clack.message;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * This class represents a question, or its answer, about how much of
+ * a resumable file transfer has been received. Before sending a file
+ * in chunks, the sender asks with a FileResumeMessage holding no
+ * ranges; the receiver answers with one holding the byte ranges of
+ * that transfer it already has, and the sender then sends only the
+ * rest. For a transfer the receiver has never seen, or has finished,
+ * the answer holds no ranges, and the whole file is sent.
+ * <p>
+ * Ranges are half-open, [start, end), in increasing order, and
+ * neither overlap nor touch.
+ */
+public class FileResumeMessage extends Message {
+
+    private final String fileSaveAsName;
+    private final long transferId;
+    private final long totalLength;
+    // start and end of each range, in turn
+    private final long[] ranges;
+
+    /**
+     * Constructs a FileResumeMessage. The ranges array is kept, not
+     * copied, so the caller must not modify it afterwards.
+     *
+     * @param username       the user sending this message.
+     * @param fileSaveAsName the name the file is being saved as.
+     * @param transferId     the transfer asked about.
+     * @param totalLength    length of the whole file, in bytes.
+     * @param ranges         start and end of each range received, in
+     *                       turn; empty when asking.
+     * @throws IllegalArgumentException if the ranges are not in
+     *                                  increasing order, overlap or
+     *                                  touch, or lie outside the file.
+     */
+    public FileResumeMessage(String username, String fileSaveAsName,
+                             long transferId, long totalLength, long[] ranges) {
+        this(username, fileSaveAsName, transferId, totalLength, ranges,
+                SenderSequence.SHARED);
+    }
+
+    /**
+     * Constructs a FileResumeMessage as above, numbered by the
+     * sender's own SenderSequence.
+     *
+     * @param username       the user sending this message.
+     * @param fileSaveAsName the name the file is being saved as.
+     * @param transferId     the transfer asked about.
+     * @param totalLength    length of the whole file, in bytes.
+     * @param ranges         start and end of each range received, in
+     *                       turn; empty when asking.
+     * @param sequence       the sender's sequence.
+     * @throws IllegalArgumentException as above.
+     */
+    public FileResumeMessage(String username, String fileSaveAsName,
+                             long transferId, long totalLength, long[] ranges,
+                             SenderSequence sequence) {
+        this(username, fileSaveAsName, transferId, totalLength, ranges,
+                getClock().epochNanos(), sequence.next());
+    }
+
+    /**
+     * Constructs a FileResumeMessage with an already-known
+     * timestamp and sequence number. Used by MessageCodec when
+     * decoding.
+     */
+    FileResumeMessage(String username, String fileSaveAsName,
+                      long transferId, long totalLength, long[] ranges,
+                      long epochNanos, long senderSequence) {
+        super(username, MSGTYPE_FILERESUME, epochNanos, senderSequence);
+        if (totalLength < 0 || ranges.length % 2 != 0) {
+            throw new IllegalArgumentException("bad ranges");
+        }
+        long previousEnd = -1;
+        for (int i = 0; i < ranges.length; i += 2) {
+            if (ranges[i] <= previousEnd || ranges[i] < 0
+                    || ranges[i + 1] <= ranges[i] || ranges[i + 1] > totalLength) {
+                throw new IllegalArgumentException("bad ranges");
+            }
+            previousEnd = ranges[i + 1];
+        }
+        this.fileSaveAsName = new File(fileSaveAsName).getName();
+        this.transferId = transferId;
+        this.totalLength = totalLength;
+        this.ranges = ranges;
+    }
+
+    /**
+     * Get the name the file is being saved as.
+     *
+     * @return the filename, with no path components.
+     */
+    public String getFileSaveAsName() {
+        return fileSaveAsName;
+    }
+
+    /**
+     * Get the ID of the transfer asked about.
+     *
+     * @return the transfer ID.
+     */
+    public long getTransferId() {
+        return transferId;
+    }
+
+    /**
+     * Get the length of the whole file.
+     *
+     * @return the file length, in bytes.
+     */
+    public long getTotalLength() {
+        return totalLength;
+    }
+
+    /**
+     * Get the number of byte ranges received.
+     *
+     * @return the number of ranges; 0 when asking.
+     */
+    public int getRangeCount() {
+        return ranges.length / 2;
+    }
+
+    /**
+     * Get where a range starts.
+     *
+     * @param i which range, from 0.
+     * @return the offset of the range's first byte.
+     */
+    public long getRangeStart(int i) {
+        return ranges[2 * i];
+    }
+
+    /**
+     * Get where a range ends.
+     *
+     * @param i which range, from 0.
+     * @return the offset just past the range's last byte.
+     */
+    public long getRangeEnd(int i) {
+        return ranges[2 * i + 1];
+    }
+
+    /**
+     * Get the number of bytes received: the total length of
+     * the ranges.
+     *
+     * @return the bytes received.
+     */
+    public long getBytesReceived() {
+        long bytes = 0;
+        for (int i = 0; i < ranges.length; i += 2) {
+            bytes += ranges[i + 1] - ranges[i];
+        }
+        return bytes;
+    }
+
+    /**
+     * Returns a three-element array of String: the fileSaveAsName,
+     * and the decimal transferId and totalLength. Use getRangeStart()
+     * and getRangeEnd() for the ranges.
+     *
+     * @return fileSaveAsName, transferId and totalLength.
+     */
+    @Override
+    public String[] getData() {
+        return new String[]{this.fileSaveAsName,
+                Long.toString(this.transferId),
+                Long.toString(this.totalLength)};
+    }
+
+    /**
+     * Equality comparison. Returns true iff the other object is of
+     * the same class and all fields (including those inherited from
+     * superclasses, and every range) are equal.
+     *
+     * @param o the object to test for equality.
+     * @return whether o is of the same class as this, and all fields
+     * are equal.
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (o == this) {
+            return true;
+        }
+        if (o == null || o.getClass() != this.getClass()) {
+            return false;
+        }
+        FileResumeMessage that = (FileResumeMessage) o;
+        return equalsHeader(that)
+                && this.transferId == that.transferId
+                && this.totalLength == that.totalLength
+                && Objects.equals(this.fileSaveAsName, that.fileSaveAsName)
+                && Arrays.equals(this.ranges, that.ranges);
+    }
+
+    /**
+     * Return this object's hash, computed from its fields.
+     *
+     * @return hash of this object.
+     */
+    @Override
+    public int hashCode() {
+        int result = super.hashCode();
+        result = 31 * result + Objects.hashCode(this.fileSaveAsName);
+        result = 31 * result + Long.hashCode(this.transferId);
+        result = 31 * result + Long.hashCode(this.totalLength);
+        result = 31 * result + Arrays.hashCode(this.ranges);
+        return result;
+    }
+
+    /**
+     * Constructs a string representation of this object:
+     * <pre>
+     *   "{class=FileResumeMessage"
+     *   + "|timestamp=<i>timestamp</i>"
+     *   + "|username=<i>username</i>"
+     *   + "|fileSaveAsName=<i>file Save As name</i>"
+     *   + "|transferId=<i>transfer ID</i>"
+     *   + "|totalLength=<i>total length</i>"
+     *   + "|bytesReceived=<i>bytes received</i>}"
+     * </pre>
+     * The ranges themselves are not included.
+     *
+     * @return this object's string representation.
+     */
+    @Override
+    public String toString() {
+        return "{class=FileResumeMessage|"
+                + super.toString()
+                + "|fileSaveAsName=" + this.fileSaveAsName
+                + "|transferId=" + this.transferId
+                + "|totalLength=" + this.totalLength
+                + "|bytesReceived=" + getBytesReceived()
+                + "}";
+    }
+
+    /**
+     * Appends a representation of this object to a StringBuilder, in
+     * the same form as toString(). The ranges are not included, so
+     * maxChars has no effect.
+     *
+     * @param sb       where to append this object's representation.
+     * @param maxChars ignored.
+     * @return sb, for chaining.
+     */
+    @Override
+    public StringBuilder appendTo(StringBuilder sb, int maxChars) {
+        sb.append("{class=FileResumeMessage|");
+        return super.appendTo(sb, maxChars)
+                .append("|fileSaveAsName=").append(this.fileSaveAsName)
+                .append("|transferId=").append(this.transferId)
+                .append("|totalLength=").append(this.totalLength)
+                .append("|bytesReceived=").append(getBytesReceived())
+                .append('}');
+    }
+
+    /**
+     * Gives MessageCodec the ranges, for encoding.
+     */
+    long[] ranges() {
+        return ranges;
+    }
+}
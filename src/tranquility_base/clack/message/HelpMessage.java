@@ -13,6 +13,7 @@ public class HelpMessage extends Message {
 //            + "    ENCRYPTION KEY key\n"
 //            + "    ENCRYPTION ON|OFF\n"
             + "    HELP\n"
+            + "    HISTORY {FROM username} {count | SINCE minutes|date-time}\n"
             + "    LIST USERS\n"
             + "    LOGOUT\n"
             + "    SEND FILE filepath {AS filename}\n"
@@ -20,25 +21,76 @@ public class HelpMessage extends Message {
 
     // Situation-specific help or error text
     private final String extraHelp;
+    // extraHelp and HELP together; built once, here, rather than
+    // every time it is asked for.
+    private final String helpText;
 
     public HelpMessage(String username, String extraHelp) {
         super(username, MSGTYPE_HELP);
         this.extraHelp = extraHelp;
+        this.helpText = buildHelpText(extraHelp);
     }
 
     public HelpMessage(String username) {
         this(username, "");
     }
 
-    @Override
-    public String[] getData() {
-        if (extraHelp.isEmpty()) {
-            return new String[] {HELP};
+    /**
+     * Constructs a HelpMessage object with an already-known
+     * timestamp and sequence number. Used by MessageCodec when
+     * decoding.
+     *
+     * @param username name of user for this message.
+     * @param extraHelp situation-specific help or error text.
+     * @param epochNanos when the message was originally created.
+     * @param senderSequence the message's sequence number.
+     */
+    HelpMessage(String username, String extraHelp, long epochNanos,
+                long senderSequence) {
+        super(username, MSGTYPE_HELP, epochNanos, senderSequence);
+        this.extraHelp = extraHelp;
+        this.helpText = buildHelpText(extraHelp);
+    }
+
+    private static String buildHelpText(String extraHelp) {
+        if (extraHelp == null || extraHelp.isEmpty()) {
+            return HELP;
         } else {
-            return new String[] {extraHelp + "\n" + HELP};
+            return extraHelp + "\n" + HELP;
         }
     }
 
+    /**
+     * Gets the situation-specific help or error text, without
+     * the general HELP text appended.
+     *
+     * @return the extra help text (empty if there is none).
+     */
+    public String getExtraHelp() {
+        return extraHelp;
+    }
+
+    /**
+     * Gets the full help text to show the user: the extra help
+     * text, if any, followed by the general HELP text.
+     *
+     * @return the help text.
+     */
+    public String getHelpText() {
+        return helpText;
+    }
+
+    /**
+     * Gets the message's data.
+     *
+     * @return the help text (see getHelpText()), in a one-element
+     * String array.
+     */
+    @Override
+    public String[] getData() {
+        return new String[] {helpText};
+    }
+
     /**
      * Equality comparison. Returns true iff the other object is of
      * the same class and all fields (including those inherited from
@@ -57,20 +109,44 @@ public class HelpMessage extends Message {
             return false;
         }
         HelpMessage that = (HelpMessage) o;
-        return Objects.equals(this.getTimestamp(), that.getTimestamp())
-                && Objects.equals(this.getUsername(), that.getUsername());
+        return equalsHeader(that)
+                && Objects.equals(this.extraHelp, that.extraHelp);
     }
 
+    /**
+     * Return this object's hash, computed from its fields. The
+     * general HELP text is the same for every HelpMessage, so
+     * only the extra help text is hashed.
+     *
+     * @return hash of this object.
+     */
     @Override
     public int hashCode() {
-        return this.toString().hashCode();
+        return 31 * super.hashCode() + Objects.hashCode(this.extraHelp);
     }
 
     @Override
     public String toString() {
         return "{class=HelpMessage|"
                 + super.toString()
-                + "|help=" + getData()[0]
+                + "|help=" + this.helpText
                 + "}";
     }
+
+    /**
+     * Appends a representation of this object to a StringBuilder, in
+     * the same form as toString(), but with the help text cut short after
+     * maxChars characters.
+     *
+     * @param sb       where to append this object's representation.
+     * @param maxChars maximum number of characters of the help text to include.
+     * @return sb, for chaining.
+     */
+    @Override
+    public StringBuilder appendTo(StringBuilder sb, int maxChars) {
+        sb.append("{class=HelpMessage|");
+        super.appendTo(sb, maxChars).append("|help=");
+        appendTruncated(sb, this.helpText, maxChars);
+        return sb.append('}');
+    }
 }
@@ -1,6 +1,5 @@
 package tranquility_base.clack.message;
 
-import java.util.Objects;
 
 /*
     This class is fully implemented, to help you get started.
@@ -24,6 +23,31 @@ public class ListUsersMessage extends Message
         super(username, MSGTYPE_LISTUSERS);
     }
 
+    /**
+     * Constructs a ListUsersMessage, numbered by the sender's own
+     * SenderSequence.
+     *
+     * @param username the user sending this message.
+     * @param sequence the sender's sequence.
+     */
+    public ListUsersMessage(String username, SenderSequence sequence) {
+        super(username, MSGTYPE_LISTUSERS, sequence);
+    }
+
+    /**
+     * Constructs a ListUsersMessage with an already-known
+     * timestamp and sequence number. Used by MessageCodec when
+     * decoding.
+     *
+     * @param username the user sending this message.
+     * @param epochNanos when the message was originally created.
+     * @param senderSequence the message's sequence number.
+     */
+    ListUsersMessage(String username, long epochNanos,
+                     long senderSequence) {
+        super(username, MSGTYPE_LISTUSERS, epochNanos, senderSequence);
+    }
+
     /**
      * Return this objects data in a String array. For objects
      * with no data, return an empty array.
@@ -33,7 +57,7 @@ public class ListUsersMessage extends Message
     @Override
     public String[] getData()
     {
-        return new String[0];
+        return NO_DATA;
     }
 
     /**
@@ -54,21 +78,19 @@ public class ListUsersMessage extends Message
         if (o == null || o.getClass() != this.getClass()) {
             return false;
         }
-        ListUsersMessage that = (ListUsersMessage) o;
-        return Objects.equals(this.getTimestamp(), that.getTimestamp())
-                && Objects.equals(this.getUsername(), that.getUsername());
+        return equalsHeader((ListUsersMessage) o);
     }
 
     /**
-     * Return this object's hash. In Message objects, this is simply the
-     * hash of the string returned by this.toString().
+     * Return this object's hash. A ListUsersMessage has no fields
+     * of its own, so this is the hash of the common Message fields.
      *
      * @return hash of this object.
      */
     @Override
     public int hashCode()
     {
-        return this.toString().hashCode();
+        return super.hashCode();
     }
 
     /**
@@ -82,4 +104,20 @@ public class ListUsersMessage extends Message
     {
         return "{class=ListUsersMessage|" + super.toString() + "}";
     }
+
+    /**
+     * Appends a representation of this object to a StringBuilder, in
+     * the same form as toString(). A ListUsersMessage has no payload,
+     * so maxChars has no effect.
+     *
+     * @param sb       where to append this object's representation.
+     * @param maxChars ignored.
+     * @return sb, for chaining.
+     */
+    @Override
+    public StringBuilder appendTo(StringBuilder sb, int maxChars)
+    {
+        sb.append("{class=ListUsersMessage|");
+        return super.appendTo(sb, maxChars).append('}');
+    }
 }
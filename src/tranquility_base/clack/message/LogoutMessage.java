@@ -1,6 +1,5 @@
 package tranquility_base.clack.message;
 
-import java.util.Objects;
 
 /**
  * This class represents a command to the server, asking for
@@ -20,6 +19,33 @@ public class LogoutMessage extends Message
         super(username, Message.MSGTYPE_LOGOUT);
     }
 
+    /**
+     * Constructs a LogoutMessage, numbered by the sender's own
+     * SenderSequence.
+     *
+     * @param username the user sending this message.
+     * @param sequence the sender's sequence.
+     */
+    public LogoutMessage(String username, SenderSequence sequence)
+    {
+        super(username, Message.MSGTYPE_LOGOUT, sequence);
+    }
+
+    /**
+     * Constructs a LogoutMessage with an already-known
+     * timestamp and sequence number. Used by MessageCodec when
+     * decoding.
+     *
+     * @param username the user sending this message.
+     * @param epochNanos when the message was originally created.
+     * @param senderSequence the message's sequence number.
+     */
+    LogoutMessage(String username, long epochNanos,
+                  long senderSequence)
+    {
+        super(username, Message.MSGTYPE_LOGOUT, epochNanos, senderSequence);
+    }
+
     /**
      * Return this objects data in a String array. For objects
      * with no data, return an empty array.
@@ -29,7 +55,7 @@ public class LogoutMessage extends Message
     @Override
     public String[] getData()
     {
-        return new String[0];
+        return NO_DATA;
     }
 
     /**
@@ -50,21 +76,19 @@ public class LogoutMessage extends Message
         if (o == null || o.getClass() != this.getClass()) {
             return false;
         }
-        LogoutMessage that = (LogoutMessage) o;
-        return Objects.equals(this.getTimestamp(), that.getTimestamp())
-                && Objects.equals(this.getUsername(), that.getUsername());
+        return equalsHeader((LogoutMessage) o);
     }
 
     /**
-     * Return this object's hash. In Message objects, this is simply the
-     * hash of the string returned by this.toString().
+     * Return this object's hash. A LogoutMessage has no fields
+     * of its own, so this is the hash of the common Message fields.
      *
      * @return hash of this object.
      */
     @Override
     public int hashCode()
     {
-        return this.toString().hashCode();
+        return super.hashCode();
     }
 
     /**
@@ -78,4 +102,20 @@ public class LogoutMessage extends Message
     {
         return "{class=LogoutMessage|" + super.toString() + "}";
     }
+
+    /**
+     * Appends a representation of this object to a StringBuilder, in
+     * the same form as toString(). A LogoutMessage has no payload,
+     * so maxChars has no effect.
+     *
+     * @param sb       where to append this object's representation.
+     * @param maxChars ignored.
+     * @return sb, for chaining.
+     */
+    @Override
+    public StringBuilder appendTo(StringBuilder sb, int maxChars)
+    {
+        sb.append("{class=LogoutMessage|");
+        return super.appendTo(sb, maxChars).append('}');
+    }
 }
@@ -1,7 +1,9 @@
 package tranquility_base.clack.message;
 
-import java.time.LocalDate;
+import java.time.Instant;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Objects;
 
 /**
  * Abstract base class for Clack messages.
@@ -17,6 +19,26 @@ public abstract class Message {
      * Code indicating the message contains file name and contents.
      */
     public static final int MSGTYPE_FILE = 10;
+    /**
+     * Code indicating the message asks for, or tells, which byte
+     * ranges of a resumable file transfer have been received.
+     */
+    public static final int MSGTYPE_FILERESUME = 11;
+    /**
+     * Code indicating the message contains one chunk of a file
+     * that is being sent in pieces.
+     */
+    public static final int MSGTYPE_FILECHUNK = 12;
+    /**
+     * Code indicating the message asks for chunks of a file
+     * described by a FileManifestMessage.
+     */
+    public static final int MSGTYPE_FILECHUNKREQUEST = 13;
+    /**
+     * Code indicating the message describes a file by the hashes
+     * of its chunks.
+     */
+    public static final int MSGTYPE_FILEMANIFEST = 14;
     /**
      * Code indicating the user is requesting help information.
      */
@@ -29,14 +51,31 @@ public abstract class Message {
      * Code indicating the message is a "logout" command.
      */
     public static final int MSGTYPE_LOGOUT = 30;
+    /**
+     * Code indicating the message sets options for the connection
+     * it is sent on, such as compression.
+     */
+    public static final int MSGTYPE_OPTIONS = 35;
     /**
      * Code indicating the message is a text message.
      */
     public static final int MSGTYPE_TEXT = 40;
 
+    /**
+     * A shared, empty data array, returned by getData() for messages
+     * with no data. Being empty, it cannot be modified.
+     */
+    protected static final String[] NO_DATA = new String[0];
+
+    // Where new messages get their timestamps.
+    private static volatile MessageClock clock = MessageClock.SYSTEM;
+
     private final int msgType;
-    private final LocalDateTime timestamp;
+    private final long epochNanos;
+    private final long senderSequence;
     private final String username;
+    // Derived from epochNanos when first asked for.
+    private LocalDateTime timestamp;
 
     /**
      * Constructs a Message object with a given username.
@@ -49,11 +88,64 @@ public abstract class Message {
      * @param username name of user creating this message.
      */
     protected Message(String username, int msgType) {
-        this.timestamp = LocalDateTime.now();
+        this(username, msgType, SenderSequence.SHARED);
+    }
+
+    /**
+     * Constructs a Message object with a given username, numbered
+     * by the sender's own SenderSequence.
+     *
+     * @param username name of user creating this message.
+     * @param msgType the msgType of the concrete subclass.
+     * @param sequence the sender's sequence.
+     */
+    protected Message(String username, int msgType, SenderSequence sequence) {
+        this(username, msgType, clock.epochNanos(), sequence.next());
+    }
+
+    /**
+     * Constructs a Message object with a given username and an
+     * already-known timestamp and sequence number. Used when
+     * rebuilding a message that was created elsewhere (e.g., by
+     * MessageCodec when decoding a frame), so the rebuilt message
+     * keeps its original timestamp and sequence number.
+     *
+     * @param username name of user creating this message.
+     * @param msgType the msgType of the concrete subclass.
+     * @param epochNanos when the message was originally created, in
+     *                   nanoseconds since 1970-01-01T00:00Z.
+     * @param senderSequence the message's sequence number.
+     */
+    Message(String username, int msgType, long epochNanos, long senderSequence) {
+        this.epochNanos = epochNanos;
+        this.senderSequence = senderSequence;
         this.username = username;
         this.msgType = msgType;
     }
 
+    /**
+     * Sets the clock that new messages get their timestamps from.
+     * The default is MessageClock.SYSTEM.
+     *
+     * @param clock the clock to use from now on.
+     * @throws IllegalArgumentException if clock is null.
+     */
+    public static void setClock(MessageClock clock) {
+        if (clock == null) {
+            throw new IllegalArgumentException("clock must not be null");
+        }
+        Message.clock = clock;
+    }
+
+    /**
+     * Gets the clock that new messages get their timestamps from.
+     *
+     * @return the current clock.
+     */
+    public static MessageClock getClock() {
+        return clock;
+    }
+
     /**
      * Get the message's msgType. This allows the possessor
      * of a Message object to know the concrete subclass the
@@ -69,12 +161,44 @@ public abstract class Message {
     }
 
     /**
-     * Gets the message's timestamp (as a LocalDate).
+     * Gets the message's timestamp (as a LocalDateTime in the
+     * system's default time zone). This is derived from
+     * getEpochNanos() the first time it is asked for.
      *
-     * @return the message's timestamp (as a LocalDate).
+     * @return the message's timestamp (as a LocalDateTime).
      */
     public LocalDateTime getTimestamp() {
-        return this.timestamp;
+        LocalDateTime t = this.timestamp;
+        if (t == null) {
+            // Racing threads at worst compute the same value twice.
+            t = LocalDateTime.ofInstant(Instant.ofEpochSecond(0, this.epochNanos),
+                    ZoneId.systemDefault());
+            this.timestamp = t;
+        }
+        return t;
+    }
+
+    /**
+     * Gets the message's timestamp, as given by the MessageClock
+     * in use when the message was created.
+     *
+     * @return the message's timestamp, in nanoseconds since
+     * 1970-01-01T00:00Z.
+     */
+    public long getEpochNanos() {
+        return this.epochNanos;
+    }
+
+    /**
+     * Gets the message's sequence number, from the SenderSequence it
+     * was created with. Unlike timestamps, these are strictly
+     * increasing for each sender, so they order a sender's messages
+     * even when timestamps are equal.
+     *
+     * @return the message's sequence number.
+     */
+    public long getSenderSequence() {
+        return this.senderSequence;
     }
 
     /**
@@ -91,6 +215,11 @@ public abstract class Message {
      * with no data, return an empty array.
      * This is an abstract method; each concrete subclass must
      * override this with a subclass-appropriate implementation.
+     * <p>
+     * Each call builds a new array (except for messages with no
+     * data), so code that handles many messages should use the
+     * subclasses' typed getters, such as TextMessage.getText(),
+     * instead.
      *
      * @return object data, in a String array.
      */
@@ -111,16 +240,39 @@ public abstract class Message {
     public abstract boolean equals(Object o);
 
     /**
-     * Return this object's hash. In Message objects, this is simply the
-     * hash of the string returned by this.toString().
+     * Return this object's hash, computed from the fields common to
+     * all messages (msgType, timestamp, sequence number and
+     * username). Subclasses combine this with the hashes of their own
+     * fields.
      * <p>
-     * This is an abstract method; each concrete subclass must
-     * override this with a subclass-appropriate implementation.
+     * Hashing is done field by field, rather than by hashing
+     * toString(), so that it does not allocate, and so that its cost
+     * does not grow with the size of the message's payload.
      *
      * @return hash of this object.
      */
     public int hashCode() {
-        return this.toString().hashCode();
+        int result = this.msgType;
+        result = 31 * result + Long.hashCode(this.epochNanos);
+        result = 31 * result + Long.hashCode(this.senderSequence);
+        result = 31 * result + Objects.hashCode(this.username);
+        return result;
+    }
+
+    /**
+     * Tests whether the fields common to all messages (msgType,
+     * timestamp, sequence number and username) are equal.
+     * Subclasses' equals() methods use this, then compare their own
+     * fields.
+     *
+     * @param that the message to compare with; must not be null.
+     * @return whether the common fields are equal.
+     */
+    protected boolean equalsHeader(Message that) {
+        return this.msgType == that.msgType
+                && this.epochNanos == that.epochNanos
+                && this.senderSequence == that.senderSequence
+                && Objects.equals(this.username, that.username);
     }
 
     /**
@@ -136,6 +288,102 @@ public abstract class Message {
      * @return String showing fields and field contents
      */
     public String toString() {
-        return "timestamp=" + this.timestamp + "|username=" + this.username;
+        return "timestamp=" + getTimestamp() + "|username=" + this.username;
+    }
+
+    /**
+     * Appends a representation of this object to a StringBuilder, in
+     * the same form as toString(), but with any payload (text, file
+     * contents and so on) cut short after maxChars characters. This
+     * is meant for logs and diagnostics: the StringBuilder can be
+     * reused from message to message, and however large a message's
+     * payload, only a bounded amount is copied.
+     * <p>
+     * Like toString(), this Message implementation appends only the
+     * common fields, so subclasses can use it in their own
+     * implementations. Subclasses with payloads must override this.
+     *
+     * @param sb       where to append this object's representation.
+     * @param maxChars maximum number of characters of any one payload
+     *                 field to include; must not be negative.
+     * @return sb, for chaining.
+     */
+    public StringBuilder appendTo(StringBuilder sb, int maxChars) {
+        sb.append("timestamp=");
+        appendTimestamp(sb, getTimestamp());
+        return sb.append("|username=").append(this.username);
+    }
+
+    /**
+     * Appends a string to a StringBuilder, cutting it short if it is
+     * longer than maxChars characters. A string that is cut short is
+     * followed by "...(<i>n</i> more chars)".
+     *
+     * @param sb       where to append the string.
+     * @param value    the string to append; may be null.
+     * @param maxChars maximum number of characters of value to append.
+     */
+    protected static void appendTruncated(StringBuilder sb, String value, int maxChars) {
+        if (value == null || value.length() <= maxChars) {
+            sb.append(value);
+            return;
+        }
+        int end = maxChars;
+        if (end > 0 && Character.isHighSurrogate(value.charAt(end - 1))) {
+            end--;      // don't split a surrogate pair
+        }
+        sb.append(value, 0, end)
+                .append("...(")
+                .append(value.length() - end)
+                .append(" more chars)");
+    }
+
+    /**
+     * Appends a timestamp in the same form as LocalDateTime.toString(),
+     * without creating intermediate Strings.
+     */
+    private static void appendTimestamp(StringBuilder sb, LocalDateTime timestamp) {
+        if (timestamp == null || timestamp.getYear() < 0 || timestamp.getYear() > 9999) {
+            sb.append(timestamp);       // rare; let LocalDateTime handle it
+            return;
+        }
+        appendPadded(sb, timestamp.getYear(), 4);
+        sb.append('-');
+        appendPadded(sb, timestamp.getMonthValue(), 2);
+        sb.append('-');
+        appendPadded(sb, timestamp.getDayOfMonth(), 2);
+        sb.append('T');
+        appendPadded(sb, timestamp.getHour(), 2);
+        sb.append(':');
+        appendPadded(sb, timestamp.getMinute(), 2);
+        int second = timestamp.getSecond();
+        int nano = timestamp.getNano();
+        if (second > 0 || nano > 0) {
+            sb.append(':');
+            appendPadded(sb, second, 2);
+            if (nano > 0) {
+                sb.append('.');
+                if (nano % 1_000_000 == 0) {
+                    appendPadded(sb, nano / 1_000_000, 3);
+                } else if (nano % 1000 == 0) {
+                    appendPadded(sb, nano / 1000, 6);
+                } else {
+                    appendPadded(sb, nano, 9);
+                }
+            }
+        }
+    }
+
+    /**
+     * Appends a non-negative int, with leading zeros to make it
+     * at least width digits long.
+     */
+    private static void appendPadded(StringBuilder sb, int value, int width) {
+        for (int limit = 10; width > 1; limit *= 10, width--) {
+            if (value < limit) {
+                sb.append('0');
+            }
+        }
+        sb.append(value);
     }
 }
\ No newline at end of file
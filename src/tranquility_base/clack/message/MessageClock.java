@@ -0,0 +1,33 @@
+package tranquility_base.clack.message;
+
+import java.time.Instant;
+
+/**
+ * A source of timestamps for new Messages, as nanoseconds since
+ * 1970-01-01T00:00Z. Timestamps are plain longs, so stamping a
+ * message allocates nothing and does not depend on the local
+ * time zone. See Message.setClock().
+ */
+@FunctionalInterface
+public interface MessageClock {
+    /**
+     * Number of nanoseconds in one second.
+     */
+    long NANOS_PER_SECOND = 1_000_000_000L;
+
+    /**
+     * A clock that reads the system clock on every call, with
+     * whatever precision the system clock offers.
+     */
+    MessageClock SYSTEM = () -> {
+        Instant now = Instant.now();
+        return now.getEpochSecond() * NANOS_PER_SECOND + now.getNano();
+    };
+
+    /**
+     * Gets the current time.
+     *
+     * @return the current time, in nanoseconds since the epoch.
+     */
+    long epochNanos();
+}
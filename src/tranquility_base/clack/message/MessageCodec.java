@@ -0,0 +1,794 @@
+package tranquility_base.clack.message;
+
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Encodes Message objects to, and decodes them from, a compact
+ * length-prefixed binary frame. Every frame has this layout
+ * (all integers big-endian, as ByteBuffer uses by default):
+ * <pre>
+ *   int    frameLength     number of bytes following this field
+ *   int    msgType         the value of getMsgType()
+ *   long   epochNanos      timestamp, as nanoseconds since 1970-01-01T00:00Z
+ *   long   senderSequence  the sender's sequence number for the message
+ *   string username
+ *   ...    type-specific fields (see below)
+ * </pre>
+ * A <code>string</code> is an int byte count followed by that many
+ * bytes of UTF-8; a byte count of -1 stands for null.
+ * The type-specific fields are:
+ * <ul>
+ *   <li>MSGTYPE_TEXT: string text</li>
+ *   <li>MSGTYPE_FILE: string filePath, string fileSaveAsName,
+ *       string fileContents</li>
+ *   <li>MSGTYPE_FILECHUNK: string fileSaveAsName, long transferId,
+ *       int sequence, long offset, long totalLength, int chunkLength,
+ *       then chunkLength raw bytes</li>
+ *   <li>MSGTYPE_FILECHUNKREQUEST: string fileSaveAsName, int count,
+ *       then count int sequence numbers</li>
+ *   <li>MSGTYPE_FILERESUME: string fileSaveAsName, long transferId,
+ *       long totalLength, int rangeCount, then for each range a long
+ *       start and a long end</li>
+ *   <li>MSGTYPE_FILEMANIFEST: string fileSaveAsName, long totalLength,
+ *       int chunkCount, then for each chunk an int chunk length and
+ *       HASH_BYTES of hash</li>
+ *   <li>MSGTYPE_HELP: string extraHelp</li>
+ *   <li>MSGTYPE_OPTIONS: int options</li>
+ *   <li>MSGTYPE_LISTUSERS, MSGTYPE_LOGOUT: none</li>
+ * </ul>
+ * A TEXT or FILE frame may be compressed, if the encoder is asked to
+ * and its type-specific fields come to at least COMPRESSION_THRESHOLD
+ * bytes. The fields are then replaced by an int giving their length
+ * before compression, followed by the fields deflated (zlib format),
+ * and COMPRESSED_FLAG is set in the msgType field. This is only done
+ * when it makes the frame smaller. decode() accepts compressed frames
+ * of any type, unless told not to; whether to send them, and accept
+ * them, is up to the endpoints (see OptionsMessage).
+ * Frames are written straight into, and read straight out of,
+ * a caller-supplied ByteBuffer; no intermediate Strings or arrays
+ * are built when encoding.
+ * <p>
+ * A MessageCodec keeps scratch arrays between calls, so it is
+ * <b>not</b> thread-safe. Each thread should use its own. An array
+ * grown past MAX_KEPT_SCRATCH for one large frame is let go once
+ * that frame is done, so a codec holds on to little memory between
+ * frames, however large they have been.
+ */
+public class MessageCodec {
+    /**
+     * Number of bytes in the frame length prefix.
+     */
+    public static final int LENGTH_PREFIX_BYTES = Integer.BYTES;
+
+    /**
+     * Largest frameLength that decode() will accept. Anything
+     * bigger is treated as a corrupt or hostile frame.
+     */
+    public static final int MAX_FRAME_LENGTH = 64 * 1024 * 1024;
+
+    /**
+     * Bit set in a frame's msgType field when its type-specific
+     * fields are compressed.
+     */
+    public static final int COMPRESSED_FLAG = 1 << 30;
+
+    /**
+     * Smallest size, in bytes, of a frame's type-specific fields for
+     * it to be compressed. Smaller payloads gain too little to be
+     * worth the time.
+     */
+    public static final int COMPRESSION_THRESHOLD = 1024;
+
+    /**
+     * Largest scratch array a codec keeps between calls, in bytes.
+     */
+    public static final int MAX_KEPT_SCRATCH = 64 * 1024;
+
+    // Most bytes of output first made room for when inflating, before
+    // inflating shows more are really needed.
+    private static final int INITIAL_INFLATE_BYTES = 4096;
+
+    private static final int NULL_STRING = -1;
+
+    /**
+     * The fields every frame starts with, read by decodeHeader()
+     * without decoding the rest of the frame.
+     */
+    public static final class Header {
+        private final int msgType;
+        private final long epochNanos;
+        private final long senderSequence;
+        private final String username;
+
+        private Header(int msgType, long epochNanos, long senderSequence,
+                       String username) {
+            this.msgType = msgType;
+            this.epochNanos = epochNanos;
+            this.senderSequence = senderSequence;
+            this.username = username;
+        }
+
+        /**
+         * Gets the message's type.
+         *
+         * @return the msgType, without COMPRESSED_FLAG.
+         */
+        public int getMsgType() {
+            return msgType;
+        }
+
+        /**
+         * Gets the message's timestamp.
+         *
+         * @return nanoseconds since 1970-01-01T00:00Z.
+         */
+        public long getEpochNanos() {
+            return epochNanos;
+        }
+
+        /**
+         * Gets the sender's sequence number for the message.
+         *
+         * @return the sequence number.
+         */
+        public long getSenderSequence() {
+            return senderSequence;
+        }
+
+        /**
+         * Gets the sender's username.
+         *
+         * @return the username, which may be null.
+         */
+        public String getUsername() {
+            return username;
+        }
+    }
+
+    // Used to copy string bytes out of buffers that have no
+    // accessible backing array. Grows as needed.
+    private byte[] scratch = new byte[256];
+    // Compressed fields are inflated into this. Grows as needed.
+    private byte[] inflated = new byte[0];
+    // Fields are deflated into this, then copied over the originals.
+    // Grows as needed.
+    private byte[] deflated = new byte[0];
+
+    /**
+     * Encodes a message as one frame, starting at the buffer's
+     * current position. On success the position is left just past
+     * the end of the frame. If the frame does not fit, the
+     * buffer's position is restored and BufferOverflowException
+     * is thrown, so the caller can flush or grow the buffer and
+     * try again. The frame is not compressed.
+     *
+     * @param msg the message to encode.
+     * @param buf the buffer to write the frame into.
+     * @return the number of bytes written, including the length prefix.
+     * @throws BufferOverflowException if buf has too little room for the frame.
+     * @throws IllegalArgumentException if msg has an unknown msgType.
+     */
+    public int encode(Message msg, ByteBuffer buf) {
+        return encode(msg, buf, false);
+    }
+
+    /**
+     * Encodes a message as one frame, as encode(msg, buf) does, but
+     * compressing it if asked to and it is a TEXT or FILE message
+     * whose fields are large enough and compress well enough (see
+     * the class comment). A buffer with room for the uncompressed
+     * frame is always enough: the fields are compressed into a
+     * scratch array, and only copied into the buffer if smaller.
+     *
+     * @param msg      the message to encode.
+     * @param buf      the buffer to write the frame into.
+     * @param compress whether the frame may be compressed.
+     * @return the number of bytes written, including the length prefix.
+     * @throws BufferOverflowException if buf has too little room for the frame.
+     * @throws IllegalArgumentException if msg has an unknown msgType.
+     */
+    public int encode(Message msg, ByteBuffer buf, boolean compress) {
+        int start = buf.position();
+        int fieldsStart;
+        try {
+            buf.putInt(0);      // placeholder, patched below
+            putHeader(msg.getMsgType(), msg.getEpochNanos(),
+                    msg.getSenderSequence(), msg.getUsername(), buf);
+            fieldsStart = buf.position();
+            switch (msg.getMsgType()) {
+                case Message.MSGTYPE_TEXT:
+                    putString(((TextMessage) msg).getText(), buf);
+                    break;
+                case Message.MSGTYPE_FILE:
+                    FileMessage fileMessage = (FileMessage) msg;
+                    putString(fileMessage.getFilePath(), buf);
+                    putString(fileMessage.getFileSaveAsName(), buf);
+                    putString(fileMessage.getFileContents(), buf);
+                    break;
+                case Message.MSGTYPE_FILECHUNK:
+                    FileChunkMessage chunkMessage = (FileChunkMessage) msg;
+                    putString(chunkMessage.getFileSaveAsName(), buf);
+                    buf.putLong(chunkMessage.getTransferId());
+                    buf.putInt(chunkMessage.getSequence());
+                    buf.putLong(chunkMessage.getOffset());
+                    buf.putLong(chunkMessage.getTotalLength());
+                    buf.putInt(chunkMessage.getChunkLength());
+                    buf.put(chunkMessage.getChunk());
+                    break;
+                case Message.MSGTYPE_FILECHUNKREQUEST:
+                    FileChunkRequestMessage requestMessage = (FileChunkRequestMessage) msg;
+                    putString(requestMessage.getFileSaveAsName(), buf);
+                    int[] sequences = requestMessage.sequences();
+                    buf.putInt(sequences.length);
+                    for (int sequence : sequences) {
+                        buf.putInt(sequence);
+                    }
+                    break;
+                case Message.MSGTYPE_FILERESUME:
+                    FileResumeMessage resumeMessage = (FileResumeMessage) msg;
+                    putString(resumeMessage.getFileSaveAsName(), buf);
+                    buf.putLong(resumeMessage.getTransferId());
+                    buf.putLong(resumeMessage.getTotalLength());
+                    long[] ranges = resumeMessage.ranges();
+                    buf.putInt(ranges.length / 2);
+                    for (long bound : ranges) {
+                        buf.putLong(bound);
+                    }
+                    break;
+                case Message.MSGTYPE_FILEMANIFEST:
+                    FileManifestMessage manifestMessage = (FileManifestMessage) msg;
+                    putString(manifestMessage.getFileSaveAsName(), buf);
+                    buf.putLong(manifestMessage.getTotalLength());
+                    int[] lengths = manifestMessage.chunkLengths();
+                    byte[] hashes = manifestMessage.chunkHashes();
+                    buf.putInt(lengths.length);
+                    for (int i = 0; i < lengths.length; ++i) {
+                        buf.putInt(lengths[i]);
+                        buf.put(hashes, i * FileManifestMessage.HASH_BYTES,
+                                FileManifestMessage.HASH_BYTES);
+                    }
+                    break;
+                case Message.MSGTYPE_HELP:
+                    putString(((HelpMessage) msg).getExtraHelp(), buf);
+                    break;
+                case Message.MSGTYPE_OPTIONS:
+                    buf.putInt(((OptionsMessage) msg).getOptions());
+                    break;
+                case Message.MSGTYPE_LISTUSERS:
+                case Message.MSGTYPE_LOGOUT:
+                    break;
+                default:
+                    throw new IllegalArgumentException(
+                            "unknown msgType " + msg.getMsgType());
+            }
+        } catch (BufferOverflowException | IllegalArgumentException e) {
+            buf.position(start);
+            throw e;
+        }
+        if (compress
+                && (msg.getMsgType() == Message.MSGTYPE_TEXT
+                    || msg.getMsgType() == Message.MSGTYPE_FILE)
+                && buf.position() - fieldsStart >= COMPRESSION_THRESHOLD
+                && compressFields(buf, fieldsStart)) {
+            int typePos = start + LENGTH_PREFIX_BYTES;
+            buf.putInt(typePos, buf.getInt(typePos) | COMPRESSED_FLAG);
+        }
+        int frameBytes = buf.position() - start;
+        buf.putInt(start, frameBytes - LENGTH_PREFIX_BYTES);
+        return frameBytes;
+    }
+
+    /**
+     * Works out how long a message's frame is, uncompressed, without
+     * encoding it, so a buffer of exactly the right size can be made
+     * before encoding. A compressed frame is never longer.
+     *
+     * @param msg the message.
+     * @return the number of bytes encode() would write, including
+     * the length prefix. This may be more than MAX_FRAME_LENGTH.
+     * @throws IllegalArgumentException if msg has an unknown msgType.
+     */
+    public long encodedLength(Message msg) {
+        long length = LENGTH_PREFIX_BYTES + Integer.BYTES + 2 * Long.BYTES
+                + stringLength(msg.getUsername());
+        switch (msg.getMsgType()) {
+            case Message.MSGTYPE_TEXT:
+                return length + stringLength(((TextMessage) msg).getText());
+            case Message.MSGTYPE_FILE:
+                FileMessage fileMessage = (FileMessage) msg;
+                return length + stringLength(fileMessage.getFilePath())
+                        + stringLength(fileMessage.getFileSaveAsName())
+                        + stringLength(fileMessage.getFileContents());
+            case Message.MSGTYPE_FILECHUNK:
+                FileChunkMessage chunkMessage = (FileChunkMessage) msg;
+                return length + stringLength(chunkMessage.getFileSaveAsName())
+                        + 3 * Long.BYTES + 2 * Integer.BYTES
+                        + chunkMessage.getChunkLength();
+            case Message.MSGTYPE_FILECHUNKREQUEST:
+                FileChunkRequestMessage requestMessage = (FileChunkRequestMessage) msg;
+                return length + stringLength(requestMessage.getFileSaveAsName())
+                        + Integer.BYTES + (long) requestMessage.getCount() * Integer.BYTES;
+            case Message.MSGTYPE_FILERESUME:
+                FileResumeMessage resumeMessage = (FileResumeMessage) msg;
+                return length + stringLength(resumeMessage.getFileSaveAsName())
+                        + 2 * Long.BYTES + Integer.BYTES
+                        + (long) resumeMessage.getRangeCount() * 2 * Long.BYTES;
+            case Message.MSGTYPE_FILEMANIFEST:
+                FileManifestMessage manifestMessage = (FileManifestMessage) msg;
+                return length + stringLength(manifestMessage.getFileSaveAsName())
+                        + Long.BYTES + Integer.BYTES
+                        + (long) manifestMessage.getChunkCount()
+                        * (Integer.BYTES + FileManifestMessage.HASH_BYTES);
+            case Message.MSGTYPE_HELP:
+                return length + stringLength(((HelpMessage) msg).getExtraHelp());
+            case Message.MSGTYPE_OPTIONS:
+                return length + Integer.BYTES;
+            case Message.MSGTYPE_LISTUSERS:
+            case Message.MSGTYPE_LOGOUT:
+                return length;
+            default:
+                throw new IllegalArgumentException("unknown msgType " + msg.getMsgType());
+        }
+    }
+
+    /**
+     * Replaces the fields from fieldsStart to the buffer's position
+     * with their uncompressed length and their compressed bytes, if
+     * that is smaller. The compressed bytes are first written to the
+     * deflated array, then copied over the fields; being smaller,
+     * they always fit where the fields were.
+     *
+     * @return true if the fields were compressed; false (leaving the
+     * buffer as it was) if they did not shrink.
+     */
+    private boolean compressFields(ByteBuffer buf, int fieldsStart) {
+        int fieldsEnd = buf.position();
+        int fieldsLength = fieldsEnd - fieldsStart;
+        // No point keeping more than would save a byte.
+        int room = fieldsLength - Integer.BYTES - 1;
+        if (room <= 0) {
+            return false;
+        }
+        if (deflated.length < room) {
+            deflated = new byte[Math.max(room, Math.min(2 * deflated.length, MAX_KEPT_SCRATCH))];
+        }
+        try {
+            ByteBuffer input = buf.duplicate();
+            input.position(fieldsStart).limit(fieldsEnd);
+            ByteBuffer output = ByteBuffer.wrap(deflated, 0, room);
+
+            Deflater deflater = CompressorPool.takeDeflater();
+            try {
+                deflater.setInput(input);
+                deflater.finish();
+                while (!deflater.finished()) {
+                    if (!output.hasRemaining()) {
+                        return false;
+                    }
+                    deflater.deflate(output);
+                }
+            } finally {
+                CompressorPool.give(deflater);
+            }
+
+            int compressedLength = output.position();
+            buf.putInt(fieldsStart, fieldsLength);
+            buf.put(fieldsStart + Integer.BYTES, deflated, 0, compressedLength);
+            buf.position(fieldsStart + Integer.BYTES + compressedLength);
+            return true;
+        } finally {
+            if (deflated.length > MAX_KEPT_SCRATCH) {
+                deflated = new byte[0];
+            }
+        }
+    }
+
+    /**
+     * Encodes the header of a MSGTYPE_FILECHUNK frame: everything
+     * except the chunk bytes themselves, which the caller must send
+     * immediately after the header (for instance with
+     * FileChannel.transferTo(), so the bytes never pass through the
+     * Java heap). The frame length written includes those chunkLength
+     * bytes. As with encode(), on overflow the buffer's position is
+     * restored and BufferOverflowException is thrown.
+     *
+     * @param username       name of user sending the file.
+     * @param epochNanos     timestamp to give the chunk, in nanoseconds
+     *                       since 1970-01-01T00:00Z.
+     * @param senderSequence sender's sequence number to give the chunk.
+     * @param fileSaveAsName name the receiver should save the file as.
+     * @param transferId     the transfer the chunk belongs to, or
+     *                       FileChunkMessage.NO_TRANSFER_ID.
+     * @param sequence       position of this chunk in the file, starting at 0.
+     * @param offset         byte offset in the file where this chunk starts.
+     * @param totalLength    length of the whole file, in bytes.
+     * @param chunkLength    number of chunk bytes that will follow the header.
+     * @param buf            the buffer to write the header into.
+     * @return the number of header bytes written, including the length prefix.
+     * @throws BufferOverflowException if buf has too little room for the header.
+     */
+    public int encodeFileChunkHeader(String username, long epochNanos,
+                                     long senderSequence,
+                                     String fileSaveAsName, long transferId,
+                                     int sequence, long offset, long totalLength,
+                                     int chunkLength, ByteBuffer buf) {
+        int start = buf.position();
+        try {
+            buf.putInt(0);      // placeholder, patched below
+            putHeader(Message.MSGTYPE_FILECHUNK, epochNanos, senderSequence,
+                    username, buf);
+            putString(fileSaveAsName, buf);
+            buf.putLong(transferId);
+            buf.putInt(sequence);
+            buf.putLong(offset);
+            buf.putLong(totalLength);
+            buf.putInt(chunkLength);
+        } catch (BufferOverflowException e) {
+            buf.position(start);
+            throw e;
+        }
+        int headerBytes = buf.position() - start;
+        buf.putInt(start, headerBytes - LENGTH_PREFIX_BYTES + chunkLength);
+        return headerBytes;
+    }
+
+    /**
+     * Decodes one frame, starting at the buffer's current position.
+     * If the buffer does not yet hold a complete frame, null is
+     * returned and the position is unchanged, so the caller can
+     * read more bytes and try again. Otherwise the position is left
+     * just past the end of the decoded frame.
+     *
+     * @param buf the buffer to read the frame from.
+     * @return the decoded message, or null if the frame is incomplete.
+     * @throws IllegalArgumentException if the frame is malformed, too
+     *                                  long, or has an unknown msgType.
+     */
+    public Message decode(ByteBuffer buf) {
+        return decode(buf, true);
+    }
+
+    /**
+     * Decodes one frame, as decode(buf) does, but only accepting a
+     * compressed frame if asked to. A connection should only accept
+     * them once compression has been agreed (see OptionsMessage), so
+     * a peer cannot make it inflate what it never asked for.
+     *
+     * @param buf              the buffer to read the frame from.
+     * @param acceptCompressed whether a compressed frame may be decoded.
+     * @return the decoded message, or null if the frame is incomplete.
+     * @throws IllegalArgumentException if the frame is malformed, too
+     *                                  long, has an unknown msgType, or
+     *                                  is compressed when not accepted.
+     */
+    public Message decode(ByteBuffer buf, boolean acceptCompressed) {
+        int start = buf.position();
+        if (buf.remaining() < LENGTH_PREFIX_BYTES) {
+            return null;
+        }
+        int frameLength = buf.getInt(start);
+        if (frameLength < 0 || frameLength > MAX_FRAME_LENGTH) {
+            throw new IllegalArgumentException("bad frame length " + frameLength);
+        }
+        if (buf.remaining() < LENGTH_PREFIX_BYTES + frameLength) {
+            return null;
+        }
+
+        int end = start + LENGTH_PREFIX_BYTES + frameLength;
+        int oldLimit = buf.limit();
+        buf.position(start + LENGTH_PREFIX_BYTES);
+        buf.limit(end);
+        try {
+            return decodeBody(buf, acceptCompressed);
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("truncated frame", e);
+        } finally {
+            buf.limit(oldLimit);
+            buf.position(end);
+            if (inflated.length > MAX_KEPT_SCRATCH) {
+                inflated = new byte[0];
+            }
+            if (scratch.length > MAX_KEPT_SCRATCH) {
+                scratch = new byte[256];
+            }
+        }
+    }
+
+    /**
+     * Decodes only the header of one frame, as decode() would, and
+     * skips the rest: nothing is inflated, and no type-specific fields
+     * are read. This is for indexing frames cheaply.
+     *
+     * @param buf the buffer to read the frame from.
+     * @return the frame's header, or null if the frame is incomplete.
+     * @throws IllegalArgumentException if the frame is malformed, or
+     *                                  too long.
+     */
+    public Header decodeHeader(ByteBuffer buf) {
+        int start = buf.position();
+        if (buf.remaining() < LENGTH_PREFIX_BYTES) {
+            return null;
+        }
+        int frameLength = buf.getInt(start);
+        if (frameLength < 0 || frameLength > MAX_FRAME_LENGTH) {
+            throw new IllegalArgumentException("bad frame length " + frameLength);
+        }
+        if (buf.remaining() < LENGTH_PREFIX_BYTES + frameLength) {
+            return null;
+        }
+
+        int end = start + LENGTH_PREFIX_BYTES + frameLength;
+        int oldLimit = buf.limit();
+        buf.position(start + LENGTH_PREFIX_BYTES);
+        buf.limit(end);
+        try {
+            int msgType = buf.getInt() & ~COMPRESSED_FLAG;
+            long epochNanos = buf.getLong();
+            long senderSequence = buf.getLong();
+            return new Header(msgType, epochNanos, senderSequence, getString(buf));
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("truncated frame", e);
+        } finally {
+            buf.limit(oldLimit);
+            buf.position(end);
+        }
+    }
+
+    private Message decodeBody(ByteBuffer buf, boolean acceptCompressed) {
+        int msgType = buf.getInt();
+        long epochNanos = buf.getLong();
+        long senderSequence = buf.getLong();
+        String username = getString(buf);
+
+        if ((msgType & COMPRESSED_FLAG) != 0) {
+            if (!acceptCompressed) {
+                throw new IllegalArgumentException("compressed frame not agreed to");
+            }
+            msgType &= ~COMPRESSED_FLAG;
+            buf = inflateFields(buf);
+        }
+        switch (msgType) {
+            case Message.MSGTYPE_TEXT:
+                return new TextMessage(username, getString(buf), epochNanos,
+                        senderSequence);
+            case Message.MSGTYPE_FILE:
+                String filePath = getString(buf);
+                String fileSaveAsName = getRequiredString(buf);
+                String fileContents = getString(buf);
+                return new FileMessage(username, filePath, fileSaveAsName,
+                        fileContents, epochNanos, senderSequence);
+            case Message.MSGTYPE_FILECHUNK:
+                String chunkSaveAsName = getRequiredString(buf);
+                long transferId = buf.getLong();
+                int sequence = buf.getInt();
+                long offset = buf.getLong();
+                long totalLength = buf.getLong();
+                int chunkLength = buf.getInt();
+                if (chunkLength < 0 || chunkLength > buf.remaining()) {
+                    throw new BufferUnderflowException();
+                }
+                byte[] chunk = new byte[chunkLength];
+                buf.get(chunk);
+                return new FileChunkMessage(username, chunkSaveAsName,
+                        transferId, sequence, offset, totalLength, chunk,
+                        epochNanos, senderSequence);
+            case Message.MSGTYPE_FILECHUNKREQUEST:
+                String requestSaveAsName = getRequiredString(buf);
+                int[] sequences = new int[getCount(buf, Integer.BYTES)];
+                for (int i = 0; i < sequences.length; ++i) {
+                    sequences[i] = buf.getInt();
+                }
+                return new FileChunkRequestMessage(username, requestSaveAsName,
+                        sequences, epochNanos, senderSequence);
+            case Message.MSGTYPE_FILERESUME:
+                String resumeSaveAsName = getRequiredString(buf);
+                long resumeTransferId = buf.getLong();
+                long resumeLength = buf.getLong();
+                long[] ranges = new long[2 * getCount(buf, 2 * Long.BYTES)];
+                for (int i = 0; i < ranges.length; ++i) {
+                    ranges[i] = buf.getLong();
+                }
+                return new FileResumeMessage(username, resumeSaveAsName,
+                        resumeTransferId, resumeLength, ranges, epochNanos,
+                        senderSequence);
+            case Message.MSGTYPE_FILEMANIFEST:
+                String manifestSaveAsName = getRequiredString(buf);
+                long manifestLength = buf.getLong();
+                int chunkCount = getCount(buf, Integer.BYTES + FileManifestMessage.HASH_BYTES);
+                int[] lengths = new int[chunkCount];
+                byte[] hashes = new byte[chunkCount * FileManifestMessage.HASH_BYTES];
+                for (int i = 0; i < chunkCount; ++i) {
+                    lengths[i] = buf.getInt();
+                    buf.get(hashes, i * FileManifestMessage.HASH_BYTES,
+                            FileManifestMessage.HASH_BYTES);
+                }
+                return new FileManifestMessage(username, manifestSaveAsName,
+                        manifestLength, lengths, hashes, epochNanos, senderSequence);
+            case Message.MSGTYPE_HELP:
+                return new HelpMessage(username, getString(buf), epochNanos,
+                        senderSequence);
+            case Message.MSGTYPE_OPTIONS:
+                return new OptionsMessage(username, buf.getInt(), epochNanos,
+                        senderSequence);
+            case Message.MSGTYPE_LISTUSERS:
+                return new ListUsersMessage(username, epochNanos, senderSequence);
+            case Message.MSGTYPE_LOGOUT:
+                return new LogoutMessage(username, epochNanos, senderSequence);
+            default:
+                throw new IllegalArgumentException("unknown msgType " + msgType);
+        }
+    }
+
+    /**
+     * Inflates the compressed fields making up the rest of a frame.
+     * The output array grows as inflating fills it, not to the length
+     * the frame claims up front, so a short frame claiming a huge
+     * length costs no more than it really inflates to.
+     *
+     * @return a buffer holding the fields, uncompressed.
+     */
+    private ByteBuffer inflateFields(ByteBuffer buf) {
+        int fieldsLength = buf.getInt();
+        if (fieldsLength < 0 || fieldsLength > MAX_FRAME_LENGTH) {
+            throw new IllegalArgumentException("bad uncompressed length " + fieldsLength);
+        }
+        int initial = (int) Math.min(fieldsLength,
+                Math.max(INITIAL_INFLATE_BYTES, 4L * buf.remaining()));
+        if (inflated.length < initial) {
+            inflated = new byte[initial];
+        }
+        int produced = 0;
+        Inflater inflater = CompressorPool.takeInflater();
+        try {
+            inflater.setInput(buf);
+            while (produced < fieldsLength && !inflater.finished()) {
+                if (produced == inflated.length) {
+                    inflated = Arrays.copyOf(inflated,
+                            (int) Math.min(fieldsLength, 2L * inflated.length));
+                }
+                int count = inflater.inflate(inflated, produced,
+                        Math.min(inflated.length, fieldsLength) - produced);
+                produced += count;
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+            }
+            if (produced != fieldsLength || !inflater.finished()) {
+                throw new IllegalArgumentException("compressed fields do not match their length");
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalArgumentException("bad compressed fields", e);
+        } finally {
+            CompressorPool.give(inflater);
+        }
+        return ByteBuffer.wrap(inflated, 0, fieldsLength);
+    }
+
+    private static void putHeader(int msgType, long epochNanos, long senderSequence,
+                                  String username, ByteBuffer buf) {
+        buf.putInt(msgType);
+        buf.putLong(epochNanos);
+        buf.putLong(senderSequence);
+        putString(username, buf);
+    }
+
+    /**
+     * Writes a string as an int byte count followed by its UTF-8
+     * encoding. The encoding is done by hand, directly into the
+     * buffer, so no byte[] is allocated. Unpaired surrogates are
+     * written as '?', which is what String.getBytes() does.
+     */
+    private static void putString(String str, ByteBuffer buf) {
+        if (str == null) {
+            buf.putInt(NULL_STRING);
+            return;
+        }
+        int countPos = buf.position();
+        buf.putInt(0);      // placeholder, patched below
+        int len = str.length();
+        for (int i = 0; i < len; ++i) {
+            char ch = str.charAt(i);
+            if (ch < 0x80) {
+                buf.put((byte) ch);
+            } else if (ch < 0x800) {
+                buf.put((byte) (0xC0 | (ch >> 6)));
+                buf.put((byte) (0x80 | (ch & 0x3F)));
+            } else if (Character.isHighSurrogate(ch)
+                    && i + 1 < len
+                    && Character.isLowSurrogate(str.charAt(i + 1))) {
+                int cp = Character.toCodePoint(ch, str.charAt(++i));
+                buf.put((byte) (0xF0 | (cp >> 18)));
+                buf.put((byte) (0x80 | ((cp >> 12) & 0x3F)));
+                buf.put((byte) (0x80 | ((cp >> 6) & 0x3F)));
+                buf.put((byte) (0x80 | (cp & 0x3F)));
+            } else if (Character.isSurrogate(ch)) {
+                buf.put((byte) '?');
+            } else {
+                buf.put((byte) (0xE0 | (ch >> 12)));
+                buf.put((byte) (0x80 | ((ch >> 6) & 0x3F)));
+                buf.put((byte) (0x80 | (ch & 0x3F)));
+            }
+        }
+        buf.putInt(countPos, buf.position() - countPos - Integer.BYTES);
+    }
+
+    /**
+     * Works out how many bytes putString() writes for a string.
+     */
+    private static long stringLength(String str) {
+        if (str == null) {
+            return Integer.BYTES;
+        }
+        long length = Integer.BYTES;
+        int len = str.length();
+        for (int i = 0; i < len; ++i) {
+            char ch = str.charAt(i);
+            if (ch < 0x80) {
+                length += 1;
+            } else if (ch < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(ch)
+                    && i + 1 < len
+                    && Character.isLowSurrogate(str.charAt(i + 1))) {
+                ++i;
+                length += 4;
+            } else if (Character.isSurrogate(ch)) {
+                length += 1;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Reads the count of a list of items, each at least itemBytes
+     * long, checking that the rest of the frame could hold them, so
+     * a corrupt count cannot make us allocate a huge array.
+     */
+    private static int getCount(ByteBuffer buf, int itemBytes) {
+        int count = buf.getInt();
+        if (count < 0 || count > buf.remaining() / itemBytes) {
+            throw new BufferUnderflowException();
+        }
+        return count;
+    }
+
+    private String getRequiredString(ByteBuffer buf) {
+        String str = getString(buf);
+        if (str == null) {
+            throw new IllegalArgumentException("missing required string");
+        }
+        return str;
+    }
+
+    private String getString(ByteBuffer buf) {
+        int count = buf.getInt();
+        if (count == NULL_STRING) {
+            return null;
+        }
+        if (count < 0 || count > buf.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        String str;
+        if (buf.hasArray()) {
+            str = new String(buf.array(), buf.arrayOffset() + buf.position(),
+                    count, StandardCharsets.UTF_8);
+            buf.position(buf.position() + count);
+        } else {
+            if (scratch.length < count) {
+                scratch = new byte[Math.max(count, 2 * scratch.length)];
+            }
+            buf.get(scratch, 0, count);
+            str = new String(scratch, 0, count, StandardCharsets.UTF_8);
+        }
+        return str;
+    }
+}
@@ -0,0 +1,165 @@
+package tranquility_base.clack.message;
+
+/**
+ * This class represents options for the connection it is sent on,
+ * as a set of OPTION_ bits. A client sends one to ask for the
+ * options it wants; the server replies with one holding the options
+ * it has agreed to, which may be fewer. An option takes effect, in
+ * each direction, once its sender knows the receiver has it:
+ * <ul>
+ *   <li>OPTION_COMPRESSION: the server compresses what it sends once
+ *       it has the client's request; the client, once it has the
+ *       server's reply.</li>
+ *   <li>OPTION_DEDUP: once it has the server's reply, the client may
+ *       send files as FileManifestMessages.</li>
+ *   <li>OPTION_RESUME: once it has the server's reply, the client may
+ *       ask, with a FileResumeMessage, how much of a file the server
+ *       already has before sending it.</li>
+ * </ul>
+ * Options messages are not shown to users.
+ */
+public class OptionsMessage extends Message {
+    /**
+     * Option bit: the sender of this message can decode compressed
+     * frames (see MessageCodec), and the receiver may send them.
+     */
+    public static final int OPTION_COMPRESSION = 1;
+
+    /**
+     * Option bit: files may be sent as FileManifestMessages, with
+     * the server asking for only the chunks it does not have.
+     */
+    public static final int OPTION_DEDUP = 2;
+
+    /**
+     * Option bit: the server remembers how much of each chunked file
+     * transfer it has received, and answers FileResumeMessages.
+     */
+    public static final int OPTION_RESUME = 4;
+
+    private final int options;
+
+    /**
+     * Constructs an OptionsMessage with a given username and options.
+     *
+     * @param username the user sending this message.
+     * @param options  OPTION_ bits, or-ed together.
+     */
+    public OptionsMessage(String username, int options) {
+        super(username, MSGTYPE_OPTIONS);
+        this.options = options;
+    }
+
+    /**
+     * Constructs an OptionsMessage, numbered by the sender's own
+     * SenderSequence.
+     *
+     * @param username the user sending this message.
+     * @param options  OPTION_ bits, or-ed together.
+     * @param sequence the sender's sequence.
+     */
+    public OptionsMessage(String username, int options, SenderSequence sequence) {
+        super(username, MSGTYPE_OPTIONS, sequence);
+        this.options = options;
+    }
+
+    /**
+     * Constructs an OptionsMessage with an already-known
+     * timestamp and sequence number. Used by MessageCodec when
+     * decoding.
+     *
+     * @param username the user sending this message.
+     * @param options  OPTION_ bits, or-ed together.
+     * @param epochNanos when the message was originally created.
+     * @param senderSequence the message's sequence number.
+     */
+    OptionsMessage(String username, int options, long epochNanos,
+                   long senderSequence) {
+        super(username, MSGTYPE_OPTIONS, epochNanos, senderSequence);
+        this.options = options;
+    }
+
+    /**
+     * Gets the options.
+     *
+     * @return OPTION_ bits, or-ed together.
+     */
+    public int getOptions() {
+        return options;
+    }
+
+    /**
+     * Tells whether an option is set.
+     *
+     * @param option an OPTION_ bit.
+     * @return true iff the option is set.
+     */
+    public boolean hasOption(int option) {
+        return (options & option) != 0;
+    }
+
+    /**
+     * Gets the message's data.
+     *
+     * @return the options, in decimal, in a one-element String array.
+     */
+    @Override
+    public String[] getData() {
+        return new String[] {Integer.toString(options)};
+    }
+
+    /**
+     * Equality comparison. Returns true iff the other object is of
+     * the same class and all fields (including those inherited from
+     * superclasses) are equal.
+     *
+     * @param o the object to test for equality.
+     * @return whether o is of the same class as this, and all fields
+     * are equal.
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || this.getClass() != o.getClass()) {
+            return false;
+        }
+        OptionsMessage that = (OptionsMessage) o;
+        return equalsHeader(that) && this.options == that.options;
+    }
+
+    /**
+     * Return this object's hash, computed from its fields.
+     *
+     * @return hash of this object.
+     */
+    @Override
+    public int hashCode() {
+        return 31 * super.hashCode() + options;
+    }
+
+    @Override
+    public String toString() {
+        return "{class=OptionsMessage|"
+                + super.toString()
+                + "|options=" + this.options
+                + "}";
+    }
+
+    /**
+     * Appends a representation of this object to a StringBuilder, in
+     * the same form as toString(). An OptionsMessage has no payload,
+     * so maxChars has no effect.
+     *
+     * @param sb       where to append this object's representation.
+     * @param maxChars ignored.
+     * @return sb, for chaining.
+     */
+    @Override
+    public StringBuilder appendTo(StringBuilder sb, int maxChars) {
+        sb.append("{class=OptionsMessage|");
+        return super.appendTo(sb, maxChars)
+                .append("|options=").append(this.options).append('}');
+    }
+}
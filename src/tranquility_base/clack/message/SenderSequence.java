@@ -0,0 +1,31 @@
+package tranquility_base.clack.message;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Numbers the messages of one sender: 1, 2, 3, ... in the order
+ * they are created. Each Client has its own, so its messages are
+ * numbered without reference to any other client's, and the count
+ * goes away with the client. Messages created without one (e.g., the
+ * server's replies) are numbered from SHARED, so each sender's are
+ * still strictly increasing, if not consecutive.
+ * <p>
+ * Thread-safe.
+ */
+public final class SenderSequence {
+    /**
+     * The sequence for messages not created with one of their own.
+     */
+    public static final SenderSequence SHARED = new SenderSequence();
+
+    private final AtomicLong last = new AtomicLong();
+
+    /**
+     * Gets the next sequence number.
+     *
+     * @return one more than the number last returned, starting at 1.
+     */
+    public long next() {
+        return last.incrementAndGet();
+    }
+}
@@ -1,6 +1,5 @@
 package tranquility_base.clack.message;
 
-import java.util.Arrays;
 import java.util.Objects;
 
 /**
@@ -25,6 +24,47 @@ public class TextMessage extends Message
         this.text = text;
     }
 
+    /**
+     * Constructs a TextMessage object, numbered by the sender's own
+     * SenderSequence.
+     *
+     * @param username name of user sending the message.
+     * @param text text of the message itself.
+     * @param sequence the sender's sequence.
+     */
+    public TextMessage(String username, String text, SenderSequence sequence)
+    {
+        super(username, MSGTYPE_TEXT, sequence);
+        this.text = text;
+    }
+
+    /**
+     * Constructs a TextMessage object with an already-known
+     * timestamp and sequence number. Used by MessageCodec when
+     * decoding.
+     *
+     * @param username name of user sending the message.
+     * @param text text of the message itself.
+     * @param epochNanos when the message was originally created.
+     * @param senderSequence the message's sequence number.
+     */
+    TextMessage(String username, String text, long epochNanos,
+                long senderSequence)
+    {
+        super(username, MSGTYPE_TEXT, epochNanos, senderSequence);
+        this.text = text;
+    }
+
+    /**
+     * Gets the message text.
+     *
+     * @return the message text.
+     */
+    public String getText()
+    {
+        return this.text;
+    }
+
     /**
      * Gets the message's data.
      *
@@ -54,20 +94,18 @@ public class TextMessage extends Message
             return false;
         }
         TextMessage that = (TextMessage) o;
-        return Objects.equals(this.getTimestamp(), that.getTimestamp())
-               && Objects.equals(this.getUsername(), that.getUsername())
-               && Arrays.equals(this.getData(), that.getData());
+        return equalsHeader(that)
+               && Objects.equals(this.text, that.text);
     }
 
     /**
-     * Return this object's hash. In Message objects, this is simply the
-     * hash of the string returned by this.toString().
+     * Return this object's hash, computed from its fields.
      *
      * @return hash of this object.
      */
     @Override
     public int hashCode() {
-        return this.toString().hashCode();
+        return 31 * super.hashCode() + Objects.hashCode(this.text);
     }
 
     /**
@@ -85,7 +123,24 @@ public class TextMessage extends Message
     public String toString() {
         return "{class=TextMessage|"
                + super.toString()
-               + "|text=" + this.getData()[0]
+               + "|text=" + this.text
                + '}';
     }
+
+    /**
+     * Appends a representation of this object to a StringBuilder, in
+     * the same form as toString(), but with the text cut short after
+     * maxChars characters.
+     *
+     * @param sb       where to append this object's representation.
+     * @param maxChars maximum number of characters of the text to include.
+     * @return sb, for chaining.
+     */
+    @Override
+    public StringBuilder appendTo(StringBuilder sb, int maxChars) {
+        sb.append("{class=TextMessage|");
+        super.appendTo(sb, maxChars).append("|text=");
+        appendTruncated(sb, this.text, maxChars);
+        return sb.append('}');
+    }
 }
@@ -0,0 +1,102 @@
+package tranquility_base.clack.transfer;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Chunks of files, kept in memory and looked up by their hashes (see
+ * ContentChunker), so that a file's chunks need only be sent once.
+ * When the store holds more than its capacity, the chunks used least
+ * recently are dropped.
+ * <p>
+ * All methods are thread-safe.
+ */
+public class ChunkStore {
+    /**
+     * Capacity used if none is given: 256 MiB.
+     */
+    public static final long DEFAULT_CAPACITY_BYTES = 256L * 1024 * 1024;
+
+    private final long capacityBytes;
+    // In access order, least recently used first.
+    private final LinkedHashMap<ByteBuffer, byte[]> chunks =
+            new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes;
+
+    /**
+     * Constructs an empty store.
+     *
+     * @param capacityBytes most chunk bytes to keep.
+     * @throws IllegalArgumentException if capacityBytes is negative.
+     */
+    public ChunkStore(long capacityBytes) {
+        if (capacityBytes < 0) {
+            throw new IllegalArgumentException("negative capacity");
+        }
+        this.capacityBytes = capacityBytes;
+    }
+
+    /**
+     * Constructs an empty store of DEFAULT_CAPACITY_BYTES.
+     */
+    public ChunkStore() {
+        this(DEFAULT_CAPACITY_BYTES);
+    }
+
+    /**
+     * Looks up a chunk, marking it as recently used.
+     *
+     * @param hash the chunk's hash, from position to limit.
+     * @return the chunk's bytes, which must not be modified; null if
+     * the store does not have it.
+     */
+    public synchronized byte[] get(ByteBuffer hash) {
+        return chunks.get(hash);
+    }
+
+    /**
+     * Adds a chunk, dropping least recently used chunks if need be to
+     * make room. The caller must have checked that the hash is the
+     * chunk's. A chunk bigger than the whole store is not kept.
+     *
+     * @param hash  the chunk's hash, from position to limit; copied.
+     * @param chunk the chunk's bytes; kept, not copied, so must not be
+     *              modified afterwards.
+     */
+    public synchronized void put(ByteBuffer hash, byte[] chunk) {
+        if (chunk.length > capacityBytes) {
+            return;
+        }
+        ByteBuffer key = ByteBuffer.allocate(hash.remaining()).put(hash.duplicate()).flip();
+        byte[] old = chunks.put(key, chunk);
+        if (old != null) {
+            bytes -= old.length;
+        }
+        bytes += chunk.length;
+        Iterator<Map.Entry<ByteBuffer, byte[]>> eldest = chunks.entrySet().iterator();
+        while (bytes > capacityBytes) {
+            bytes -= eldest.next().getValue().length;
+            eldest.remove();
+        }
+    }
+
+    /**
+     * Gets the number of chunk bytes held.
+     *
+     * @return the total length of the chunks held.
+     */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Gets the number of chunks held.
+     *
+     * @return the number of chunks.
+     */
+    public synchronized int getChunkCount() {
+        return chunks.size();
+    }
+}
@@ -0,0 +1,169 @@
+package tranquility_base.clack.transfer;
+
+import tranquility_base.clack.message.FileManifestMessage;
+import tranquility_base.clack.message.SenderSequence;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Splits files into chunks at places chosen by their content, and
+ * describes them with FileManifestMessages. A rolling "gear" hash is
+ * kept over the bytes read; wherever its top bits are all zero (and
+ * the chunk is at least MIN_CHUNK_SIZE bytes), a chunk ends. Since
+ * the hash only depends on the last 64 bytes, inserting or deleting
+ * bytes in a file moves the chunk boundaries near the change, and no
+ * others, so the rest of the file's chunks, and their hashes, stay
+ * the same. Fixed-size chunks (as from FileChunker) would all shift.
+ * <p>
+ * Chunks average about MIN_CHUNK_SIZE + AVERAGE_CHUNK_SIZE bytes,
+ * and are never longer than MAX_CHUNK_SIZE. Each is identified by
+ * its SHA-256 hash.
+ */
+public final class ContentChunker {
+    /**
+     * Shortest chunk, except for a file's last: 2 KiB.
+     */
+    public static final int MIN_CHUNK_SIZE = 2 * 1024;
+
+    /**
+     * Average distance past MIN_CHUNK_SIZE to the end of a chunk: 8 KiB.
+     */
+    public static final int AVERAGE_CHUNK_SIZE = 8 * 1024;
+
+    /**
+     * Longest chunk: 64 KiB.
+     */
+    public static final int MAX_CHUNK_SIZE = 64 * 1024;
+
+    /**
+     * Largest file that should be sent by manifest: 64 MiB. The
+     * server holds all of a file's chunks while it forwards them, so
+     * larger files should be sent in the ordinary way.
+     */
+    public static final long MAX_FILE_SIZE = 64L * 1024 * 1024;
+
+    // Top log2(AVERAGE_CHUNK_SIZE) bits; the top bits of a gear hash
+    // depend on the most bytes.
+    private static final long BOUNDARY_MASK =
+            -1L << (Long.SIZE - Integer.numberOfTrailingZeros(AVERAGE_CHUNK_SIZE));
+
+    // A random value for each byte value. Seeded, so every sender
+    // cuts the same content in the same places.
+    private static final long[] GEAR = new long[256];
+    static {
+        SplittableRandom random = new SplittableRandom(0x636c61636bL);
+        Arrays.setAll(GEAR, i -> random.nextLong());
+    }
+
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    private ContentChunker() {
+    }
+
+    /**
+     * Reads a file, and describes its chunks. The file is read once,
+     * a buffer at a time.
+     *
+     * @param username       name of user sending the file.
+     * @param filePath       the file to describe.
+     * @param fileSaveAsName name the receiver should save the file as.
+     * @return the file's manifest. An empty file has one empty chunk.
+     * @throws IOException if the file cannot be read.
+     */
+    public static FileManifestMessage manifest(String username, String filePath,
+                                               String fileSaveAsName) throws IOException {
+        return manifest(username, filePath, fileSaveAsName, SenderSequence.SHARED);
+    }
+
+    /**
+     * Reads a file, and describes its chunks, as above, in a manifest
+     * numbered by the sender's own SenderSequence.
+     *
+     * @param username       name of user sending the file.
+     * @param filePath       the file to describe.
+     * @param fileSaveAsName name the receiver should save the file as.
+     * @param sequence       the sender's sequence.
+     * @return the file's manifest. An empty file has one empty chunk.
+     * @throws IOException if the file cannot be read.
+     */
+    public static FileManifestMessage manifest(String username, String filePath,
+                                               String fileSaveAsName,
+                                               SenderSequence sequence) throws IOException {
+        MessageDigest digest = newDigest();
+        int[] lengths = new int[16];
+        int count = 0;
+        ByteArrayOutputStream hashes = new ByteArrayOutputStream();
+        long totalLength = 0;
+
+        try (FileChannel file = FileChannel.open(Path.of(filePath), StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+            byte[] bytes = buffer.array();
+            int chunkLength = 0;
+            long hash = 0;
+            while (file.read(buffer) >= 0) {
+                int n = buffer.position();
+                int chunkStart = 0;     // in bytes
+                for (int i = 0; i < n; ++i) {
+                    hash = (hash << 1) + GEAR[bytes[i] & 0xFF];
+                    chunkLength++;
+                    if ((chunkLength >= MIN_CHUNK_SIZE && (hash & BOUNDARY_MASK) == 0)
+                            || chunkLength == MAX_CHUNK_SIZE) {
+                        digest.update(bytes, chunkStart, i + 1 - chunkStart);
+                        if (count == lengths.length) {
+                            lengths = Arrays.copyOf(lengths, 2 * count);
+                        }
+                        lengths[count++] = chunkLength;
+                        hashes.writeBytes(digest.digest());
+                        totalLength += chunkLength;
+                        chunkLength = 0;
+                        hash = 0;
+                        chunkStart = i + 1;
+                    }
+                }
+                digest.update(bytes, chunkStart, n - chunkStart);
+                buffer.clear();
+            }
+            if (chunkLength > 0 || count == 0) {
+                if (count == lengths.length) {
+                    lengths = Arrays.copyOf(lengths, count + 1);
+                }
+                lengths[count++] = chunkLength;
+                hashes.writeBytes(digest.digest());
+                totalLength += chunkLength;
+            }
+        }
+        return new FileManifestMessage(username, fileSaveAsName, totalLength,
+                Arrays.copyOf(lengths, count), hashes.toByteArray(), sequence);
+    }
+
+    /**
+     * Computes the hash that identifies a chunk.
+     *
+     * @param chunk the chunk's bytes, from position to limit; the
+     *              position is left at the limit.
+     * @return the chunk's SHA-256 hash, FileManifestMessage.HASH_BYTES long.
+     */
+    public static byte[] hash(ByteBuffer chunk) {
+        MessageDigest digest = newDigest();
+        digest.update(chunk);
+        return digest.digest();
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform must provide SHA-256.
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
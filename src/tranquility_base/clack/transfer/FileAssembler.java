@@ -0,0 +1,296 @@
+package tranquility_base.clack.transfer;
+
+import tranquility_base.clack.message.FileChunkMessage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reassembles a file from the FileChunkMessages produced by a
+ * FileChunker. Each chunk is written at its own offset as soon as
+ * it arrives, so chunks may arrive in any order and memory use is
+ * bounded by the chunk size. Which bytes have arrived is tracked by
+ * range, not by chunk, so chunks may overlap, and a resumed transfer
+ * may cut the rest of the file into chunks differently.
+ * <p>
+ * Until the file is complete, it is written to a temporary file named
+ * PART_SUFFIX after the file to save, in the same directory; once the
+ * last byte arrives, that is renamed to the file to save. A transfer
+ * that never completes leaves its partial data in the temporary file.
+ * <p>
+ * For a resumable transfer (one with a transfer ID), which ranges have
+ * arrived is also kept, in a file named RANGES_SUFFIX after the
+ * temporary file. A FileAssembler made later for the same transfer,
+ * by a receiver that has reconnected, say, carries on from there
+ * rather than starting again. The ranges file is saved every
+ * SAVE_RANGES_CHUNKS chunks or SAVE_RANGES_BYTES bytes, and on close;
+ * each time, the temporary file is forced to disk first, and the
+ * ranges file is replaced in one rename, so it never claims bytes that
+ * a crash could lose. After a crash, at most the chunks received since
+ * the last save are sent again.
+ */
+public class FileAssembler implements Closeable {
+    /**
+     * Appended to the name of the file to save, to name the
+     * temporary file it is assembled in.
+     */
+    public static final String PART_SUFFIX = ".part";
+
+    /**
+     * Appended to the name of the temporary file, to name the file
+     * that records which ranges of a resumable transfer it holds.
+     */
+    public static final String RANGES_SUFFIX = ".ranges";
+
+    /**
+     * Chunks accepted between saves of the ranges file.
+     */
+    public static final int SAVE_RANGES_CHUNKS = 64;
+
+    /**
+     * Bytes accepted between saves of the ranges file.
+     */
+    public static final long SAVE_RANGES_BYTES = 4L * 1024 * 1024;
+
+    private final Path savePath;
+    private final Path partPath;
+    private final Path rangesPath;
+    private final String fileSaveAsName;
+    private final long totalLength;
+    private final long transferId;
+    private final FileChannel channel;
+    private final RangeSet received;
+
+    private boolean anyReceived;
+    private int unsavedChunks;
+    private long unsavedBytes;
+
+    /**
+     * Creates (or truncates) the temporary file that chunks will be
+     * written to.
+     *
+     * @param directory      directory to save the file in.
+     * @param fileSaveAsName filename to save the file as.
+     * @param totalLength    expected length of the whole file, in bytes.
+     * @throws IOException if the file cannot be created.
+     */
+    public FileAssembler(Path directory, String fileSaveAsName, long totalLength)
+            throws IOException {
+        this(directory, fileSaveAsName, totalLength, FileChunkMessage.NO_TRANSFER_ID);
+    }
+
+    /**
+     * Opens the temporary file that chunks of a transfer will be
+     * written to. If it holds part of the same transfer already, as
+     * recorded in its ranges file, that is kept; otherwise it is
+     * created, or truncated.
+     *
+     * @param directory      directory to save the file in.
+     * @param fileSaveAsName filename to save the file as.
+     * @param totalLength    expected length of the whole file, in bytes.
+     * @param transferId     the transfer's ID, or
+     *                       FileChunkMessage.NO_TRANSFER_ID if it cannot
+     *                       be resumed.
+     * @throws IOException if the file cannot be opened or created.
+     */
+    public FileAssembler(Path directory, String fileSaveAsName, long totalLength,
+                         long transferId) throws IOException {
+        this.savePath = directory.resolve(fileSaveAsName);
+        this.partPath = directory.resolve(fileSaveAsName + PART_SUFFIX);
+        this.rangesPath = directory.resolve(fileSaveAsName + PART_SUFFIX + RANGES_SUFFIX);
+        this.fileSaveAsName = fileSaveAsName;
+        this.totalLength = totalLength;
+        this.transferId = transferId;
+        RangeSet kept = readRanges();
+        if (kept != null && Files.exists(partPath)) {
+            this.received = kept;
+            this.anyReceived = true;
+            this.channel = FileChannel.open(partPath, StandardOpenOption.WRITE);
+        } else {
+            Files.deleteIfExists(rangesPath);
+            this.received = new RangeSet();
+            this.channel = FileChannel.open(partPath,
+                    StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+        }
+    }
+
+    /**
+     * Reads the ranges file left by an earlier FileAssembler.
+     *
+     * @return the ranges received, or null if there is no ranges file,
+     * it is for another transfer, or it cannot be read.
+     */
+    private RangeSet readRanges() {
+        if (transferId == FileChunkMessage.NO_TRANSFER_ID || !Files.exists(rangesPath)) {
+            return null;
+        }
+        try {
+            ByteBuffer buf = ByteBuffer.wrap(Files.readAllBytes(rangesPath));
+            if (buf.getLong() != transferId || buf.getLong() != totalLength) {
+                return null;
+            }
+            long[] ranges = new long[buf.remaining() / Long.BYTES];
+            buf.asLongBuffer().get(ranges);
+            return new RangeSet(ranges);
+        } catch (IOException | RuntimeException e) {
+            // Unreadable: start again.
+            return null;
+        }
+    }
+
+    /**
+     * Records which ranges have been received, for a later
+     * FileAssembler to carry on from. Only resumable transfers
+     * keep a ranges file. The bytes are forced to disk before the
+     * ranges that claim them, and the ranges file is written beside
+     * its old self and renamed over it, so that, whenever a crash
+     * comes, the ranges file is whole and claims no more than the
+     * part file holds.
+     */
+    private void saveRanges() throws IOException {
+        unsavedChunks = 0;
+        unsavedBytes = 0;
+        if (transferId == FileChunkMessage.NO_TRANSFER_ID) {
+            return;
+        }
+        channel.force(false);
+        long[] ranges = received.toArray();
+        ByteBuffer buf = ByteBuffer.allocate((2 + ranges.length) * Long.BYTES);
+        buf.putLong(transferId).putLong(totalLength);
+        buf.asLongBuffer().put(ranges);
+        buf.rewind();
+        Path temp = rangesPath.resolveSibling(rangesPath.getFileName() + ".tmp");
+        try (FileChannel out = FileChannel.open(temp,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buf.hasRemaining()) {
+                out.write(buf);
+            }
+            out.force(false);
+        }
+        try {
+            Files.move(temp, rangesPath, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, rangesPath, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Get the path the file will be saved at once complete.
+     *
+     * @return the path of the file being assembled.
+     */
+    public Path getSavePath() {
+        return savePath;
+    }
+
+    /**
+     * Get the path of the temporary file the file is assembled in.
+     *
+     * @return the path of the partial file.
+     */
+    public Path getPartPath() {
+        return partPath;
+    }
+
+    /**
+     * Get the number of file bytes written so far.
+     *
+     * @return bytes received, not counting bytes received twice.
+     */
+    public long getBytesReceived() {
+        return received.getBytes();
+    }
+
+    /**
+     * Get the byte ranges of the file written so far.
+     *
+     * @return start and end of each range, in turn, in increasing order.
+     */
+    public long[] getRangesReceived() {
+        return received.toArray();
+    }
+
+    /**
+     * Tells whether every byte of the file has been received.
+     *
+     * @return true iff the file is complete.
+     */
+    public boolean isComplete() {
+        return anyReceived && received.covers(totalLength);
+    }
+
+    /**
+     * Writes one chunk into the file. When the last missing bytes
+     * arrive, the file is closed and renamed to its save path.
+     *
+     * @param chunk the chunk to write.
+     * @return true iff the file is now complete.
+     * @throws IOException if the chunk cannot be written, or the
+     *                     completed file cannot be renamed.
+     * @throws IllegalArgumentException if the chunk belongs to a
+     *                                  different file.
+     */
+    public boolean accept(FileChunkMessage chunk) throws IOException {
+        if (!chunk.getFileSaveAsName().equals(fileSaveAsName)
+                || chunk.getTotalLength() != totalLength) {
+            throw new IllegalArgumentException("chunk is for a different file");
+        }
+        if (isComplete()) {
+            return true;
+        }
+
+        ByteBuffer data = chunk.getChunk();
+        long position = chunk.getOffset();
+        while (data.hasRemaining()) {
+            position += channel.write(data, position);
+        }
+        unsavedBytes += received.add(chunk.getOffset(),
+                chunk.getOffset() + chunk.getChunkLength());
+        unsavedChunks++;
+        anyReceived = true;
+
+        if (isComplete()) {
+            channel.close();
+            Files.move(partPath, savePath, StandardCopyOption.REPLACE_EXISTING);
+            Files.deleteIfExists(rangesPath);
+            return true;
+        }
+        if (unsavedChunks >= SAVE_RANGES_CHUNKS || unsavedBytes >= SAVE_RANGES_BYTES) {
+            saveRanges();
+        }
+        return false;
+    }
+
+    /**
+     * Closes the file, whether or not it is complete. An incomplete
+     * file is left at its part path, with its ranges file, saved now,
+     * if the transfer is resumable.
+     *
+     * @throws IOException if the file cannot be closed, or its ranges
+     *                     cannot be saved.
+     */
+    @Override
+    public void close() throws IOException {
+        if (!channel.isOpen()) {
+            return;
+        }
+        try {
+            if (unsavedChunks > 0) {
+                saveRanges();
+            }
+        } finally {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package tranquility_base.clack.transfer;
+
+import tranquility_base.clack.message.FileChunkMessage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Splits a file into a sequence of FileChunkMessages, reading
+ * one chunk at a time so that memory use is bounded by the chunk
+ * size rather than the file size. Every file produces at least
+ * one chunk; an empty file produces a single empty chunk, so the
+ * receiver still learns about it.
+ * <p>
+ * Typical use:
+ * <pre>
+ *   try (FileChunker chunker = new FileChunker(user, path, saveAs)) {
+ *       FileChunkMessage chunk;
+ *       while ((chunk = chunker.nextChunk()) != null) {
+ *           send(chunk);
+ *       }
+ *   }
+ * </pre>
+ */
+public class FileChunker implements Closeable {
+    /**
+     * Chunk size used if none is given: 64 KiB.
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+
+    private final String username;
+    private final String fileSaveAsName;
+    private final int chunkSize;
+    private final FileChannel channel;
+    private final long totalLength;
+
+    private int sequence;
+    private long offset;
+
+    /**
+     * Opens a file for sending in chunks.
+     *
+     * @param username       name of user sending the file.
+     * @param filePath       the file to send.
+     * @param fileSaveAsName name the receiver should save the file as.
+     * @param chunkSize      maximum number of file bytes per chunk.
+     * @throws IOException if the file cannot be opened.
+     * @throws IllegalArgumentException if chunkSize is not positive.
+     */
+    public FileChunker(String username, String filePath, String fileSaveAsName,
+                       int chunkSize) throws IOException {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("chunk size must be positive");
+        }
+        this.username = username;
+        this.fileSaveAsName = fileSaveAsName;
+        this.chunkSize = chunkSize;
+        this.channel = FileChannel.open(Path.of(filePath), StandardOpenOption.READ);
+        this.totalLength = channel.size();
+    }
+
+    /**
+     * Opens a file for sending in chunks of DEFAULT_CHUNK_SIZE.
+     *
+     * @param username       name of user sending the file.
+     * @param filePath       the file to send.
+     * @param fileSaveAsName name the receiver should save the file as.
+     * @throws IOException if the file cannot be opened.
+     */
+    public FileChunker(String username, String filePath, String fileSaveAsName)
+            throws IOException {
+        this(username, filePath, fileSaveAsName, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Makes the transfer ID for sending a file: the same each time the
+     * same user sends the same, unchanged, file under the same name,
+     * so that an interrupted transfer can be resumed; different once
+     * the file changes. The file is recognized by its path, length
+     * and last-modified time, not its contents, so this is cheap.
+     *
+     * @param username       name of user sending the file.
+     * @param filePath       the file to send.
+     * @param fileSaveAsName name the receiver should save the file as.
+     * @return the transfer ID; never FileChunkMessage.NO_TRANSFER_ID.
+     * @throws IOException if the file's attributes cannot be read.
+     */
+    public static long transferId(String username, String filePath,
+                                  String fileSaveAsName) throws IOException {
+        Path path = Path.of(filePath).toAbsolutePath();
+        String identity = username + '\0' + path + '\0' + fileSaveAsName
+                + '\0' + Files.size(path)
+                + '\0' + Files.getLastModifiedTime(path).toMillis();
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform must provide SHA-256.
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+        long id = ByteBuffer.wrap(digest.digest(
+                identity.getBytes(StandardCharsets.UTF_8))).getLong();
+        return (id == FileChunkMessage.NO_TRANSFER_ID) ? 1 : id;
+    }
+
+    /**
+     * Get the length of the file being sent, as of when it was opened.
+     *
+     * @return the file length, in bytes.
+     */
+    public long getTotalLength() {
+        return totalLength;
+    }
+
+    /**
+     * Reads the next chunk of the file.
+     *
+     * @return the next chunk, or null if the whole file has been read.
+     * @throws IOException if the file cannot be read, or has become
+     *                     shorter since it was opened.
+     */
+    public FileChunkMessage nextChunk() throws IOException {
+        if (offset == totalLength && (sequence > 0 || totalLength > 0)) {
+            return null;
+        }
+        int length = (int) Math.min(chunkSize, totalLength - offset);
+        byte[] bytes = new byte[length];
+        ByteBuffer buf = ByteBuffer.wrap(bytes);
+        while (buf.hasRemaining()) {
+            if (channel.read(buf, offset + buf.position()) < 0) {
+                throw new IOException("file changed while being sent: "
+                        + fileSaveAsName);
+            }
+        }
+        FileChunkMessage chunk = new FileChunkMessage(username, fileSaveAsName,
+                sequence, offset, totalLength, bytes);
+        sequence++;
+        offset += length;
+        return chunk;
+    }
+
+    /**
+     * Closes the underlying file.
+     *
+     * @throws IOException if the file cannot be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
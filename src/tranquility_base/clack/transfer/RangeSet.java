@@ -0,0 +1,154 @@
+package tranquility_base.clack.transfer;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A set of byte offsets, held as half-open ranges [start, end) that
+ * neither overlap nor touch: adjacent and overlapping ranges are
+ * merged as they are added. Used to track which parts of a file have
+ * been received, so an interrupted transfer can be resumed.
+ * <p>
+ * A RangeSet is not thread-safe.
+ */
+public final class RangeSet {
+
+    // start -> end of each range
+    private final TreeMap<Long, Long> ranges = new TreeMap<>();
+    private long bytes;
+
+    /**
+     * Constructs an empty set.
+     */
+    public RangeSet() {
+    }
+
+    /**
+     * Constructs a set holding the given ranges.
+     *
+     * @param ranges start and end of each range, in turn.
+     * @throws IllegalArgumentException if there is an odd number of
+     *                                  bounds, or a range is backwards.
+     */
+    public RangeSet(long[] ranges) {
+        if (ranges.length % 2 != 0) {
+            throw new IllegalArgumentException("odd number of bounds");
+        }
+        for (int i = 0; i < ranges.length; i += 2) {
+            add(ranges[i], ranges[i + 1]);
+        }
+    }
+
+    /**
+     * Adds a range.
+     *
+     * @param start offset of the range's first byte.
+     * @param end   offset just past the range's last byte.
+     * @return the number of bytes that were not already in the set.
+     * @throws IllegalArgumentException if start is negative, or
+     *                                  end is before start.
+     */
+    public long add(long start, long end) {
+        if (start < 0 || end < start) {
+            throw new IllegalArgumentException("bad range " + start + "-" + end);
+        }
+        if (start == end) {
+            return 0;
+        }
+        long before = bytes;
+        // Absorb a range that starts before this one and reaches it.
+        Map.Entry<Long, Long> lower = ranges.floorEntry(start);
+        if (lower != null && lower.getValue() >= start) {
+            start = lower.getKey();
+            end = Math.max(end, lower.getValue());
+            ranges.remove(lower.getKey());
+            bytes -= lower.getValue() - lower.getKey();
+        }
+        // Absorb ranges that start within this one, or just after it.
+        Map.Entry<Long, Long> next;
+        while ((next = ranges.ceilingEntry(start)) != null && next.getKey() <= end) {
+            end = Math.max(end, next.getValue());
+            ranges.remove(next.getKey());
+            bytes -= next.getValue() - next.getKey();
+        }
+        ranges.put(start, end);
+        bytes += end - start;
+        return bytes - before;
+    }
+
+    /**
+     * Gets the number of bytes in the set.
+     *
+     * @return the total length of the ranges.
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Gets the number of ranges, after merging.
+     *
+     * @return the number of ranges.
+     */
+    public int getRangeCount() {
+        return ranges.size();
+    }
+
+    /**
+     * Tells whether the set holds every byte from 0 up to length.
+     *
+     * @param length the length to check.
+     * @return true iff [0, length) is in the set.
+     */
+    public boolean covers(long length) {
+        if (length == 0) {
+            return true;
+        }
+        Long end = ranges.get(0L);
+        return end != null && end >= length;
+    }
+
+    /**
+     * Gets the ranges.
+     *
+     * @return start and end of each range, in turn, in increasing order.
+     */
+    public long[] toArray() {
+        long[] array = new long[2 * ranges.size()];
+        int i = 0;
+        for (Map.Entry<Long, Long> range : ranges.entrySet()) {
+            array[i++] = range.getKey();
+            array[i++] = range.getValue();
+        }
+        return array;
+    }
+
+    /**
+     * Gets the ranges missing from the set, between 0 and length.
+     *
+     * @param length the length of the whole.
+     * @return start and end of each missing range, in turn, in
+     * increasing order.
+     */
+    public long[] gaps(long length) {
+        long[] array = new long[2 * (ranges.size() + 1)];
+        int i = 0;
+        long at = 0;
+        for (Map.Entry<Long, Long> range : ranges.entrySet()) {
+            if (range.getKey() >= length) {
+                break;
+            }
+            if (range.getKey() > at) {
+                array[i++] = at;
+                array[i++] = range.getKey();
+            }
+            at = Math.max(at, range.getValue());
+        }
+        if (at < length) {
+            array[i++] = at;
+            array[i++] = length;
+        }
+        return Arrays.copyOf(array, i);
+    }
+}
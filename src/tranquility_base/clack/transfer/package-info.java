@@ -0,0 +1,8 @@
+/**
+ * Classes for sending files in pieces, so that large files
+ * never have to be held in memory all at once, and so that
+ * pieces the server already has need not be sent again, whether
+ * because another file held them or because an interrupted
+ * transfer had already sent them.
+ */
+package tranquility_base.clack.transfer;
@@ -3,6 +3,14 @@ package tranquility_base.clack.cipher;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.CharBuffer;
+import java.util.Random;
+
 class CaesarCipherTest {
 
     @Test
@@ -79,4 +87,133 @@ class CaesarCipherTest {
                 cc.decrypt("Uif.rvjdlA.cspxo.gpy.kvnqfe,.Pwfs.uif.mb z.qppemf!"));
 
     }
-}
\ No newline at end of file
+
+    /**
+     * Straightforward shift by searching the alphabet, to check
+     * the cipher's translation tables against.
+     */
+    static String referenceShift(String str, String alphabet, int shift) {
+        shift = ((shift % alphabet.length()) + alphabet.length()) % alphabet.length();
+        StringBuilder sb = new StringBuilder();
+        for (char ch : str.toCharArray()) {
+            int loc = alphabet.indexOf(ch);
+            sb.append(loc == -1 ? ch : alphabet.charAt((loc + shift) % alphabet.length()));
+        }
+        return sb.toString();
+    }
+
+    @Test
+    void matchesReferenceShift() {
+        StringBuilder printable = new StringBuilder();
+        for (char ch = ' '; ch <= '~'; ++ch) {
+            printable.append(ch);
+        }
+        String[] alphabets = {CaesarCipher.DEFAULT_ALPHABET, printable.toString(),
+                "zyx\u00e9\u4e2d", "Q"};
+        int[] keys = {1, -1, 3, 26, 95, -442, 1000};
+
+        Random random = new Random(1);
+        char[] text = new char[500];
+        for (int i = 0; i < text.length; ++i) {
+            // Mostly ASCII, with some chars above every alphabet's range.
+            text[i] = random.nextInt(10) == 0
+                    ? (char) random.nextInt(Character.MAX_VALUE + 1)
+                    : (char) random.nextInt(128);
+        }
+        String str = new String(text) + "zyx\u00e9\u4e2d";
+
+        for (String alphabet : alphabets) {
+            for (int key : keys) {
+                CaesarCipher cc = new CaesarCipher(key, alphabet);
+                String encrypted = cc.encrypt(str);
+                Assertions.assertEquals(referenceShift(str, alphabet, key), encrypted);
+                Assertions.assertEquals(str, cc.decrypt(encrypted));
+            }
+        }
+        Assertions.assertNull(new CaesarCipher(1).encrypt(null));
+        Assertions.assertNull(new CaesarCipher(1).decrypt(null));
+    }
+
+    @Test
+    void encryptDecryptCharBuffers() {
+        String msg = "The quick, brown fox jumped. Over the lazy poodle!";
+        CaesarCipher cc = new CaesarCipher(1);
+
+        CharBuffer in = CharBuffer.wrap(msg);       // read-only, no array
+        CharBuffer out = CharBuffer.allocate(20);   // smaller than msg
+        StringBuilder encrypted = new StringBuilder();
+        while (in.hasRemaining()) {
+            cc.encrypt(in, out);
+            out.flip();
+            encrypted.append(out);
+            out.clear();
+        }
+        Assertions.assertEquals(cc.encrypt(msg), encrypted.toString());
+
+        in = CharBuffer.wrap(encrypted.toString().toCharArray());
+        out = CharBuffer.allocate(msg.length());
+        cc.decrypt(in, out);
+        Assertions.assertFalse(in.hasRemaining());
+        out.flip();
+        Assertions.assertEquals(msg, out.toString());
+    }
+
+    @Test
+    void encryptingWriterAndDecryptingReader() throws IOException {
+        String msg = "The quick, brown fox jumped. Over the lazy poodle!\n".repeat(100);
+        CaesarCipher cc = new CaesarCipher(7, CaesarCipher.DEFAULT_ALPHABET
+                + CaesarCipher.DEFAULT_ALPHABET.toLowerCase());
+
+        StringWriter cipherText = new StringWriter();
+        try (Writer writer = cc.encryptingWriter(cipherText)) {
+            writer.write(msg, 0, 10);
+            writer.write(msg.charAt(10));
+            char[] rest = msg.substring(11).toCharArray();
+            writer.write(rest);
+            // The caller's array must be left alone.
+            Assertions.assertEquals(msg.substring(11), new String(rest));
+        }
+        Assertions.assertEquals(cc.encrypt(msg), cipherText.toString());
+
+        StringBuilder clearText = new StringBuilder();
+        try (Reader reader = cc.decryptingReader(new StringReader(cipherText.toString()))) {
+            clearText.append((char) reader.read());
+            char[] buf = new char[33];
+            int n;
+            while ((n = reader.read(buf, 0, buf.length)) >= 0) {
+                clearText.append(buf, 0, n);
+            }
+        }
+        Assertions.assertEquals(msg, clearText.toString());
+    }
+
+    @Test
+    void encryptingReaderAndDecryptingWriter() throws IOException {
+        String msg = "The quick, brown fox jumped. Over the lazy poodle!";
+        CaesarCipher cc = new CaesarCipher(3);
+
+        StringWriter clearText = new StringWriter();
+        try (Reader reader = cc.encryptingReader(new StringReader(msg));
+             Writer writer = cc.decryptingWriter(clearText)) {
+            reader.transferTo(writer);
+        }
+        Assertions.assertEquals(msg, clearText.toString());
+    }
+
+    @Test
+    void encryptDecryptParallel() {
+        CaesarCipher cc = new CaesarCipher(5, CaesarCipher.DEFAULT_ALPHABET
+                + CaesarCipher.DEFAULT_ALPHABET.toLowerCase() + " .,");
+
+        String shortMsg = "The quick, brown fox jumped. Over the lazy poodle!";
+        Assertions.assertEquals(cc.encrypt(shortMsg), cc.encryptParallel(shortMsg));
+        Assertions.assertNull(cc.encryptParallel(null));
+
+        // Long enough to be split into several uneven pieces.
+        String longMsg = shortMsg.repeat(3 * CaesarCipher.PARALLEL_THRESHOLD
+                / shortMsg.length() + 7);
+        String encrypted = cc.encryptParallel(longMsg);
+        Assertions.assertEquals(cc.encrypt(longMsg), encrypted);
+        Assertions.assertEquals(longMsg, cc.decryptParallel(encrypted));
+    }
+}
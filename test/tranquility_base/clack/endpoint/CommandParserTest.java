@@ -0,0 +1,114 @@
+package tranquility_base.clack.endpoint;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import tranquility_base.clack.message.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CommandParserTest {
+
+    final String USERNAME = "the user";
+
+    Client client;
+
+    @BeforeEach
+    void setUp() {
+        client = new Client(USERNAME);
+    }
+
+    Message parse(String input) {
+        return client.parseUserInput(input);
+    }
+
+    @Test
+    void keywordsIgnoreCaseAndSpacing() {
+        assertEquals(Message.MSGTYPE_HELP, parse("help").getMsgType());
+        assertEquals(Message.MSGTYPE_LISTUSERS, parse("  List \t users  ").getMsgType());
+        assertEquals(Message.MSGTYPE_LOGOUT, parse("LOGOUT").getMsgType());
+        assertEquals(Message.MSGTYPE_LISTUSERS, parse("LIST USERS please").getMsgType());
+    }
+
+    @Test
+    void eachClientNumbersItsOwnMessages() {
+        Client other = new Client(USERNAME);
+        assertEquals(1, parse("hello").getSenderSequence());
+        assertEquals(1, other.parseUserInput("LIST USERS").getSenderSequence());
+        assertEquals(2, parse("LOGOUT").getSenderSequence());
+        assertEquals(3, client.getSenderSequence().next());
+    }
+
+    @Test
+    void textIsKeptAsEntered() {
+        for (String input : new String[]{"hello,  world ", "LIST", "list things",
+                "SEND", "send help", "LOGOUTS", "   "}) {
+            Message msg = parse(input);
+            assertEquals(Message.MSGTYPE_TEXT, msg.getMsgType(), input);
+            assertEquals(input, ((TextMessage) msg).getText());
+        }
+    }
+
+    @Test
+    void sendFile() throws IOException {
+        Path file = Files.createTempFile("clack-", ".txt");
+        try {
+            Files.writeString(file, "contents");
+            FileMessage msg = (FileMessage) parse("send file " + file);
+            assertEquals(file.toString(), msg.getFilePath());
+            assertEquals("contents", msg.getFileContents());
+
+            msg = (FileMessage) parse("SEND FILE " + file + " as copy.txt");
+            assertEquals("copy.txt", msg.getFileSaveAsName());
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    void badSendFile() {
+        for (String input : new String[]{"SEND FILE", "SEND FILE a b", "SEND FILE a TO b",
+                "SEND FILE a AS b c"}) {
+            HelpMessage msg = (HelpMessage) parse(input);
+            assertTrue(msg.getHelpText().startsWith("Invalid SEND FILE syntax."), input);
+        }
+        assertEquals(Message.MSGTYPE_HELP, parse("SEND FILE no-such-file").getMsgType());
+    }
+
+    @Test
+    void registeredCommandsPlugIn() {
+        CommandParser parser = client.getCommandParser();
+        parser.register("LIST", (user, line) ->
+                new TextMessage(user, "list of " + line.getArgCount()));
+        parser.register("ECHO", (user, line) ->
+                new TextMessage(user, line.getArg(0) + "|" + line.argEqualsIgnoreCase(1, "x")));
+
+        // The longer command still wins.
+        assertEquals(Message.MSGTYPE_LISTUSERS, parse("LIST USERS").getMsgType());
+        assertEquals("list of 0", ((TextMessage) parse("list")).getText());
+        assertEquals("list of 2", ((TextMessage) parse("list a b")).getText());
+        assertEquals("Hi|true", ((TextMessage) parse(" echo Hi X")).getText());
+        assertEquals("Hi|false", ((TextMessage) parse("echo Hi")).getText());
+    }
+
+    @Test
+    void manyTokens() {
+        CommandParser parser = new CommandParser();
+        parser.register("COUNT", (user, line) ->
+                new TextMessage(user, line.getArg(line.getArgCount() - 1)));
+        String input = "COUNT" + " t".repeat(99) + " last";
+        assertEquals("last", ((TextMessage) parser.parse(USERNAME, input)).getText());
+    }
+
+    @Test
+    void badRegistrations() {
+        CommandParser parser = client.getCommandParser();
+        assertThrows(IllegalArgumentException.class,
+                () -> parser.register(" ", (user, line) -> null));
+        assertThrows(IllegalArgumentException.class,
+                () -> parser.register("list  users", (user, line) -> null));
+    }
+}
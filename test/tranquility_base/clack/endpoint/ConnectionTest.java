@@ -0,0 +1,203 @@
+package tranquility_base.clack.endpoint;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import tranquility_base.clack.message.*;
+import tranquility_base.clack.transfer.FileAssembler;
+import tranquility_base.clack.transfer.FileChunker;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConnectionTest {
+
+    final String USERNAME = "the user";
+
+    ServerSocketChannel listener;
+    Connection sender;
+    Connection receiver;
+    Path tempDir;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        listener = ServerSocketChannel.open();
+        listener.bind(new InetSocketAddress("localhost", 0));
+        int port = ((InetSocketAddress) listener.getLocalAddress()).getPort();
+        sender = Connection.open("localhost", port);
+        receiver = new Connection(listener.accept());
+        tempDir = Files.createTempDirectory("clack-");
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        sender.close();
+        receiver.close();
+        listener.close();
+        try (var files = Files.list(tempDir)) {
+            for (Path p : (Iterable<Path>) files::iterator) {
+                Files.delete(p);
+            }
+        }
+        Files.delete(tempDir);
+    }
+
+    @Test
+    void sendAndReceive() throws IOException {
+        Message text = new TextMessage(USERNAME, "hello");
+        Message list = new ListUsersMessage(USERNAME);
+        sender.send(text);
+        sender.send(list);
+        assertEquals(text, receiver.receive());
+        assertEquals(list, receiver.receive());
+    }
+
+    @Test
+    void sendLargerThanBuffer() throws IOException {
+        String contents = "x".repeat(3 * Connection.INITIAL_BUFFER_SIZE);
+        Message text = new TextMessage(USERNAME, contents);
+        Thread t = new Thread(() -> {
+            try {
+                sender.send(text);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        t.start();
+        assertEquals(text, receiver.receive());
+    }
+
+    @Test
+    void compressedSendLargerThanBufferIsCompressed() throws IOException {
+        // Large messages are the ones compression is for, so one that
+        // outgrows the send buffer must still go out compressed.
+        String contents = "x".repeat(3 * Connection.INITIAL_BUFFER_SIZE);
+        int port = ((InetSocketAddress) listener.getLocalAddress()).getPort();
+        try (Connection compressing = Connection.open("localhost", port);
+             SocketChannel peer = listener.accept()) {
+            compressing.setCompressing(true);
+            compressing.send(new TextMessage(USERNAME, contents));
+            ByteBuffer header = ByteBuffer.allocate(2 * Integer.BYTES);
+            while (header.hasRemaining()) {
+                peer.read(header);
+            }
+            assertTrue(header.getInt(0) < contents.length() / 10, "frame length " + header.getInt(0));
+            assertEquals(Message.MSGTYPE_TEXT | MessageCodec.COMPRESSED_FLAG, header.getInt(4));
+        }
+    }
+
+    @Test
+    void compressedFramesNeedAgreement() throws IOException {
+        TextMessage log = new TextMessage(USERNAME, "INFO all is well\n".repeat(1000));
+        sender.setCompressing(true);
+        sender.send(log);
+        assertThrows(IOException.class, () -> receiver.receive());
+    }
+
+    @Test
+    void agreedCompressedFramesAreAccepted() throws IOException {
+        TextMessage log = new TextMessage(USERNAME, "INFO all is well\n".repeat(1000));
+        sender.setCompressing(true);
+        receiver.setCompressing(true);
+        sender.send(log);
+        assertEquals(log, receiver.receive());
+    }
+
+    @Test
+    void receiveAfterClose() throws IOException {
+        sender.close();
+        assertNull(receiver.receive());
+    }
+
+    @Test
+    void sendFile() throws Exception {
+        byte[] contents = new byte[250_000];
+        new Random(42).nextBytes(contents);
+        Path source = tempDir.resolve("source.bin");
+        Files.write(source, contents);
+
+        Thread t = new Thread(() -> {
+            try {
+                sender.sendFile(USERNAME, source.toString(), "copy.bin", 100_000);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        t.start();
+
+        int chunks = 0;
+        try (FileAssembler assembler = new FileAssembler(tempDir, "copy.bin",
+                contents.length)) {
+            boolean complete = false;
+            while (!complete) {
+                FileChunkMessage chunk = (FileChunkMessage) receiver.receive();
+                assertEquals(USERNAME, chunk.getUsername());
+                assertEquals(chunks, chunk.getSequence());
+                complete = assembler.accept(chunk);
+                chunks++;
+            }
+        }
+        t.join();
+        assertEquals(3, chunks);
+        assertArrayEquals(contents, Files.readAllBytes(tempDir.resolve("copy.bin")));
+    }
+
+    @Test
+    void resumeFileSendsOnlyGaps() throws Exception {
+        byte[] contents = new byte[250_000];
+        new Random(7).nextBytes(contents);
+        Path source = tempDir.resolve("source.bin");
+        Files.write(source, contents);
+        FileResumeMessage have = new FileResumeMessage("server", "copy.bin", 99,
+                contents.length, new long[]{0, 150_000, 200_000, 210_000});
+
+        Thread t = new Thread(() -> {
+            try {
+                sender.resumeFile(USERNAME, source.toString(), have, 100_000);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        t.start();
+
+        // Cut where sendFile() would cut, but only the gaps.
+        long[][] expected = {{150_000, 200_000, 1}, {210_000, 250_000, 2}};
+        for (long[] e : expected) {
+            FileChunkMessage chunk = (FileChunkMessage) receiver.receive();
+            assertEquals(99, chunk.getTransferId());
+            assertEquals(e[0], chunk.getOffset());
+            assertEquals(e[1] - e[0], chunk.getChunkLength());
+            assertEquals(e[2], chunk.getSequence());
+            byte[] bytes = new byte[chunk.getChunkLength()];
+            chunk.getChunk().get(bytes);
+            assertArrayEquals(Arrays.copyOfRange(contents, (int) e[0], (int) e[1]),
+                    bytes);
+        }
+        t.join();
+
+        // A file whose length has changed cannot be resumed.
+        Files.write(source, new byte[10]);
+        assertThrows(IOException.class,
+                () -> sender.resumeFile(USERNAME, source.toString(), have, 100_000));
+    }
+
+    @Test
+    void sendFileChunksCarryTransferId() throws Exception {
+        Path source = tempDir.resolve("source.bin");
+        Files.write(source, new byte[10]);
+        sender.sendFile(USERNAME, source.toString(), "copy.bin", 100);
+        FileChunkMessage chunk = (FileChunkMessage) receiver.receive();
+        assertEquals(FileChunker.transferId(USERNAME, source.toString(), "copy.bin"),
+                chunk.getTransferId());
+        assertNotEquals(FileChunkMessage.NO_TRANSFER_ID, chunk.getTransferId());
+    }
+}
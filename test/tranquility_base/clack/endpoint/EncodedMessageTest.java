@@ -0,0 +1,73 @@
+package tranquility_base.clack.endpoint;
+
+import org.junit.jupiter.api.Test;
+import tranquility_base.clack.message.MessageCodec;
+import tranquility_base.clack.message.TextMessage;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EncodedMessageTest {
+
+    final MessageCodec codec = new MessageCodec();
+
+    @Test
+    void frameDecodesToMessage() {
+        TextMessage msg = new TextMessage("alice", "hello");
+        EncodedMessage encoded = new EncodedMessage(msg);
+        assertSame(msg, encoded.getMessage());
+        assertEquals(msg, codec.decode(encoded.getFrame(false)));
+        assertEquals(msg, codec.decode(encoded.getFrame(true)));
+    }
+
+    @Test
+    void eachFrameIsIndependent() {
+        EncodedMessage encoded = new EncodedMessage(new TextMessage("alice", "hello"));
+        ByteBuffer first = encoded.getFrame(false);
+        ByteBuffer second = encoded.getFrame(false);
+        assertTrue(first.isReadOnly());
+        first.position(first.limit());
+        assertEquals(0, second.position());
+        assertTrue(second.hasRemaining());
+    }
+
+    @Test
+    void largeTextIsCompressedForCompressingSessions() {
+        TextMessage msg = new TextMessage("alice", "all work and no play ".repeat(1000));
+        EncodedMessage encoded = new EncodedMessage(msg);
+        ByteBuffer plain = encoded.getFrame(false);
+        ByteBuffer compressed = encoded.getFrame(true);
+        assertTrue(compressed.remaining() < plain.remaining());
+        assertEquals(msg, codec.decode(compressed));
+        assertEquals(msg, codec.decode(plain));
+    }
+
+    @Test
+    void compressibleTextOfEverySizeIsCompressed() {
+        // Sizes that once came out plain, when the frame was encoded
+        // into a buffer only just big enough for it, among others.
+        for (int chars : new int[]{1500, 1900, 3000, 3900, 6000, 7800, 12000,
+                16000, 30000, 60000, 1_000_000}) {
+            StringBuilder text = new StringBuilder();
+            for (int i = 0; text.length() < chars; i++) {
+                text.append("line ").append(i % 100).append(": all work and no play\n");
+            }
+            TextMessage msg = new TextMessage("alice", text.substring(0, chars));
+            EncodedMessage encoded = new EncodedMessage(msg);
+            ByteBuffer compressed = encoded.getFrame(true);
+            ByteBuffer plain = encoded.getFrame(false);
+            assertEquals(codec.encodedLength(msg), plain.remaining());
+            assertTrue(compressed.remaining() < plain.remaining(),
+                    chars + ": " + compressed.remaining() + " vs " + plain.remaining());
+            assertEquals(msg, codec.decode(compressed));
+            assertEquals(msg, codec.decode(plain));
+        }
+    }
+
+    @Test
+    void smallTextIsNotCompressed() {
+        EncodedMessage encoded = new EncodedMessage(new TextMessage("alice", "hi"));
+        assertEquals(encoded.getFrame(false), encoded.getFrame(true));
+    }
+}
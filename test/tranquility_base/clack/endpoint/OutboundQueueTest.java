@@ -0,0 +1,218 @@
+package tranquility_base.clack.endpoint;
+
+import org.junit.jupiter.api.Test;
+import tranquility_base.clack.message.FileChunkMessage;
+import tranquility_base.clack.message.Message;
+import tranquility_base.clack.message.MessageCodec;
+import tranquility_base.clack.message.TextMessage;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OutboundQueueTest {
+
+    final MessageCodec codec = new MessageCodec();
+
+    EncodedMessage text(String text) {
+        return new EncodedMessage(new TextMessage("alice", text));
+    }
+
+    EncodedMessage chunk(int length) {
+        return new EncodedMessage(new FileChunkMessage("alice", "f.bin",
+                0, 0, length, new byte[length]));
+    }
+
+    int size(EncodedMessage msg) {
+        return msg.getFrame(false).remaining();
+    }
+
+    /** A queue with room for n frames of size(text("0")). */
+    OutboundQueue queueFor(int n, Server.SlowConsumerPolicy policy) {
+        return new OutboundQueue((long) n * size(text("0")), policy);
+    }
+
+    String takeText(OutboundQueue queue) {
+        ByteBuffer frame = queue.poll();
+        queue.written(frame.remaining());
+        return ((TextMessage) codec.decode(frame)).getText();
+    }
+
+    @Test
+    void badLimit() {
+        assertThrows(IllegalArgumentException.class,
+                () -> new OutboundQueue(0, Server.SlowConsumerPolicy.BLOCK));
+    }
+
+    @Test
+    void framesComeOutInOrder() {
+        OutboundQueue queue = queueFor(10, Server.SlowConsumerPolicy.DISCONNECT);
+        assertTrue(queue.isEmpty());
+        for (int i = 0; i < 5; i++) {
+            assertTrue(queue.offer(text(Integer.toString(i)), false));
+        }
+        assertFalse(queue.isEmpty());
+        for (int i = 0; i < 5; i++) {
+            assertEquals(Integer.toString(i), takeText(queue));
+        }
+        assertNull(queue.poll());
+        assertEquals(0, queue.getBytes());
+    }
+
+    @Test
+    void bytesCountUntilWritten() {
+        OutboundQueue queue = queueFor(10, Server.SlowConsumerPolicy.DISCONNECT);
+        EncodedMessage msg = text("0");
+        queue.offer(msg, false);
+        ByteBuffer frame = queue.poll();
+        assertTrue(queue.isEmpty());
+        assertEquals(size(msg), queue.getBytes());
+        queue.written(frame.remaining());
+        assertEquals(0, queue.getBytes());
+    }
+
+    @Test
+    void disconnectWhenFull() {
+        OutboundQueue queue = queueFor(3, Server.SlowConsumerPolicy.DISCONNECT);
+        for (int i = 0; i < 3; i++) {
+            assertTrue(queue.offer(text(Integer.toString(i)), false));
+        }
+        assertFalse(queue.offer(text("3"), false));
+        assertEquals(3 * size(text("0")), queue.getBytes());
+    }
+
+    @Test
+    void emptyQueueTakesOversizedFrame() {
+        OutboundQueue queue = queueFor(1, Server.SlowConsumerPolicy.DISCONNECT);
+        assertTrue(queue.offer(chunk(10_000), false));
+        assertFalse(queue.offer(text("0"), false));
+    }
+
+    @Test
+    void dropOldestText() {
+        OutboundQueue queue = queueFor(3, Server.SlowConsumerPolicy.DROP_OLDEST_TEXT);
+        for (int i = 0; i < 5; i++) {
+            assertTrue(queue.offer(text(Integer.toString(i)), false));
+        }
+        assertEquals(2, queue.getDroppedCount());
+        assertEquals("2", takeText(queue));
+        assertEquals("3", takeText(queue));
+        assertEquals("4", takeText(queue));
+        assertNull(queue.poll());
+    }
+
+    @Test
+    void dropOldestTextKeepsFileChunks() {
+        EncodedMessage chunk = chunk(1);
+        OutboundQueue queue = new OutboundQueue(2L * size(chunk),
+                Server.SlowConsumerPolicy.DROP_OLDEST_TEXT);
+        assertTrue(queue.offer(chunk, false));
+        assertTrue(queue.offer(chunk, false));
+        // No text to drop, so the new text itself is dropped...
+        assertTrue(queue.offer(text("0"), false));
+        assertEquals(1, queue.getDroppedCount());
+        // ...but a chunk that does not fit means disconnecting.
+        assertFalse(queue.offer(chunk, false));
+        assertEquals(Message.MSGTYPE_FILECHUNK, codec.decode(queue.poll()).getMsgType());
+    }
+
+    @Test
+    void offerAllFeedsFramesAsQueueDrains() {
+        EncodedMessage chunk = chunk(1);
+        OutboundQueue queue = new OutboundQueue(4L * size(chunk),
+                Server.SlowConsumerPolicy.DISCONNECT);
+        EncodedMessage[] series = new EncodedMessage[10];
+        Arrays.fill(series, chunk);
+        queue.offerAll(series, false);
+        // Half the limit is queued; the rest waits, outside it.
+        assertEquals(2L * size(chunk), queue.getBytes());
+        assertTrue(queue.offer(text("0"), false));
+
+        int chunks = 0;
+        int texts = 0;
+        ByteBuffer frame;
+        while ((frame = queue.poll()) != null) {
+            if (codec.decode(frame.duplicate()).getMsgType() == Message.MSGTYPE_TEXT) {
+                texts++;
+            } else {
+                chunks++;
+            }
+            queue.written(frame.remaining());
+        }
+        assertEquals(10, chunks);
+        assertEquals(1, texts);
+        assertTrue(queue.isEmpty());
+        assertEquals(0, queue.getBytes());
+    }
+
+    @Test
+    void clearDropsBacklog() {
+        EncodedMessage chunk = chunk(1);
+        OutboundQueue queue = new OutboundQueue(2L * size(chunk),
+                Server.SlowConsumerPolicy.DISCONNECT);
+        queue.offerAll(new EncodedMessage[]{chunk, chunk, chunk}, false);
+        assertFalse(queue.isEmpty());
+        ByteBuffer taken = queue.poll();
+        queue.clear();
+        queue.written(taken.remaining());
+        assertNull(queue.poll());
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    void blockQueuesAndMakesProducerWait() throws InterruptedException {
+        OutboundQueue queue = queueFor(2, Server.SlowConsumerPolicy.BLOCK);
+        for (int i = 0; i < 3; i++) {
+            assertTrue(queue.offer(text(Integer.toString(i)), false));
+        }
+        assertTrue(queue.mustWait());
+
+        Thread producer = new Thread(() -> {
+            try {
+                queue.awaitRoom();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        producer.start();
+        producer.join(100);
+        assertTrue(producer.isAlive());
+
+        assertEquals("0", takeText(queue));
+        producer.join(5000);
+        assertFalse(producer.isAlive());
+        assertFalse(queue.mustWait());
+    }
+
+    @Test
+    void onlyBlockMakesProducerWait() {
+        OutboundQueue queue = queueFor(1, Server.SlowConsumerPolicy.DROP_OLDEST_TEXT);
+        queue.offer(chunk(10_000), false);
+        assertFalse(queue.mustWait());
+    }
+
+    @Test
+    void closeLetsQueueDrain() throws InterruptedException {
+        OutboundQueue queue = queueFor(10, Server.SlowConsumerPolicy.BLOCK);
+        queue.offer(text("0"), false);
+        queue.close();
+        queue.offer(text("1"), false);
+        assertEquals("0", ((TextMessage) codec.decode(queue.take())).getText());
+        assertNull(queue.take());
+    }
+
+    @Test
+    void clearDropsEverything() throws InterruptedException {
+        OutboundQueue queue = queueFor(2, Server.SlowConsumerPolicy.BLOCK);
+        for (int i = 0; i < 3; i++) {
+            queue.offer(text(Integer.toString(i)), false);
+        }
+        ByteBuffer taken = queue.poll();
+        queue.clear();
+        assertFalse(queue.mustWait());
+        assertNull(queue.take());
+        queue.written(taken.remaining());
+        assertEquals(0, queue.getBytes());
+    }
+}
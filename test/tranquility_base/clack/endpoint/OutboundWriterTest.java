@@ -0,0 +1,167 @@
+package tranquility_base.clack.endpoint;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import tranquility_base.clack.message.*;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OutboundWriterTest {
+
+    final String USERNAME = "the user";
+
+    ServerSocketChannel listener;
+    Connection sender;
+    Connection receiver;
+    OutboundWriter writer;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        listener = ServerSocketChannel.open();
+        listener.bind(new InetSocketAddress("localhost", 0));
+        int port = ((InetSocketAddress) listener.getLocalAddress()).getPort();
+        sender = Connection.open("localhost", port);
+        receiver = new Connection(listener.accept());
+        writer = new OutboundWriter(sender, 4096, 1000);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        writer.close();
+        sender.close();
+        receiver.close();
+        listener.close();
+    }
+
+    @Test
+    void burstArrivesInOrder() throws IOException {
+        for (int i = 0; i < 1000; ++i) {
+            writer.send(new TextMessage(USERNAME, "message " + i));
+        }
+        for (int i = 0; i < 1000; ++i) {
+            assertEquals("message " + i, ((TextMessage) receiver.receive()).getText());
+        }
+    }
+
+    @Test
+    void messageLargerThanBuffer() throws IOException {
+        TextMessage big = new TextMessage(USERNAME, "x".repeat(200_000));
+        Thread t = new Thread(() -> {
+            try {
+                writer.send(new TextMessage(USERNAME, "before"));
+                writer.send(big);
+                writer.send(new TextMessage(USERNAME, "after"));
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        t.start();
+        assertEquals("before", ((TextMessage) receiver.receive()).getText());
+        assertEquals(big, receiver.receive());
+        assertEquals("after", ((TextMessage) receiver.receive()).getText());
+    }
+
+    @Test
+    void fileStaysInOrder() throws Exception {
+        Path source = Files.createTempFile("clack-", ".bin");
+        try {
+            Files.write(source, new byte[10_000]);
+            Thread t = new Thread(() -> {
+                try {
+                    writer.send(new TextMessage(USERNAME, "before"));
+                    writer.sendFile(USERNAME, source.toString(), "copy.bin", 4000);
+                    writer.send(new TextMessage(USERNAME, "after"));
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            t.start();
+            assertEquals("before", ((TextMessage) receiver.receive()).getText());
+            for (int i = 0; i < 3; ++i) {
+                assertEquals(i, ((FileChunkMessage) receiver.receive()).getSequence());
+            }
+            assertEquals("after", ((TextMessage) receiver.receive()).getText());
+            t.join();
+        } finally {
+            Files.delete(source);
+        }
+    }
+
+    @Test
+    void missingFileFailsOnlyItsSend() throws IOException {
+        Path missing = Path.of("no-such-dir", "no-such-file.bin");
+        assertThrows(IOException.class,
+                () -> writer.sendFile(USERNAME, missing.toString(), "copy.bin", 4000));
+        writer.send(new TextMessage(USERNAME, "still here"));
+        assertEquals("still here", ((TextMessage) receiver.receive()).getText());
+    }
+
+    @Test
+    void changedFileFailsOnlyItsResume() throws IOException {
+        Path file = Files.createTempFile("clack-", ".bin");
+        try {
+            Files.write(file, new byte[1000]);
+            // The receiver has half of a file that was 2000 bytes long.
+            FileResumeMessage have = new FileResumeMessage(USERNAME, "copy.bin",
+                    42, 2000, new long[]{0, 1000});
+            assertThrows(IOException.class,
+                    () -> writer.resumeFile(USERNAME, file.toString(), have, 4000));
+        } finally {
+            Files.delete(file);
+        }
+        writer.send(new TextMessage(USERNAME, "still here"));
+        assertEquals("still here", ((TextMessage) receiver.receive()).getText());
+    }
+
+    @Test
+    void unencodableMessageIsSkipped() throws IOException {
+        TextMessage broken = new TextMessage(USERNAME, "never sent") {
+            @Override
+            public String getText() {
+                throw new IllegalStateException("no text");
+            }
+        };
+        writer.send(new TextMessage(USERNAME, "before"));
+        writer.send(broken);
+        writer.send(new TextMessage(USERNAME, "after"));
+        assertEquals("before", ((TextMessage) receiver.receive()).getText());
+        assertEquals("after", ((TextMessage) receiver.receive()).getText());
+        writer.send(new TextMessage(USERNAME, "still here"));
+        assertEquals("still here", ((TextMessage) receiver.receive()).getText());
+    }
+
+    @Test
+    void closeSendsWhatIsQueued() throws IOException {
+        writer.send(new LogoutMessage(USERNAME));
+        writer.close();
+        assertEquals(Message.MSGTYPE_LOGOUT, receiver.receive().getMsgType());
+        assertThrows(IOException.class, () -> writer.send(new LogoutMessage(USERNAME)));
+    }
+
+    @Test
+    void failsOnceConnectionFails() throws Exception {
+        receiver.close();
+        // Writes only fail once the other end has refused some data.
+        assertThrows(IOException.class, () -> {
+            for (int i = 0; i < 10_000; ++i) {
+                writer.send(new TextMessage(USERNAME, "x".repeat(1000)));
+                Thread.sleep(1);
+            }
+        });
+    }
+
+    @Test
+    void badArguments() {
+        assertThrows(IllegalArgumentException.class,
+                () -> new OutboundWriter(sender, 0, 0));
+        assertThrows(IllegalArgumentException.class,
+                () -> new OutboundWriter(sender, 1, -1));
+    }
+}
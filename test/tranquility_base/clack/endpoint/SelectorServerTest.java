@@ -0,0 +1,9 @@
+package tranquility_base.clack.endpoint;
+
+class SelectorServerTest extends ServerTest {
+
+    @Override
+    Server createServer() {
+        return new SelectorServer(0, 2);
+    }
+}
@@ -0,0 +1,520 @@
+package tranquility_base.clack.endpoint;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import tranquility_base.clack.message.*;
+import tranquility_base.clack.transfer.ContentChunker;
+import tranquility_base.clack.transfer.FileChunker;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests common to every kind of Server. Each kind has a subclass
+ * that supplies the server to test.
+ */
+abstract class ServerTest {
+
+    Server server;
+    List<Connection> connections = new ArrayList<>();
+
+    abstract Server createServer();
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = createServer();
+        server.start();
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        for (Connection connection : connections) {
+            connection.close();
+        }
+        server.stop();
+    }
+
+    Connection connect() throws IOException {
+        Connection connection = Connection.open("localhost", server.getLocalPort());
+        connections.add(connection);
+        return connection;
+    }
+
+    /** Connect, and make the server learn our username. */
+    Connection login(String username) throws IOException {
+        Connection connection = connect();
+        connection.send(new ListUsersMessage(username));
+        assertEquals(Message.MSGTYPE_TEXT, connection.receive().getMsgType());
+        return connection;
+    }
+
+    @Test
+    void textIsBroadcastToEveryone() throws IOException {
+        Connection alice = login("alice");
+        Connection bob = login("bob");
+
+        TextMessage hello = new TextMessage("alice", "hello, everyone");
+        alice.send(hello);
+        assertEquals(hello, alice.receive());
+        assertEquals(hello, bob.receive());
+    }
+
+    @Test
+    void fileChunksGoToEveryoneButSender() throws IOException {
+        Connection alice = login("alice");
+        Connection bob = login("bob");
+
+        FileChunkMessage chunk = new FileChunkMessage("alice", "f.txt",
+                0, 0, 3, new byte[] {1, 2, 3});
+        alice.send(chunk);
+        assertEquals(chunk, bob.receive());
+
+        // Alice's next message is the reply to her next command,
+        // not her own chunk.
+        alice.send(new ListUsersMessage("alice"));
+        assertEquals(Server.SERVER_USERNAME, alice.receive().getUsername());
+    }
+
+    @Test
+    void listUsers() throws IOException {
+        Connection carol = login("carol");
+        login("alice");
+        carol.send(new ListUsersMessage("carol"));
+        TextMessage reply = (TextMessage) carol.receive();
+        assertEquals(Server.SERVER_USERNAME, reply.getUsername());
+        assertEquals("Users: alice, carol", reply.getText());
+    }
+
+    @Test
+    void logoutIsEchoedThenClosed() throws IOException {
+        Connection alice = login("alice");
+        LogoutMessage logout = new LogoutMessage("alice");
+        alice.send(logout);
+        assertEquals(logout, alice.receive());
+        assertNull(alice.receive());
+    }
+
+    @Test
+    void largeMessage() throws IOException {
+        Connection alice = login("alice");
+        Path temp = Files.createTempFile("clack-", ".txt");
+        try {
+            Files.writeString(temp, "x".repeat(1_000_000));
+            FileMessage file = new FileMessage("alice", temp.toString());
+            file.readFile();
+            alice.send(file);
+            assertEquals(file, alice.receive());
+        } finally {
+            Files.delete(temp);
+        }
+    }
+
+    @Test
+    void manyClients() throws IOException {
+        List<Connection> clients = new ArrayList<>();
+        for (int i = 0; i < 50; ++i) {
+            clients.add(login("user" + i));
+        }
+        TextMessage msg = new TextMessage("user0", "to all 50");
+        clients.get(0).send(msg);
+        for (Connection client : clients) {
+            assertEquals(msg, client.receive());
+        }
+    }
+
+    @Test
+    void slowReaderGetsBroadcastsAndRepliesInOrder() throws IOException {
+        server.setOutboundLimit(64 * 1024 * 1024);
+        Connection alice = login("alice");
+        Connection bob = login("bob");
+
+        // Bob reads nothing until the end, so the server must hold
+        // broadcasts, and replies meant only for him, until he does.
+        String padding = "p".repeat(4000);
+        int texts = 2000;
+        for (int i = 0; i < texts; i++) {
+            alice.send(new TextMessage("alice", i + padding));
+            if (i % 10 == 0) {
+                bob.send(new FileResumeMessage("bob", "f.txt", i + 1, 100, new long[0]));
+            }
+        }
+
+        int nextText = 0;
+        long nextTransferId = 1;
+        while (nextText < texts || nextTransferId <= texts) {
+            Message msg = bob.receive();
+            if (msg instanceof TextMessage) {
+                assertEquals(nextText + padding, ((TextMessage) msg).getText());
+                nextText++;
+            } else {
+                assertEquals(nextTransferId, ((FileResumeMessage) msg).getTransferId());
+                nextTransferId += 10;
+            }
+        }
+        for (int i = 0; i < texts; i++) {
+            assertEquals(i + padding, ((TextMessage) alice.receive()).getText());
+        }
+    }
+
+    /** Sends count file chunks of 4 KiB from alice, to everyone else. */
+    void sendChunks(Connection alice, int count) throws IOException {
+        byte[] bytes = new byte[4096];
+        for (int i = 0; i < count; i++) {
+            alice.send(new FileChunkMessage("alice", "f.bin", i,
+                    (long) i * bytes.length, (long) count * bytes.length, bytes));
+        }
+    }
+
+    @Test
+    void slowConsumerIsDisconnected() throws IOException {
+        server.setOutboundLimit(64 * 1024);
+        server.setSlowConsumerPolicy(Server.SlowConsumerPolicy.DISCONNECT);
+        Connection alice = login("alice");
+        Connection bob = login("bob");
+
+        int count = 8000;
+        sendChunks(alice, count);
+        int received = 0;
+        try {
+            while (bob.receive() != null) {
+                received++;
+            }
+        } catch (IOException e) {
+            // Reset by the server; just as good as end of stream.
+        }
+        assertTrue(received < count);
+
+        long deadline = System.nanoTime() + 5_000_000_000L;
+        while (server.getSessionCount() > 1 && System.nanoTime() < deadline) {
+            Thread.onSpinWait();
+        }
+        alice.send(new ListUsersMessage("alice"));
+        assertEquals("Users: alice", ((TextMessage) alice.receive()).getText());
+    }
+
+    @Test
+    void slowConsumerLosesOldestText() throws IOException {
+        server.setOutboundLimit(64 * 1024);
+        server.setSlowConsumerPolicy(Server.SlowConsumerPolicy.DROP_OLDEST_TEXT);
+        Connection alice = login("alice");
+        Connection bob = login("bob");
+
+        String padding = "p".repeat(4000);
+        int count = 8000;
+        for (int i = 0; i < count; i++) {
+            alice.send(new TextMessage("alice", i + padding));
+        }
+        alice.send(new TextMessage("alice", "last"));
+
+        for (Connection connection : List.of(bob, alice)) {
+            int received = 0;
+            int previous = -1;
+            String text;
+            while (!(text = ((TextMessage) connection.receive()).getText()).equals("last")) {
+                int i = Integer.parseInt(text.substring(0, text.indexOf('p')));
+                assertTrue(i > previous);
+                previous = i;
+                received++;
+            }
+            assertTrue(received < count);
+        }
+    }
+
+    @Test
+    void slowConsumerHoldsUpSender() throws Exception {
+        server.setOutboundLimit(64 * 1024);
+        server.setSlowConsumerPolicy(Server.SlowConsumerPolicy.BLOCK);
+        Connection alice = login("alice");
+        Connection bob = login("bob");
+
+        int count = 8000;
+        Thread sender = new Thread(() -> {
+            try {
+                sendChunks(alice, count);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        sender.start();
+        // Far more than the limit and the socket buffers can hold.
+        sender.join(500);
+        assertTrue(sender.isAlive());
+
+        for (int i = 0; i < count; i++) {
+            assertEquals(i, ((FileChunkMessage) bob.receive()).getSequence());
+        }
+        sender.join(5000);
+        assertFalse(sender.isAlive());
+    }
+
+    /** Receives on a thread of its own, into a queue. */
+    BlockingQueue<Message> receiveInBackground(Connection connection) {
+        BlockingQueue<Message> received = new LinkedBlockingQueue<>();
+        Thread reader = new Thread(() -> {
+            try {
+                Message msg;
+                while ((msg = connection.receive()) != null) {
+                    received.add(msg);
+                }
+            } catch (IOException e) {
+                // Closed by tearDown().
+            }
+        });
+        reader.setDaemon(true);
+        reader.start();
+        return received;
+    }
+
+    @Test
+    void slowConsumerDoesNotHoldUpOtherRecipients() throws Exception {
+        server.setOutboundLimit(64 * 1024);
+        server.setSlowConsumerPolicy(Server.SlowConsumerPolicy.BLOCK);
+        Connection alice = login("alice");
+        Connection bob = login("bob");
+        List<Connection> readers = new ArrayList<>();
+        List<BlockingQueue<Message>> received = new ArrayList<>();
+        for (String username : new String[]{"carol", "dave", "erin", "frank"}) {
+            Connection reader = login(username);
+            readers.add(reader);
+            received.add(receiveInBackground(reader));
+        }
+
+        // Bob reads nothing, so Alice's chunks fill his queue.
+        int count = 8000;
+        Thread sender = new Thread(() -> {
+            try {
+                sendChunks(alice, count);
+            } catch (IOException e) {
+                // Closed by tearDown().
+            }
+        });
+        sender.start();
+        sender.join(500);
+        assertTrue(sender.isAlive());
+
+        // Carol's text goes to Bob's full queue too, yet everyone else
+        // still gets it at once.
+        readers.get(0).send(new TextMessage("carol", "hello"));
+        for (BlockingQueue<Message> queue : received) {
+            Message msg;
+            do {
+                msg = queue.poll(5, TimeUnit.SECONDS);
+                assertNotNull(msg);
+            } while (msg.getMsgType() != Message.MSGTYPE_TEXT);
+            assertEquals("hello", ((TextMessage) msg).getText());
+        }
+
+        int chunks = 0;
+        while (chunks < count) {
+            if (bob.receive().getMsgType() == Message.MSGTYPE_FILECHUNK) {
+                chunks++;
+            }
+        }
+        sender.join(5000);
+        assertFalse(sender.isAlive());
+    }
+
+    @Test
+    void compressionIsNegotiatedPerClient() throws IOException {
+        Connection alice = connect();
+        alice.send(new OptionsMessage("alice", OptionsMessage.OPTION_COMPRESSION));
+        OptionsMessage reply = (OptionsMessage) alice.receive();
+        assertEquals(Server.SERVER_USERNAME, reply.getUsername());
+        assertTrue(reply.hasOption(OptionsMessage.OPTION_COMPRESSION));
+        alice.setCompressing(true);
+        Connection bob = login("bob");
+
+        TextMessage log = new TextMessage("alice", "INFO all is well\n".repeat(1000));
+        alice.send(log);
+        assertEquals(log, alice.receive());
+        assertEquals(log, bob.receive());
+    }
+
+    @Test
+    void compressionCanBeRefused() throws IOException {
+        server.setCompressionAllowed(false);
+        Connection alice = connect();
+        alice.send(new OptionsMessage("alice", OptionsMessage.OPTION_COMPRESSION));
+        assertEquals(0, ((OptionsMessage) alice.receive()).getOptions());
+    }
+
+    /** Send a file by manifest, and return how many chunks were asked for. */
+    int sendByManifest(Connection connection, String username, Path file)
+            throws IOException {
+        FileManifestMessage manifest = ContentChunker.manifest(username,
+                file.toString(), "f.bin");
+        connection.send(manifest);
+        FileChunkRequestMessage request = (FileChunkRequestMessage) connection.receive();
+        assertEquals(Server.SERVER_USERNAME, request.getUsername());
+        assertEquals("f.bin", request.getFileSaveAsName());
+        connection.sendFileChunks(username, file.toString(), manifest, request);
+        return request.getCount();
+    }
+
+    /** Receive a whole file as chunks, and return its contents. */
+    byte[] receiveFile(Connection connection) throws IOException {
+        FileChunkMessage chunk = (FileChunkMessage) connection.receive();
+        byte[] contents = new byte[(int) chunk.getTotalLength()];
+        int received = 0;
+        while (true) {
+            assertEquals("f.bin", chunk.getFileSaveAsName());
+            chunk.getChunk().get(contents, (int) chunk.getOffset(), chunk.getChunkLength());
+            received += chunk.getChunkLength();
+            if (received == contents.length) {
+                return contents;
+            }
+            chunk = (FileChunkMessage) connection.receive();
+        }
+    }
+
+    @Test
+    void dedupSendsOnlyMissingChunks() throws IOException {
+        Connection alice = login("alice");
+        Connection bob = login("bob");
+        byte[] contents = new byte[300_000];
+        new Random(42).nextBytes(contents);
+        Path file = Files.createTempFile("clack-", ".bin");
+        try {
+            Files.write(file, contents);
+            int firstCount = sendByManifest(alice, "alice", file);
+            assertTrue(firstCount > 1);
+            assertArrayEquals(contents, receiveFile(bob));
+            assertEquals(firstCount, server.getChunkStore().getChunkCount());
+
+            // Sent again, nothing need be sent, but Bob still gets it.
+            assertEquals(0, sendByManifest(alice, "alice", file));
+            assertArrayEquals(contents, receiveFile(bob));
+
+            // Changed in one place, only a chunk or two are sent.
+            contents[150_000]++;
+            Files.write(file, contents);
+            int changedCount = sendByManifest(alice, "alice", file);
+            assertTrue(changedCount >= 1 && changedCount <= 2);
+            assertArrayEquals(contents, receiveFile(bob));
+        } finally {
+            Files.delete(file);
+        }
+
+        // Alice never gets her own file back.
+        alice.send(new ListUsersMessage("alice"));
+        assertEquals(Server.SERVER_USERNAME, alice.receive().getUsername());
+    }
+
+    @Test
+    void uploadLargerThanOutboundLimitReachesPeer() throws IOException {
+        server.setOutboundLimit(64 * 1024);
+        server.setSlowConsumerPolicy(Server.SlowConsumerPolicy.DISCONNECT);
+        Connection alice = login("alice");
+        Connection bob = login("bob");
+        byte[] contents = new byte[2_000_000];
+        new Random(42).nextBytes(contents);
+        Path file = Files.createTempFile("clack-", ".bin");
+        try {
+            Files.write(file, contents);
+            sendByManifest(alice, "alice", file);
+            assertArrayEquals(contents, receiveFile(bob));
+        } finally {
+            Files.delete(file);
+        }
+        bob.send(new ListUsersMessage("bob"));
+        assertEquals("Users: alice, bob", ((TextMessage) bob.receive()).getText());
+    }
+
+    @Test
+    void badUploadChunkIsDropped() throws IOException {
+        Connection alice = login("alice");
+        Connection bob = login("bob");
+        byte[] contents = {1, 2, 3};
+        FileManifestMessage manifest = new FileManifestMessage("alice", "f.bin", 3,
+                new int[]{3}, ContentChunker.hash(ByteBuffer.wrap(contents)));
+        alice.send(manifest);
+        assertEquals(1, ((FileChunkRequestMessage) alice.receive()).getCount());
+
+        // Not the bytes the manifest promised: the upload is abandoned.
+        alice.send(new FileChunkMessage("alice", "f.bin", 0, 0, 3, new byte[]{9, 9, 9}));
+        bob.send(new TextMessage("bob", "anything?"));
+        assertEquals(Message.MSGTYPE_TEXT, bob.receive().getMsgType());
+        assertEquals(0, server.getChunkStore().getChunkCount());
+    }
+
+    @Test
+    void transferResumesAfterReconnect() throws IOException {
+        Connection alice = login("alice");
+        Connection bob = login("bob");
+        byte[] contents = new byte[300];
+        new Random(1).nextBytes(contents);
+        Path file = Files.createTempFile("clack-", ".bin");
+        try {
+            Files.write(file, contents);
+            long id = FileChunker.transferId("alice", file.toString(), "f.bin");
+
+            // Alice gets two chunks out, then her connection drops.
+            for (int i = 0; i < 2; ++i) {
+                byte[] bytes = Arrays.copyOfRange(contents, 100 * i, 100 * i + 100);
+                alice.send(new FileChunkMessage("alice", "f.bin", id, i, 100 * i, 300, bytes));
+                assertEquals(100 * i, ((FileChunkMessage) bob.receive()).getOffset());
+            }
+            alice.close();
+
+            Connection again = login("alice");
+            again.send(new FileResumeMessage("alice", "f.bin", id, 300, new long[0]));
+            FileResumeMessage have = (FileResumeMessage) again.receive();
+            assertEquals(Server.SERVER_USERNAME, have.getUsername());
+            assertEquals(id, have.getTransferId());
+            assertEquals(200, have.getBytesReceived());
+
+            // Only the rest is sent, and Bob's copy is completed.
+            again.resumeFile("alice", file.toString(), have, 100);
+            FileChunkMessage last = (FileChunkMessage) bob.receive();
+            assertEquals(200, last.getOffset());
+            assertEquals(100, last.getChunkLength());
+            assertEquals(0, server.getTransfers().size());
+
+            // Once finished, the transfer is forgotten: asking again
+            // means starting again.
+            again.send(new FileResumeMessage("alice", "f.bin", id, 300, new long[0]));
+            assertEquals(0, ((FileResumeMessage) again.receive()).getRangeCount());
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    void repeatedBytesOfTransferAreNotSentOn() throws IOException {
+        Connection alice = login("alice");
+        Connection bob = login("bob");
+        FileChunkMessage first = new FileChunkMessage("alice", "f.bin", 5, 0, 0, 6,
+                new byte[]{1, 2, 3});
+        alice.send(first);
+        alice.send(first);
+        alice.send(new FileChunkMessage("alice", "f.bin", 5, 1, 3, 6, new byte[]{4, 5, 6}));
+        assertEquals(0, ((FileChunkMessage) bob.receive()).getOffset());
+        assertEquals(3, ((FileChunkMessage) bob.receive()).getOffset());
+    }
+
+    @Test
+    void transfersAreKeptPerUser() throws IOException {
+        Connection alice = login("alice");
+        Connection mallory = login("mallory");
+        alice.send(new FileChunkMessage("alice", "f.bin", 5, 0, 0, 6, new byte[]{1, 2, 3}));
+        mallory.send(new FileResumeMessage("mallory", "f.bin", 5, 6, new long[0]));
+        Message reply = mallory.receive();
+        // Mallory may have been sent Alice's chunk first.
+        while (reply.getMsgType() != Message.MSGTYPE_FILERESUME) {
+            reply = mallory.receive();
+        }
+        assertEquals(0, ((FileResumeMessage) reply).getRangeCount());
+    }
+}
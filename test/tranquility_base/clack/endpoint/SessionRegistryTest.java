@@ -0,0 +1,151 @@
+package tranquility_base.clack.endpoint;
+
+import org.junit.jupiter.api.Test;
+import tranquility_base.clack.message.Message;
+import tranquility_base.clack.message.MessageCodec;
+import tranquility_base.clack.message.TextMessage;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SessionRegistryTest {
+
+    /** A session that sends nothing anywhere. */
+    static class StubSession extends Session {
+        StubSession(String username) {
+            setUsername(username);
+        }
+
+        @Override
+        public void send(Message msg) {
+        }
+
+        @Override
+        void send(EncodedMessage msg) {
+        }
+
+        @Override
+        void sendAll(EncodedMessage[] msgs) {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    final SessionRegistry registry = new SessionRegistry();
+
+    Session joined(String username) {
+        Session session = new StubSession(username);
+        registry.add(session);
+        registry.join(session);
+        return session;
+    }
+
+    String userList() {
+        Message reply = new MessageCodec().decode(registry.getUserList().getFrame(false));
+        assertEquals(Server.SERVER_USERNAME, reply.getUsername());
+        return ((TextMessage) reply).getText();
+    }
+
+    @Test
+    void emptyRegistry() {
+        assertEquals(0, registry.size());
+        assertEquals(0, registry.getSessions("alice").length);
+        assertEquals("Users: ", userList());
+    }
+
+    @Test
+    void sessionWithoutUsernameIsNotListed() {
+        registry.add(new StubSession(null));
+        assertEquals(1, registry.size());
+        assertEquals("Users: ", userList());
+    }
+
+    @Test
+    void usersAreListedInOrder() {
+        joined("carol");
+        joined("alice");
+        joined("bob");
+        assertEquals(3, registry.size());
+        assertEquals("Users: alice, bob, carol", userList());
+    }
+
+    @Test
+    void userWithTwoSessionsIsListedOnceUntilBothLeave() {
+        Session first = joined("alice");
+        Session second = joined("alice");
+        assertArrayEquals(new Session[]{first, second}, registry.getSessions("alice"));
+        assertEquals("Users: alice", userList());
+
+        registry.remove(first);
+        assertArrayEquals(new Session[]{second}, registry.getSessions("alice"));
+        assertEquals("Users: alice", userList());
+
+        registry.remove(second);
+        assertEquals(0, registry.getSessions("alice").length);
+        assertEquals(0, registry.size());
+        assertEquals("Users: ", userList());
+    }
+
+    @Test
+    void removingTwiceIsHarmless() {
+        Session alice = joined("alice");
+        joined("alice");
+        registry.remove(alice);
+        registry.remove(alice);
+        assertEquals(1, registry.getSessions("alice").length);
+    }
+
+    @Test
+    void removedSessionCannotJoin() {
+        Session alice = joined("alice");
+        registry.remove(alice);
+        registry.join(alice);
+        assertEquals(0, registry.getSessions("alice").length);
+    }
+
+    @Test
+    void userListIsReusedUntilMembershipChanges() {
+        joined("alice");
+        EncodedMessage list = registry.getUserList();
+        assertSame(list, registry.getUserList());
+
+        // Another session of a listed user changes nothing.
+        Session again = joined("alice");
+        assertSame(list, registry.getUserList());
+        registry.remove(again);
+        assertSame(list, registry.getUserList());
+
+        Session bob = joined("bob");
+        EncodedMessage withBob = registry.getUserList();
+        assertNotSame(list, withBob);
+        assertEquals("Users: alice, bob", userList());
+
+        registry.remove(bob);
+        assertNotSame(withBob, registry.getUserList());
+        assertEquals("Users: alice", userList());
+    }
+
+    @Test
+    void joinAndLeaveFromManyThreads() throws InterruptedException {
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            String username = "user" + t;
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 1000; i++) {
+                    Session session = joined(username);
+                    userList();
+                    registry.remove(session);
+                }
+                joined(username);
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(threads.length, registry.size());
+        assertEquals("Users: user0, user1, user2, user3, user4, user5, user6, user7",
+                userList());
+    }
+}
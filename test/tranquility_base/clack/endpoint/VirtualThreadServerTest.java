@@ -0,0 +1,24 @@
+package tranquility_base.clack.endpoint;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class VirtualThreadServerTest extends ServerTest {
+
+    @Override
+    Server createServer() {
+        return Server.create(Server.Mode.VIRTUAL_THREADS, 0);
+    }
+
+    @Test
+    void runningServerKeepsJvmAlive() {
+        // Started from main(), the server must outlive it.
+        assertTrue(Thread.getAllStackTraces().keySet().stream()
+                .anyMatch(t -> t.getName().equals("clack-acceptor")
+                        && t.isAlive() && !t.isDaemon()));
+        server.stop();
+        assertTrue(Thread.getAllStackTraces().keySet().stream()
+                .noneMatch(t -> t.getName().equals("clack-acceptor") && t.isAlive()));
+    }
+}
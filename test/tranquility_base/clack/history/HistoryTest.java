@@ -0,0 +1,211 @@
+package tranquility_base.clack.history;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import tranquility_base.clack.message.Message;
+import tranquility_base.clack.message.MessageClock;
+import tranquility_base.clack.message.TextMessage;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HistoryTest {
+
+    final int BLOCK_SIZE = 16;
+    final String[] USERS = {"alice", "bob", "carol", "dave"};
+
+    Path tempDir;
+    History history;
+    // Everything appended, to check queries against.
+    List<Message> appended = new ArrayList<>();
+    long now;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        tempDir = Files.createTempDirectory("clack-");
+        history = new History(new Journal(tempDir, 64 * 1024), BLOCK_SIZE);
+        Message.setClock(() -> now);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        Message.setClock(MessageClock.SYSTEM);
+        history.close();
+        try (Stream<Path> files = Files.walk(tempDir)) {
+            for (Path path : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    void append(String username, long epochNanos) throws IOException {
+        now = epochNanos;
+        TextMessage msg = new TextMessage(username, "at " + epochNanos);
+        history.append(msg);
+        appended.add(msg);
+    }
+
+    /** Appends count messages from users in turn, one second apart. */
+    void appendInTurn(int count) throws IOException {
+        for (int i = 0; i < count; i++) {
+            append(USERS[i % USERS.length], (i + 1) * MessageClock.NANOS_PER_SECOND);
+        }
+    }
+
+    List<Message> expectedSince(String username, long epochNanos) {
+        List<Message> expected = new ArrayList<>();
+        for (Message msg : appended) {
+            if ((username == null || username.equals(msg.getUsername()))
+                    && msg.getEpochNanos() >= epochNanos) {
+                expected.add(msg);
+            }
+        }
+        return expected;
+    }
+
+    List<Message> expectedLast(String username, int count) {
+        List<Message> all = expectedSince(username, Long.MIN_VALUE);
+        return all.subList(Math.max(0, all.size() - count), all.size());
+    }
+
+    @Test
+    void badArguments() {
+        assertThrows(IllegalArgumentException.class,
+                () -> new History(new Journal(tempDir, 64 * 1024), 0));
+        assertThrows(IllegalArgumentException.class, () -> history.last(null, -1));
+    }
+
+    @Test
+    void emptyHistory() {
+        assertEquals(0, history.size());
+        assertTrue(history.last(null, 10).isEmpty());
+        assertTrue(history.last("alice", 10).isEmpty());
+        assertTrue(history.since(null, 0).isEmpty());
+        assertTrue(history.since("alice", 0).isEmpty());
+    }
+
+    @Test
+    void lastMessages() throws IOException {
+        appendInTurn(100);
+        assertEquals(100, history.size());
+        for (int count : new int[]{0, 1, 15, 16, 17, 50, 100, 150}) {
+            assertEquals(expectedLast(null, count), history.last(null, count));
+        }
+    }
+
+    @Test
+    void lastMessagesFromUser() throws IOException {
+        appendInTurn(100);
+        for (int count : new int[]{1, 3, 4, 5, 25, 30}) {
+            assertEquals(expectedLast("bob", count), history.last("bob", count));
+        }
+        assertTrue(history.last("nobody", 5).isEmpty());
+    }
+
+    @Test
+    void messagesSince() throws IOException {
+        appendInTurn(100);
+        for (int second : new int[]{0, 1, 2, 16, 17, 50, 100, 101}) {
+            long since = second * MessageClock.NANOS_PER_SECOND;
+            assertEquals(expectedSince(null, since), history.since(null, since));
+            assertEquals(expectedSince("carol", since), history.since("carol", since));
+        }
+        assertTrue(history.since("nobody", 0).isEmpty());
+    }
+
+    @Test
+    void userWhoStoppedSending() throws IOException {
+        for (int i = 0; i < 10; i++) {
+            append("alice", i);
+        }
+        for (int i = 10; i < 200; i++) {
+            append("bob", i);
+        }
+        assertEquals(expectedLast("alice", 3), history.last("alice", 3));
+        assertTrue(history.since("alice", 10).isEmpty());
+        assertEquals(expectedSince("alice", 5), history.since("alice", 5));
+    }
+
+    @Test
+    void timestampsOutOfOrder() throws IOException {
+        // Senders' clocks disagree, so timestamps wander.
+        Random random = new Random(1);
+        for (int i = 0; i < 1000; i++) {
+            append(USERS[random.nextInt(USERS.length)], 10 * i + random.nextInt(200) - 100);
+        }
+        for (int i = 0; i < 100; i++) {
+            long since = random.nextInt(10_000);
+            String username = random.nextBoolean() ? null : USERS[random.nextInt(USERS.length)];
+            assertEquals(expectedSince(username, since), history.since(username, since));
+            int count = random.nextInt(300);
+            assertEquals(expectedLast(username, count), history.last(username, count));
+        }
+    }
+
+    @Test
+    void reopenedHistoryIsIndexed() throws IOException {
+        appendInTurn(100);
+        history.close();
+        history = new History(new Journal(tempDir, 64 * 1024), BLOCK_SIZE);
+        assertEquals(100, history.size());
+        long since = 60 * MessageClock.NANOS_PER_SECOND;
+        assertEquals(expectedSince("dave", since), history.since("dave", since));
+        assertEquals(expectedLast(null, 20), history.last(null, 20));
+
+        append("alice", 1000 * MessageClock.NANOS_PER_SECOND);
+        assertEquals(expectedLast("alice", 2), history.last("alice", 2));
+    }
+
+    @Test
+    void closedHistorySavesIndex() throws IOException {
+        appendInTurn(100);
+        history.close();
+        assertTrue(Files.exists(tempDir.resolve(History.INDEX_FILE)));
+
+        // Appended without the History, as if it had crashed before
+        // saving its index again.
+        try (Journal journal = new Journal(tempDir, 64 * 1024)) {
+            for (int i = 0; i < 30; i++) {
+                TextMessage msg = new TextMessage("erin", "late " + i);
+                journal.append(msg);
+                appended.add(msg);
+            }
+        }
+        history = new History(new Journal(tempDir, 64 * 1024), BLOCK_SIZE);
+        assertEquals(130, history.size());
+        assertEquals(expectedLast(null, 40), history.last(null, 40));
+        assertEquals(expectedLast("erin", 50), history.last("erin", 50));
+        long since = 90 * MessageClock.NANOS_PER_SECOND;
+        assertEquals(expectedSince("bob", since), history.since("bob", since));
+    }
+
+    @Test
+    void badIndexIsRebuilt() throws IOException {
+        appendInTurn(100);
+        history.close();
+        Path index = tempDir.resolve(History.INDEX_FILE);
+        byte[] bytes = Files.readAllBytes(index);
+        bytes[bytes.length / 2]++;
+        Files.write(index, bytes);
+        history = new History(new Journal(tempDir, 64 * 1024), BLOCK_SIZE);
+        assertEquals(100, history.size());
+        assertEquals(expectedLast("carol", 10), history.last("carol", 10));
+        history.close();
+
+        // Saved with another block size.
+        history = new History(new Journal(tempDir, 64 * 1024), BLOCK_SIZE + 1);
+        assertEquals(100, history.size());
+        assertEquals(expectedLast(null, 30), history.last(null, 30));
+        long since = 50 * MessageClock.NANOS_PER_SECOND;
+        assertEquals(expectedSince("alice", since), history.since("alice", since));
+    }
+}
@@ -0,0 +1,227 @@
+package tranquility_base.clack.history;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import tranquility_base.clack.message.Message;
+import tranquility_base.clack.message.MessageCodec;
+import tranquility_base.clack.message.TextMessage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JournalTest {
+
+    final long SEGMENT_SIZE = 4096;
+
+    Path tempDir;
+    Journal journal;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        tempDir = Files.createTempDirectory("clack-");
+        journal = new Journal(tempDir, SEGMENT_SIZE);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        journal.close();
+        try (Stream<Path> files = Files.walk(tempDir)) {
+            for (Path path : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    List<Message> appendTexts(int count) throws IOException {
+        List<Message> messages = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            TextMessage msg = new TextMessage("alice", "message " + i);
+            journal.append(msg);
+            messages.add(msg);
+        }
+        return messages;
+    }
+
+    List<Message> readAll(Journal.Cursor cursor) {
+        List<Message> messages = new ArrayList<>();
+        Message msg;
+        while ((msg = cursor.next()) != null) {
+            messages.add(msg);
+        }
+        return messages;
+    }
+
+    @Test
+    void badSegmentSize() {
+        assertThrows(IllegalArgumentException.class, () -> new Journal(tempDir, 4));
+        assertThrows(IllegalArgumentException.class,
+                () -> new Journal(tempDir, 1L << 31));
+    }
+
+    @Test
+    void emptyJournal() {
+        assertEquals(0, journal.getStartPosition());
+        assertEquals(0, journal.getEndPosition());
+        Journal.Cursor cursor = journal.cursor();
+        assertFalse(cursor.hasNext());
+        assertNull(cursor.next());
+    }
+
+    @Test
+    void replayInOrder() throws IOException {
+        List<Message> appended = appendTexts(10);
+        assertEquals(appended, readAll(journal.cursor()));
+    }
+
+    @Test
+    void positionsRunOn() throws IOException {
+        long first = journal.append(new TextMessage("alice", "one"));
+        long second = journal.append(new TextMessage("alice", "two"));
+        assertEquals(0, first);
+        assertTrue(second > first);
+        assertTrue(journal.getEndPosition() > second);
+
+        Journal.Cursor cursor = journal.cursor(second);
+        assertEquals(second, cursor.getPosition());
+        assertEquals("two", ((TextMessage) cursor.next()).getText());
+        assertEquals(journal.getEndPosition(), cursor.getPosition());
+    }
+
+    @Test
+    void replayFromAnyPosition() throws IOException {
+        List<Long> positions = new ArrayList<>();
+        List<Message> appended = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            TextMessage msg = new TextMessage("alice", "message " + i);
+            positions.add(journal.append(msg));
+            appended.add(msg);
+        }
+        assertTrue(journal.getSegmentCount() > 1);
+        for (int i = 0; i < appended.size(); i += 37) {
+            assertEquals(appended.subList(i, appended.size()),
+                    readAll(journal.cursor(positions.get(i))));
+        }
+    }
+
+    @Test
+    void segmentsRoll() throws IOException {
+        List<Message> appended = appendTexts(500);
+        assertTrue(journal.getSegmentCount() > 5);
+        try (Stream<Path> files = Files.list(tempDir)) {
+            assertEquals(journal.getSegmentCount(), files.count());
+        }
+        assertEquals(appended, readAll(journal.cursor()));
+    }
+
+    @Test
+    void syncForcesEverySegmentFilledSinceLastSync() throws IOException {
+        appendTexts(10);
+        journal.sync();
+        assertEquals(0, journal.getUnsyncedSegmentCount());
+        List<Message> appended = appendTexts(500);
+        assertEquals(journal.getSegmentCount() - 1, journal.getUnsyncedSegmentCount());
+        journal.sync();
+        assertEquals(0, journal.getUnsyncedSegmentCount());
+
+        journal.close();
+        journal = new Journal(tempDir, SEGMENT_SIZE);
+        List<Message> replayed = readAll(journal.cursor());
+        assertEquals(appended, replayed.subList(10, replayed.size()));
+    }
+
+    @Test
+    void headersSkipWholeMessages() throws IOException {
+        List<Message> appended = appendTexts(300);
+        Journal.Cursor cursor = journal.cursor();
+        for (Message msg : appended) {
+            MessageCodec.Header header = cursor.nextHeader();
+            assertEquals(msg.getEpochNanos(), header.getEpochNanos());
+            assertEquals(msg.getUsername(), header.getUsername());
+        }
+        assertNull(cursor.nextHeader());
+        assertEquals(journal.getEndPosition(), cursor.getPosition());
+    }
+
+    @Test
+    void cursorSeesLaterAppends() throws IOException {
+        Journal.Cursor cursor = journal.cursor();
+        for (int i = 0; i < 300; i++) {
+            TextMessage msg = new TextMessage("alice", "message " + i);
+            journal.append(msg);
+            assertTrue(cursor.hasNext());
+            assertEquals(msg, cursor.next());
+            assertFalse(cursor.hasNext());
+        }
+    }
+
+    @Test
+    void positionOutsideJournal() throws IOException {
+        appendTexts(1);
+        assertThrows(IllegalArgumentException.class, () -> journal.cursor(-1));
+        assertThrows(IllegalArgumentException.class,
+                () -> journal.cursor(journal.getEndPosition() + 1));
+    }
+
+    @Test
+    void messageTooLargeForSegment() throws IOException {
+        appendTexts(1);
+        long end = journal.getEndPosition();
+        TextMessage big = new TextMessage("alice", "x".repeat((int) SEGMENT_SIZE));
+        assertThrows(IllegalArgumentException.class, () -> journal.append(big));
+        assertEquals(end, journal.getEndPosition());
+        appendTexts(1);
+        assertEquals(2, readAll(journal.cursor()).size());
+    }
+
+    @Test
+    void reopenedJournalCarriesOn() throws IOException {
+        List<Message> appended = appendTexts(300);
+        long end = journal.getEndPosition();
+        journal.sync();
+        journal.close();
+
+        journal = new Journal(tempDir, SEGMENT_SIZE);
+        assertEquals(end, journal.getEndPosition());
+        appended.addAll(appendTexts(100));
+        assertEquals(appended, readAll(journal.cursor()));
+    }
+
+    @Test
+    void frameCutShortIsNotReplayed() throws IOException {
+        List<Message> appended = appendTexts(3);
+        long end = journal.getEndPosition();
+        journal.close();
+
+        // A frame whose length was never written: what is left when
+        // the process dies part way through an append.
+        Path segment;
+        try (Stream<Path> files = Files.list(tempDir)) {
+            segment = files.max(Comparator.naturalOrder()).orElseThrow();
+        }
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[]{0, 0, 0, 0, 1, 2, 3, 4}), end);
+        }
+
+        journal = new Journal(tempDir, SEGMENT_SIZE);
+        assertEquals(end, journal.getEndPosition());
+        assertEquals(appended, readAll(journal.cursor()));
+    }
+
+    @Test
+    void closedJournal() throws IOException {
+        journal.close();
+        assertThrows(IOException.class, () -> journal.append(new TextMessage("alice", "late")));
+        assertThrows(IOException.class, () -> journal.sync());
+    }
+}
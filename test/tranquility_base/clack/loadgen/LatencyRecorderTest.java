@@ -0,0 +1,65 @@
+package tranquility_base.clack.loadgen;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LatencyRecorderTest {
+
+    @Test
+    void emptyRecorder() {
+        LatencyRecorder recorder = new LatencyRecorder();
+        assertEquals(0, recorder.getCount());
+        assertEquals(0, recorder.getPercentile(0.5));
+        assertEquals(0, recorder.getMax());
+    }
+
+    @Test
+    void percentilesAreNearestRank() {
+        LatencyRecorder recorder = new LatencyRecorder();
+        // Out of order, so the recorder must sort.
+        for (int i = 1000; i >= 1; --i) {
+            recorder.record(i);
+        }
+        assertEquals(1000, recorder.getCount());
+        assertEquals(1, recorder.getPercentile(0.0));
+        assertEquals(500, recorder.getPercentile(0.5));
+        assertEquals(990, recorder.getPercentile(0.99));
+        assertEquals(999, recorder.getPercentile(0.999));
+        assertEquals(1000, recorder.getPercentile(1.0));
+        assertEquals(1000, recorder.getMax());
+    }
+
+    @Test
+    void recordAfterPercentile() {
+        LatencyRecorder recorder = new LatencyRecorder();
+        recorder.record(5);
+        assertEquals(5, recorder.getMax());
+        recorder.record(3);
+        recorder.record(7);
+        assertEquals(5, recorder.getPercentile(0.5));
+        assertEquals(7, recorder.getMax());
+    }
+
+    @Test
+    void addAll() {
+        LatencyRecorder a = new LatencyRecorder();
+        LatencyRecorder b = new LatencyRecorder();
+        a.record(10);
+        b.record(30);
+        b.record(20);
+        a.addAll(b);
+        assertEquals(3, a.getCount());
+        assertEquals(20, a.getPercentile(0.5));
+        assertEquals(30, a.getMax());
+        assertEquals(2, b.getCount());
+    }
+
+    @Test
+    void badArguments() {
+        LatencyRecorder recorder = new LatencyRecorder();
+        assertThrows(IllegalArgumentException.class, () -> recorder.record(-1));
+        assertThrows(IllegalArgumentException.class, () -> recorder.getPercentile(-0.1));
+        assertThrows(IllegalArgumentException.class, () -> recorder.getPercentile(1.1));
+    }
+}
@@ -0,0 +1,83 @@
+package tranquility_base.clack.loadgen;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import tranquility_base.clack.endpoint.Server;
+import tranquility_base.clack.endpoint.VirtualThreadServer;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LoadGeneratorTest {
+
+    Server server;
+    Path smallFile;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = new VirtualThreadServer(0);
+        server.start();
+        smallFile = Files.createTempFile("clack-loadgen-", ".txt");
+        Files.writeString(smallFile, "x".repeat(4096));
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        server.stop();
+        Files.delete(smallFile);
+    }
+
+    @Test
+    void defaultScriptRuns() throws Exception {
+        // 20 commands: twice through the 10-line default script.
+        LoadGenerator generator = new LoadGenerator("localhost", server.getLocalPort(),
+                3, 20, LoadGenerator.defaultScript(smallFile));
+        LoadReport report = generator.run();
+
+        assertEquals(0, report.getFailures());
+        assertEquals(3 * 21, report.getCompleted());
+        Map<String, LatencyRecorder> latencies = report.getLatencies();
+        assertEquals(3 * 14, latencies.get("TEXT").getCount());
+        assertEquals(3 * 2, latencies.get("LISTUSERS").getCount());
+        assertEquals(3 * 2, latencies.get("HELP").getCount());
+        assertEquals(3 * 2, latencies.get("FILE").getCount());
+        assertEquals(3, latencies.get("LOGOUT").getCount());
+        assertTrue(report.getThroughput() > 0);
+    }
+
+    @Test
+    void streamedFilesAreLabelled() throws Exception {
+        Path bigFile = Files.createTempFile("clack-loadgen-", ".bin");
+        try {
+            Files.write(bigFile, new byte[2 * 1024 * 1024]);
+            LoadGenerator generator = new LoadGenerator("localhost", server.getLocalPort(),
+                    2, 2, List.of("SEND FILE " + bigFile));
+            LoadReport report = generator.run();
+
+            assertEquals(0, report.getFailures());
+            assertEquals(2 * 2, report.getLatencies()
+                    .get(LoadGenerator.STREAMED_FILE_LABEL).getCount());
+        } finally {
+            Files.delete(bigFile);
+        }
+    }
+
+    @Test
+    void badArguments() {
+        List<String> script = List.of("hello");
+        assertThrows(IllegalArgumentException.class,
+                () -> new LoadGenerator("localhost", 1, 0, 1, script));
+        assertThrows(IllegalArgumentException.class,
+                () -> new LoadGenerator("localhost", 1, 1, 0, script));
+        assertThrows(IllegalArgumentException.class,
+                () -> new LoadGenerator("localhost", 1, 1, 1, List.of()));
+        assertThrows(IllegalArgumentException.class,
+                () -> new LoadGenerator("localhost", 1, 1, 1, List.of("hi", " ")));
+    }
+}
@@ -0,0 +1,50 @@
+package tranquility_base.clack.message;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CoarseClockTest {
+
+    @Test
+    void readsSourcePeriodically() throws InterruptedException {
+        AtomicLong source = new AtomicLong(100);
+        try (CoarseClock clock = new CoarseClock(source::get, 1)) {
+            assertEquals(100, clock.epochNanos());
+            source.set(200);
+            long deadline = System.currentTimeMillis() + 5000;
+            while (clock.epochNanos() != 200 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(1);
+            }
+            assertEquals(200, clock.epochNanos());
+        }
+    }
+
+    @Test
+    void neverGoesBackwards() throws InterruptedException {
+        AtomicLong source = new AtomicLong(100);
+        try (CoarseClock clock = new CoarseClock(source::get, 1)) {
+            source.set(50);
+            Thread.sleep(20);
+            assertEquals(100, clock.epochNanos());
+        }
+    }
+
+    @Test
+    void stopsWhenClosed() throws InterruptedException {
+        AtomicLong source = new AtomicLong(100);
+        CoarseClock clock = new CoarseClock(source::get, 1);
+        clock.close();
+        Thread.sleep(20);
+        source.set(200);
+        Thread.sleep(20);
+        assertEquals(100, clock.epochNanos());
+    }
+
+    @Test
+    void badResolution() {
+        assertThrows(IllegalArgumentException.class, () -> new CoarseClock(0));
+    }
+}
@@ -0,0 +1,41 @@
+package tranquility_base.clack.message;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FileChunkRequestMessageTest {
+    FileChunkRequestMessage msg;
+
+    final String USERNAME = "the user";
+
+    @BeforeEach
+    void setUp() {
+        msg = new FileChunkRequestMessage(USERNAME, "dir/file.bin", new int[]{0, 4, 7});
+    }
+
+    @Test
+    void getMsgType() {
+        assertEquals(Message.MSGTYPE_FILECHUNKREQUEST, msg.getMsgType());
+    }
+
+    @Test
+    void sequences() {
+        assertEquals("file.bin", msg.getFileSaveAsName());
+        assertEquals(3, msg.getCount());
+        assertEquals(4, msg.getSequence(1));
+        assertEquals(0, new FileChunkRequestMessage(USERNAME, "f", new int[0]).getCount());
+    }
+
+    @Test
+    void testToString() {
+        String msgStr = "{class=FileChunkRequestMessage|"
+                + "timestamp=" + msg.getTimestamp()
+                + "|username=" + USERNAME
+                + "|fileSaveAsName=file.bin"
+                + "|count=3}";
+        assertEquals(msgStr, msg.toString());
+        assertEquals(msgStr, msg.appendTo(new StringBuilder(), 0).toString());
+    }
+}
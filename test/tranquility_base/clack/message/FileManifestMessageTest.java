@@ -0,0 +1,81 @@
+package tranquility_base.clack.message;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FileManifestMessageTest {
+    FileManifestMessage msg;
+    byte[] hashes;
+
+    final String USERNAME = "the user";
+    final int[] LENGTHS = {3000, 0, 5000};
+
+    @BeforeEach
+    void setUp() {
+        hashes = new byte[LENGTHS.length * FileManifestMessage.HASH_BYTES];
+        for (int i = 0; i < hashes.length; ++i) {
+            hashes[i] = (byte) (i / FileManifestMessage.HASH_BYTES + 1);
+        }
+        msg = new FileManifestMessage(USERNAME, "/some/dir/file.bin", 8000,
+                LENGTHS, hashes);
+    }
+
+    @Test
+    void getMsgType() {
+        assertEquals(Message.MSGTYPE_FILEMANIFEST, msg.getMsgType());
+    }
+
+    @Test
+    void saveAsNameHasNoPath() {
+        assertEquals("file.bin", msg.getFileSaveAsName());
+    }
+
+    @Test
+    void chunks() {
+        assertEquals(8000, msg.getTotalLength());
+        assertEquals(3, msg.getChunkCount());
+        assertEquals(0, msg.getChunkOffset(0));
+        assertEquals(3000, msg.getChunkOffset(1));
+        assertEquals(3000, msg.getChunkOffset(2));
+        assertEquals(5000, msg.getChunkLength(2));
+
+        ByteBuffer hash = msg.getChunkHash(2);
+        assertTrue(hash.isReadOnly());
+        assertEquals(FileManifestMessage.HASH_BYTES, hash.remaining());
+        while (hash.hasRemaining()) {
+            assertEquals(3, hash.get());
+        }
+    }
+
+    @Test
+    void badChunks() {
+        assertThrows(IllegalArgumentException.class,
+                () -> new FileManifestMessage(USERNAME, "f", 8001, LENGTHS, hashes));
+        assertThrows(IllegalArgumentException.class,
+                () -> new FileManifestMessage(USERNAME, "f", 8000, LENGTHS, new byte[32]));
+        assertThrows(IllegalArgumentException.class,
+                () -> new FileManifestMessage(USERNAME, "f", 0, new int[]{-1, 1},
+                        new byte[64]));
+    }
+
+    @Test
+    void getData() {
+        assertArrayEquals(new String[]{"file.bin", "8000", "3"}, msg.getData());
+    }
+
+    @Test
+    void testToString() {
+        String msgStr = "{class=FileManifestMessage|"
+                + "timestamp=" + msg.getTimestamp()
+                + "|username=" + USERNAME
+                + "|fileSaveAsName=file.bin"
+                + "|totalLength=8000"
+                + "|chunkCount=3}";
+        assertEquals(msgStr, msg.toString());
+        assertEquals(msgStr, msg.appendTo(new StringBuilder(), 0).toString());
+    }
+}
@@ -0,0 +1,62 @@
+package tranquility_base.clack.message;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FileResumeMessageTest {
+    FileResumeMessage msg;
+
+    final String USERNAME = "the user";
+
+    @BeforeEach
+    void setUp() {
+        msg = new FileResumeMessage(USERNAME, "dir/file.bin", 77, 1000,
+                new long[]{0, 100, 300, 400});
+    }
+
+    @Test
+    void getMsgType() {
+        assertEquals(Message.MSGTYPE_FILERESUME, msg.getMsgType());
+    }
+
+    @Test
+    void ranges() {
+        assertEquals("file.bin", msg.getFileSaveAsName());
+        assertEquals(77, msg.getTransferId());
+        assertEquals(1000, msg.getTotalLength());
+        assertEquals(2, msg.getRangeCount());
+        assertEquals(300, msg.getRangeStart(1));
+        assertEquals(400, msg.getRangeEnd(1));
+        assertEquals(200, msg.getBytesReceived());
+    }
+
+    @Test
+    void badRanges() {
+        // Odd, backwards, out of order, touching, past the end.
+        long[][] bad = {{0}, {10, 5}, {50, 60, 10, 20}, {0, 10, 10, 20}, {0, 1001}};
+        for (long[] ranges : bad) {
+            assertThrows(IllegalArgumentException.class,
+                    () -> new FileResumeMessage(USERNAME, "f", 1, 1000, ranges));
+        }
+    }
+
+    @Test
+    void getData() {
+        assertArrayEquals(new String[]{"file.bin", "77", "1000"}, msg.getData());
+    }
+
+    @Test
+    void testToString() {
+        String msgStr = "{class=FileResumeMessage|"
+                + "timestamp=" + msg.getTimestamp()
+                + "|username=" + USERNAME
+                + "|fileSaveAsName=file.bin"
+                + "|transferId=77"
+                + "|totalLength=1000"
+                + "|bytesReceived=200}";
+        assertEquals(msgStr, msg.toString());
+        assertEquals(msgStr, msg.appendTo(new StringBuilder(), 0).toString());
+    }
+}
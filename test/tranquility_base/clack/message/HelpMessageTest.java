@@ -81,6 +81,15 @@ class HelpMessageTest {
                 msg2.getData()[0]);
     }
 
+    @Test
+    void getHelpText() {
+        assertSame(HelpMessage.HELP, msg1.getHelpText());
+        assertEquals(EXTRA_HELP + "\n" + HelpMessage.HELP, msg2.getHelpText());
+        // Built once, not every time it is asked for.
+        assertSame(msg2.getHelpText(), msg2.getHelpText());
+        assertEquals(EXTRA_HELP, msg2.getExtraHelp());
+    }
+
     @Test
     void testEquals() {
         assertTrue(msg1.equals(msg1));
@@ -56,6 +56,7 @@ class ListUsersMessageTest {
     @Test
     void getData() {
         assertEquals(0, msg.getData().length);
+        assertSame(msg.getData(), new ListUsersMessage("other user").getData());
     }
 
     @Test
@@ -55,6 +55,7 @@ class LogoutMessageTest {
     @Test
     void getData() {
         assertEquals(0, msg.getData().length);
+        assertSame(msg.getData(), new LogoutMessage("other user").getData());
     }
 
     @Test
@@ -0,0 +1,463 @@
+package tranquility_base.clack.message;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MessageCodecTest {
+
+    MessageCodec codec;
+    ByteBuffer buf;
+
+    final String USERNAME = "the user";
+
+    @BeforeEach
+    void setUp() {
+        codec = new MessageCodec();
+        buf = ByteBuffer.allocate(4096);
+    }
+
+    /** Encode msg, decode it again, and return the decoded copy. */
+    Message roundTrip(Message msg) {
+        int written = codec.encode(msg, buf);
+        assertEquals(written, buf.position());
+        buf.flip();
+        Message decoded = codec.decode(buf);
+        assertFalse(buf.hasRemaining());
+        buf.clear();
+        return decoded;
+    }
+
+    @Test
+    void roundTripTextMessage() {
+        TextMessage msg = new TextMessage(USERNAME, "Hello, world!");
+        Message decoded = roundTrip(msg);
+        assertEquals(msg, decoded);
+        assertEquals(msg.getTimestamp(), decoded.getTimestamp());
+        assertEquals(msg.getEpochNanos(), decoded.getEpochNanos());
+        assertEquals(msg.getSenderSequence(), decoded.getSenderSequence());
+        assertEquals("Hello, world!", ((TextMessage) decoded).getText());
+    }
+
+    @Test
+    void roundTripNonAsciiText() {
+        String text = "caf\u00e9 \u20ac \ud83d\ude00 \u00fc\u00df";
+        TextMessage decoded = (TextMessage) roundTrip(new TextMessage(USERNAME, text));
+        assertEquals(text, decoded.getText());
+    }
+
+    @Test
+    void roundTripFileMessage() {
+        FileMessage msg = new FileMessage(USERNAME, "/tmp/a.txt", "b.txt",
+                "line 1\nline 2", Message.getClock().epochNanos(), 1);
+        Message decoded = roundTrip(msg);
+        assertEquals(msg, decoded);
+        assertArrayEquals(msg.getData(), decoded.getData());
+    }
+
+    @Test
+    void roundTripFileChunkMessage() {
+        byte[] bytes = {0, 1, 2, (byte) 0xFF};
+        FileChunkMessage msg = new FileChunkMessage(USERNAME, "big.bin",
+                3, 300, 1000, bytes);
+        FileChunkMessage decoded = (FileChunkMessage) roundTrip(msg);
+        assertEquals(msg, decoded);
+        assertEquals(3, decoded.getSequence());
+        assertEquals(300, decoded.getOffset());
+        assertEquals(1000, decoded.getTotalLength());
+        assertEquals(4, decoded.getChunkLength());
+        assertEquals((byte) 0xFF, decoded.getChunk().get(3));
+        assertEquals(FileChunkMessage.NO_TRANSFER_ID, decoded.getTransferId());
+
+        FileChunkMessage resumable = new FileChunkMessage(USERNAME, "big.bin",
+                0x1234_5678_9abc_def0L, 3, 300, 1000, bytes);
+        assertEquals(0x1234_5678_9abc_def0L,
+                ((FileChunkMessage) roundTrip(resumable)).getTransferId());
+        assertNotEquals(msg, resumable);
+    }
+
+    @Test
+    void roundTripFileResumeMessage() {
+        FileResumeMessage question = new FileResumeMessage(USERNAME, "big.bin",
+                -42, 1000, new long[0]);
+        assertEquals(question, roundTrip(question));
+
+        FileResumeMessage answer = new FileResumeMessage(USERNAME, "big.bin",
+                -42, 1000, new long[]{0, 100, 500, 1000});
+        FileResumeMessage decoded = (FileResumeMessage) roundTrip(answer);
+        assertEquals(answer, decoded);
+        assertEquals(2, decoded.getRangeCount());
+        assertEquals(500, decoded.getRangeStart(1));
+        assertEquals(600, decoded.getBytesReceived());
+    }
+
+    @Test
+    void fileChunkHeaderThenBytes() {
+        byte[] bytes = {10, 20, 30};
+        FileChunkMessage msg = new FileChunkMessage(USERNAME, "big.bin",
+                1, 3, 6, bytes);
+        codec.encodeFileChunkHeader(USERNAME, msg.getEpochNanos(),
+                msg.getSenderSequence(), "big.bin", FileChunkMessage.NO_TRANSFER_ID,
+                1, 3, 6, bytes.length, buf);
+        // Incomplete until the chunk bytes follow the header.
+        buf.flip();
+        assertNull(codec.decode(buf));
+        buf.position(buf.limit());
+        buf.limit(buf.capacity());
+        buf.put(bytes);
+        buf.flip();
+        assertEquals(msg, codec.decode(buf));
+    }
+
+    @Test
+    void roundTripHelpMessage() {
+        HelpMessage msg = new HelpMessage(USERNAME, "some extra help");
+        Message decoded = roundTrip(msg);
+        assertEquals(msg, decoded);
+        assertEquals("some extra help", ((HelpMessage) decoded).getExtraHelp());
+    }
+
+    @Test
+    void roundTripListUsersAndLogout() {
+        ListUsersMessage list = new ListUsersMessage(USERNAME);
+        assertEquals(list, roundTrip(list));
+
+        LogoutMessage logout = new LogoutMessage(USERNAME);
+        assertEquals(logout, roundTrip(logout));
+    }
+
+    @Test
+    void roundTripFileManifestMessage() {
+        byte[] hashes = new byte[2 * FileManifestMessage.HASH_BYTES];
+        for (int i = 0; i < hashes.length; ++i) {
+            hashes[i] = (byte) i;
+        }
+        FileManifestMessage msg = new FileManifestMessage(USERNAME, "big.bin",
+                5000, new int[]{2000, 3000}, hashes);
+        FileManifestMessage decoded = (FileManifestMessage) roundTrip(msg);
+        assertEquals(msg, decoded);
+        assertEquals(3000, decoded.getChunkLength(1));
+        assertEquals(msg.getChunkHash(1), decoded.getChunkHash(1));
+    }
+
+    @Test
+    void roundTripFileChunkRequestMessage() {
+        FileChunkRequestMessage msg = new FileChunkRequestMessage(USERNAME,
+                "big.bin", new int[]{1, 5, 9});
+        assertEquals(msg, roundTrip(msg));
+
+        FileChunkRequestMessage none = new FileChunkRequestMessage(USERNAME,
+                "big.bin", new int[0]);
+        assertEquals(none, roundTrip(none));
+    }
+
+    @Test
+    void roundTripNullUsername() {
+        Message decoded = roundTrip(new LogoutMessage(null));
+        assertNull(decoded.getUsername());
+    }
+
+    @Test
+    void decodeDirectBuffer() {
+        buf = ByteBuffer.allocateDirect(4096);
+        TextMessage msg = new TextMessage(USERNAME, "direct");
+        assertEquals(msg, roundTrip(msg));
+    }
+
+    @Test
+    void decodeSeveralFrames() {
+        Message m1 = new TextMessage(USERNAME, "one");
+        Message m2 = new ListUsersMessage(USERNAME);
+        Message m3 = new TextMessage(USERNAME, "three");
+        codec.encode(m1, buf);
+        codec.encode(m2, buf);
+        codec.encode(m3, buf);
+        buf.flip();
+        assertEquals(m1, codec.decode(buf));
+        assertEquals(m2, codec.decode(buf));
+        assertEquals(m3, codec.decode(buf));
+        assertNull(codec.decode(buf));
+    }
+
+    @Test
+    void decodeIncompleteFrame() {
+        Message msg = new TextMessage(USERNAME, "not all here yet");
+        int written = codec.encode(msg, buf);
+        buf.flip();
+        buf.limit(written - 1);
+        assertNull(codec.decode(buf));
+        assertEquals(0, buf.position());
+
+        buf.limit(2);
+        assertNull(codec.decode(buf));
+        assertEquals(0, buf.position());
+
+        buf.limit(written);
+        assertEquals(msg, codec.decode(buf));
+    }
+
+    @Test
+    void decodedCopiesHashLikeOriginals() {
+        Message[] msgs = {
+                new TextMessage(USERNAME, "Hello"),
+                new FileMessage(USERNAME, "/tmp/a.txt", "b.txt", "contents",
+                        Message.getClock().epochNanos(), 1),
+                new FileChunkMessage(USERNAME, "big.bin", 0, 0, 3, new byte[]{1, 2, 3}),
+                new HelpMessage(USERNAME, "extra"),
+                new ListUsersMessage(USERNAME),
+                new LogoutMessage(USERNAME)
+        };
+        for (Message msg : msgs) {
+            Message decoded = roundTrip(msg);
+            assertNotSame(msg, decoded);
+            assertEquals(msg, decoded);
+            assertEquals(msg.hashCode(), decoded.hashCode());
+        }
+    }
+
+    @Test
+    void fileChunkEqualityComparesBytes() {
+        FileChunkMessage msg = new FileChunkMessage(USERNAME, "big.bin",
+                0, 0, 3, new byte[]{1, 2, 3});
+        FileChunkMessage same = (FileChunkMessage) roundTrip(msg);
+
+        // Same header, different bytes.
+        codec.encodeFileChunkHeader(USERNAME, msg.getEpochNanos(),
+                msg.getSenderSequence(), "big.bin", FileChunkMessage.NO_TRANSFER_ID,
+                0, 0, 3, 3, buf);
+        buf.put(new byte[]{1, 2, 4});
+        buf.flip();
+        FileChunkMessage different = (FileChunkMessage) codec.decode(buf);
+
+        assertEquals(msg, same);
+        assertNotEquals(msg, different);
+        // Again, now that the chunks' hashes have been computed.
+        assertEquals(msg.hashCode(), same.hashCode());
+        assertNotEquals(msg.hashCode(), different.hashCode());
+        assertEquals(msg, same);
+        assertNotEquals(msg, different);
+    }
+
+    @Test
+    void encodeOverflowRestoresPosition() {
+        buf = ByteBuffer.allocate(16);
+        buf.put((byte) 1);
+        assertThrows(BufferOverflowException.class,
+                () -> codec.encode(new TextMessage(USERNAME, "too long to fit"), buf));
+        assertEquals(1, buf.position());
+    }
+
+    @Test
+    void decodeBadFrames() {
+        buf.putInt(-5);
+        buf.flip();
+        assertThrows(IllegalArgumentException.class, () -> codec.decode(buf));
+
+        buf.clear();
+        buf.putInt(4).putInt(99);
+        buf.flip();
+        assertThrows(IllegalArgumentException.class, () -> codec.decode(buf));
+
+        // Frame claims a username longer than the frame itself.
+        buf.clear();
+        buf.putInt(24).putInt(Message.MSGTYPE_LOGOUT).putLong(0).putLong(0).putInt(100);
+        buf.flip();
+        assertThrows(IllegalArgumentException.class, () -> codec.decode(buf));
+    }
+
+    @Test
+    void roundTripOptionsMessage() {
+        OptionsMessage msg = new OptionsMessage(USERNAME, OptionsMessage.OPTION_COMPRESSION);
+        assertEquals(msg, roundTrip(msg));
+    }
+
+    @Test
+    void decodeHeaderSkipsRestOfFrame() {
+        TextMessage big = new TextMessage(USERNAME, compressibleText(40));
+        codec.encode(big, buf, true);
+        assertNotEquals(0, buf.getInt(MessageCodec.LENGTH_PREFIX_BYTES)
+                & MessageCodec.COMPRESSED_FLAG);
+        OptionsMessage small = new OptionsMessage(null, OptionsMessage.OPTION_COMPRESSION);
+        codec.encode(small, buf);
+        buf.flip();
+
+        MessageCodec.Header header = codec.decodeHeader(buf);
+        assertEquals(Message.MSGTYPE_TEXT, header.getMsgType());
+        assertEquals(big.getEpochNanos(), header.getEpochNanos());
+        assertEquals(big.getSenderSequence(), header.getSenderSequence());
+        assertEquals(USERNAME, header.getUsername());
+        header = codec.decodeHeader(buf);
+        assertEquals(Message.MSGTYPE_OPTIONS, header.getMsgType());
+        assertNull(header.getUsername());
+        assertFalse(buf.hasRemaining());
+        assertNull(codec.decodeHeader(buf));
+    }
+
+    @Test
+    void encodedLengthIsLengthWritten() {
+        Message[] messages = {
+                new TextMessage(USERNAME, "Hello, world!"),
+                new TextMessage(USERNAME, "h\u00e9llo \u4e16\u754c \ud83d\ude00 \ud800 \u0000"),
+                new TextMessage(USERNAME, null),
+                new FileMessage(USERNAME, "/tmp/a.txt", "b.txt", "contents", 0, 1),
+                new FileChunkMessage(USERNAME, "big.bin", 7, 3, 300, 1000, new byte[]{1, 2, 3}),
+                new FileChunkRequestMessage(USERNAME, "big.bin", new int[]{1, 5, 9}),
+                new FileResumeMessage(USERNAME, "big.bin", -42, 1000, new long[]{0, 100}),
+                new FileManifestMessage(USERNAME, "big.bin", 5000, new int[]{2000, 3000},
+                        new byte[2 * FileManifestMessage.HASH_BYTES]),
+                new HelpMessage(USERNAME, "some extra help"),
+                new OptionsMessage(USERNAME, OptionsMessage.OPTION_COMPRESSION),
+                new ListUsersMessage(USERNAME),
+                new LogoutMessage(null),
+        };
+        for (Message msg : messages) {
+            assertEquals(codec.encode(msg, buf), codec.encodedLength(msg), msg.toString());
+            buf.clear();
+        }
+    }
+
+    /** Text that compresses well, like the logs and source we send. */
+    static String compressibleText(int lines) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < lines; ++i) {
+            sb.append("2024-01-01 12:00:").append(i % 60)
+                    .append(" INFO  server: session ").append(i).append(" opened\n");
+        }
+        return sb.toString();
+    }
+
+    @Test
+    void compressedTextIsSmaller() {
+        TextMessage msg = new TextMessage(USERNAME, compressibleText(100));
+        buf = ByteBuffer.allocateDirect(16 * 1024);
+        int plain = codec.encode(msg, buf);
+        buf.clear();
+        int compressed = codec.encode(msg, buf, true);
+        assertTrue(compressed * 5 < plain, compressed + " vs " + plain);
+        assertEquals(Message.MSGTYPE_TEXT | MessageCodec.COMPRESSED_FLAG,
+                buf.getInt(MessageCodec.LENGTH_PREFIX_BYTES));
+
+        buf.flip();
+        assertEquals(msg, codec.decode(buf));
+        assertFalse(buf.hasRemaining());
+    }
+
+    @Test
+    void compressedFrameRefusedUnlessAccepted() {
+        TextMessage msg = new TextMessage(USERNAME, compressibleText(40));
+        codec.encode(msg, buf, true);
+        buf.flip();
+        assertThrows(IllegalArgumentException.class, () -> codec.decode(buf, false));
+        buf.rewind();
+        assertEquals(msg, codec.decode(buf, true));
+    }
+
+    @Test
+    void compressedFieldsMustMatchClaimedLength() {
+        TextMessage msg = new TextMessage(USERNAME, compressibleText(40));
+        codec.encode(msg, buf, true);
+        int fieldsStart = MessageCodec.LENGTH_PREFIX_BYTES + Integer.BYTES
+                + 2 * Long.BYTES + Integer.BYTES + USERNAME.length();
+        // A short frame claiming to inflate to the most a frame may
+        // hold is refused once its data runs out.
+        buf.putInt(fieldsStart, MessageCodec.MAX_FRAME_LENGTH);
+        buf.flip();
+        assertThrows(IllegalArgumentException.class, () -> codec.decode(buf));
+
+        // And the codec still works afterwards.
+        buf.clear();
+        codec.encode(msg, buf, true);
+        buf.flip();
+        assertEquals(msg, codec.decode(buf));
+    }
+
+    @Test
+    void largeFramesStillRoundTrip() {
+        // Bigger than the scratch arrays a codec keeps.
+        TextMessage msg = new TextMessage(USERNAME,
+                compressibleText(20 * MessageCodec.MAX_KEPT_SCRATCH / 50));
+        for (int i = 0; i < 2; i++) {
+            buf = ByteBuffer.allocate((int) codec.encodedLength(msg));
+            codec.encode(msg, buf, true);
+            buf.flip();
+            assertEquals(msg, codec.decode(buf));
+        }
+    }
+
+    @Test
+    void compressedFileRoundTrips() {
+        FileMessage msg = new FileMessage(USERNAME, "/tmp/log.txt", "log.txt",
+                compressibleText(200), Message.getClock().epochNanos(), 1);
+        buf = ByteBuffer.allocate(32 * 1024);
+        codec.encode(msg, buf, true);
+        codec.encode(new TextMessage(USERNAME, "next"), buf, true);
+        buf.flip();
+        assertEquals(msg, codec.decode(buf));
+        assertEquals("next", ((TextMessage) codec.decode(buf)).getText());
+    }
+
+    @Test
+    void onlyFramesOverThresholdAreCompressed() {
+        codec.encode(new TextMessage(USERNAME, "short"), buf, true);
+        assertEquals(Message.MSGTYPE_TEXT, buf.getInt(MessageCodec.LENGTH_PREFIX_BYTES));
+
+        // The text field is a 4-byte count, then the text.
+        int longest = MessageCodec.COMPRESSION_THRESHOLD - 4 - 1;
+        buf.clear();
+        codec.encode(new TextMessage(USERNAME, "x".repeat(longest)), buf, true);
+        assertEquals(Message.MSGTYPE_TEXT, buf.getInt(MessageCodec.LENGTH_PREFIX_BYTES));
+
+        buf.clear();
+        TextMessage msg = new TextMessage(USERNAME, "x".repeat(longest + 1));
+        codec.encode(msg, buf, true);
+        assertEquals(Message.MSGTYPE_TEXT | MessageCodec.COMPRESSED_FLAG,
+                buf.getInt(MessageCodec.LENGTH_PREFIX_BYTES));
+        buf.flip();
+        assertEquals(msg, codec.decode(buf));
+    }
+
+    @Test
+    void roomForPlainFrameIsEnoughToCompress() {
+        // However large, a frame fitting its buffer exactly, with no
+        // room to spare, still comes out compressed.
+        for (int lines : new int[]{30, 60, 100, 250, 500, 1000, 2000}) {
+            TextMessage msg = new TextMessage(USERNAME, compressibleText(lines));
+            int plain = codec.encode(msg, ByteBuffer.allocate(128 * 1024));
+            buf = ByteBuffer.allocate(plain);
+            int compressed = codec.encode(msg, buf, true);
+            assertTrue(compressed * 3 < plain, lines + ": " + compressed + " vs " + plain);
+            assertEquals(Message.MSGTYPE_TEXT | MessageCodec.COMPRESSED_FLAG,
+                    buf.getInt(MessageCodec.LENGTH_PREFIX_BYTES));
+            buf.flip();
+            assertEquals(msg, codec.decode(buf));
+        }
+    }
+
+    @Test
+    void decodeBadCompressedFrames() {
+        TextMessage msg = new TextMessage(USERNAME, compressibleText(100));
+        buf = ByteBuffer.allocate(16 * 1024);
+        codec.encode(msg, buf, true);
+        int frameEnd = buf.position();
+
+        // Wrong uncompressed length.
+        int lengthPos = MessageCodec.LENGTH_PREFIX_BYTES + 4 + 8 + 8 + 4 + USERNAME.length();
+        ByteBuffer bad = ByteBuffer.allocate(frameEnd);
+        bad.put(buf.duplicate().flip());
+        bad.putInt(lengthPos, bad.getInt(lengthPos) + 1);
+        bad.flip();
+        assertThrows(IllegalArgumentException.class, () -> codec.decode(bad));
+
+        // Corrupt compressed bytes.
+        ByteBuffer corrupt = ByteBuffer.allocate(frameEnd);
+        corrupt.put(buf.duplicate().flip());
+        corrupt.put(lengthPos + 4, (byte) 0xFF);
+        corrupt.put(lengthPos + 5, (byte) 0xFF);
+        corrupt.flip();
+        assertThrows(IllegalArgumentException.class, () -> codec.decode(corrupt));
+    }
+}
@@ -0,0 +1,131 @@
+package tranquility_base.clack.message;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MessageTest {
+
+    final String USERNAME = "the user";
+
+    @AfterEach
+    void restoreClock() {
+        Message.setClock(MessageClock.SYSTEM);
+    }
+
+    @Test
+    void timestampsComeFromClock() {
+        Message.setClock(() -> 1_234_567_890_123_456_789L);
+        Message msg = new TextMessage(USERNAME, "Hello");
+        assertEquals(1_234_567_890_123_456_789L, msg.getEpochNanos());
+        assertEquals(LocalDateTime.ofInstant(Instant.ofEpochSecond(1_234_567_890L, 123_456_789),
+                ZoneId.systemDefault()), msg.getTimestamp());
+        assertThrows(IllegalArgumentException.class, () -> Message.setClock(null));
+    }
+
+    @Test
+    void systemClockIsCloseToNow() {
+        long before = System.currentTimeMillis();
+        long nanos = MessageClock.SYSTEM.epochNanos();
+        long after = System.currentTimeMillis();
+        assertTrue(nanos / 1_000_000 >= before && nanos / 1_000_000 <= after);
+    }
+
+    @Test
+    void senderSequencesIncreasePerSender() {
+        SenderSequence sequence = new SenderSequence();
+        SenderSequence otherSequence = new SenderSequence();
+        Message first = new TextMessage("sequence user", "one", sequence);
+        Message other = new LogoutMessage("another sequence user", otherSequence);
+        Message second = new ListUsersMessage("sequence user", sequence);
+        Message third = new OptionsMessage("sequence user", 0, sequence);
+        assertEquals(1, first.getSenderSequence());
+        assertEquals(2, second.getSenderSequence());
+        assertEquals(3, third.getSenderSequence());
+        assertEquals(1, other.getSenderSequence());
+    }
+
+    @Test
+    void messagesWithoutSenderSequenceStillIncrease() {
+        Message first = new TextMessage("shared user", "one");
+        Message second = new HelpMessage("shared user");
+        assertTrue(second.getSenderSequence() > first.getSenderSequence());
+    }
+
+    @Test
+    void equalityIncludesSenderSequence() {
+        Message.setClock(() -> 42);
+        Message msg1 = new LogoutMessage(USERNAME);
+        Message msg2 = new LogoutMessage(USERNAME);
+        assertEquals(msg1.getTimestamp(), msg2.getTimestamp());
+        assertNotEquals(msg1, msg2);
+    }
+
+    @Test
+    void appendToMatchesToString() {
+        Message[] msgs = {
+                new TextMessage(USERNAME, "Hello"),
+                new FileMessage(USERNAME, "/tmp/a.txt", "b.txt", "contents",
+                        Message.getClock().epochNanos(), 1),
+                new FileChunkMessage(USERNAME, "big.bin", 1, 3, 6, new byte[]{1, 2, 3}),
+                new HelpMessage(USERNAME),
+                new HelpMessage(USERNAME, "extra"),
+                new ListUsersMessage(USERNAME),
+                new LogoutMessage(USERNAME)
+        };
+        StringBuilder sb = new StringBuilder();
+        for (Message msg : msgs) {
+            sb.setLength(0);
+            assertEquals(msg.toString(),
+                    msg.appendTo(sb, Integer.MAX_VALUE).toString());
+        }
+    }
+
+    @Test
+    void appendToFormatsTimestampsLikeToString() {
+        LocalDateTime[] timestamps = {
+                LocalDateTime.of(2024, 1, 2, 3, 4),
+                LocalDateTime.of(2024, 1, 2, 3, 4, 5),
+                LocalDateTime.of(2024, 12, 31, 23, 59, 0, 120_000_000),
+                LocalDateTime.of(2024, 12, 31, 23, 59, 59, 123_400_000),
+                LocalDateTime.of(1969, 6, 7, 8, 9, 10, 123_456_789),
+                LocalDateTime.of(1970, 1, 1, 0, 0)
+        };
+        StringBuilder sb = new StringBuilder();
+        for (LocalDateTime timestamp : timestamps) {
+            Instant instant = timestamp.atZone(ZoneId.systemDefault()).toInstant();
+            long epochNanos = instant.getEpochSecond() * MessageClock.NANOS_PER_SECOND
+                    + instant.getNano();
+            Message msg = new LogoutMessage(USERNAME, epochNanos, 1);
+            assertEquals(timestamp, msg.getTimestamp());
+            sb.setLength(0);
+            assertEquals(msg.toString(),
+                    msg.appendTo(sb, Integer.MAX_VALUE).toString());
+        }
+    }
+
+    @Test
+    void appendToTruncatesPayload() {
+        String contents = "x".repeat(1000);
+        FileMessage msg = new FileMessage(USERNAME, "/tmp/a.txt", "b.txt",
+                contents, Message.getClock().epochNanos(), 1);
+        String rendered = msg.appendTo(new StringBuilder(), 10).toString();
+        assertTrue(rendered.endsWith("|fileContents=xxxxxxxxxx...(990 more chars)}"),
+                rendered);
+
+        TextMessage text = new TextMessage(USERNAME, "short");
+        assertEquals(text.toString(), text.appendTo(new StringBuilder(), 5).toString());
+    }
+
+    @Test
+    void appendToDoesNotSplitSurrogatePairs() {
+        TextMessage msg = new TextMessage(USERNAME, "a\uD83D\uDE00b");
+        String rendered = msg.appendTo(new StringBuilder(), 2).toString();
+        assertTrue(rendered.endsWith("|text=a...(3 more chars)}"), rendered);
+    }
+}
@@ -0,0 +1,56 @@
+package tranquility_base.clack.message;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OptionsMessageTest {
+    OptionsMessage msg;
+
+    final String USERNAME = "the user";
+
+    @BeforeEach
+    void setUp() {
+        msg = new OptionsMessage(USERNAME, OptionsMessage.OPTION_COMPRESSION);
+    }
+
+    @Test
+    void getMsgType() {
+        assertEquals(Message.MSGTYPE_OPTIONS, msg.getMsgType());
+    }
+
+    @Test
+    void getOptions() {
+        assertEquals(OptionsMessage.OPTION_COMPRESSION, msg.getOptions());
+        assertTrue(msg.hasOption(OptionsMessage.OPTION_COMPRESSION));
+        assertFalse(new OptionsMessage(USERNAME, 0).hasOption(OptionsMessage.OPTION_COMPRESSION));
+    }
+
+    @Test
+    void testToString() {
+        String msgStr = "{class=OptionsMessage|"
+                + "timestamp=" + msg.getTimestamp()
+                + "|username=" + USERNAME
+                + "|options=1}";
+        assertEquals(msgStr, msg.toString());
+        assertEquals(msgStr, msg.appendTo(new StringBuilder(), 0).toString());
+    }
+
+    @Test
+    void getData() {
+        assertArrayEquals(new String[] {"1"}, msg.getData());
+    }
+
+    @Test
+    void testEquals() {
+        OptionsMessage same = new OptionsMessage(USERNAME, 1,
+                msg.getEpochNanos(), msg.getSenderSequence());
+        OptionsMessage other = new OptionsMessage(USERNAME, 0,
+                msg.getEpochNanos(), msg.getSenderSequence());
+        assertEquals(msg, same);
+        assertEquals(msg.hashCode(), same.hashCode());
+        assertNotEquals(msg, other);
+        assertFalse(msg.equals(null));
+    }
+}
@@ -0,0 +1,76 @@
+package tranquility_base.clack.transfer;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ChunkStoreTest {
+
+    static ByteBuffer hashOf(byte[] chunk) {
+        return ByteBuffer.wrap(ContentChunker.hash(ByteBuffer.wrap(chunk)));
+    }
+
+    @Test
+    void putThenGet() {
+        ChunkStore store = new ChunkStore(1000);
+        byte[] chunk = {1, 2, 3};
+        ByteBuffer hash = hashOf(chunk);
+        assertNull(store.get(hash));
+
+        store.put(hash, chunk);
+        assertSame(chunk, store.get(hashOf(chunk)));
+        assertEquals(1, store.getChunkCount());
+        assertEquals(3, store.getBytes());
+
+        // Putting it again changes nothing.
+        store.put(hash, chunk);
+        assertEquals(1, store.getChunkCount());
+        assertEquals(3, store.getBytes());
+    }
+
+    @Test
+    void keyIsCopied() {
+        ChunkStore store = new ChunkStore(1000);
+        byte[] chunk = {4, 5, 6};
+        byte[] hashBytes = ContentChunker.hash(ByteBuffer.wrap(chunk));
+        store.put(ByteBuffer.wrap(hashBytes), chunk);
+        hashBytes[0]++;
+        assertSame(chunk, store.get(hashOf(chunk)));
+    }
+
+    @Test
+    void leastRecentlyUsedIsEvicted() {
+        ChunkStore store = new ChunkStore(250);
+        byte[] a = new byte[100];
+        byte[] b = new byte[100];
+        byte[] c = new byte[100];
+        a[0] = 'a';
+        b[0] = 'b';
+        c[0] = 'c';
+        store.put(hashOf(a), a);
+        store.put(hashOf(b), b);
+        store.get(hashOf(a));           // now b is least recently used
+        store.put(hashOf(c), c);
+
+        assertSame(a, store.get(hashOf(a)));
+        assertNull(store.get(hashOf(b)));
+        assertSame(c, store.get(hashOf(c)));
+        assertEquals(200, store.getBytes());
+    }
+
+    @Test
+    void chunkBiggerThanStoreIsNotKept() {
+        ChunkStore store = new ChunkStore(10);
+        byte[] chunk = new byte[11];
+        store.put(hashOf(chunk), chunk);
+        assertNull(store.get(hashOf(chunk)));
+        assertEquals(0, store.getBytes());
+    }
+
+    @Test
+    void badCapacity() {
+        assertThrows(IllegalArgumentException.class, () -> new ChunkStore(-1));
+    }
+}
@@ -0,0 +1,143 @@
+package tranquility_base.clack.transfer;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import tranquility_base.clack.message.FileManifestMessage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ContentChunkerTest {
+
+    final String USERNAME = "the user";
+    final String SAVE_AS_NAME = "saved.bin";
+
+    Path tempDir;
+    Path testFile;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        tempDir = Files.createTempDirectory("clack-");
+        testFile = tempDir.resolve("content_chunker_test.bin");
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        Files.deleteIfExists(testFile);
+        Files.delete(tempDir);
+    }
+
+    static byte[] randomBytes(int length, long seed) {
+        byte[] bytes = new byte[length];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+
+    FileManifestMessage manifestOf(byte[] contents) throws IOException {
+        Files.write(testFile, contents);
+        return ContentChunker.manifest(USERNAME, testFile.toString(), SAVE_AS_NAME);
+    }
+
+    Set<ByteBuffer> hashesOf(FileManifestMessage manifest) {
+        Set<ByteBuffer> hashes = new HashSet<>();
+        for (int i = 0; i < manifest.getChunkCount(); ++i) {
+            hashes.add(manifest.getChunkHash(i));
+        }
+        return hashes;
+    }
+
+    @Test
+    void chunkSizesStayInBounds() throws IOException {
+        byte[] contents = randomBytes(1_000_000, 1);
+        FileManifestMessage manifest = manifestOf(contents);
+
+        assertEquals(SAVE_AS_NAME, manifest.getFileSaveAsName());
+        assertEquals(contents.length, manifest.getTotalLength());
+        long total = 0;
+        for (int i = 0; i < manifest.getChunkCount(); ++i) {
+            int length = manifest.getChunkLength(i);
+            assertTrue(length <= ContentChunker.MAX_CHUNK_SIZE);
+            if (i < manifest.getChunkCount() - 1) {
+                assertTrue(length >= ContentChunker.MIN_CHUNK_SIZE);
+            }
+            assertEquals(total, manifest.getChunkOffset(i));
+            total += length;
+        }
+        assertEquals(contents.length, total);
+        // Roughly the average size; allow plenty of slack.
+        int expected = contents.length / ContentChunker.AVERAGE_CHUNK_SIZE;
+        assertTrue(manifest.getChunkCount() > expected / 3);
+        assertTrue(manifest.getChunkCount() < expected * 3);
+    }
+
+    @Test
+    void hashesAreSha256OfChunks() throws Exception {
+        byte[] contents = randomBytes(100_000, 2);
+        FileManifestMessage manifest = manifestOf(contents);
+
+        MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+        for (int i = 0; i < manifest.getChunkCount(); ++i) {
+            sha256.update(contents, (int) manifest.getChunkOffset(i),
+                    manifest.getChunkLength(i));
+            assertEquals(ByteBuffer.wrap(sha256.digest()), manifest.getChunkHash(i));
+        }
+        assertArrayEquals(MessageDigest.getInstance("SHA-256").digest(contents),
+                ContentChunker.hash(ByteBuffer.wrap(contents)));
+    }
+
+    @Test
+    void sameContentSameChunks() throws IOException {
+        byte[] contents = randomBytes(200_000, 3);
+        FileManifestMessage first = manifestOf(contents);
+        FileManifestMessage second = manifestOf(contents);
+        assertEquals(hashesOf(first), hashesOf(second));
+    }
+
+    @Test
+    void insertionChangesFewChunks() throws IOException {
+        byte[] contents = randomBytes(500_000, 4);
+        FileManifestMessage original = manifestOf(contents);
+
+        // Insert a few bytes in the middle; boundaries after it
+        // should fall in the same places relative to the content.
+        byte[] edited = new byte[contents.length + 5];
+        System.arraycopy(contents, 0, edited, 0, 250_000);
+        System.arraycopy(contents, 250_000, edited, 250_005, 250_000);
+        FileManifestMessage changed = manifestOf(edited);
+
+        Set<ByteBuffer> originalHashes = hashesOf(original);
+        int differing = 0;
+        for (int i = 0; i < changed.getChunkCount(); ++i) {
+            if (!originalHashes.contains(changed.getChunkHash(i))) {
+                ++differing;
+            }
+        }
+        assertTrue(differing >= 1);
+        assertTrue(differing <= 3, differing + " chunks differ");
+    }
+
+    @Test
+    void emptyFileIsOneEmptyChunk() throws IOException {
+        FileManifestMessage manifest = manifestOf(new byte[0]);
+        assertEquals(0, manifest.getTotalLength());
+        assertEquals(1, manifest.getChunkCount());
+        assertEquals(0, manifest.getChunkLength(0));
+    }
+
+    @Test
+    void zerosAreCutAtMaximum() throws IOException {
+        // Content with no boundaries at all is cut at MAX_CHUNK_SIZE.
+        FileManifestMessage manifest = manifestOf(new byte[3 * ContentChunker.MAX_CHUNK_SIZE]);
+        assertEquals(3, manifest.getChunkCount());
+        assertEquals(1, hashesOf(manifest).size());
+    }
+}
@@ -0,0 +1,186 @@
+package tranquility_base.clack.transfer;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import tranquility_base.clack.message.FileChunkMessage;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FileAssemblerTest {
+
+    final String USERNAME = "the user";
+    final String SAVE_AS_NAME = "assembled.txt";
+    final String CONTENTS = "0123456789abcdefghijKLMNO";
+
+    Path tempDir;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        tempDir = Files.createTempDirectory("clack-");
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        Files.deleteIfExists(tempDir.resolve(SAVE_AS_NAME));
+        Files.deleteIfExists(tempDir.resolve(SAVE_AS_NAME + FileAssembler.PART_SUFFIX));
+        Files.deleteIfExists(tempDir.resolve(SAVE_AS_NAME + FileAssembler.PART_SUFFIX
+                + FileAssembler.RANGES_SUFFIX));
+        Files.delete(tempDir);
+    }
+
+    FileChunkMessage chunk(int sequence, int offset, int length) {
+        return chunk(FileChunkMessage.NO_TRANSFER_ID, sequence, offset, length);
+    }
+
+    FileChunkMessage chunk(long transferId, int sequence, int offset, int length) {
+        byte[] bytes = CONTENTS.substring(offset, offset + length)
+                .getBytes(StandardCharsets.US_ASCII);
+        return new FileChunkMessage(USERNAME, SAVE_AS_NAME, transferId, sequence,
+                offset, CONTENTS.length(), bytes);
+    }
+
+    @Test
+    void assemblesOutOfOrderChunks() throws IOException {
+        try (FileAssembler assembler = new FileAssembler(tempDir,
+                SAVE_AS_NAME, CONTENTS.length())) {
+            assertFalse(assembler.accept(chunk(2, 20, 5)));
+            assertFalse(assembler.accept(chunk(0, 0, 10)));
+            // Duplicate chunks are ignored.
+            assertFalse(assembler.accept(chunk(0, 0, 10)));
+            assertEquals(15, assembler.getBytesReceived());
+            assertTrue(assembler.accept(chunk(1, 10, 10)));
+            assertTrue(assembler.isComplete());
+        }
+        assertEquals(CONTENTS, Files.readString(tempDir.resolve(SAVE_AS_NAME)));
+    }
+
+    @Test
+    void assemblesInPartFileThenRenames() throws IOException {
+        try (FileAssembler assembler = new FileAssembler(tempDir,
+                SAVE_AS_NAME, CONTENTS.length())) {
+            assertFalse(assembler.accept(chunk(0, 0, 10)));
+            assertTrue(Files.exists(assembler.getPartPath()));
+            assertFalse(Files.exists(assembler.getSavePath()));
+            assertTrue(assembler.accept(chunk(1, 10, 15)));
+            assertFalse(Files.exists(assembler.getPartPath()));
+        }
+        assertEquals(CONTENTS, Files.readString(tempDir.resolve(SAVE_AS_NAME)));
+    }
+
+    @Test
+    void overlappingChunks() throws IOException {
+        // As when a resumed transfer cuts the rest of the file
+        // into chunks differently.
+        try (FileAssembler assembler = new FileAssembler(tempDir,
+                SAVE_AS_NAME, CONTENTS.length())) {
+            assertFalse(assembler.accept(chunk(0, 0, 12)));
+            assertFalse(assembler.accept(chunk(1, 8, 8)));
+            assertEquals(16, assembler.getBytesReceived());
+            assertArrayEquals(new long[]{0, 16}, assembler.getRangesReceived());
+            assertTrue(assembler.accept(chunk(1, 10, 15)));
+        }
+        assertEquals(CONTENTS, Files.readString(tempDir.resolve(SAVE_AS_NAME)));
+    }
+
+    @Test
+    void incompleteFileIsKeptAsPart() throws IOException {
+        Path partPath;
+        try (FileAssembler assembler = new FileAssembler(tempDir,
+                SAVE_AS_NAME, CONTENTS.length())) {
+            assembler.accept(chunk(0, 0, 10));
+            partPath = assembler.getPartPath();
+        }
+        assertEquals(tempDir.resolve(SAVE_AS_NAME + ".part"), partPath);
+        assertEquals(CONTENTS.substring(0, 10),
+                Files.readString(partPath).substring(0, 10));
+        assertFalse(Files.exists(tempDir.resolve(SAVE_AS_NAME)));
+    }
+
+    @Test
+    void resumableTransferCarriesOnFromPartFile() throws IOException {
+        Path rangesPath = tempDir.resolve(SAVE_AS_NAME + FileAssembler.PART_SUFFIX
+                + FileAssembler.RANGES_SUFFIX);
+        try (FileAssembler assembler = new FileAssembler(tempDir,
+                SAVE_AS_NAME, CONTENTS.length(), 42)) {
+            assertFalse(assembler.accept(chunk(42, 0, 0, 10)));
+            assertFalse(assembler.accept(chunk(42, 2, 20, 5)));
+        }
+        assertTrue(Files.exists(rangesPath));
+
+        // As when the receiver reconnects, and the sender carries on.
+        try (FileAssembler assembler = new FileAssembler(tempDir,
+                SAVE_AS_NAME, CONTENTS.length(), 42)) {
+            assertArrayEquals(new long[]{0, 10, 20, 25}, assembler.getRangesReceived());
+            assertTrue(assembler.accept(chunk(42, 1, 10, 10)));
+        }
+        assertEquals(CONTENTS, Files.readString(tempDir.resolve(SAVE_AS_NAME)));
+        assertFalse(Files.exists(rangesPath));
+    }
+
+    @Test
+    void rangesAreSavedPeriodicallyAndOnClose() throws IOException {
+        Path rangesPath = tempDir.resolve(SAVE_AS_NAME + FileAssembler.PART_SUFFIX
+                + FileAssembler.RANGES_SUFFIX);
+        try (FileAssembler assembler = new FileAssembler(tempDir,
+                SAVE_AS_NAME, CONTENTS.length(), 42)) {
+            for (int i = 1; i < FileAssembler.SAVE_RANGES_CHUNKS; i++) {
+                assembler.accept(chunk(42, 0, 0, 1));
+            }
+            assertFalse(Files.exists(rangesPath));
+            assembler.accept(chunk(42, 0, 0, 1));
+            // transfer ID, total length, and one range
+            assertEquals(4 * Long.BYTES, Files.size(rangesPath));
+            assertFalse(Files.exists(rangesPath.resolveSibling(
+                    rangesPath.getFileName() + ".tmp")));
+
+            assembler.accept(chunk(42, 1, 1, 9));
+        }
+        try (FileAssembler assembler = new FileAssembler(tempDir,
+                SAVE_AS_NAME, CONTENTS.length(), 42)) {
+            assertArrayEquals(new long[]{0, 10}, assembler.getRangesReceived());
+        }
+    }
+
+    @Test
+    void otherTransferStartsAfresh() throws IOException {
+        try (FileAssembler assembler = new FileAssembler(tempDir,
+                SAVE_AS_NAME, CONTENTS.length(), 42)) {
+            assembler.accept(chunk(42, 0, 0, 10));
+        }
+        try (FileAssembler assembler = new FileAssembler(tempDir,
+                SAVE_AS_NAME, CONTENTS.length(), 43)) {
+            assertEquals(0, assembler.getBytesReceived());
+            assertEquals(0, Files.size(assembler.getPartPath()));
+        }
+        try (FileAssembler assembler = new FileAssembler(tempDir,
+                SAVE_AS_NAME, CONTENTS.length())) {
+            assertEquals(0, assembler.getBytesReceived());
+        }
+    }
+
+    @Test
+    void emptyFile() throws IOException {
+        try (FileAssembler assembler = new FileAssembler(tempDir, SAVE_AS_NAME, 0)) {
+            assertFalse(assembler.isComplete());
+            assertTrue(assembler.accept(new FileChunkMessage(USERNAME,
+                    SAVE_AS_NAME, 0, 0, 0, new byte[0])));
+        }
+        assertEquals(0, Files.size(tempDir.resolve(SAVE_AS_NAME)));
+    }
+
+    @Test
+    void rejectsChunkForOtherFile() throws IOException {
+        try (FileAssembler assembler = new FileAssembler(tempDir,
+                SAVE_AS_NAME, CONTENTS.length())) {
+            FileChunkMessage other = new FileChunkMessage(USERNAME,
+                    "other.txt", 0, 0, CONTENTS.length(), new byte[1]);
+            assertThrows(IllegalArgumentException.class, () -> assembler.accept(other));
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package tranquility_base.clack.transfer;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import tranquility_base.clack.message.FileChunkMessage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FileChunkerTest {
+
+    final String USERNAME = "the user";
+    final String SAVE_AS_NAME = "saved.bin";
+
+    Path tempDir;
+    Path testFile;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        tempDir = Files.createTempDirectory("clack-");
+        testFile = tempDir.resolve("chunker_test.bin");
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        Files.deleteIfExists(testFile);
+        Files.delete(tempDir);
+    }
+
+    List<FileChunkMessage> readAllChunks(int chunkSize) throws IOException {
+        List<FileChunkMessage> chunks = new ArrayList<>();
+        try (FileChunker chunker = new FileChunker(USERNAME,
+                testFile.toString(), SAVE_AS_NAME, chunkSize)) {
+            FileChunkMessage chunk;
+            while ((chunk = chunker.nextChunk()) != null) {
+                chunks.add(chunk);
+            }
+        }
+        return chunks;
+    }
+
+    @Test
+    void splitsIntoChunks() throws IOException {
+        byte[] contents = new byte[25];
+        for (int i = 0; i < contents.length; ++i) {
+            contents[i] = (byte) i;
+        }
+        Files.write(testFile, contents);
+
+        List<FileChunkMessage> chunks = readAllChunks(10);
+        assertEquals(3, chunks.size());
+        for (int i = 0; i < chunks.size(); ++i) {
+            FileChunkMessage chunk = chunks.get(i);
+            assertEquals(USERNAME, chunk.getUsername());
+            assertEquals(SAVE_AS_NAME, chunk.getFileSaveAsName());
+            assertEquals(i, chunk.getSequence());
+            assertEquals(10L * i, chunk.getOffset());
+            assertEquals(25, chunk.getTotalLength());
+        }
+        assertEquals(5, chunks.get(2).getChunkLength());
+        ByteBuffer last = chunks.get(2).getChunk();
+        assertEquals(20, last.get(0));
+        assertEquals(24, last.get(4));
+    }
+
+    @Test
+    void emptyFileGivesOneEmptyChunk() throws IOException {
+        Files.write(testFile, new byte[0]);
+        List<FileChunkMessage> chunks = readAllChunks(10);
+        assertEquals(1, chunks.size());
+        assertEquals(0, chunks.get(0).getChunkLength());
+        assertEquals(0, chunks.get(0).getTotalLength());
+    }
+
+    @Test
+    void badChunkSize() throws IOException {
+        Files.write(testFile, new byte[1]);
+        assertThrows(IllegalArgumentException.class,
+                () -> new FileChunker(USERNAME, testFile.toString(), SAVE_AS_NAME, 0));
+    }
+}
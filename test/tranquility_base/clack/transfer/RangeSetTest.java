@@ -0,0 +1,67 @@
+package tranquility_base.clack.transfer;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RangeSetTest {
+
+    @Test
+    void addMergesOverlappingAndAdjacent() {
+        RangeSet set = new RangeSet();
+        assertEquals(10, set.add(0, 10));
+        assertEquals(10, set.add(20, 30));
+        assertEquals(2, set.getRangeCount());
+
+        // Overlaps the first, touches the second.
+        assertEquals(10, set.add(5, 20));
+        assertEquals(1, set.getRangeCount());
+        assertArrayEquals(new long[]{0, 30}, set.toArray());
+        assertEquals(30, set.getBytes());
+
+        // Nothing new.
+        assertEquals(0, set.add(3, 25));
+        assertEquals(0, set.add(7, 7));
+    }
+
+    @Test
+    void addSpanningSeveral() {
+        RangeSet set = new RangeSet(new long[]{10, 20, 30, 40, 50, 60});
+        assertEquals(30, set.getBytes());
+        assertEquals(20, set.add(15, 55));
+        assertArrayEquals(new long[]{10, 60}, set.toArray());
+    }
+
+    @Test
+    void covers() {
+        RangeSet set = new RangeSet();
+        assertTrue(set.covers(0));
+        assertFalse(set.covers(1));
+        set.add(1, 100);
+        assertFalse(set.covers(100));
+        set.add(0, 1);
+        assertTrue(set.covers(100));
+        assertFalse(set.covers(101));
+    }
+
+    @Test
+    void gaps() {
+        RangeSet set = new RangeSet();
+        assertArrayEquals(new long[]{0, 100}, set.gaps(100));
+        set.add(0, 10);
+        set.add(40, 50);
+        set.add(90, 120);
+        assertArrayEquals(new long[]{10, 40, 50, 90}, set.gaps(100));
+        assertArrayEquals(new long[]{10, 40}, set.gaps(45));
+        set.add(10, 90);
+        assertArrayEquals(new long[0], set.gaps(100));
+    }
+
+    @Test
+    void badRanges() {
+        RangeSet set = new RangeSet();
+        assertThrows(IllegalArgumentException.class, () -> set.add(-1, 5));
+        assertThrows(IllegalArgumentException.class, () -> set.add(5, 4));
+        assertThrows(IllegalArgumentException.class, () -> new RangeSet(new long[]{1}));
+    }
+}